@@ -21,6 +21,7 @@ package org.sonar.fortify;
 
 import org.sonar.api.SonarPlugin;
 import org.sonar.fortify.base.metrics.FortifyMetrics;
+import org.sonar.fortify.fvdl.FortifyReportRegistry;
 import org.sonar.fortify.fvdl.FortifySensor;
 import org.sonar.fortify.fvdl.FortifySensorConfiguration;
 import org.sonar.fortify.rule.FortifyRulesDefinition;
@@ -37,6 +38,7 @@ public final class FortifyPlugin extends SonarPlugin {
     return Arrays.asList(
       FortifyRulesDefinition.class,
       RulePackParser.class,
+      FortifyReportRegistry.class,
       FortifySensor.class,
       FortifySensorConfiguration.class,
       FortifyMetrics.class,
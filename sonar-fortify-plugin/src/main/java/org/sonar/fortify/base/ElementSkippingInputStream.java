@@ -0,0 +1,393 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.base;
+
+import com.google.common.base.Charsets;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Removes whole elements from an XML document before it reaches the StAX parser, so that their content is neither
+ * tokenized nor decoded. Elements are found by a raw scan of the bytes which only counts depth: tags, comments,
+ * CDATA sections, processing instructions and declarations are recognized, attribute values may contain '&gt;'.
+ * Elements are matched by local name, at any depth.
+ * <p>
+ * Only ASCII compatible encodings are filtered: UTF-16 documents are passed through unchanged.
+ */
+public class ElementSkippingInputStream extends FilterInputStream {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_NAME_LENGTH = 128;
+  private static final int COMMENT_END = ('-' << 16) | ('-' << 8) | '>';
+  private static final int CDATA_END = (']' << 16) | (']' << 8) | '>';
+  private static final int PI_END = ('?' << 8) | '>';
+  private static final int TWO_BYTES = 0xFFFF;
+  private static final int THREE_BYTES = 0xFFFFFF;
+
+  /**
+   * Skipped names indexed by length
+   */
+  private final byte[][][] skippedNames = new byte[MAX_NAME_LENGTH + 1][][];
+  private final byte[] input = new byte[BUFFER_SIZE];
+  private int inputPosition = 0;
+  private int inputLimit = 0;
+  private byte[] output = new byte[BUFFER_SIZE];
+  private int outputPosition = 0;
+  private int outputLimit = 0;
+  private final byte[] name = new byte[MAX_NAME_LENGTH];
+  private int nameLength;
+  private boolean nameTruncated;
+  // depth inside the skipped element, 0 when content is kept
+  private int skipDepth = 0;
+  private boolean started = false;
+  private boolean passThrough = false;
+
+  public ElementSkippingInputStream(InputStream in, Collection<String> skippedElements) {
+    super(in);
+    for (String element : skippedElements) {
+      byte[] bytes = element.getBytes(Charsets.US_ASCII);
+      if (bytes.length <= MAX_NAME_LENGTH) {
+        byte[][] sameLength = this.skippedNames[bytes.length];
+        sameLength = sameLength == null ? new byte[1][] : Arrays.copyOf(sameLength, sameLength.length + 1);
+        sameLength[sameLength.length - 1] = bytes;
+        this.skippedNames[bytes.length] = sameLength;
+      }
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    int count = read(b, 0, 1);
+    return count < 0 ? -1 : (b[0] & 0xFF);
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!this.started) {
+      start();
+    }
+    if (this.passThrough) {
+      if (this.inputPosition < this.inputLimit) {
+        int count = Math.min(len, this.inputLimit - this.inputPosition);
+        System.arraycopy(this.input, this.inputPosition, b, off, count);
+        this.inputPosition += count;
+        return count;
+      }
+      return this.in.read(b, off, len);
+    }
+    while (this.outputPosition == this.outputLimit) {
+      this.outputPosition = 0;
+      this.outputLimit = 0;
+      if (!process()) {
+        return -1;
+      }
+    }
+    int count = Math.min(len, this.outputLimit - this.outputPosition);
+    System.arraycopy(this.output, this.outputPosition, b, off, count);
+    this.outputPosition += count;
+    return count;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+    long skipped = 0;
+    while (skipped < n) {
+      int count = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+      if (count < 0) {
+        break;
+      }
+      skipped += count;
+    }
+    return skipped;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return this.outputLimit - this.outputPosition;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public synchronized void mark(int readlimit) {
+    // not supported
+  }
+
+  @Override
+  public synchronized void reset() throws IOException {
+    throw new IOException("mark/reset not supported");
+  }
+
+  private void start() throws IOException {
+    this.started = true;
+    while (this.inputLimit < 2 && fill()) {
+      // the first two bytes tell whether the document is in UTF-16
+    }
+    if (this.inputLimit >= 2) {
+      int first = this.input[0] & 0xFF;
+      int second = this.input[1] & 0xFF;
+      this.passThrough = (first == 0xFE && second == 0xFF) || (first == 0xFF && second == 0xFE) || (first == 0 && second == '<')
+        || (first == '<' && second == 0);
+    }
+  }
+
+  /**
+   * Reads more input, keeping the unread bytes.
+   * @return false at the end of the stream
+   */
+  private boolean fill() throws IOException {
+    if (this.inputPosition > 0) {
+      System.arraycopy(this.input, this.inputPosition, this.input, 0, this.inputLimit - this.inputPosition);
+      this.inputLimit -= this.inputPosition;
+      this.inputPosition = 0;
+    }
+    int count = this.in.read(this.input, this.inputLimit, this.input.length - this.inputLimit);
+    if (count > 0) {
+      this.inputLimit += count;
+    }
+    return count >= 0;
+  }
+
+  private int next() throws IOException {
+    while (this.inputPosition == this.inputLimit) {
+      if (!fill()) {
+        return -1;
+      }
+    }
+    return this.input[this.inputPosition++] & 0xFF;
+  }
+
+  /**
+   * Processes a run of text or a markup construct.
+   * @return false at the end of the stream
+   */
+  private boolean process() throws IOException {
+    if (this.inputPosition == this.inputLimit && !fill()) {
+      return false;
+    }
+    if (this.input[this.inputPosition] != '<') {
+      int end = this.inputPosition;
+      while (end < this.inputLimit && this.input[end] != '<') {
+        end++;
+      }
+      if (this.skipDepth == 0) {
+        emit(this.input, this.inputPosition, end - this.inputPosition);
+      }
+      this.inputPosition = end;
+      return true;
+    }
+    this.inputPosition++;
+    int c = next();
+    if (c == '!') {
+      processDeclaration();
+    } else if (c == '?') {
+      emit('<');
+      emit(c);
+      copyUntil(PI_END, TWO_BYTES);
+    } else if (c == '/') {
+      processEndTag();
+    } else if (c >= 0) {
+      processStartTag(c);
+    } else {
+      emit('<');
+    }
+    return true;
+  }
+
+  private void processDeclaration() throws IOException {
+    emit('<');
+    emit('!');
+    int c = next();
+    if (c < 0) {
+      return;
+    }
+    emit(c);
+    if (c == '-') {
+      // comment
+      copyUntil(COMMENT_END, THREE_BYTES);
+    } else if (c == '[') {
+      // CDATA section
+      copyUntil(CDATA_END, THREE_BYTES);
+    } else {
+      // DOCTYPE and its internal subset
+      int brackets = 0;
+      int quote = 0;
+      while ((c = next()) >= 0) {
+        emit(c);
+        if (quote != 0) {
+          quote = c == quote ? 0 : quote;
+        } else if (c == '"' || c == '\'') {
+          quote = c;
+        } else if (c == '[') {
+          brackets++;
+        } else if (c == ']') {
+          brackets--;
+        } else if (c == '>' && brackets <= 0) {
+          return;
+        }
+      }
+    }
+  }
+
+  private void processStartTag(int firstByte) throws IOException {
+    int c = readName(firstByte);
+    boolean emitted = this.skipDepth == 0 && !isSkipped();
+    if (emitted) {
+      emit('<');
+      emit(this.name, 0, this.nameLength);
+    }
+    int last = 0;
+    int quote = 0;
+    while (c >= 0) {
+      if (emitted) {
+        emit(c);
+      }
+      if (quote != 0) {
+        quote = c == quote ? 0 : quote;
+      } else if (c == '"' || c == '\'') {
+        quote = c;
+      } else if (c == '>') {
+        break;
+      } else if (c > ' ') {
+        last = c;
+      }
+      c = next();
+    }
+    boolean empty = last == '/';
+    if (!emitted && !empty) {
+      this.skipDepth++;
+    }
+  }
+
+  private void processEndTag() throws IOException {
+    int c = readName(next());
+    boolean emitted = this.skipDepth == 0;
+    if (emitted) {
+      emit('<');
+      emit('/');
+      emit(this.name, 0, this.nameLength);
+    } else {
+      this.skipDepth--;
+    }
+    while (c >= 0) {
+      if (emitted) {
+        emit(c);
+      }
+      if (c == '>') {
+        break;
+      }
+      c = next();
+    }
+  }
+
+  /**
+   * Reads the name of a tag.
+   * @return the byte following the name
+   */
+  private int readName(int firstByte) throws IOException {
+    this.nameLength = 0;
+    this.nameTruncated = false;
+    int c = firstByte;
+    while (c > ' ' && c != '>' && c != '/') {
+      if (this.nameLength < MAX_NAME_LENGTH) {
+        this.name[this.nameLength++] = (byte) c;
+      } else {
+        this.nameTruncated = true;
+      }
+      c = next();
+    }
+    return c;
+  }
+
+  private boolean isSkipped() {
+    if (this.nameTruncated) {
+      return false;
+    }
+    int start = 0;
+    for (int i = 0; i < this.nameLength; i++) {
+      if (this.name[i] == ':') {
+        start = i + 1;
+      }
+    }
+    byte[][] candidates = this.skippedNames[this.nameLength - start];
+    if (candidates == null) {
+      return false;
+    }
+    for (byte[] candidate : candidates) {
+      if (regionMatches(candidate, start)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean regionMatches(byte[] candidate, int start) {
+    for (int i = 0; i < candidate.length; i++) {
+      if (this.name[start + i] != candidate[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Copies bytes up to the terminator included, given as the last bytes of an int.
+   */
+  private void copyUntil(int terminator, int mask) throws IOException {
+    int window = 0;
+    int c;
+    while ((c = next()) >= 0) {
+      emit(c);
+      window = ((window << 8) | c) & mask;
+      if (window == terminator) {
+        return;
+      }
+    }
+  }
+
+  private void emit(int b) {
+    if (this.skipDepth > 0) {
+      return;
+    }
+    if (this.outputLimit == this.output.length) {
+      this.output = Arrays.copyOf(this.output, this.output.length * 2);
+    }
+    this.output[this.outputLimit++] = (byte) b;
+  }
+
+  private void emit(byte[] bytes, int offset, int length) {
+    if (this.outputLimit + length > this.output.length) {
+      this.output = Arrays.copyOf(this.output, Math.max(this.output.length * 2, this.outputLimit + length));
+    }
+    System.arraycopy(bytes, offset, this.output, this.outputLimit, length);
+    this.outputLimit += length;
+  }
+}
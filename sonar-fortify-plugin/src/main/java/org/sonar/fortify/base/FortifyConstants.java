@@ -30,9 +30,23 @@ import java.util.Locale;
 public class FortifyConstants {
 
   public static final String AUDIT_FVDL_FILE = "audit.fvdl";
+  public static final String AUDIT_XML_FILE = "audit.xml";
 
   public static final String REPORT_PATH_PROPERTY = "sonar.fortify.reportPath";
+  public static final String BASELINE_REPORT_PATH_PROPERTY = "sonar.fortify.baselineReportPath";
   public static final String RULEPACK_PATHS_PROPERTY = "sonar.fortify.rulepackPaths";
+  public static final String READ_BUFFER_SIZE_PROPERTY = "sonar.fortify.readBufferSize";
+  public static final String PARSER_THREADS_PROPERTY = "sonar.fortify.parserThreads";
+  public static final String READ_AHEAD_BUFFERS_PROPERTY = "sonar.fortify.readAheadBuffers";
+  public static final String REPORT_THREADS_PROPERTY = "sonar.fortify.reportThreads";
+  public static final String STAX_BACKEND_PROPERTY = "sonar.fortify.staxBackend";
+  public static final String PARSER_ENGINE_PROPERTY = "sonar.fortify.parserEngine";
+  public static final String TRACES_PROPERTY = "sonar.fortify.traces";
+  public static final String SNIPPETS_PROPERTY = "sonar.fortify.snippets";
+  public static final String IMPORT_FILTER_PROPERTY = "sonar.fortify.importFilter";
+  public static final String MEMORY_BUDGET_PROPERTY = "sonar.fortify.memoryBudget";
+  public static final String CACHE_DIRECTORY_PROPERTY = "sonar.fortify.cacheDirectory";
+  public static final String CACHE_SIZE_PROPERTY = "sonar.fortify.cacheSize";
 
   private FortifyConstants() {
     // only static stuff
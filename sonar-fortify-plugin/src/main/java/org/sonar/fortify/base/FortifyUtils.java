@@ -21,33 +21,97 @@ package org.sonar.fortify.base;
 
 import org.codehaus.staxmate.SMInputFactory;
 import org.sonar.api.rule.Severity;
+import org.sonar.api.utils.MessageException;
 
 import javax.xml.stream.FactoryConfigurationError;
 import javax.xml.stream.XMLInputFactory;
 
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 public final class FortifyUtils {
   private static final double BLOCKER_SEVERITY_THRESHOLD = 4.0;
   private static final double CRITICAL_SEVERITY_THRESHOLD = 3.0;
   private static final double MAJOR_SEVERITY_THRESHOLD = 2.0;
   private static final double MINOR_SEVERITY_THRESHOLD = 1.0;
+  private static final String WOODSTOX_INPUT_BUFFER_LENGTH = "com.ctc.wstx.inputBufferLength";
+  private static final ConcurrentMap<String, SMInputFactory> STAX_FACTORIES = new ConcurrentHashMap<String, SMInputFactory>();
 
   private FortifyUtils() {
     // only static stuff
   }
 
-  public static SMInputFactory newStaxParser() throws FactoryConfigurationError {
-    XMLInputFactory xmlFactory = XMLInputFactory.newInstance();
-    xmlFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+  /**
+   * Factories are configured once and shared: creating stream readers from a configured factory is thread-safe.
+   */
+  public static SMInputFactory getStaxParser(StaxBackend backend, StaxProfile profile) throws FactoryConfigurationError {
+    String key = backend.name() + "/" + profile.name();
+    SMInputFactory factory = STAX_FACTORIES.get(key);
+    if (factory == null) {
+      factory = new SMInputFactory(newXmlInputFactory(backend, profile));
+      SMInputFactory previous = STAX_FACTORIES.putIfAbsent(key, factory);
+      if (previous != null) {
+        factory = previous;
+      }
+    }
+    return factory;
+  }
+
+  private static XMLInputFactory newXmlInputFactory(StaxBackend backend, StaxProfile profile) {
+    XMLInputFactory xmlFactory = instantiate(backend);
+    xmlFactory.setProperty(XMLInputFactory.IS_COALESCING, profile.isCoalescing());
     xmlFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
     // just so it won't try to load DTD in if there's DOCTYPE
     xmlFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
     xmlFactory.setProperty(XMLInputFactory.IS_VALIDATING, Boolean.FALSE);
-    return new SMInputFactory(xmlFactory);
+    if (profile.getInputBufferLength() > 0 && xmlFactory.isPropertySupported(WOODSTOX_INPUT_BUFFER_LENGTH)) {
+      xmlFactory.setProperty(WOODSTOX_INPUT_BUFFER_LENGTH, profile.getInputBufferLength());
+    }
+    return xmlFactory;
+  }
+
+  private static XMLInputFactory instantiate(StaxBackend backend) {
+    if (backend == StaxBackend.JDK) {
+      return newJdkXmlInputFactory();
+    }
+    String className = backend.getFactoryClassName();
+    if (className == null) {
+      return XMLInputFactory.newInstance();
+    }
+    try {
+      return (XMLInputFactory) Class.forName(className, true, FortifyUtils.class.getClassLoader()).newInstance();
+    } catch (ClassNotFoundException e) {
+      throw MessageException.of("StAX backend " + backend.name().toLowerCase(Locale.ENGLISH) + " is not available: " + className + " is not in the classpath");
+    } catch (InstantiationException e) {
+      throw new IllegalStateException("Unable to instantiate " + className, e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("Unable to instantiate " + className, e);
+    }
+  }
+
+  /**
+   * The class of the JDK implementation is internal and can not be instantiated by name since Java 9. It is the fallback of
+   * {@link XMLInputFactory#newFactory()} when the service loader finds no implementation: the lookup is done with the parent
+   * of the system class loader as context class loader, which only sees the JDK and not Woodstox.
+   */
+  private static XMLInputFactory newJdkXmlInputFactory() {
+    Thread thread = Thread.currentThread();
+    ClassLoader contextClassLoader = thread.getContextClassLoader();
+    thread.setContextClassLoader(ClassLoader.getSystemClassLoader().getParent());
+    try {
+      return XMLInputFactory.newFactory();
+    } finally {
+      thread.setContextClassLoader(contextClassLoader);
+    }
   }
 
   public static String fortifyToSonarQubeSeverity(String fortifySeverity) {
+    return fortifyToSonarQubeSeverity(Double.parseDouble(fortifySeverity));
+  }
+
+  public static String fortifyToSonarQubeSeverity(double level) {
     String severity;
-    Double level = Double.valueOf(fortifySeverity);
     if (level >= FortifyUtils.BLOCKER_SEVERITY_THRESHOLD) {
       severity = Severity.BLOCKER;
     } else if (level >= FortifyUtils.CRITICAL_SEVERITY_THRESHOLD) {
@@ -0,0 +1,53 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.base;
+
+import org.apache.commons.lang.StringUtils;
+import org.sonar.api.utils.MessageException;
+
+import javax.annotation.Nullable;
+
+import java.util.Locale;
+
+/**
+ * Engines reading FVDL reports, which can be selected with {@link FortifyConstants#PARSER_ENGINE_PROPERTY}.
+ */
+public enum ParserEngine {
+  /**
+   * StAX parser of {@link FortifyConstants#STAX_BACKEND_PROPERTY}, used for all reports
+   */
+  STAX,
+  /**
+   * Byte-level scanner of memory-mapped files, used for plain UTF-8 FVDL files. Other reports are read with StAX.
+   */
+  SCANNER;
+
+  public static ParserEngine fromKey(@Nullable String key) {
+    if (StringUtils.isBlank(key)) {
+      return STAX;
+    }
+    try {
+      return valueOf(StringUtils.trim(key).toUpperCase(Locale.ENGLISH));
+    } catch (IllegalArgumentException e) {
+      throw MessageException.of("Unknown parser engine \"" + key + "\". Please check property " + FortifyConstants.PARSER_ENGINE_PROPERTY
+        + ", supported values are: stax, scanner");
+    }
+  }
+}
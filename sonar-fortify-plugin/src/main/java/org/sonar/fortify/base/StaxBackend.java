@@ -0,0 +1,70 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.base;
+
+import org.apache.commons.lang.StringUtils;
+import org.sonar.api.utils.MessageException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import java.util.Locale;
+
+/**
+ * StAX implementations which can be selected with {@link FortifyConstants#STAX_BACKEND_PROPERTY}.
+ */
+public enum StaxBackend {
+  /**
+   * Implementation found by {@link javax.xml.stream.XMLInputFactory#newInstance()}, depends on the classpath
+   */
+  DEFAULT(null),
+  /**
+   * SJSXP, bundled with the JDK. Its class is internal to the JDK, so it is not loaded by name but returned by
+   * {@link javax.xml.stream.XMLInputFactory#newFactory()} as the system-default implementation.
+   */
+  JDK(null),
+  /**
+   * Woodstox, packaged with the plugin
+   */
+  WOODSTOX("com.ctc.wstx.stax.WstxInputFactory");
+
+  private final String factoryClassName;
+
+  StaxBackend(@Nullable String factoryClassName) {
+    this.factoryClassName = factoryClassName;
+  }
+
+  @CheckForNull
+  String getFactoryClassName() {
+    return this.factoryClassName;
+  }
+
+  public static StaxBackend fromKey(@Nullable String key) {
+    if (StringUtils.isBlank(key)) {
+      return DEFAULT;
+    }
+    try {
+      return valueOf(StringUtils.trim(key).toUpperCase(Locale.ENGLISH));
+    } catch (IllegalArgumentException e) {
+      throw MessageException.of("Unknown StAX backend \"" + key + "\". Please check property " + FortifyConstants.STAX_BACKEND_PROPERTY
+        + ", supported values are: default, jdk, woodstox");
+    }
+  }
+}
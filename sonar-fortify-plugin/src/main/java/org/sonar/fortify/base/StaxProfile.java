@@ -0,0 +1,53 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.base;
+
+/**
+ * Parser settings tuned for each kind of document.
+ */
+public enum StaxProfile {
+  /**
+   * FVDL reports are huge and most of their text is skipped: text is not coalesced and larger buffers are used.
+   */
+  FVDL(false, 64 * 1024),
+  /**
+   * Rule packs are small and their descriptions are fully read.
+   */
+  RULE_PACK(true, 0);
+
+  private final boolean coalescing;
+  private final int inputBufferLength;
+
+  StaxProfile(boolean coalescing, int inputBufferLength) {
+    this.coalescing = coalescing;
+    this.inputBufferLength = inputBufferLength;
+  }
+
+  boolean isCoalescing() {
+    return this.coalescing;
+  }
+
+  /**
+   * Size in characters of the input buffer, 0 to keep the default of the implementation.
+   */
+  int getInputBufferLength() {
+    return this.inputBufferLength;
+  }
+}
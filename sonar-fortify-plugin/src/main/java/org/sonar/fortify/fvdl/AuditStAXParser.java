@@ -0,0 +1,78 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import org.codehaus.staxmate.SMInputFactory;
+import org.codehaus.staxmate.in.SMHierarchicCursor;
+import org.codehaus.staxmate.in.SMInputCursor;
+import org.sonar.fortify.base.FortifyUtils;
+import org.sonar.fortify.base.StaxBackend;
+import org.sonar.fortify.base.StaxProfile;
+
+import javax.xml.stream.XMLStreamException;
+
+import java.io.InputStream;
+
+/**
+ * Reads the audit.xml entry of a FPR archive, which holds the decisions of the analysts on the vulnerabilities of audit.fvdl.
+ */
+class AuditStAXParser {
+  private final StaxBackend backend;
+
+  AuditStAXParser(StaxBackend backend) {
+    this.backend = backend;
+  }
+
+  /**
+   * Instance ids of the &lt;Issue&gt; elements flagged as suppressed. Only attributes are read: comments and tags are skipped.
+   */
+  FingerprintSet parseSuppressedInstanceIDs(InputStream inputStream) {
+    FingerprintSet suppressed = new FingerprintSet();
+    SMInputFactory inputFactory = FortifyUtils.getStaxParser(this.backend, StaxProfile.FVDL);
+    try {
+      SMHierarchicCursor rootC = inputFactory.rootElementCursor(inputStream);
+      rootC.advance(); // <Audit>
+      SMInputCursor issueListCursor = rootC.childElementCursor();
+      while (issueListCursor.getNext() != null) {
+        if (!"IssueList".equals(localName(issueListCursor))) {
+          continue;
+        }
+        SMInputCursor issueCursor = issueListCursor.childElementCursor();
+        while (issueCursor.getNext() != null) {
+          if ("Issue".equals(localName(issueCursor)) && "true".equalsIgnoreCase(issueCursor.getAttrValue("suppressed"))) {
+            suppressed.add(issueCursor.getAttrValue("instanceId"));
+          }
+        }
+      }
+    } catch (XMLStreamException e) {
+      throw new IllegalStateException("XML is not valid", e);
+    }
+    return suppressed;
+  }
+
+  /**
+   * Name of the element without its prefix: namespaces are not processed, and audit.xml entries written by Fortify
+   * prefix their elements, such as <code>&lt;ns2:Issue&gt;</code>.
+   */
+  private static String localName(SMInputCursor cursor) throws XMLStreamException {
+    String name = cursor.getLocalName();
+    return name.substring(name.indexOf(':') + 1);
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable pool of chars, kept in an array until it is moved to a {@link SpillFile}, where it is stored in mapped pages.
+ */
+final class CharColumn {
+  private static final int PAGE_SHIFT = 16;
+  private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+  private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+  private char[] values;
+  private CharBuffer[] pages;
+  private SpillFile spillFile;
+
+  CharColumn(int initialCapacity) {
+    this.values = new char[initialCapacity];
+  }
+
+  char get(int index) {
+    char[] array = this.values;
+    return array != null ? array[index] : this.pages[index >>> PAGE_SHIFT].get(index & PAGE_MASK);
+  }
+
+  /**
+   * Copies the chars of the value at the given offset.
+   */
+  void set(int offset, String value) {
+    int length = value.length();
+    if (this.values != null) {
+      value.getChars(0, length, this.values, offset);
+    } else {
+      for (int i = 0; i < length; i++) {
+        int index = offset + i;
+        this.pages[index >>> PAGE_SHIFT].put(index & PAGE_MASK, value.charAt(i));
+      }
+    }
+  }
+
+  String getString(int offset, int length) {
+    if (this.values != null) {
+      return new String(this.values, offset, length);
+    }
+    char[] copy = new char[length];
+    for (int i = 0; i < length; i++) {
+      copy[i] = get(offset + i);
+    }
+    return new String(copy);
+  }
+
+  int capacity() {
+    return this.values != null ? this.values.length : (int) Math.min(Integer.MAX_VALUE, (long) this.pages.length << PAGE_SHIFT);
+  }
+
+  void ensureCapacity(int minCapacity) {
+    if (minCapacity <= capacity()) {
+      return;
+    }
+    if (this.values != null) {
+      this.values = Arrays.copyOf(this.values, Math.max(minCapacity, this.values.length + (this.values.length >> 1)));
+    } else {
+      addPages(minCapacity);
+    }
+  }
+
+  /**
+   * Bytes used on the heap
+   */
+  long heapBytes() {
+    return this.values == null ? 0L : (2L * this.values.length);
+  }
+
+  /**
+   * Moves the chars to mapped pages of the file, the heap array is released.
+   */
+  void spill(SpillFile file) {
+    if (this.values == null) {
+      return;
+    }
+    char[] array = this.values;
+    this.spillFile = file;
+    this.pages = new CharBuffer[0];
+    addPages(Math.max(1, array.length));
+    this.values = null;
+    for (int page = 0; page << PAGE_SHIFT < array.length; page++) {
+      int start = page << PAGE_SHIFT;
+      this.pages[page].put(array, start, Math.min(PAGE_SIZE, array.length - start));
+      this.pages[page].clear();
+    }
+  }
+
+  private void addPages(int minCapacity) {
+    int pageCount = (int) ((minCapacity + (long) PAGE_MASK) >>> PAGE_SHIFT);
+    int first = this.pages.length;
+    this.pages = Arrays.copyOf(this.pages, Math.max(pageCount, first));
+    for (int page = first; page < this.pages.length; page++) {
+      this.pages[page] = this.spillFile.allocate(2 * PAGE_SIZE).asCharBuffer();
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import javax.annotation.CheckForNull;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Minimal pull access to the elements of a XML document, enough to read the shallow structure of FVDL reports.
+ * The reader is either on the start of an element or on its end.
+ */
+interface ElementReader {
+  long NO_OFFSET = -1;
+
+  /**
+   * Moves to the next child element of the current element, or to the end of the current element.
+   * The reader must be on the start of the parent or on the end of the previous child.
+   * @return false at the end of the parent
+   */
+  boolean nextChild() throws XMLStreamException;
+
+  /**
+   * Whether the local name of the current element is the given one
+   */
+  boolean isElement(String localName) throws XMLStreamException;
+
+  /**
+   * Whether the local name of the current element is the given one, ignoring case
+   */
+  boolean isElementIgnoreCase(String localName) throws XMLStreamException;
+
+  /**
+   * Byte offset in the document of the start tag of the current element, {@link #NO_OFFSET} if the reader does not know
+   * the offsets. The reader must be on the start of the element.
+   */
+  long getStartOffset();
+
+  /**
+   * Byte offset in the document which follows the end of the current element, {@link #NO_OFFSET} if the reader does not
+   * know the offsets. The reader must be on the end of the element.
+   */
+  long getEndOffset();
+
+  /**
+   * Moves from the start of the current element to its end
+   */
+  void skipElement() throws XMLStreamException;
+
+  /**
+   * Text content of the current element, from its start to its end
+   */
+  String getElementText() throws XMLStreamException;
+
+  double getElementAsDouble() throws XMLStreamException;
+
+  /**
+   * Value of an attribute of the current element, null if the element has no such attribute
+   */
+  @CheckForNull
+  String getAttribute(String localName) throws XMLStreamException;
+
+  /**
+   * @return the default value if the element has no such attribute or if the value is not an integer
+   */
+  int getAttributeAsInt(String localName, int defaultValue) throws XMLStreamException;
+
+  /**
+   * @return false if the element has no such attribute or if the value is not a boolean
+   */
+  boolean getAttributeAsBoolean(String localName) throws XMLStreamException;
+}
@@ -0,0 +1,61 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import java.io.File;
+
+/**
+ * Contiguous range of bytes of a file, such as the data of an entry stored without compression in a FPR archive.
+ */
+class FileRegion {
+  private final File file;
+  private final long offset;
+  private final long length;
+
+  FileRegion(File file, long offset, long length) {
+    this.file = file;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * The whole file
+   */
+  static FileRegion of(File file) {
+    return new FileRegion(file, 0, file.length());
+  }
+
+  File getFile() {
+    return this.file;
+  }
+
+  long getOffset() {
+    return this.offset;
+  }
+
+  long getLength() {
+    return this.length;
+  }
+
+  @Override
+  public String toString() {
+    return this.file + "[" + this.offset + ", " + (this.offset + this.length) + "[";
+  }
+}
@@ -0,0 +1,464 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.fortify.fvdl.element.Build;
+import org.sonar.fortify.fvdl.element.Description;
+import org.sonar.fortify.fvdl.element.ReplacementDefinition;
+import org.sonar.fortify.fvdl.element.Vulnerability;
+import org.sonar.fortify.fvdl.element.VulnerabilityClass;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact storage of the vulnerabilities of a report, one primitive column per attribute. Repeated values
+ * (paths, classifications, severities, replacement keys) are stored once in dictionaries; instance ids and
+ * replacement values are stored in a shared char pool. Findings are read back through a {@link Cursor}.
+ * <p>
+ * When a memory budget is given, the columns are moved to a memory-mapped file of the working directory as soon as
+ * they need more heap than the budget, and the store keeps growing in that file.
+ */
+class FindingStore implements VulnerabilityRecordHandler, Closeable {
+  static final int NO_LINE = Vulnerability.NO_LINE;
+  private static final Logger LOG = LoggerFactory.getLogger(FindingStore.class);
+  private static final int NONE = -1;
+  private static final int INITIAL_CAPACITY = 256;
+
+  private final Dictionary<String> paths = new Dictionary<String>();
+  private final Dictionary<VulnerabilityClass> classes = new Dictionary<VulnerabilityClass>();
+  private final Dictionary<String> severities = new Dictionary<String>();
+  private final Dictionary<String> replacementKeys = new Dictionary<String>();
+
+  private int size = 0;
+  private final IntColumn ordinals = new IntColumn(INITIAL_CAPACITY);
+  private final IntColumn lines = new IntColumn(INITIAL_CAPACITY);
+  private final IntColumn pathIds = new IntColumn(INITIAL_CAPACITY);
+  private final IntColumn classIds = new IntColumn(INITIAL_CAPACITY);
+  private final IntColumn severityIds = new IntColumn(INITIAL_CAPACITY);
+  private final IntColumn instanceIdOffsets = new IntColumn(INITIAL_CAPACITY);
+  private final IntColumn instanceIdLengths = new IntColumn(INITIAL_CAPACITY);
+  private final IntColumn snippetIdOffsets = new IntColumn(INITIAL_CAPACITY);
+  private final IntColumn snippetIdLengths = new IntColumn(INITIAL_CAPACITY);
+  /**
+   * Replacements of finding i are in [replacementStarts[i], replacementStarts[i + 1])
+   */
+  private final IntColumn replacementStarts = new IntColumn(INITIAL_CAPACITY + 1);
+
+  private int replacementCount = 0;
+  private final IntColumn replacementKeyIds = new IntColumn(INITIAL_CAPACITY);
+  private final IntColumn replacementValueOffsets = new IntColumn(INITIAL_CAPACITY);
+  private final IntColumn replacementValueLengths = new IntColumn(INITIAL_CAPACITY);
+
+  private int charCount = 0;
+  private final CharColumn chars = new CharColumn(INITIAL_CAPACITY * 32);
+
+  private final IntColumn[] findingColumns = {this.ordinals, this.lines, this.pathIds, this.classIds, this.severityIds,
+    this.instanceIdOffsets, this.instanceIdLengths, this.snippetIdOffsets, this.snippetIdLengths};
+  private final IntColumn[] replacementColumns = {this.replacementKeyIds, this.replacementValueOffsets, this.replacementValueLengths};
+
+  private final long memoryBudget;
+  private final File workDir;
+  private SpillFile spillFile;
+
+  /**
+   * Store kept on the heap whatever its size
+   */
+  FindingStore() {
+    this(0L, null);
+  }
+
+  /**
+   * @param memoryBudget heap bytes of the columns above which they are moved to a temporary file, 0 for no limit
+   * @param workDir directory of the temporary file
+   */
+  FindingStore(long memoryBudget, @Nullable File workDir) {
+    this.memoryBudget = memoryBudget;
+    this.workDir = workDir;
+  }
+
+  @Override
+  public void onBuild(Build build) {
+    // not a finding
+  }
+
+  @Override
+  public void onDescription(Description description) {
+    // not a finding
+  }
+
+  @Override
+  public void onVulnerability(Vulnerability vulnerability) {
+    add(vulnerability);
+  }
+
+  void add(Vulnerability vulnerability) {
+    ensureCapacity(this.size + 1);
+    int index = this.size;
+    this.ordinals.set(index, vulnerability.getOrdinal());
+    this.lines.set(index, vulnerability.getLineNumber());
+    this.pathIds.set(index, this.paths.idOf(vulnerability.getPath()));
+    this.classIds.set(index, this.classes.idOf(vulnerability.getVulnerabilityClass()));
+    this.severityIds.set(index, this.severities.idOf(vulnerability.getInstanceSeverity()));
+    String instanceID = vulnerability.getInstanceID();
+    this.instanceIdOffsets.set(index, appendChars(instanceID));
+    this.instanceIdLengths.set(index, instanceID == null ? NONE : instanceID.length());
+    String snippetID = vulnerability.getSnippetID();
+    this.snippetIdOffsets.set(index, appendChars(snippetID));
+    this.snippetIdLengths.set(index, snippetID == null ? NONE : snippetID.length());
+    for (ReplacementDefinition replacementDefinition : vulnerability.getReplacementDefinitions()) {
+      addReplacement(replacementDefinition);
+    }
+    this.size++;
+    this.replacementStarts.set(this.size, this.replacementCount);
+  }
+
+  private void addReplacement(ReplacementDefinition replacementDefinition) {
+    if (this.replacementCount == this.replacementKeyIds.capacity()) {
+      for (IntColumn column : this.replacementColumns) {
+        column.ensureCapacity(this.replacementCount + 1);
+      }
+      checkMemoryBudget();
+    }
+    String value = replacementDefinition.getValue();
+    this.replacementKeyIds.set(this.replacementCount, this.replacementKeys.idOf(replacementDefinition.getKey()));
+    this.replacementValueOffsets.set(this.replacementCount, appendChars(value));
+    this.replacementValueLengths.set(this.replacementCount, value == null ? NONE : value.length());
+    this.replacementCount++;
+  }
+
+  private int appendChars(@Nullable String value) {
+    int offset = this.charCount;
+    if (value != null) {
+      int end = endOfChars(this.charCount, value.length());
+      if (end > this.chars.capacity()) {
+        this.chars.ensureCapacity(end);
+        checkMemoryBudget();
+      }
+      this.chars.set(this.charCount, value);
+      this.charCount = end;
+    }
+    return offset;
+  }
+
+  /**
+   * Offset which follows chars appended at the given offset: offsets are ints, the chars of the findings can not exceed
+   * {@link Integer#MAX_VALUE}.
+   */
+  static int endOfChars(int offset, int length) {
+    long end = (long) offset + length;
+    if (end > Integer.MAX_VALUE) {
+      throw new IllegalStateException("Fortify findings hold more than " + Integer.MAX_VALUE
+        + " chars of instance ids, snippet ids and replacement values: restrict the import filter of the report");
+    }
+    return (int) end;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > this.lines.capacity()) {
+      for (IntColumn column : this.findingColumns) {
+        column.ensureCapacity(capacity);
+      }
+      this.replacementStarts.ensureCapacity(this.lines.capacity() + 1);
+      checkMemoryBudget();
+    }
+  }
+
+  /**
+   * Moves the columns to the spill file once their heap size exceeds the budget
+   */
+  private void checkMemoryBudget() {
+    if (this.memoryBudget <= 0 || this.spillFile != null || heapBytes() <= this.memoryBudget) {
+      return;
+    }
+    try {
+      this.spillFile = new SpillFile(this.workDir);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to create Fortify findings file in " + this.workDir, e);
+    }
+    LOG.info("Fortify findings exceed the memory budget of {} bytes, moving them to {}", this.memoryBudget, this.spillFile.getFile());
+    for (IntColumn column : this.findingColumns) {
+      column.spill(this.spillFile);
+    }
+    this.replacementStarts.spill(this.spillFile);
+    for (IntColumn column : this.replacementColumns) {
+      column.spill(this.spillFile);
+    }
+    this.chars.spill(this.spillFile);
+  }
+
+  private long heapBytes() {
+    long bytes = this.chars.heapBytes() + this.replacementStarts.heapBytes();
+    for (IntColumn column : this.findingColumns) {
+      bytes += column.heapBytes();
+    }
+    for (IntColumn column : this.replacementColumns) {
+      bytes += column.heapBytes();
+    }
+    return bytes;
+  }
+
+  /**
+   * Whether the findings were moved to a temporary file because of the memory budget
+   */
+  boolean isSpilled() {
+    return this.spillFile != null;
+  }
+
+  /**
+   * Deletes the temporary file of a spilled store, which must not be read anymore.
+   */
+  @Override
+  public void close() throws IOException {
+    if (this.spillFile != null) {
+      this.spillFile.close();
+    }
+  }
+
+  int size() {
+    return this.size;
+  }
+
+  /**
+   * Distinct paths of the findings, indexed by path id.
+   */
+  List<String> getPaths() {
+    return this.paths.values;
+  }
+
+  int getPathId(int index) {
+    return this.pathIds.get(index);
+  }
+
+  Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * Reads the findings of the store without allocating one object per finding.
+   */
+  class Cursor {
+    private final CharSlice instanceID = new CharSlice();
+    private int index = NONE;
+
+    /**
+     * Moves to the next finding, returns false when there is no more finding.
+     */
+    boolean next() {
+      if (this.index + 1 >= FindingStore.this.size) {
+        this.index = FindingStore.this.size;
+        return false;
+      }
+      this.index++;
+      return true;
+    }
+
+    void moveTo(int index) {
+      if (index < 0 || index >= FindingStore.this.size) {
+        throw new IndexOutOfBoundsException("Finding " + index + " does not exist");
+      }
+      this.index = index;
+    }
+
+    int getIndex() {
+      return this.index;
+    }
+
+    /**
+     * Position of the finding in the report, see {@link Vulnerability#getOrdinal()}
+     */
+    int getOrdinal() {
+      return FindingStore.this.ordinals.get(this.index);
+    }
+
+    /**
+     * Line of the finding or {@link FindingStore#NO_LINE}
+     */
+    int getLine() {
+      return FindingStore.this.lines.get(this.index);
+    }
+
+    @CheckForNull
+    String getPath() {
+      return FindingStore.this.paths.valueOf(FindingStore.this.pathIds.get(this.index));
+    }
+
+    VulnerabilityClass getVulnerabilityClass() {
+      VulnerabilityClass vulnerabilityClass = FindingStore.this.classes.valueOf(FindingStore.this.classIds.get(this.index));
+      return vulnerabilityClass == null ? VulnerabilityClass.EMPTY : vulnerabilityClass;
+    }
+
+    @CheckForNull
+    String getInstanceSeverity() {
+      return FindingStore.this.severities.valueOf(FindingStore.this.severityIds.get(this.index));
+    }
+
+    @CheckForNull
+    String getInstanceID() {
+      return string(FindingStore.this.instanceIdOffsets.get(this.index), FindingStore.this.instanceIdLengths.get(this.index));
+    }
+
+    @CheckForNull
+    String getSnippetID() {
+      return string(FindingStore.this.snippetIdOffsets.get(this.index), FindingStore.this.snippetIdLengths.get(this.index));
+    }
+
+    /**
+     * Whether the instance id of the finding is in the set, without building the id.
+     */
+    boolean isInstanceIDIn(FingerprintSet instanceIDs) {
+      int length = FindingStore.this.instanceIdLengths.get(this.index);
+      return length != NONE && instanceIDs.contains(this.instanceID.reset(FindingStore.this.instanceIdOffsets.get(this.index), length));
+    }
+
+    /**
+     * Adds the instance id of the finding to the set, without building the id.
+     * @return false if the id was already in the set, true if it was added or if the finding has no instance id
+     */
+    boolean addInstanceIDTo(FingerprintSet instanceIDs) {
+      int length = FindingStore.this.instanceIdLengths.get(this.index);
+      return length == NONE || instanceIDs.add(this.instanceID.reset(FindingStore.this.instanceIdOffsets.get(this.index), length));
+    }
+
+    int getReplacementCount() {
+      return FindingStore.this.replacementStarts.get(this.index + 1) - FindingStore.this.replacementStarts.get(this.index);
+    }
+
+    String getReplacementKey(int replacement) {
+      return FindingStore.this.replacementKeys.valueOf(FindingStore.this.replacementKeyIds.get(replacementIndex(replacement)));
+    }
+
+    @CheckForNull
+    String getReplacementValue(int replacement) {
+      int i = replacementIndex(replacement);
+      return string(FindingStore.this.replacementValueOffsets.get(i), FindingStore.this.replacementValueLengths.get(i));
+    }
+
+    Collection<ReplacementDefinition> getReplacementDefinitions() {
+      int count = getReplacementCount();
+      List<ReplacementDefinition> replacementDefinitions = new ArrayList<ReplacementDefinition>(count);
+      for (int i = 0; i < count; i++) {
+        replacementDefinitions.add(new ReplacementDefinition(getReplacementKey(i), getReplacementValue(i)));
+      }
+      return replacementDefinitions;
+    }
+
+    /**
+     * Copy of the current finding
+     */
+    Vulnerability toVulnerability() {
+      Vulnerability vulnerability = new Vulnerability();
+      vulnerability.setVulnerabilityClass(getVulnerabilityClass());
+      vulnerability.setInstanceID(getInstanceID());
+      vulnerability.setInstanceSeverity(getInstanceSeverity());
+      vulnerability.setPath(getPath());
+      vulnerability.setOrdinal(getOrdinal());
+      vulnerability.setSnippetID(getSnippetID());
+      int line = getLine();
+      if (line != NO_LINE) {
+        vulnerability.setLine(line);
+      }
+      for (ReplacementDefinition replacementDefinition : getReplacementDefinitions()) {
+        vulnerability.addReplacementDefinition(replacementDefinition);
+      }
+      return vulnerability;
+    }
+
+    private int replacementIndex(int replacement) {
+      if (replacement < 0 || replacement >= getReplacementCount()) {
+        throw new IndexOutOfBoundsException("Replacement " + replacement + " does not exist");
+      }
+      return FindingStore.this.replacementStarts.get(this.index) + replacement;
+    }
+
+    @CheckForNull
+    private String string(int offset, int length) {
+      return length == NONE ? null : FindingStore.this.chars.getString(offset, length);
+    }
+  }
+
+  /**
+   * Reusable view on a range of the char pool
+   */
+  private class CharSlice implements CharSequence {
+    private int offset;
+    private int length;
+
+    CharSlice reset(int offset, int length) {
+      this.offset = offset;
+      this.length = length;
+      return this;
+    }
+
+    @Override
+    public int length() {
+      return this.length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      return FindingStore.this.chars.get(this.offset + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return FindingStore.this.chars.getString(this.offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+      return FindingStore.this.chars.getString(this.offset, this.length);
+    }
+  }
+
+  private static class Dictionary<T> {
+    private final Map<T, Integer> ids = new HashMap<T, Integer>();
+    private final List<T> values = new ArrayList<T>();
+
+    int idOf(@Nullable T value) {
+      if (value == null) {
+        return NONE;
+      }
+      Integer id = this.ids.get(value);
+      if (id == null) {
+        id = this.values.size();
+        this.ids.put(value, id);
+        this.values.add(value);
+      }
+      return id;
+    }
+
+    @CheckForNull
+    T valueOf(int id) {
+      return id == NONE ? null : this.values.get(id);
+    }
+  }
+}
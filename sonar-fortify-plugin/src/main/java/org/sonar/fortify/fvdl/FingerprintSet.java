@@ -0,0 +1,176 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import javax.annotation.Nullable;
+
+/**
+ * Set of vulnerability instance ids, stored as 128-bit fingerprints in an open-addressing table of longs.
+ * Fortify instance ids are 32 hexadecimal digits, which are stored as is; other ids are hashed.
+ * Lookups do not modify the set: once filled, it can be read by several threads.
+ */
+class FingerprintSet {
+  private static final int HEX_ID_LENGTH = 32;
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /**
+   * Two longs per slot. The slot (0, 0) is empty: the fingerprint (0, 0) is tracked by containsZero.
+   */
+  private long[] table = new long[INITIAL_CAPACITY * 2];
+  private int mask = INITIAL_CAPACITY - 1;
+  private int size = 0;
+  private boolean containsZero = false;
+
+  /**
+   * @return true if the id was not in the set
+   */
+  boolean add(@Nullable CharSequence instanceID) {
+    if (instanceID == null) {
+      return false;
+    }
+    long high = high(instanceID);
+    long low = low(instanceID);
+    if (high == 0L && low == 0L) {
+      boolean added = !this.containsZero;
+      this.containsZero = true;
+      if (added) {
+        this.size++;
+      }
+      return added;
+    }
+    int slot = find(high, low);
+    if (this.table[slot] == high && this.table[slot + 1] == low) {
+      return false;
+    }
+    this.table[slot] = high;
+    this.table[slot + 1] = low;
+    this.size++;
+    if (this.size * 2 > this.table.length / 2) {
+      resize();
+    }
+    return true;
+  }
+
+  boolean contains(@Nullable CharSequence instanceID) {
+    if (instanceID == null) {
+      return false;
+    }
+    long high = high(instanceID);
+    long low = low(instanceID);
+    if (high == 0L && low == 0L) {
+      return this.containsZero;
+    }
+    int slot = find(high, low);
+    return this.table[slot] == high && this.table[slot + 1] == low;
+  }
+
+  int size() {
+    return this.size;
+  }
+
+  /**
+   * Index of the slot holding the fingerprint, or of the empty slot where it belongs.
+   */
+  private int find(long h, long l) {
+    int index = mix(h ^ l) & this.mask;
+    while (true) {
+      int slot = index * 2;
+      long slotHigh = this.table[slot];
+      long slotLow = this.table[slot + 1];
+      if ((slotHigh == 0L && slotLow == 0L) || (slotHigh == h && slotLow == l)) {
+        return slot;
+      }
+      index = (index + 1) & this.mask;
+    }
+  }
+
+  private void resize() {
+    long[] oldTable = this.table;
+    this.table = new long[oldTable.length * 2];
+    this.mask = this.table.length / 2 - 1;
+    for (int slot = 0; slot < oldTable.length; slot += 2) {
+      long h = oldTable[slot];
+      long l = oldTable[slot + 1];
+      if (h != 0L || l != 0L) {
+        int newSlot = find(h, l);
+        this.table[newSlot] = h;
+        this.table[newSlot + 1] = l;
+      }
+    }
+  }
+
+  /**
+   * First half of the fingerprint: the first 16 digits of a hexadecimal id, a FNV-1a hash otherwise.
+   */
+  private static long high(CharSequence id) {
+    if (isHexID(id)) {
+      return parseHex(id, 0);
+    }
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < id.length(); i++) {
+      h = (h ^ id.charAt(i)) * 0x100000001b3L;
+    }
+    return h;
+  }
+
+  /**
+   * Second half of the fingerprint: the last 16 digits of a hexadecimal id, otherwise a multiplicative hash
+   * independent from the first half.
+   */
+  private static long low(CharSequence id) {
+    if (isHexID(id)) {
+      return parseHex(id, HEX_ID_LENGTH / 2);
+    }
+    long l = 0x9e3779b97f4a7c15L;
+    for (int i = 0; i < id.length(); i++) {
+      l = (l + id.charAt(i)) * 0xbf58476d1ce4e5b9L;
+      l ^= l >>> 31;
+    }
+    return l ^ id.length();
+  }
+
+  private static boolean isHexID(CharSequence id) {
+    if (id.length() != HEX_ID_LENGTH) {
+      return false;
+    }
+    for (int i = 0; i < HEX_ID_LENGTH; i++) {
+      if (Character.digit(id.charAt(i), 16) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static long parseHex(CharSequence id, int start) {
+    long value = 0L;
+    for (int i = start; i < start + HEX_ID_LENGTH / 2; i++) {
+      value = (value << 4) | Character.digit(id.charAt(i), 16);
+    }
+    return value;
+  }
+
+  private static int mix(long value) {
+    long x = value;
+    x ^= x >>> 33;
+    x *= 0xff51afd7ed558ccdL;
+    x ^= x >>> 33;
+    return (int) x;
+  }
+}
@@ -19,28 +19,133 @@
  */
 package org.sonar.fortify.fvdl;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.filefilter.TrueFileFilter;
 import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.utils.MessageException;
 import org.sonar.fortify.base.FortifyConstants;
+import org.sonar.fortify.base.ParserEngine;
+import org.xml.sax.SAXException;
 
 import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.xml.parsers.ParserConfigurationException;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.zip.ZipFile;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 class FortifyReportFile {
+  private static final Logger LOG = LoggerFactory.getLogger(FortifyReportFile.class);
+  private static final String GLOB_CHARACTERS = "*?[{";
+
   private final FortifySensorConfiguration configuration;
   private final FileSystem fileSystem;
+  private final String property;
+  private final File reportFile;
+  private final VulnerabilityFilter filter;
 
   FortifyReportFile(FortifySensorConfiguration configuration, FileSystem fileSystem) {
+    this(configuration, fileSystem, FortifyConstants.REPORT_PATH_PROPERTY);
+  }
+
+  /**
+   * Report whose path is the value of the given property, {@link FortifyConstants#REPORT_PATH_PROPERTY}
+   * or {@link FortifyConstants#BASELINE_REPORT_PATH_PROPERTY}.
+   */
+  FortifyReportFile(FortifySensorConfiguration configuration, FileSystem fileSystem, String property) {
+    this(configuration, fileSystem, property, null, null);
+  }
+
+  private FortifyReportFile(FortifySensorConfiguration configuration, FileSystem fileSystem, String property, @Nullable File reportFile,
+    @Nullable VulnerabilityFilter filter) {
     this.configuration = configuration;
     this.fileSystem = fileSystem;
+    this.property = property;
+    this.reportFile = reportFile;
+    this.filter = filter;
+  }
+
+  /**
+   * Reports listed in {@link FortifyConstants#REPORT_PATH_PROPERTY}: comma-separated paths, relative to the base directory
+   * of the module or absolute, which may be glob patterns such as <code>reports/&#42;&#42;/&#42;.fpr</code>.
+   * @param filter vulnerabilities to import, null to import all of them
+   * @throws org.sonar.api.utils.MessageException if a path which is not a pattern relates to a directory or a non-existing file.
+   */
+  static List<FortifyReportFile> list(FortifySensorConfiguration configuration, FileSystem fileSystem, @Nullable VulnerabilityFilter filter) {
+    String value = configuration.getReportPath();
+    if (StringUtils.isBlank(value)) {
+      return Collections.emptyList();
+    }
+    Set<File> files = new LinkedHashSet<File>();
+    for (String entry : StringUtils.split(value, ',')) {
+      String path = entry.trim();
+      if (StringUtils.containsAny(path, GLOB_CHARACTERS)) {
+        files.addAll(match(path, fileSystem.baseDir()));
+      } else if (!path.isEmpty()) {
+        files.add(resolve(path, FortifyConstants.REPORT_PATH_PROPERTY, fileSystem.baseDir()));
+      }
+    }
+    List<FortifyReportFile> reports = new ArrayList<FortifyReportFile>(files.size());
+    for (File file : files) {
+      reports.add(new FortifyReportFile(configuration, fileSystem, FortifyConstants.REPORT_PATH_PROPERTY, file, filter));
+    }
+    return reports;
+  }
+
+  private static File resolve(String path, String property, File baseDir) {
+    File report = new File(path);
+    if (!report.isAbsolute()) {
+      report = new File(baseDir, path);
+    }
+    if (report.exists() && report.isFile()) {
+      return report;
+    }
+    throw MessageException.of("Fortify report does not exist. Please check property " + property + ": " + path);
+  }
+
+  /**
+   * Files matching the pattern, sorted by path. The pattern is matched from its longest directory without glob characters.
+   */
+  private static List<File> match(String pattern, File baseDir) {
+    String normalizedPattern = FilenameUtils.separatorsToUnix(pattern);
+    int globStart = StringUtils.indexOfAny(normalizedPattern, GLOB_CHARACTERS);
+    int rootEnd = normalizedPattern.lastIndexOf('/', globStart);
+    String rootPath = rootEnd < 0 ? "" : normalizedPattern.substring(0, rootEnd + 1);
+    File root = new File(rootPath);
+    if (!root.isAbsolute()) {
+      root = new File(baseDir, rootPath);
+    }
+    List<File> files = new ArrayList<File>();
+    if (root.isDirectory()) {
+      PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + normalizedPattern.substring(rootEnd + 1));
+      Collection<File> candidates = FileUtils.listFiles(root, TrueFileFilter.INSTANCE, TrueFileFilter.INSTANCE);
+      for (File candidate : candidates) {
+        if (matcher.matches(root.toPath().relativize(candidate.toPath()))) {
+          files.add(candidate);
+        }
+      }
+      Collections.sort(files);
+    }
+    if (files.isEmpty()) {
+      LOG.warn("No Fortify report matches \"{}\".", pattern);
+    }
+    return files;
   }
 
   /**
@@ -49,60 +154,235 @@ class FortifyReportFile {
    */
   @CheckForNull
   private File getReportFromProperty() {
-    String path = this.configuration.getReportPath();
+    if (this.reportFile != null) {
+      return this.reportFile;
+    }
+    String path = isBaseline() ?
+      this.configuration.getBaselineReportPath() : this.configuration.getReportPath();
     if (StringUtils.isNotBlank(path)) {
-      File report = new File(path);
-      if (!report.isAbsolute()) {
-        report = new File(this.fileSystem.baseDir(), path);
-      }
-      if (report.exists() && report.isFile()) {
-        return report;
-      }
-      throw MessageException.of("Fortify report does not exist. Please check property " +
-          FortifyConstants.REPORT_PATH_PROPERTY + ": " + path);
+      return resolve(path, this.property, this.fileSystem.baseDir());
     }
     return null;
   }
 
-  private InputStream getInputStreamFromFprFile(File file) throws IOException {
-    final ZipFile fprFile = new ZipFile(file);
-    try {
-      final InputStream reportStream = fprFile.getInputStream(fprFile.getEntry(FortifyConstants.AUDIT_FVDL_FILE));
-      return new InputStream() {
-        @Override
-        public int read() throws IOException {
-          return reportStream.read();
-        }
+  /**
+   * A baseline keeps the vulnerabilities suppressed in its audit: they are absent from the baseline only if they are
+   * suppressed in the current report too.
+   */
+  private boolean isBaseline() {
+    return FortifyConstants.BASELINE_REPORT_PATH_PROPERTY.equals(this.property);
+  }
 
-        @Override
-        public void close() throws IOException {
-          try {
-            reportStream.close();
-          } finally {
-            fprFile.close();
-          }
-        }
-      };
-    } catch (IOException e) {
-      fprFile.close();
-      throw e;
-    }
+  private InputStream getInputStreamFromFprFile(File file) throws IOException {
+    return FprArchive.openEntry(file, FortifyConstants.AUDIT_FVDL_FILE, this.configuration.getReadBufferSize());
   }
 
   private InputStream getInputStreamFromFVDLFile(File file) throws FileNotFoundException {
-    return new FileInputStream(file);
+    return new BufferedInputStream(new FileInputStream(file), this.configuration.getReadBufferSize());
   }
 
+  /**
+   * Content of the report, read ahead of the consumer by a background thread unless read-ahead is disabled.
+   */
   InputStream getInputStream() throws IOException {
     File file = getReportFromProperty();
     if (file == null) {
       throw new FileNotFoundException();
     }
-    String fileExtension = FilenameUtils.getExtension(file.getName());
-    if ("fpr".equalsIgnoreCase(fileExtension)) {
-      return getInputStreamFromFprFile(file);
+    InputStream stream;
+    if (isFpr(file)) {
+      stream = getInputStreamFromFprFile(file);
+    } else if (isGzip(file)) {
+      stream = ParallelGzipInputStream.open(file, this.configuration.getReadBufferSize(), this.configuration.getParserThreads());
     } else {
-      return getInputStreamFromFVDLFile(file);
+      stream = getInputStreamFromFVDLFile(file);
+    }
+    int buffers = this.configuration.getReadAheadBuffers();
+    return buffers > 0 ? ReadAheadInputStream.start(stream, buffers, this.configuration.getReadBufferSize()) : stream;
+  }
+
+  /**
+   * Report file if it is a plain FVDL file, which can be read randomly. Null for FPR archives and gzip files.
+   */
+  @CheckForNull
+  File getFvdlFile() {
+    File file = getReportFromProperty();
+    if (file == null || isFpr(file) || isGzip(file)) {
+      return null;
+    }
+    return file;
+  }
+
+  private static boolean isFpr(File file) {
+    return "fpr".equalsIgnoreCase(FilenameUtils.getExtension(file.getName()));
+  }
+
+  /**
+   * FVDL report compressed with gzip, such as <code>audit.fvdl.gz</code>
+   */
+  private static boolean isGzip(File file) {
+    return "gz".equalsIgnoreCase(FilenameUtils.getExtension(file.getName()));
+  }
+
+  /**
+   * The same report, read with another filter
+   */
+  FortifyReportFile withFilter(@Nullable VulnerabilityFilter filter) {
+    return new FortifyReportFile(this.configuration, this.fileSystem, this.property, this.reportFile, filter);
+  }
+
+  /**
+   * Filter applied while the report is parsed, null if all the vulnerabilities are read.
+   */
+  @CheckForNull
+  VulnerabilityFilter getFilter() {
+    return this.filter;
+  }
+
+  /**
+   * Report file, null if the property is not set.
+   */
+  @CheckForNull
+  File getFile() {
+    return getReportFromProperty();
+  }
+
+  /**
+   * Cache of parsed reports, null if no cache directory is configured
+   */
+  @CheckForNull
+  private ReportCache getCache() {
+    String path = this.configuration.getCacheDirectory();
+    if (StringUtils.isBlank(path)) {
+      return null;
+    }
+    File directory = new File(path.trim());
+    if (!directory.isAbsolute()) {
+      directory = new File(this.fileSystem.baseDir(), path.trim());
+    }
+    return new ReportCache(directory, this.configuration.getCacheSize());
+  }
+
+  /**
+   * Whether the node pool of the report is kept once the report is read, to resolve the nodes referenced by traces.
+   */
+  boolean keepsNodePool() {
+    return this.configuration.isTracesEnabled();
+  }
+
+  /**
+   * Decoder of the traces of the report, whose temporary files go to the working directory.
+   */
+  TraceDecoder newTraceDecoder() {
+    return new TraceDecoder(this, this.configuration, this.fileSystem.workDir());
+  }
+
+  /**
+   * Store for the findings of the report, limited to the memory budget of the configuration.
+   */
+  FindingStore newFindingStore() {
+    return new FindingStore(this.configuration.getMemoryBudget(), this.fileSystem.workDir());
+  }
+
+  /**
+   * Region of the report file which holds the FVDL document and can be mapped: the whole file for a plain FVDL file,
+   * the data of the audit.fvdl entry for a FPR archive which stores it without compression. Null otherwise.
+   */
+  @CheckForNull
+  FileRegion getFvdlRegion() throws IOException {
+    File file = getReportFromProperty();
+    if (file == null || isGzip(file)) {
+      return null;
+    }
+    return isFpr(file) ? FprArchive.findStoredEntry(file, FortifyConstants.AUDIT_FVDL_FILE) : FileRegion.of(file);
+  }
+
+  /**
+   * Reads the report with the parser settings of the configuration, without the vulnerabilities suppressed in the audit
+   * of a FPR archive unless the report is the baseline. With the scanner engine, UTF-8 FVDL documents which
+   * can be mapped are scanned by a single thread, see {@link #getFvdlRegion()}. Other reports are parsed with StAX.
+   * When a cache directory is configured, a report which was already read with the same filter is replayed from the cache.
+   */
+  void parse(VulnerabilityHandler handler) throws ParserConfigurationException, SAXException, IOException {
+    boolean reuseVulnerabilities = handler instanceof VulnerabilityRecordHandler;
+    ReportCache cache = getCache();
+    File file = getReportFromProperty();
+    if (cache == null || file == null) {
+      parse(handler, reuseVulnerabilities);
+      return;
+    }
+    String key = ReportCache.key(file, this.filter, !isBaseline());
+    if (cache.replay(key, handler, reuseVulnerabilities)) {
+      LOG.info("Fortify report {} loaded from cache {}", file, cache.getFile(key));
+      return;
+    }
+    ReportCache.Recorder recorder = cache.record(key, handler);
+    boolean parsed = false;
+    try {
+      parse(recorder, reuseVulnerabilities);
+      parsed = true;
+    } finally {
+      if (parsed) {
+        recorder.commit();
+      } else {
+        recorder.abort();
+      }
+    }
+  }
+
+  private void parse(VulnerabilityHandler handler, boolean reuseVulnerabilities) throws ParserConfigurationException, SAXException, IOException {
+    FvdlStAXParser parser = new FvdlStAXParser(this.configuration.getStaxBackend());
+    if (!isBaseline()) {
+      parser.excludeInstanceIDs(getSuppressedInstanceIDs());
+    }
+    parser.setFilter(this.filter);
+    parser.reuseVulnerabilities(reuseVulnerabilities);
+    parser.setWorkDir(this.fileSystem.workDir());
+    int threads = this.configuration.getParserThreads();
+    File fvdlFile = getFvdlFile();
+    if (this.configuration.getParserEngine() == ParserEngine.SCANNER) {
+      FileRegion region = getFvdlRegion();
+      if (region != null && parser.scan(region, handler)) {
+        return;
+      }
+    }
+    if (threads > 1 && fvdlFile != null) {
+      parser.parse(fvdlFile, handler, threads, this.configuration.getReadBufferSize());
+      return;
+    }
+    InputStream stream = getInputStream();
+    try {
+      parser.parse(stream, handler);
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Instance ids of the vulnerabilities suppressed by the analysts, read from the audit.xml entry of a FPR archive.
+   * Null for FVDL files and for archives without audit.
+   */
+  @CheckForNull
+  FingerprintSet getSuppressedInstanceIDs() throws IOException {
+    File file = getReportFromProperty();
+    if (file == null || !isFpr(file)) {
+      return null;
+    }
+    FprArchive archive = new FprArchive(file, this.configuration.getReadBufferSize());
+    try {
+      if (!archive.hasEntry(FortifyConstants.AUDIT_XML_FILE)) {
+        return null;
+      }
+      InputStream stream = archive.openEntry(FortifyConstants.AUDIT_XML_FILE);
+      try {
+        FingerprintSet suppressed = new AuditStAXParser(this.configuration.getStaxBackend()).parseSuppressedInstanceIDs(stream);
+        LOG.info("{} vulnerabilities are suppressed in Fortify audit of {}", suppressed.size(), file);
+        return suppressed;
+      } finally {
+        stream.close();
+      }
+    } finally {
+      archive.close();
     }
   }
 
@@ -0,0 +1,317 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.BatchExtension;
+import org.sonar.api.batch.InstantiationStrategy;
+import org.sonar.api.utils.TimeProfiler;
+import org.sonar.fortify.fvdl.element.Build;
+import org.sonar.fortify.fvdl.element.Description;
+import org.sonar.fortify.fvdl.element.Fvdl;
+import org.sonar.fortify.fvdl.element.Vulnerability;
+import org.xml.sax.SAXException;
+
+import javax.annotation.CheckForNull;
+import javax.xml.parsers.ParserConfigurationException;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reports parsed during the batch. All the modules of a multi-module project usually point to the same report:
+ * it is parsed by the first module and then shared.
+ */
+@InstantiationStrategy(InstantiationStrategy.PER_BATCH)
+public class FortifyReportRegistry implements BatchExtension {
+  private static final Logger LOG = LoggerFactory.getLogger(FortifyReportRegistry.class);
+
+  private final Map<String, SharedReport> reports = new HashMap<String, SharedReport>();
+  private final Map<String, SnippetIndex> snippetIndexes = new HashMap<String, SnippetIndex>();
+  private final Map<String, FingerprintSet> baselines = new HashMap<String, FingerprintSet>();
+  private final Map<String, TraceDecoder> traceDecoders = new HashMap<String, TraceDecoder>();
+
+  /**
+   * Parses the reports which are not loaded yet, at most <code>threads</code> reports at the same time.
+   */
+  synchronized void load(List<FortifyReportFile> reportFiles, int threads) throws IOException {
+    Map<String, FortifyReportFile> missing = new LinkedHashMap<String, FortifyReportFile>();
+    for (FortifyReportFile report : reportFiles) {
+      String key = key(report);
+      if (!this.reports.containsKey(key)) {
+        missing.put(key, report);
+      }
+    }
+    if (missing.isEmpty()) {
+      return;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, missing.size())));
+    try {
+      Map<String, Future<SharedReport>> parsedReports = new LinkedHashMap<String, Future<SharedReport>>();
+      for (Map.Entry<String, FortifyReportFile> entry : missing.entrySet()) {
+        final FortifyReportFile report = entry.getValue();
+        parsedReports.put(entry.getKey(), executor.submit(new Callable<SharedReport>() {
+          @Override
+          public SharedReport call() throws ParserConfigurationException, SAXException, IOException {
+            return parse(report);
+          }
+        }));
+      }
+      for (Map.Entry<String, Future<SharedReport>> entry : parsedReports.entrySet()) {
+        this.reports.put(entry.getKey(), entry.getValue().get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while parsing Fortify reports", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Can not parse Fortify report", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Build information and descriptions of the report. Findings are kept in {@link #getFindings(FortifyReportFile)}.
+   */
+  synchronized Fvdl getReport(FortifyReportFile report) throws ParserConfigurationException, SAXException, IOException {
+    return getSharedReport(report).fvdl;
+  }
+
+  synchronized FindingStore getFindings(FortifyReportFile report) throws ParserConfigurationException, SAXException, IOException {
+    return getSharedReport(report).findings;
+  }
+
+  /**
+   * Findings of the report indexed by path, built once for all the modules.
+   */
+  synchronized VulnerabilityPathIndex getPathIndex(FortifyReportFile report) throws ParserConfigurationException, SAXException, IOException {
+    SharedReport sharedReport = getSharedReport(report);
+    if (sharedReport.pathIndex == null) {
+      sharedReport.pathIndex = new VulnerabilityPathIndex(sharedReport.findings);
+    }
+    return sharedReport.pathIndex;
+  }
+
+  /**
+   * Nodes of the report to which traces refer, null if the report has no node pool or if it is not kept,
+   * see {@link FortifyReportFile#keepsNodePool()}.
+   */
+  @CheckForNull
+  synchronized NodePool getNodePool(FortifyReportFile report) throws ParserConfigurationException, SAXException, IOException {
+    return getSharedReport(report).nodePool;
+  }
+
+  /**
+   * Ranges of the vulnerabilities of the report, recorded while it was parsed, null if the parser did not know them
+   * or if they are not kept, see {@link FortifyReportFile#keepsNodePool()}.
+   */
+  @CheckForNull
+  synchronized VulnerabilityRanges getVulnerabilityRanges(FortifyReportFile report) throws ParserConfigurationException, SAXException, IOException {
+    return getSharedReport(report).ranges;
+  }
+
+  /**
+   * Instance ids of the vulnerabilities of a baseline report.
+   */
+  synchronized FingerprintSet getInstanceIDs(FortifyReportFile report) throws ParserConfigurationException, SAXException, IOException {
+    String key = key(report);
+    FingerprintSet instanceIDs = this.baselines.get(key);
+    if (instanceIDs == null) {
+      TimeProfiler profiler = new TimeProfiler(LOG).start("Load Fortify baseline report " + report.getFile());
+      try {
+        InstanceIDCollector collector = new InstanceIDCollector();
+        report.parse(collector);
+        instanceIDs = collector.instanceIDs;
+      } finally {
+        profiler.stop();
+      }
+      LOG.info("{} vulnerabilities in Fortify baseline report", instanceIDs.size());
+      this.baselines.put(key, instanceIDs);
+    }
+    return instanceIDs;
+  }
+
+  /**
+   * Snippets of the report, null if the report is not a FVDL file.
+   */
+  @CheckForNull
+  synchronized SnippetIndex getSnippetIndex(FortifyReportFile report) throws IOException {
+    File file = report.getFvdlFile();
+    if (file == null) {
+      return null;
+    }
+    String key = file.getCanonicalPath();
+    SnippetIndex index = this.snippetIndexes.get(key);
+    if (index == null) {
+      TimeProfiler profiler = new TimeProfiler(LOG).start("Index snippets of Fortify report " + file);
+      try {
+        index = SnippetIndex.scan(file);
+      } finally {
+        profiler.stop();
+      }
+      this.snippetIndexes.put(key, index);
+    }
+    return index;
+  }
+
+  /**
+   * Decoder of the traces of the report, shared by all the modules: the vulnerabilities of the report are found once.
+   */
+  synchronized TraceDecoder getTraceDecoder(FortifyReportFile report) throws IOException {
+    File file = report.getFile();
+    if (file == null) {
+      throw new FileNotFoundException();
+    }
+    String key = file.getCanonicalPath();
+    TraceDecoder decoder = this.traceDecoders.get(key);
+    if (decoder == null) {
+      decoder = report.newTraceDecoder();
+      this.traceDecoders.put(key, decoder);
+    }
+    return decoder;
+  }
+
+  /**
+   * Called at the end of the batch: releases the files into which findings were moved, the inflated copies of reports,
+   * and the baselines and snippet indexes.
+   */
+  public synchronized void stop() {
+    for (SharedReport sharedReport : this.reports.values()) {
+      try {
+        sharedReport.findings.close();
+      } catch (IOException e) {
+        LOG.warn("Unable to delete temporary file of Fortify findings", e);
+      }
+    }
+    this.reports.clear();
+    for (TraceDecoder decoder : this.traceDecoders.values()) {
+      decoder.close();
+    }
+    this.traceDecoders.clear();
+    this.baselines.clear();
+    this.snippetIndexes.clear();
+  }
+
+  private SharedReport getSharedReport(FortifyReportFile report) throws ParserConfigurationException, SAXException, IOException {
+    String key = key(report);
+    SharedReport sharedReport = this.reports.get(key);
+    if (sharedReport == null) {
+      sharedReport = parse(report);
+      this.reports.put(key, sharedReport);
+    }
+    return sharedReport;
+  }
+
+  /**
+   * A report read with different filters is parsed once per filter.
+   */
+  private static String key(FortifyReportFile report) throws IOException {
+    File file = report.getFile();
+    if (file == null) {
+      throw new FileNotFoundException();
+    }
+    VulnerabilityFilter filter = report.getFilter();
+    return filter == null ? file.getCanonicalPath() : (file.getCanonicalPath() + "?" + filter.getKey());
+  }
+
+  private static SharedReport parse(FortifyReportFile report) throws ParserConfigurationException, SAXException, IOException {
+    TimeProfiler profiler = new TimeProfiler(LOG).start("Parse Fortify report " + report.getFile());
+    try {
+      SharedReport sharedReport = new SharedReport(report.newFindingStore(), report.keepsNodePool());
+      report.parse(sharedReport);
+      return sharedReport;
+    } finally {
+      profiler.stop();
+    }
+  }
+
+  private static class InstanceIDCollector implements VulnerabilityRecordHandler {
+    private final FingerprintSet instanceIDs = new FingerprintSet();
+
+    @Override
+    public void onBuild(Build build) {
+      // only instance ids are kept
+    }
+
+    @Override
+    public void onVulnerability(Vulnerability vulnerability) {
+      this.instanceIDs.add(vulnerability.getInstanceID());
+    }
+
+    @Override
+    public void onDescription(Description description) {
+      // only instance ids are kept
+    }
+  }
+
+  private static class SharedReport implements VulnerabilityRecordHandler, NodePoolHandler, VulnerabilityRangeHandler {
+    private final Fvdl fvdl = new Fvdl();
+    private final FindingStore findings;
+    private final boolean keepNodePool;
+    private VulnerabilityPathIndex pathIndex;
+    private NodePool nodePool;
+    private VulnerabilityRanges ranges;
+
+    SharedReport(FindingStore findings, boolean keepNodePool) {
+      this.findings = findings;
+      this.keepNodePool = keepNodePool;
+    }
+
+    @Override
+    public void onBuild(Build build) {
+      this.fvdl.setBuild(build);
+    }
+
+    @Override
+    public void onVulnerability(Vulnerability vulnerability) {
+      this.findings.add(vulnerability);
+    }
+
+    @Override
+    public void onDescription(Description description) {
+      this.fvdl.addDescription(description);
+    }
+
+    @Override
+    public void onNodePool(NodePool nodePool) {
+      if (this.keepNodePool) {
+        this.nodePool = nodePool;
+      }
+    }
+
+    @Override
+    public void onVulnerabilityRanges(VulnerabilityRanges ranges) {
+      if (this.keepNodePool) {
+        this.ranges = ranges;
+      }
+    }
+  }
+}
@@ -19,6 +19,7 @@
  */
 package org.sonar.fortify.fvdl;
 
+import com.google.common.io.Closeables;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonar.api.batch.Sensor;
@@ -36,16 +37,36 @@ import org.sonar.api.rule.Severity;
 import org.sonar.api.utils.TimeProfiler;
 import org.sonar.fortify.base.FortifyConstants;
 import org.sonar.fortify.base.metrics.FortifyMetrics;
+import org.sonar.fortify.fvdl.element.Build;
+import org.sonar.fortify.fvdl.element.Description;
 import org.sonar.fortify.fvdl.element.Fvdl;
 import org.sonar.fortify.fvdl.element.Vulnerability;
+import org.sonar.fortify.fvdl.element.VulnerabilityClass;
+import org.xml.sax.SAXException;
 
 import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.xml.parsers.ParserConfigurationException;
 
-import java.io.InputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 public class FortifySensor implements Sensor {
   private static final Logger LOG = LoggerFactory.getLogger(FortifySensor.class);
 
+  /**
+   * Issue attribute holding the data-flow trace of the vulnerability, see {@link FortifySensorConfiguration#isTracesEnabled()}
+   */
+  static final String TRACE_ATTRIBUTE = "fortifyTrace";
+  /**
+   * Issue attribute holding the code snippet of the vulnerability, see {@link FortifySensorConfiguration#isSnippetsEnabled()}
+   */
+  static final String SNIPPET_ATTRIBUTE = "fortifySnippet";
+
   private static final double BLOCKER_SECURITY_RATING_LEVEL = 1.0;
   private static final double CRITICAL_SECURITY_RATING_LEVEL = 2.0;
   private static final double MAJOR_SECURITY_RATING_LEVEL = 3.0;
@@ -56,7 +77,10 @@ public class FortifySensor implements Sensor {
   private final ResourcePerspectives resourcePerspectives;
   private final FileSystem fileSystem;
   private final ActiveRules activeRules;
-  private final FortifyReportFile report;
+  private final FortifyReportRegistry reportRegistry;
+  private SnippetIndex.Reader snippetReader;
+  private FingerprintSet baseline;
+  private VulnerabilityFilter ruleFilter;
 
   private int blockerIssuesCount = 0;
   private int criticalIssuesCount = 0;
@@ -67,38 +91,80 @@ public class FortifySensor implements Sensor {
     FortifySensorConfiguration configuration,
     ResourcePerspectives resourcePerspectives,
     FileSystem fileSystem,
-    ActiveRules activeRules) {
+    ActiveRules activeRules,
+    FortifyReportRegistry reportRegistry) {
     this.configuration = configuration;
     this.resourcePerspectives = resourcePerspectives;
     this.fileSystem = fileSystem;
     this.activeRules = activeRules;
-    this.report = new FortifyReportFile(configuration, fileSystem);
+    this.reportRegistry = reportRegistry;
   }
 
   @Override
   public boolean shouldExecuteOnProject(Project project) {
-    return this.configuration.isActive(this.fileSystem.languages()) && this.report.exist();
+    if (!this.configuration.isActive(this.fileSystem.languages())) {
+      return false;
+    }
+    List<FortifyReportFile> reports = FortifyReportFile.list(this.configuration, this.fileSystem, importFilter());
+    if (reports.isEmpty()) {
+      return false;
+    }
+    if (isMultiModule(project)) {
+      try {
+        this.reportRegistry.load(reports, this.configuration.getReportThreads());
+        VulnerabilityFilter moduleRuleFilter = activeRuleFilter();
+        for (FortifyReportFile report : reports) {
+          if (hasActiveFinding(report, moduleRuleFilter)) {
+            return true;
+          }
+        }
+        return false;
+      } catch (Exception e) {
+        throw new IllegalStateException("Can not process Fortify report", e);
+      }
+    }
+    return true;
   }
 
-  private void addIssue(InputFile inputFile, Fvdl fvdl, Vulnerability vulnerability, ActiveRule activeRule) {
+  private void addIssue(InputFile inputFile, ActiveRule activeRule, @Nullable String instanceSeverity, @Nullable Integer line, String message,
+    @Nullable String trace, @Nullable String snippetID) {
     Issuable issuable = this.resourcePerspectives.as(Issuable.class, inputFile);
     if (issuable != null) {
-      String severity = vulnerability.getInstanceSeverity();
+      String severity = instanceSeverity;
       if (severity == null) {
         severity = activeRule.severity();
       }
-      Issue issue = issuable.newIssueBuilder()
+      Issuable.IssueBuilder issueBuilder = issuable.newIssueBuilder()
         .ruleKey(activeRule.ruleKey())
-        .line(vulnerability.getLine())
-        .message(fvdl.getDescription(vulnerability))
-        .severity(severity)
-        .build();
+        .line(line)
+        .message(message)
+        .severity(severity);
+      if (trace != null) {
+        issueBuilder.attribute(TRACE_ATTRIBUTE, trace);
+      }
+      String snippet = readSnippet(snippetID);
+      if (snippet != null) {
+        issueBuilder.attribute(SNIPPET_ATTRIBUTE, snippet);
+      }
+      Issue issue = issueBuilder.build();
       if (issuable.addIssue(issue)) {
         incrementCount(severity);
       }
     }
   }
 
+  @CheckForNull
+  private String readSnippet(@Nullable String snippetID) {
+    if (this.snippetReader == null || snippetID == null) {
+      return null;
+    }
+    try {
+      return this.snippetReader.read(snippetID);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read Fortify snippet " + snippetID, e);
+    }
+  }
+
   private void incrementCount(String severity) {
     if (Severity.BLOCKER.equals(severity)) {
       this.blockerIssuesCount++;
@@ -111,45 +177,195 @@ public class FortifySensor implements Sensor {
     }
   }
 
-  private void addIssues(SensorContext context, Project project, Fvdl fvdl) {
-    String sourceBasePath = fvdl.getBuild().getSourceBasePath();
-    for (Vulnerability vulnerability : fvdl.getVulnerabilities()) {
-      InputFile inputFile = resourceOf(context, sourceBasePath, vulnerability, project);
-      if (inputFile != null) {
-        String ruleKey = FortifyConstants.fortifySQRuleKey(vulnerability.getKingdom(), vulnerability.getType(), vulnerability.getSubtype());
-        if (ruleKey == null) {
-          LOG.debug("Unable to find rule for vulnerability " + vulnerability);
-          continue;
-        }
-        ActiveRule activeRule = getRule(ruleKey, inputFile.language());
-        if (activeRule == null) {
-          FortifySensor.LOG.debug("Fortify rule '{}' is not active in quality profiles of your project.", ruleKey);
-        } else {
-          addIssue(inputFile, fvdl, vulnerability, activeRule);
-        }
-      }
-    }
-  }
-
   @Override
   public void analyse(Project project, SensorContext context) {
     TimeProfiler profiler = new TimeProfiler().start("Process Fortify report");
     try {
-      InputStream stream = this.report.getInputStream();
-      try {
-        Fvdl fvdl = new FvdlStAXParser().parse(stream);
-        addIssues(context, project, fvdl);
-      } finally {
-        stream.close();
+      List<FortifyReportFile> reports = FortifyReportFile.list(this.configuration, this.fileSystem, importFilter());
+      loadBaseline();
+      this.ruleFilter = activeRuleFilter();
+      if (reports.size() == 1 && !isMultiModule(project)) {
+        // the report is not shared: vulnerabilities of inactive rules are skipped by the parser
+        FortifyReportFile report = reports.get(0).withFilter(VulnerabilityFilter.compile(this.configuration.getImportFilter(), activeRuleKeys()));
+        openSnippets(report);
+        IssueHandler handler = new IssueHandler(context, project, report, new Fvdl());
+        try {
+          report.parse(handler);
+          handler.flush();
+        } finally {
+          handler.close();
+        }
+      } else {
+        // Reports are parsed concurrently, then merged: a vulnerability found in several reports is imported once
+        this.reportRegistry.load(reports, this.configuration.getReportThreads());
+        FingerprintSet importedInstanceIDs = reports.size() > 1 ? new FingerprintSet() : null;
+        for (FortifyReportFile report : reports) {
+          openSnippets(report);
+          try {
+            addIssues(context, project, report, importedInstanceIDs);
+          } finally {
+            closeSnippets();
+          }
+        }
       }
     } catch (Exception e) {
       throw new IllegalStateException("Can not process Fortify report", e);
     } finally {
+      closeSnippets();
       profiler.stop();
     }
     saveMeasures(context);
   }
 
+  private void openSnippets(FortifyReportFile report) throws IOException {
+    if (this.configuration.isSnippetsEnabled()) {
+      SnippetIndex snippetIndex = this.reportRegistry.getSnippetIndex(report);
+      if (snippetIndex == null) {
+        LOG.debug("Fortify snippets are only available in FVDL reports");
+      } else {
+        this.snippetReader = snippetIndex.openReader(this.configuration.getStaxBackend(), this.configuration.getReadBufferSize());
+      }
+    }
+  }
+
+  /**
+   * Conditions of the import filter property, checked while the report is parsed. They are the same for all the modules,
+   * which share the parsed report.
+   */
+  private VulnerabilityFilter importFilter() {
+    return VulnerabilityFilter.compile(this.configuration.getImportFilter(), null);
+  }
+
+  /**
+   * Active Fortify rules of the module, checked on each finding before it is resolved to a file. Quality profiles may
+   * differ between modules: the rules are not part of the filter of the shared reports.
+   */
+  private VulnerabilityFilter activeRuleFilter() {
+    return VulnerabilityFilter.compile(null, activeRuleKeys());
+  }
+
+  private List<String> activeRuleKeys() {
+    List<String> ruleKeys = new ArrayList<String>();
+    for (String language : this.fileSystem.languages()) {
+      for (ActiveRule activeRule : this.activeRules.findByRepository(FortifyConstants.fortifyRepositoryKey(language))) {
+        ruleKeys.add(activeRule.ruleKey().rule());
+      }
+    }
+    return ruleKeys;
+  }
+
+  /**
+   * Instance ids of the baseline report, when set: the vulnerabilities which already existed are not imported.
+   */
+  private void loadBaseline() throws ParserConfigurationException, SAXException, IOException {
+    FortifyReportFile baselineReport = new FortifyReportFile(this.configuration, this.fileSystem, FortifyConstants.BASELINE_REPORT_PATH_PROPERTY);
+    this.baseline = baselineReport.exist() ? this.reportRegistry.getInstanceIDs(baselineReport) : null;
+  }
+
+  private boolean isInBaseline(@Nullable String instanceID) {
+    return this.baseline != null && this.baseline.contains(instanceID);
+  }
+
+  private void closeSnippets() {
+    Closeables.closeQuietly(this.snippetReader);
+    this.snippetReader = null;
+  }
+
+  /**
+   * Modules of a multi-module project share the same report, which is parsed once per batch.
+   */
+  private static boolean isMultiModule(Project project) {
+    return !project.isRoot() || !project.getModules().isEmpty();
+  }
+
+  /**
+   * Indexes of the findings of the shared report located under the base directory of the module.
+   */
+  private int[] moduleFindings(FortifyReportFile report) throws ParserConfigurationException, SAXException, IOException {
+    Fvdl fvdl = this.reportRegistry.getReport(report);
+    return this.reportRegistry.getPathIndex(report).find(sourceBasePath(fvdl), this.fileSystem.baseDir());
+  }
+
+  /**
+   * The findings are shared by all modules: the rules active on this module are only applied when walking them.
+   */
+  private boolean hasActiveFinding(FortifyReportFile report, VulnerabilityFilter moduleRuleFilter)
+    throws ParserConfigurationException, SAXException, IOException {
+    FindingStore.Cursor cursor = this.reportRegistry.getFindings(report).cursor();
+    for (int index : moduleFindings(report)) {
+      cursor.moveTo(index);
+      if (moduleRuleFilter.acceptsClass(cursor.getVulnerabilityClass())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @CheckForNull
+  private static String sourceBasePath(Fvdl fvdl) {
+    Build build = fvdl.getBuild();
+    return build == null ? null : build.getSourceBasePath();
+  }
+
+  /**
+   * Reads the shared findings through a cursor: objects are only created for the findings which become issues.
+   * @param importedInstanceIDs instance ids of the findings imported from the previous reports, null if there is a single report
+   */
+  private void addIssues(SensorContext context, Project project, FortifyReportFile report, @Nullable FingerprintSet importedInstanceIDs)
+    throws ParserConfigurationException, SAXException, IOException {
+    Fvdl fvdl = this.reportRegistry.getReport(report);
+    FindingStore findings = this.reportRegistry.getFindings(report);
+    int[] indexes = isMultiModule(project) ? moduleFindings(report) : this.reportRegistry.getPathIndex(report).all();
+    String sourceBasePath = sourceBasePath(fvdl);
+    FindingStore.Cursor cursor = findings.cursor();
+    int candidateCount = 0;
+    int[] candidates = new int[indexes.length];
+    int[] ordinals = new int[indexes.length];
+    InputFile[] inputFiles = new InputFile[indexes.length];
+    ActiveRule[] rules = new ActiveRule[indexes.length];
+    for (int index : indexes) {
+      cursor.moveTo(index);
+      if (!this.ruleFilter.acceptsClass(cursor.getVulnerabilityClass())
+        || (this.baseline != null && cursor.isInstanceIDIn(this.baseline))
+        || (importedInstanceIDs != null && !cursor.addInstanceIDTo(importedInstanceIDs))) {
+        continue;
+      }
+      InputFile inputFile = resourceOf(context, sourceBasePath, cursor.getPath(), project);
+      if (inputFile != null) {
+        ActiveRule activeRule = findActiveRule(inputFile, cursor.getVulnerabilityClass());
+        if (activeRule != null) {
+          candidates[candidateCount] = index;
+          ordinals[candidateCount] = cursor.getOrdinal();
+          inputFiles[candidateCount] = inputFile;
+          rules[candidateCount] = activeRule;
+          candidateCount++;
+        }
+      }
+    }
+    Map<Integer, String> traces = decodeTraces(report, Arrays.copyOf(ordinals, candidateCount), this.reportRegistry.getNodePool(report),
+      this.reportRegistry.getVulnerabilityRanges(report));
+    for (int i = 0; i < candidateCount; i++) {
+      cursor.moveTo(candidates[i]);
+      int line = cursor.getLine();
+      addIssue(inputFiles[i], rules[i], cursor.getInstanceSeverity(), line == FindingStore.NO_LINE ? null : line,
+        fvdl.getDescription(cursor.getVulnerabilityClass().getClassID(), cursor.getReplacementDefinitions()), traces.get(cursor.getOrdinal()),
+        cursor.getSnippetID());
+    }
+  }
+
+  /**
+   * Traces of the vulnerabilities by ordinal, empty when traces are not enabled.
+   * @param nodePool nodes of the report to which traces refer, null if the report has none
+   * @param ranges ranges of the vulnerabilities recorded by the parser, null if they are not known
+   */
+  private Map<Integer, String> decodeTraces(FortifyReportFile report, int[] ordinals, @Nullable NodePool nodePool, @Nullable VulnerabilityRanges ranges)
+    throws IOException {
+    if (!this.configuration.isTracesEnabled()) {
+      return Collections.emptyMap();
+    }
+    return this.reportRegistry.getTraceDecoder(report).decode(ordinals, nodePool, ranges);
+  }
+
   private void saveMeasures(SensorContext context) {
     context.saveMeasure(FortifyMetrics.CFPO, Double.valueOf(this.blockerIssuesCount));
     context.saveMeasure(FortifyMetrics.HFPO, Double.valueOf(this.criticalIssuesCount));
@@ -168,6 +384,20 @@ public class FortifySensor implements Sensor {
     }
   }
 
+  @CheckForNull
+  private ActiveRule findActiveRule(InputFile inputFile, VulnerabilityClass vulnerabilityClass) {
+    String ruleKey = FortifyConstants.fortifySQRuleKey(vulnerabilityClass.getKingdom(), vulnerabilityClass.getType(), vulnerabilityClass.getSubtype());
+    if (ruleKey == null) {
+      LOG.debug("Unable to find rule for vulnerability class " + vulnerabilityClass);
+      return null;
+    }
+    ActiveRule activeRule = getRule(ruleKey, inputFile.language());
+    if (activeRule == null) {
+      LOG.debug("Fortify rule '{}' is not active in quality profiles of your project.", ruleKey);
+    }
+    return activeRule;
+  }
+
   @CheckForNull
   private ActiveRule getRule(String ruleKey, String fileLanguage) {
     // Search in priority the same language as the file
@@ -187,22 +417,22 @@ public class FortifySensor implements Sensor {
   }
 
   @CheckForNull
-  private InputFile resourceOf(SensorContext context, String sourceBasePath, Vulnerability vulnerability, Project project) {
-    java.io.File file = new java.io.File(sourceBasePath, vulnerability.getPath());
+  private InputFile resourceOf(SensorContext context, String sourceBasePath, String path, Project project) {
+    java.io.File file = new java.io.File(sourceBasePath, path);
     if (file.exists()) {
       InputFile inputFile = fileSystem.inputFile(fileSystem.predicates().is(file));
       if (inputFile == null) {
-        LOG.debug("File \"{}\" is not under module basedir or is not indexed. Skip it.", vulnerability.getPath());
+        LOG.debug("File \"{}\" is not under module basedir or is not indexed. Skip it.", path);
         return null;
       }
       return inputFile;
     }
     LOG.debug("Unable to find \"{}\". Trying relative path.", file);
-    file = new java.io.File(this.fileSystem.baseDir(), vulnerability.getPath());
+    file = new java.io.File(this.fileSystem.baseDir(), path);
     if (file.exists()) {
       InputFile inputFile = fileSystem.inputFile(fileSystem.predicates().is(file));
       if (inputFile == null) {
-        LOG.debug("File \"{}\" is not indexed. Skip it.", vulnerability.getPath());
+        LOG.debug("File \"{}\" is not indexed. Skip it.", path);
         return null;
       }
       return inputFile;
@@ -215,4 +445,113 @@ public class FortifySensor implements Sensor {
   public String toString() {
     return "Fortify sensor";
   }
+
+  /**
+   * Turns vulnerabilities into issues while the report is parsed.
+   */
+  private class IssueHandler implements VulnerabilityRecordHandler, NodePoolHandler, VulnerabilityRangeHandler, PendingIssueBuffer.Consumer {
+    private final SensorContext context;
+    private final Project project;
+    private final FortifyReportFile report;
+    private final Fvdl fvdl;
+    private final PendingIssueBuffer pendingIssues = new PendingIssueBuffer(FortifySensor.this.fileSystem.workDir());
+    private final boolean tracesEnabled = FortifySensor.this.configuration.isTracesEnabled();
+    private int[] deferredOrdinals = new int[16];
+    private Map<Integer, String> traces = Collections.emptyMap();
+    private NodePool nodePool;
+    private VulnerabilityRanges ranges;
+
+    IssueHandler(SensorContext context, Project project, FortifyReportFile report, Fvdl fvdl) {
+      this.context = context;
+      this.project = project;
+      this.report = report;
+      this.fvdl = fvdl;
+    }
+
+    @Override
+    public void onBuild(Build build) {
+      this.fvdl.setBuild(build);
+    }
+
+    @Override
+    public void onVulnerability(Vulnerability vulnerability) {
+      if (isInBaseline(vulnerability.getInstanceID()) || !FortifySensor.this.ruleFilter.acceptsClass(vulnerability.getVulnerabilityClass())) {
+        return;
+      }
+      InputFile inputFile = resourceOf(this.context, this.fvdl.getBuild().getSourceBasePath(), vulnerability.getPath(), this.project);
+      if (inputFile != null) {
+        ActiveRule activeRule = findActiveRule(inputFile, vulnerability.getVulnerabilityClass());
+        if (activeRule == null) {
+          return;
+        }
+        if (!this.tracesEnabled && this.fvdl.hasDescription(vulnerability.getClassID())) {
+          addIssue(inputFile, activeRule, vulnerability);
+        } else {
+          // Descriptions usually come after the vulnerabilities in the report, traces are decoded once all the issues are known
+          defer(inputFile, vulnerability, activeRule);
+        }
+      }
+    }
+
+    private void defer(InputFile inputFile, Vulnerability vulnerability, ActiveRule activeRule) {
+      try {
+        if (this.tracesEnabled) {
+          int count = this.pendingIssues.size();
+          if (count == this.deferredOrdinals.length) {
+            this.deferredOrdinals = Arrays.copyOf(this.deferredOrdinals, count * 2);
+          }
+          this.deferredOrdinals[count] = vulnerability.getOrdinal();
+        }
+        this.pendingIssues.add(inputFile.relativePath(), activeRule.ruleKey(), vulnerability);
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to defer Fortify issue " + vulnerability.getInstanceID(), e);
+      }
+    }
+
+    @Override
+    public void onDescription(Description description) {
+      this.fvdl.addDescription(description);
+    }
+
+    @Override
+    public void onNodePool(NodePool nodePool) {
+      if (this.tracesEnabled) {
+        this.nodePool = nodePool;
+      }
+    }
+
+    @Override
+    public void onVulnerabilityRanges(VulnerabilityRanges ranges) {
+      if (this.tracesEnabled) {
+        this.ranges = ranges;
+      }
+    }
+
+    void flush() throws IOException {
+      if (this.pendingIssues.size() > 0) {
+        LOG.debug("Create {} deferred Fortify issues", this.pendingIssues.size());
+      }
+      this.traces = decodeTraces(this.report, Arrays.copyOf(this.deferredOrdinals, this.tracesEnabled ? this.pendingIssues.size() : 0),
+        this.nodePool, this.ranges);
+      this.pendingIssues.replay(this);
+    }
+
+    @Override
+    public void accept(String relativePath, RuleKey ruleKey, Vulnerability vulnerability) {
+      InputFile inputFile = FortifySensor.this.fileSystem.inputFile(FortifySensor.this.fileSystem.predicates().hasRelativePath(relativePath));
+      ActiveRule activeRule = FortifySensor.this.activeRules.find(ruleKey);
+      if (inputFile != null && activeRule != null) {
+        addIssue(inputFile, activeRule, vulnerability);
+      }
+    }
+
+    private void addIssue(InputFile inputFile, ActiveRule activeRule, Vulnerability vulnerability) {
+      FortifySensor.this.addIssue(inputFile, activeRule, vulnerability.getInstanceSeverity(), vulnerability.getLine(), this.fvdl.getDescription(vulnerability),
+        this.traces.get(vulnerability.getOrdinal()), vulnerability.getSnippetID());
+    }
+
+    void close() {
+      this.pendingIssues.close();
+    }
+  }
 }
@@ -23,10 +23,16 @@ import org.sonar.api.BatchExtension;
 import org.sonar.api.config.Settings;
 import org.sonar.api.profiles.RulesProfile;
 import org.sonar.fortify.base.FortifyConstants;
+import org.sonar.fortify.base.ParserEngine;
+import org.sonar.fortify.base.StaxBackend;
 
 import java.util.Collection;
 
 public class FortifySensorConfiguration implements BatchExtension {
+  static final int DEFAULT_READ_BUFFER_SIZE = 64 * 1024;
+  static final int DEFAULT_READ_AHEAD_BUFFERS = 4;
+  static final long DEFAULT_CACHE_SIZE = 1024;
+
   private final RulesProfile profile;
   private final Settings settings;
 
@@ -46,4 +52,104 @@ public class FortifySensorConfiguration implements BatchExtension {
   public String getReportPath() {
     return this.settings.getString(FortifyConstants.REPORT_PATH_PROPERTY);
   }
+
+  /**
+   * Report of a previous analysis: vulnerabilities already in this report are not imported.
+   */
+  public String getBaselineReportPath() {
+    return this.settings.getString(FortifyConstants.BASELINE_REPORT_PATH_PROPERTY);
+  }
+
+  /**
+   * Size in bytes of the buffers used to read the report.
+   */
+  public int getReadBufferSize() {
+    int size = this.settings.getInt(FortifyConstants.READ_BUFFER_SIZE_PROPERTY);
+    return size > 0 ? size : DEFAULT_READ_BUFFER_SIZE;
+  }
+
+  /**
+   * Number of buffers, of {@link #getReadBufferSize()} bytes, which are read and inflated ahead of the parser by a
+   * background thread. 0 disables read-ahead.
+   */
+  public int getReadAheadBuffers() {
+    if (!this.settings.hasKey(FortifyConstants.READ_AHEAD_BUFFERS_PROPERTY)) {
+      return DEFAULT_READ_AHEAD_BUFFERS;
+    }
+    return Math.max(0, this.settings.getInt(FortifyConstants.READ_AHEAD_BUFFERS_PROPERTY));
+  }
+
+  /**
+   * Number of threads used to parse the vulnerabilities of FVDL files, and to decompress gzip files made of sized blocks.
+   * FPR archives are always parsed by a single thread.
+   */
+  public int getParserThreads() {
+    return Math.max(1, this.settings.getInt(FortifyConstants.PARSER_THREADS_PROPERTY));
+  }
+
+  /**
+   * Maximum number of reports parsed at the same time when several reports are listed. Defaults to the number of processors.
+   */
+  public int getReportThreads() {
+    int threads = this.settings.getInt(FortifyConstants.REPORT_THREADS_PROPERTY);
+    return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * Whether the data-flow trace of each vulnerability is attached to its issue. Traces are decoded from the report
+   * once all the issues are known.
+   */
+  public boolean isTracesEnabled() {
+    return this.settings.getBoolean(FortifyConstants.TRACES_PROPERTY);
+  }
+
+  /**
+   * Whether the code snippet of the primary location of each vulnerability is attached to its issue.
+   * Snippets are only available in FVDL files.
+   */
+  public boolean isSnippetsEnabled() {
+    return this.settings.getBoolean(FortifyConstants.SNIPPETS_PROPERTY);
+  }
+
+  /**
+   * Conditions on the vulnerabilities to import, evaluated while the report is parsed. See {@link VulnerabilityFilter}.
+   */
+  public String getImportFilter() {
+    return this.settings.getString(FortifyConstants.IMPORT_FILTER_PROPERTY);
+  }
+
+  /**
+   * Heap, in bytes, that the findings of a report may use before they are moved to a memory-mapped file of the
+   * working directory. The property is expressed in megabytes, 0 or unset for no limit.
+   */
+  public long getMemoryBudget() {
+    return Math.max(0L, this.settings.getLong(FortifyConstants.MEMORY_BUDGET_PROPERTY)) * 1024L * 1024L;
+  }
+
+  /**
+   * Directory in which parsed reports are kept across analyses, relative to the base directory of the module or absolute.
+   * Null if reports are not cached.
+   */
+  public String getCacheDirectory() {
+    return this.settings.getString(FortifyConstants.CACHE_DIRECTORY_PROPERTY);
+  }
+
+  /**
+   * Maximum size in bytes of the cache directory, the property is in megabytes.
+   */
+  public long getCacheSize() {
+    long size = this.settings.getLong(FortifyConstants.CACHE_SIZE_PROPERTY);
+    return (size > 0 ? size : DEFAULT_CACHE_SIZE) * 1024L * 1024L;
+  }
+
+  public StaxBackend getStaxBackend() {
+    return StaxBackend.fromKey(this.settings.getString(FortifyConstants.STAX_BACKEND_PROPERTY));
+  }
+
+  /**
+   * Engine reading plain FVDL files, StAX by default
+   */
+  public ParserEngine getParserEngine() {
+    return ParserEngine.fromKey(this.settings.getString(FortifyConstants.PARSER_ENGINE_PROPERTY));
+  }
 }
@@ -0,0 +1,222 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import com.google.common.base.Charsets;
+
+import javax.annotation.CheckForNull;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Read access to the entries of a Fortify Project Results (FPR) archive.
+ * Entry streams support bulk reads and are buffered, inflation itself is done by {@link ZipFile}, which
+ * recycles its {@link java.util.zip.Inflater} instances between entries. Entries stored without compression can also be
+ * located in the archive, to be read in place.
+ */
+class FprArchive implements Closeable {
+  private static final int END_OF_DIRECTORY_SIGNATURE = 0x06054b50;
+  private static final int END_OF_DIRECTORY_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xFFFF;
+  private static final int DIRECTORY_ENTRY_SIGNATURE = 0x02014b50;
+  private static final int DIRECTORY_ENTRY_SIZE = 46;
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int ENCRYPTED_FLAG = 1;
+  private static final long ZIP64_MARKER = 0xFFFFFFFFL;
+
+  private final ZipFile zipFile;
+  private final int bufferSize;
+
+  FprArchive(File file, int bufferSize) throws IOException {
+    this.zipFile = new ZipFile(file);
+    this.bufferSize = bufferSize;
+  }
+
+  List<String> getEntryNames() {
+    List<String> names = new ArrayList<String>();
+    Enumeration<? extends ZipEntry> entries = this.zipFile.entries();
+    while (entries.hasMoreElements()) {
+      ZipEntry entry = entries.nextElement();
+      if (!entry.isDirectory()) {
+        names.add(entry.getName());
+      }
+    }
+    return names;
+  }
+
+  boolean hasEntry(String name) {
+    return this.zipFile.getEntry(name) != null;
+  }
+
+  /**
+   * @throws FileNotFoundException if the archive does not contain the entry
+   */
+  InputStream openEntry(String name) throws IOException {
+    ZipEntry entry = this.zipFile.getEntry(name);
+    if (entry == null) {
+      throw new FileNotFoundException(name + " not found in " + this.zipFile.getName());
+    }
+    return new BufferedInputStream(this.zipFile.getInputStream(entry), this.bufferSize);
+  }
+
+  /**
+   * Opens an entry whose stream closes the whole archive once it is closed. An entry stored without compression is read
+   * in place, through memory-mapped windows of the archive.
+   */
+  static InputStream openEntry(File file, String name, int bufferSize) throws IOException {
+    FileRegion region = findStoredEntry(file, name);
+    if (region != null) {
+      return new MappedRegionInputStream(region);
+    }
+    final FprArchive archive = new FprArchive(file, bufferSize);
+    try {
+      return new FilterInputStream(archive.openEntry(name)) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            archive.close();
+          }
+        }
+      };
+    } catch (IOException e) {
+      archive.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Data of an entry stored without compression, located from the central directory and the local header of the entry.
+   * @return null if the archive has no such entry, if the entry is compressed or encrypted, or if the archive uses
+   * ZIP64 extensions. Such entries are read with {@link #openEntry(String)}.
+   */
+  @CheckForNull
+  static FileRegion findStoredEntry(File file, String name) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      ByteBuffer end = findEndOfDirectory(channel);
+      if (end == null) {
+        return null;
+      }
+      long directorySize = end.getInt(12) & ZIP64_MARKER;
+      long directoryOffset = end.getInt(16) & ZIP64_MARKER;
+      if (directoryOffset == ZIP64_MARKER || directoryOffset + directorySize > channel.size()) {
+        return null;
+      }
+      ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+      return findStoredEntry(file, channel, directory, name.getBytes(Charsets.UTF_8));
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  @CheckForNull
+  private static FileRegion findStoredEntry(File file, FileChannel channel, ByteBuffer directory, byte[] name) throws IOException {
+    int position = 0;
+    while (position + DIRECTORY_ENTRY_SIZE <= directory.limit() && directory.getInt(position) == DIRECTORY_ENTRY_SIGNATURE) {
+      int nameLength = directory.getShort(position + 28) & 0xFFFF;
+      int extraLength = directory.getShort(position + 30) & 0xFFFF;
+      int commentLength = directory.getShort(position + 32) & 0xFFFF;
+      if (nameLength == name.length && position + DIRECTORY_ENTRY_SIZE + nameLength <= directory.limit()) {
+        byte[] entryName = new byte[nameLength];
+        directory.position(position + DIRECTORY_ENTRY_SIZE);
+        directory.get(entryName);
+        if (Arrays.equals(name, entryName)) {
+          return storedData(file, channel, directory, position);
+        }
+      }
+      position += DIRECTORY_ENTRY_SIZE + nameLength + extraLength + commentLength;
+    }
+    return null;
+  }
+
+  @CheckForNull
+  private static FileRegion storedData(File file, FileChannel channel, ByteBuffer directory, int entry) throws IOException {
+    int flags = directory.getShort(entry + 8) & 0xFFFF;
+    int method = directory.getShort(entry + 10) & 0xFFFF;
+    long size = directory.getInt(entry + 20) & ZIP64_MARKER;
+    long headerOffset = directory.getInt(entry + 42) & ZIP64_MARKER;
+    if (method != ZipEntry.STORED || (flags & ENCRYPTED_FLAG) != 0 || size == ZIP64_MARKER || headerOffset == ZIP64_MARKER
+      || headerOffset + LOCAL_HEADER_SIZE > channel.size()) {
+      return null;
+    }
+    ByteBuffer header = read(channel, headerOffset, LOCAL_HEADER_SIZE);
+    if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+      return null;
+    }
+    long dataOffset = headerOffset + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+    return dataOffset + size > channel.size() ? null : new FileRegion(file, dataOffset, size);
+  }
+
+  /**
+   * End of central directory record, searched backwards from the end of the archive as it may be followed by a comment
+   */
+  @CheckForNull
+  private static ByteBuffer findEndOfDirectory(FileChannel channel) throws IOException {
+    long size = channel.size();
+    if (size < END_OF_DIRECTORY_SIZE) {
+      return null;
+    }
+    int tailSize = (int) Math.min(size, END_OF_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+    ByteBuffer tail = read(channel, size - tailSize, tailSize);
+    for (int position = tailSize - END_OF_DIRECTORY_SIZE; position >= 0; position--) {
+      if (tail.getInt(position) == END_OF_DIRECTORY_SIGNATURE) {
+        tail.position(position);
+        return tail.slice().order(ByteOrder.LITTLE_ENDIAN);
+      }
+    }
+    return null;
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of archive");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.zipFile.close();
+  }
+}
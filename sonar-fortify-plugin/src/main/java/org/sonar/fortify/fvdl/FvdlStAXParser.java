@@ -20,176 +20,451 @@
 package org.sonar.fortify.fvdl;
 
 import org.apache.commons.lang.StringUtils;
+import org.codehaus.stax2.XMLStreamReader2;
 import org.codehaus.staxmate.SMInputFactory;
-import org.codehaus.staxmate.in.SMHierarchicCursor;
-import org.codehaus.staxmate.in.SMInputCursor;
+import org.sonar.fortify.base.ElementSkippingInputStream;
 import org.sonar.fortify.base.FortifyUtils;
+import org.sonar.fortify.base.StaxBackend;
+import org.sonar.fortify.base.StaxProfile;
 import org.sonar.fortify.fvdl.element.*;
 import org.xml.sax.SAXException;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.stream.XMLStreamException;
 
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 
 public class FvdlStAXParser {
-  Fvdl parse(InputStream inputStream) throws ParserConfigurationException, SAXException, IOException {
+  private static final int NO_NODE_REF = -1;
+  // documents read by the scanner are encoded in UTF-8, the default encoding of the ranges
+  private static final byte[] NO_XML_DECLARATION = new byte[0];
 
-    SMInputFactory inputFactory = FortifyUtils.newStaxParser();
-    try {
-      SMHierarchicCursor rootC = inputFactory.rootElementCursor(inputStream);
-      rootC.advance(); // <FVDL>
+  /**
+   * Sections and elements which are never read, removed from the stream before it is tokenized
+   */
+  private static final Collection<String> SKIPPED_ELEMENTS = Arrays.asList(
+    // top-level sections
+    "Snippets", "ProgramData", "EngineData",
+    // parts of descriptions and vulnerabilities
+    "Explanation", "Recommendations", "Tips", "References", "Context", "Knowledge");
 
-      SMInputCursor childCursor = rootC.childCursor();
+  private final StaxBackend backend;
+  private final FvdlSymbolTable symbols;
+  private FingerprintSet excludedInstanceIDs;
+  private VulnerabilityFilter filter;
+  private boolean reuseVulnerabilities = false;
+  private File workDir;
 
-      Build build = null;
-      Collection<Description> descriptions = new ArrayList<Description>();
-      Collection<Vulnerability> vulnerabilities = null;
+  /**
+   * Set while a file is parsed in parallel, null otherwise
+   */
+  private ParallelVulnerabilityParser parallelParser;
 
-      while (childCursor.getNext() != null) {
-        String nodeName = childCursor.getLocalName();
+  /**
+   * Set while a scanned document records the ranges of its vulnerabilities, null otherwise
+   */
+  private VulnerabilityRanges recordedRanges;
 
-        if ("Build".equals(nodeName)) {
-          build = processBuild(childCursor);
-        } else if ("Description".equals(nodeName)) {
-          descriptions.add(processDescription(childCursor));
-        } else if ("Vulnerabilities".equals(nodeName)) {
-          vulnerabilities = processVulnerabilities(childCursor);
-        }
-      }
+  public FvdlStAXParser() {
+    this(StaxBackend.DEFAULT);
+  }
+
+  public FvdlStAXParser(StaxBackend backend) {
+    this(backend, new FvdlSymbolTable());
+  }
+
+  FvdlStAXParser(StaxBackend backend, FvdlSymbolTable symbols) {
+    this.backend = backend;
+    this.symbols = symbols;
+  }
+
+  /**
+   * Vulnerabilities with these instance ids are dropped as soon as their &lt;InstanceInfo&gt; is read: the rest of their
+   * element is skipped and they are not handed over. They still count in ordinals.
+   */
+  void excludeInstanceIDs(@Nullable FingerprintSet instanceIDs) {
+    this.excludedInstanceIDs = instanceIDs;
+  }
+
+  /**
+   * Vulnerabilities rejected by the filter are dropped as soon as the rejected part is read, the rest of their element is skipped.
+   * Like excluded vulnerabilities, they still count in ordinals.
+   */
+  void setFilter(@Nullable VulnerabilityFilter filter) {
+    this.filter = filter;
+  }
+
+  /**
+   * When enabled, the vulnerabilities of a streamed report are read into one reused record, see {@link VulnerabilityRecordHandler}.
+   * Vulnerabilities parsed in parallel are always distinct instances.
+   */
+  void reuseVulnerabilities(boolean reuse) {
+    this.reuseVulnerabilities = reuse;
+  }
 
-      return new Fvdl(build, descriptions, vulnerabilities);
+  /**
+   * Directory of the temporary file into which vulnerabilities are held until the node pool is read, see
+   * {@link #parse(InputStream, VulnerabilityHandler)}. The default temporary directory when not set.
+   */
+  void setWorkDir(@Nullable File workDir) {
+    this.workDir = workDir;
+  }
+
+  /**
+   * Parser of a chunk of the &lt;Vulnerabilities&gt; section, with the same settings.
+   */
+  FvdlStAXParser newChunkParser() {
+    FvdlStAXParser parser = new FvdlStAXParser(this.backend, this.symbols);
+    parser.excludeInstanceIDs(this.excludedInstanceIDs);
+    parser.setFilter(this.filter);
+    return parser;
+  }
 
+  Fvdl parse(InputStream inputStream) throws ParserConfigurationException, SAXException, IOException {
+    FvdlCollector collector = new FvdlCollector();
+    parse(inputStream, collector);
+    return collector.getFvdl();
+  }
+
+  /**
+   * Streams the report to the handler: each vulnerability is handed over as soon as its element is read, unless its
+   * location is a node of the &lt;UnifiedNodePool&gt; section, which follows the vulnerabilities. From such a
+   * vulnerability on, vulnerabilities are held in a temporary file until the pool is read, so that they are still handed
+   * over in document order.
+   */
+  void parse(InputStream inputStream, VulnerabilityHandler vulnerabilityHandler) throws ParserConfigurationException, SAXException, IOException {
+    NodeBinder handler = new NodeBinder(vulnerabilityHandler);
+    SMInputFactory inputFactory = FortifyUtils.getStaxParser(this.backend, StaxProfile.FVDL);
+    try {
+      XMLStreamReader2 streamReader = inputFactory.createStax2Reader(new ElementSkippingInputStream(inputStream, SKIPPED_ELEMENTS));
+      try {
+        StaxElementReader reader = new StaxElementReader(streamReader);
+        if (reader.nextChild()) {
+          // <FVDL>
+          readSections(reader, handler);
+        }
+        handler.flush();
+      } finally {
+        handler.close();
+        streamReader.close();
+      }
     } catch (XMLStreamException e) {
       throw new IllegalStateException("XML is not valid", e);
     }
   }
 
-  private Collection<Vulnerability> processVulnerabilities(SMInputCursor vulnsC) throws XMLStreamException {
-    Collection<Vulnerability> vulnerabilities = new ArrayList<Vulnerability>();
-    SMInputCursor vulnCursor = vulnsC.childElementCursor("Vulnerability");
-    while (vulnCursor.getNext() != null) {
-      vulnerabilities.add(processVulnerability(vulnCursor));
+  /**
+   * Parses a FVDL file with several threads. Vulnerabilities are handed over in document order,
+   * exactly like {@link #parse(InputStream, VulnerabilityHandler)} does. The ranges found to split the work are handed
+   * over to a {@link VulnerabilityRangeHandler}.
+   */
+  void parse(File file, VulnerabilityHandler handler, int threads, int bufferSize) throws ParserConfigurationException, SAXException, IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      VulnerabilityRangeScanner ranges = VulnerabilityRangeScanner.scan(channel);
+      InputStream stream;
+      if (ranges.hasSection()) {
+        this.parallelParser = new ParallelVulnerabilityParser(this, channel, ranges, threads, bufferSize);
+        stream = this.parallelParser.openDocumentWithoutVulnerabilities();
+      } else {
+        stream = new BufferedInputStream(new FileRangeInputStream(channel, 0, channel.size()), bufferSize);
+      }
+      parse(stream, handler);
+      if (ranges.hasSection() && handler instanceof VulnerabilityRangeHandler) {
+        ((VulnerabilityRangeHandler) handler).onVulnerabilityRanges(ranges.getRanges());
+      }
+    } finally {
+      this.parallelParser = null;
+      randomAccessFile.close();
     }
-    return vulnerabilities;
   }
 
-  private Vulnerability processVulnerability(SMInputCursor vulnCursor) throws XMLStreamException {
-    Vulnerability vulnerability = new Vulnerability();
-    SMInputCursor childCursor = vulnCursor.childCursor();
-    while (childCursor.getNext() != null) {
-      String nodeName = childCursor.getLocalName();
+  /**
+   * Reads a FVDL file with the byte-level scanner of {@link MappedXmlReader} instead of StAX. Vulnerabilities are handed
+   * over exactly like {@link #parse(InputStream, VulnerabilityHandler)} does.
+   * @return false if the file cannot be scanned, because it is not encoded in UTF-8 or because it is too large to be mapped
+   */
+  boolean scan(File file, VulnerabilityHandler vulnerabilityHandler) throws IOException {
+    return scan(FileRegion.of(file), vulnerabilityHandler);
+  }
 
-      if ("ClassInfo".equals(nodeName)) {
-        processClassInfo(childCursor, vulnerability);
-      } else if ("InstanceInfo".equals(nodeName)) {
-        processInstanceInfo(childCursor, vulnerability);
-      } else if ("AnalysisInfo".equals(nodeName)) {
-        processAnalysisInfo(childCursor, vulnerability);
+  /**
+   * Same as {@link #scan(File, VulnerabilityHandler)}, for a document held by a region of a file, such as an entry stored
+   * without compression in a FPR archive. The ranges of the vulnerabilities in the region are handed over to a
+   * {@link VulnerabilityRangeHandler}.
+   */
+  boolean scan(FileRegion region, VulnerabilityHandler vulnerabilityHandler) throws IOException {
+    MappedXmlReader reader = MappedXmlReader.open(region);
+    if (reader == null) {
+      return false;
+    }
+    NodeBinder handler = new NodeBinder(vulnerabilityHandler);
+    if (vulnerabilityHandler instanceof VulnerabilityRangeHandler) {
+      this.recordedRanges = new VulnerabilityRanges(NO_XML_DECLARATION);
+    }
+    try {
+      if (reader.nextChild()) {
+        // <FVDL>
+        readSections(reader, handler);
+      }
+      handler.flush();
+      if (this.recordedRanges != null) {
+        ((VulnerabilityRangeHandler) vulnerabilityHandler).onVulnerabilityRanges(this.recordedRanges);
       }
+      return true;
+    } catch (XMLStreamException e) {
+      throw new IllegalStateException("XML is not valid", e);
+    } finally {
+      this.recordedRanges = null;
+      handler.close();
+      reader.close();
     }
-    return vulnerability;
   }
 
-  private void processAnalysisInfo(SMInputCursor paCursor, Vulnerability vulnerability) throws XMLStreamException {
-    SMInputCursor unifiedCursor = paCursor.childElementCursor("Unified");
-    if (unifiedCursor.getNext() != null) {
-      SMInputCursor childCursor = unifiedCursor.childCursor();
-      while (childCursor.getNext() != null) {
-        String nodeName = childCursor.getLocalName();
-
-        if ("Trace".equals(nodeName)) {
-          processTrace(childCursor, vulnerability);
-        } else if ("ReplacementDefinitions".equals(nodeName)) {
-          processReplacementDefinitions(childCursor, vulnerability);
+  /**
+   * Reads the sections of the document, from the start of its root element to its end. Streamed and scanned reports
+   * are read by the same code.
+   */
+  private void readSections(ElementReader reader, NodeBinder handler) throws XMLStreamException {
+    while (reader.nextChild()) {
+      if (reader.isElement("Build")) {
+        Build build = readBuild(reader);
+        if (build != null) {
+          handler.onBuild(build);
         }
+      } else if (reader.isElement("Description")) {
+        handler.onDescription(readDescription(reader));
+      } else if (reader.isElement("Vulnerabilities")) {
+        readVulnerabilities(reader, handler);
+      } else if (reader.isElement("UnifiedNodePool")) {
+        handler.setNodePool(readNodePool(reader));
+      } else {
+        reader.skipElement();
       }
     }
   }
 
-  private void processReplacementDefinitions(SMInputCursor repDefsCursor, Vulnerability vulnerability) throws XMLStreamException {
-    SMInputCursor repDefCursor = repDefsCursor.childElementCursor("Def");
-    while (repDefCursor.getNext() != null) {
-      vulnerability.addReplacementDefinition(new ReplacementDefinition(repDefCursor.getAttrValue("key"), repDefCursor.getAttrValue("value")));
+  @CheckForNull
+  private static Build readBuild(ElementReader reader) throws XMLStreamException {
+    Build build = null;
+    while (reader.nextChild()) {
+      if (build == null && reader.isElementIgnoreCase("SourceBasePath")) {
+        build = new Build(StringUtils.trim(reader.getElementText()));
+      } else {
+        reader.skipElement();
+      }
     }
-
+    return build;
   }
 
-  private void processTrace(SMInputCursor traceCursor, Vulnerability vulnerability) throws XMLStreamException {
-    SMInputCursor primaryCursor = traceCursor.childElementCursor("Primary");
-    if (primaryCursor.getNext() != null) {
-      SMInputCursor entryCursor = primaryCursor.childElementCursor("Entry");
-      while (entryCursor.getNext() != null) {
-        processNode(vulnerability, entryCursor);
+  private static Description readDescription(ElementReader reader) throws XMLStreamException {
+    Description description = new Description();
+    description.setClassID(reader.getAttribute("classID"));
+    boolean abstractRead = false;
+    while (reader.nextChild()) {
+      if (!abstractRead && reader.isElement("Abstract")) {
+        description.setAbstract(StringUtils.trim(reader.getElementText()));
+        abstractRead = true;
+      } else {
+        reader.skipElement();
       }
     }
+    return description;
   }
 
-  private void processNode(Vulnerability vulnerability, SMInputCursor entryCursor) throws XMLStreamException {
-    SMInputCursor nodeCursor = entryCursor.childElementCursor("Node");
-    if (nodeCursor.getNext() != null && "true".equals(nodeCursor.getAttrValue("isDefault"))) {
-      SMInputCursor sourceLocationCursor = nodeCursor.childElementCursor("SourceLocation");
-      if (sourceLocationCursor.getNext() != null) {
-        vulnerability.setPath(sourceLocationCursor.getAttrValue("path"));
-        vulnerability.setLine(Integer.valueOf(sourceLocationCursor.getAttrValue("line")));
+  /**
+   * Primary locations of the nodes of the pool
+   */
+  private NodePool readNodePool(ElementReader reader) throws XMLStreamException {
+    NodePool pool = new NodePool();
+    while (reader.nextChild()) {
+      if (reader.isElement("Node")) {
+        int id = reader.getAttributeAsInt("id", NO_NODE_REF);
+        boolean locationRead = false;
+        while (reader.nextChild()) {
+          if (id != NO_NODE_REF && !locationRead && reader.isElement("SourceLocation")) {
+            pool.add(id, this.symbols.intern(reader.getAttribute("path")), reader.getAttributeAsInt("line", NodePool.NO_LINE),
+              reader.getAttribute("snippet"));
+            locationRead = true;
+          }
+          reader.skipElement();
+        }
+      } else {
+        reader.skipElement();
       }
     }
+    return pool;
   }
 
-  private void processInstanceInfo(SMInputCursor instanceInfoCursor, Vulnerability vulnerability) throws XMLStreamException {
-    SMInputCursor childCursor = instanceInfoCursor.childCursor();
-    while (childCursor.getNext() != null) {
-      String nodeName = childCursor.getLocalName();
+  /**
+   * Reads the section from its start element to its end element. Vulnerabilities are distinct instances unless
+   * {@link #reuseVulnerabilities(boolean)} is enabled.
+   */
+  private void readVulnerabilities(ElementReader reader, VulnerabilityHandler handler) throws XMLStreamException {
+    if (this.parallelParser != null) {
+      // the content of the section is left out of the document, see ParallelVulnerabilityParser#openDocumentWithoutVulnerabilities()
+      this.parallelParser.parseVulnerabilities(handler);
+      reader.skipElement();
+      return;
+    }
+    new VulnerabilityRecordReader(this.symbols, this.excludedInstanceIDs, this.filter, this.reuseVulnerabilities).read(reader, handler, this.recordedRanges);
+  }
 
-      if ("InstanceID".equals(nodeName)) {
-        vulnerability.setInstanceID(StringUtils.trim(childCursor.collectDescendantText(false)));
-      } else if ("InstanceSeverity".equals(nodeName)) {
-        vulnerability.setInstanceSeverity(FortifyUtils.fortifyToSonarQubeSeverity(StringUtils.trim(childCursor.collectDescendantText(false))));
+  /**
+   * Parses a document whose root element is &lt;Vulnerabilities&gt;.
+   */
+  void parseVulnerabilities(InputStream inputStream, VulnerabilityHandler handler) throws XMLStreamException {
+    SMInputFactory inputFactory = FortifyUtils.getStaxParser(this.backend, StaxProfile.FVDL);
+    XMLStreamReader2 streamReader = inputFactory.createStax2Reader(new ElementSkippingInputStream(inputStream, SKIPPED_ELEMENTS));
+    try {
+      StaxElementReader reader = new StaxElementReader(streamReader);
+      if (reader.nextChild()) {
+        // <Vulnerabilities>
+        readVulnerabilities(reader, handler);
       }
+    } finally {
+      streamReader.close();
     }
   }
 
-  private void processClassInfo(SMInputCursor classInfoCursor, Vulnerability vulnerability) throws XMLStreamException {
-    SMInputCursor childCursor = classInfoCursor.childCursor();
-    while (childCursor.getNext() != null) {
-      String nodeName = childCursor.getLocalName();
+  /**
+   * Whether the location of the vulnerability is still to be read from the node pool
+   */
+  private static boolean isUnbound(Vulnerability vulnerability) {
+    return vulnerability.getPath() == null && vulnerability.getNodeRef() != NO_NODE_REF;
+  }
+
+  private boolean acceptsPath(Vulnerability vulnerability) {
+    return this.filter == null || !this.filter.hasPathConditions() || this.filter.acceptsPath(vulnerability.getPath());
+  }
+
+  /**
+   * Holds the vulnerabilities which refer to the node pool, and the ones which follow them, until the pool is read.
+   * Held vulnerabilities are written to a temporary file of the working directory, see {@link #setWorkDir(File)}.
+   */
+  private class NodeBinder implements VulnerabilityHandler, Closeable {
+    private final VulnerabilityHandler handler;
+    private VulnerabilityBuffer heldVulnerabilities;
+    private NodePool nodePool;
+
+    NodeBinder(VulnerabilityHandler handler) {
+      this.handler = handler;
+    }
+
+    @Override
+    public void onBuild(Build build) {
+      this.handler.onBuild(build);
+    }
 
-      if ("ClassID".equals(nodeName)) {
-        vulnerability.setClassID(StringUtils.trim(childCursor.collectDescendantText(false)));
-      } else if ("Kingdom".equals(nodeName)) {
-        vulnerability.setKingdom(StringUtils.trim(childCursor.collectDescendantText(false)));
-      } else if ("Type".equals(nodeName)) {
-        vulnerability.setType(StringUtils.trim(childCursor.collectDescendantText(false)));
-      } else if ("Subtype".equals(nodeName)) {
-        vulnerability.setSubtype(StringUtils.trim(childCursor.collectDescendantText(false)));
+    @Override
+    public void onVulnerability(Vulnerability vulnerability) {
+      if (this.nodePool == null && (this.heldVulnerabilities != null || isUnbound(vulnerability))) {
+        hold(vulnerability);
+      } else {
+        bind(vulnerability);
       }
     }
-  }
 
-  private Description processDescription(SMInputCursor descC) throws XMLStreamException {
-    Description description = new Description();
-    description.setClassID(descC.getAttrValue("classID"));
-    SMInputCursor abstractCursor = descC.childElementCursor("Abstract");
-    if (abstractCursor.getNext() != null) {
-      description.setAbstract(StringUtils.trim(abstractCursor.collectDescendantText(false)));
+    private void hold(Vulnerability vulnerability) {
+      if (this.heldVulnerabilities == null) {
+        this.heldVulnerabilities = new VulnerabilityBuffer(FvdlStAXParser.this.workDir, "fortify-held-vulnerabilities");
+      }
+      try {
+        this.heldVulnerabilities.add(vulnerability);
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to hold Fortify vulnerability " + vulnerability.getInstanceID(), e);
+      }
     }
-    return description;
-  }
 
-  private Build processBuild(SMInputCursor buildC) throws XMLStreamException {
-    SMInputCursor childCursor = buildC.childCursor();
-    while (childCursor.getNext() != null) {
-      String nodeName = childCursor.getLocalName();
+    @Override
+    public void onDescription(Description description) {
+      this.handler.onDescription(description);
+    }
 
-      if (StringUtils.equalsIgnoreCase("SourceBasePath", nodeName)) {
-        String sourceBasePath = StringUtils.trim(childCursor.collectDescendantText(false));
-        return new Build(sourceBasePath);
+    void setNodePool(NodePool nodePool) {
+      this.nodePool = nodePool;
+      flush();
+      if (this.handler instanceof NodePoolHandler) {
+        ((NodePoolHandler) this.handler).onNodePool(nodePool);
       }
     }
 
-    return null;
+    /**
+     * Hands over the held vulnerabilities, with the locations of the pool if it was read.
+     */
+    void flush() {
+      if (this.heldVulnerabilities == null) {
+        return;
+      }
+      try {
+        this.heldVulnerabilities.replay(new VulnerabilityBuffer.Consumer() {
+          @Override
+          public void accept(Vulnerability vulnerability, String[] tags) {
+            bind(vulnerability);
+          }
+        });
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to read held Fortify vulnerabilities", e);
+      } finally {
+        close();
+      }
+    }
+
+    /**
+     * Deletes the file of the held vulnerabilities
+     */
+    @Override
+    public void close() {
+      if (this.heldVulnerabilities != null) {
+        this.heldVulnerabilities.close();
+        this.heldVulnerabilities = null;
+      }
+    }
+
+    private void bind(Vulnerability vulnerability) {
+      if (isUnbound(vulnerability) && this.nodePool != null) {
+        this.nodePool.bind(vulnerability);
+      }
+      if (acceptsPath(vulnerability)) {
+        this.handler.onVulnerability(vulnerability);
+      }
+    }
+  }
+
+  private static class FvdlCollector implements VulnerabilityHandler {
+    private Build build;
+    private final Collection<Description> descriptions = new ArrayList<Description>();
+    private final Collection<Vulnerability> vulnerabilities = new ArrayList<Vulnerability>();
+
+    @Override
+    public void onBuild(Build build) {
+      this.build = build;
+    }
+
+    @Override
+    public void onVulnerability(Vulnerability vulnerability) {
+      this.vulnerabilities.add(vulnerability);
+    }
+
+    @Override
+    public void onDescription(Description description) {
+      this.descriptions.add(description);
+    }
+
+    Fvdl getFvdl() {
+      return new Fvdl(this.build, this.descriptions, this.vulnerabilities);
+    }
   }
 }
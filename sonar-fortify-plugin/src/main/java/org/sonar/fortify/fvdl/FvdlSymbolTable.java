@@ -0,0 +1,60 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import org.sonar.fortify.fvdl.element.VulnerabilityClass;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Canonical instances of the values repeated across the vulnerabilities of a report: classifications, paths and
+ * replacement keys. It is shared by the threads parsing the same report.
+ */
+class FvdlSymbolTable {
+  private final ConcurrentMap<String, String> strings = new ConcurrentHashMap<String, String>();
+  private final ConcurrentMap<VulnerabilityClass, VulnerabilityClass> classes = new ConcurrentHashMap<VulnerabilityClass, VulnerabilityClass>();
+
+  @CheckForNull
+  String intern(@Nullable String value) {
+    if (value == null) {
+      return null;
+    }
+    String previous = this.strings.putIfAbsent(value, value);
+    return previous == null ? value : previous;
+  }
+
+  VulnerabilityClass classOf(@Nullable String classID, @Nullable String kingdom, @Nullable String type, @Nullable String subtype) {
+    VulnerabilityClass vulnerabilityClass = new VulnerabilityClass(classID, kingdom, type, subtype);
+    VulnerabilityClass previous = this.classes.putIfAbsent(vulnerabilityClass, vulnerabilityClass);
+    return previous == null ? vulnerabilityClass : previous;
+  }
+
+  int stringCount() {
+    return this.strings.size();
+  }
+
+  int classCount() {
+    return this.classes.size();
+  }
+}
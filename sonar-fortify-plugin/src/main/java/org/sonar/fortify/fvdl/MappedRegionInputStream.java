@@ -0,0 +1,108 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a region of a file through memory-mapped windows: bytes are copied from the page cache straight into the buffers
+ * of the reader, without system calls nor intermediate buffers. Reads are already bulk, the stream needs no buffering.
+ */
+class MappedRegionInputStream extends InputStream {
+  static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+  private final RandomAccessFile file;
+  private final long end;
+  private final int windowSize;
+  private long windowStart;
+  private ByteBuffer window;
+
+  MappedRegionInputStream(FileRegion region) throws IOException {
+    this(region, WINDOW_SIZE);
+  }
+
+  MappedRegionInputStream(FileRegion region, int windowSize) throws IOException {
+    this.file = new RandomAccessFile(region.getFile(), "r");
+    this.end = region.getOffset() + region.getLength();
+    this.windowSize = windowSize;
+    this.windowStart = region.getOffset();
+    this.window = ByteBuffer.allocate(0);
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!this.window.hasRemaining() && !nextWindow()) {
+      return -1;
+    }
+    return this.window.get() & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!this.window.hasRemaining() && !nextWindow()) {
+      return -1;
+    }
+    int n = Math.min(len, this.window.remaining());
+    this.window.get(b, off, n);
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = 0;
+    while (skipped < n && (this.window.hasRemaining() || nextWindow())) {
+      int step = (int) Math.min(n - skipped, this.window.remaining());
+      this.window.position(this.window.position() + step);
+      skipped += step;
+    }
+    return skipped;
+  }
+
+  @Override
+  public int available() {
+    return this.window.remaining();
+  }
+
+  /**
+   * Maps the window following the current one
+   * @return false at the end of the region
+   */
+  private boolean nextWindow() throws IOException {
+    this.windowStart += this.window.limit();
+    long size = Math.min(this.windowSize, this.end - this.windowStart);
+    if (size <= 0) {
+      return false;
+    }
+    this.window = this.file.getChannel().map(FileChannel.MapMode.READ_ONLY, this.windowStart, size);
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.file.close();
+  }
+}
@@ -0,0 +1,674 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.lang.StringUtils;
+
+import javax.annotation.CheckForNull;
+import javax.xml.stream.XMLStreamException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+/**
+ * {@link ElementReader} which searches the markup of a memory-mapped UTF-8 document byte by byte. The document is either
+ * a whole file or a region of a file. Names are compared
+ * as bytes and numbers are parsed from bytes: only the texts and attribute values which are asked for are decoded.
+ * The document is expected to be well-formed, only the markup needed to find elements is checked.
+ */
+class MappedXmlReader implements ElementReader, Closeable {
+  private static final byte[] XML_DECLARATION = "<?xml".getBytes(Charsets.US_ASCII);
+  private static final byte[] COMMENT_START = "<!--".getBytes(Charsets.US_ASCII);
+  private static final byte[] COMMENT_END = "-->".getBytes(Charsets.US_ASCII);
+  private static final byte[] CDATA_START = "<![CDATA[".getBytes(Charsets.US_ASCII);
+  private static final byte[] CDATA_END = "]]>".getBytes(Charsets.US_ASCII);
+  private static final byte[] PI_END = "?>".getBytes(Charsets.US_ASCII);
+  private static final int START_TAG = 0;
+  private static final int END_TAG = 1;
+  private static final int OTHER_MARKUP = 2;
+  /**
+   * Powers of ten which are exact doubles, see {@link #parseDecimal(int, int)}
+   */
+  private static final double[] POWERS_OF_TEN = new double[23];
+  private static final int MAX_EXACT_DIGITS = 15;
+
+  static {
+    POWERS_OF_TEN[0] = 1.0;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+    }
+  }
+
+  private final RandomAccessFile file;
+  private final ByteBuffer buffer;
+  private final int limit;
+  private final StringBuilder text = new StringBuilder();
+  private byte[] bytes = new byte[256];
+
+  /**
+   * Position following the last markup read
+   */
+  private int position;
+
+  /**
+   * Position, local name and attributes of the last start tag read
+   */
+  private int startTagStart;
+  private int nameStart;
+  private int nameEnd;
+  private int attributesStart;
+  private int attributesEnd;
+
+  /**
+   * The last start tag read is an empty-element tag whose end is not reached yet
+   */
+  private boolean emptyElement;
+
+  /**
+   * Value of the last attribute found
+   */
+  private int valueStart;
+  private int valueEnd;
+
+  private MappedXmlReader(RandomAccessFile file, ByteBuffer buffer, int start) {
+    this.file = file;
+    this.buffer = buffer;
+    this.limit = buffer.limit();
+    this.position = start;
+  }
+
+  /**
+   * Maps the file, before its root element.
+   * @return null if the document is not encoded in UTF-8 or is too large to be mapped at once
+   */
+  @CheckForNull
+  static MappedXmlReader open(File file) throws IOException {
+    return open(FileRegion.of(file));
+  }
+
+  /**
+   * Maps a region of a file which holds a whole document, such as an entry stored in a FPR archive.
+   * @return null if the document is not encoded in UTF-8 or is too large to be mapped at once
+   */
+  @CheckForNull
+  static MappedXmlReader open(FileRegion region) throws IOException {
+    if (region.getLength() > Integer.MAX_VALUE) {
+      return null;
+    }
+    RandomAccessFile randomAccessFile = new RandomAccessFile(region.getFile(), "r");
+    MappedXmlReader reader = null;
+    try {
+      ByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, region.getOffset(), region.getLength());
+      int start = utf8Start(buffer);
+      if (start >= 0) {
+        reader = new MappedXmlReader(randomAccessFile, buffer, start);
+      }
+      return reader;
+    } finally {
+      if (reader == null) {
+        randomAccessFile.close();
+      }
+    }
+  }
+
+  /**
+   * @return the position following the byte order mark, -1 if the document is not encoded in UTF-8 or in ASCII
+   */
+  private static int utf8Start(ByteBuffer buffer) {
+    int limit = buffer.limit();
+    if (limit >= 3 && (buffer.get(0) & 0xFF) == 0xEF && (buffer.get(1) & 0xFF) == 0xBB && (buffer.get(2) & 0xFF) == 0xBF) {
+      return 3;
+    }
+    if (limit >= 2 && (buffer.get(0) == 0 || buffer.get(1) == 0 || (buffer.get(0) & 0xFF) >= 0xFE)) {
+      // UTF-16 or UTF-32
+      return -1;
+    }
+    if (!startsWith(buffer, 0, XML_DECLARATION)) {
+      return 0;
+    }
+    StringBuilder declaration = new StringBuilder();
+    for (int i = 0; i < limit && buffer.get(i) != '>'; i++) {
+      declaration.append((char) buffer.get(i));
+    }
+    String encoding = StringUtils.substringBetween(declaration.toString().replace('\'', '"'), "encoding", "?");
+    if (encoding == null) {
+      return 0;
+    }
+    encoding = StringUtils.substringBetween(encoding, "\"", "\"");
+    String name = StringUtils.trimToEmpty(encoding).toUpperCase(Locale.ENGLISH);
+    return "UTF-8".equals(name) || "UTF8".equals(name) || "US-ASCII".equals(name) || "ASCII".equals(name) ? 0 : -1;
+  }
+
+  private static boolean startsWith(ByteBuffer buffer, int position, byte[] prefix) {
+    if (position + prefix.length > buffer.limit()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (buffer.get(position + i) != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean nextChild() throws XMLStreamException {
+    if (this.emptyElement) {
+      this.emptyElement = false;
+      return false;
+    }
+    while (true) {
+      int kind = readMarkup(nextTag(this.position));
+      if (kind == START_TAG) {
+        return true;
+      } else if (kind == END_TAG) {
+        return false;
+      }
+    }
+  }
+
+  @Override
+  public boolean isElement(String localName) {
+    int length = this.nameEnd - this.nameStart;
+    if (length != localName.length()) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (this.buffer.get(this.nameStart + i) != localName.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Same as {@link #isElement(String)}, ignoring the case of ASCII letters
+   */
+  @Override
+  public boolean isElementIgnoreCase(String localName) {
+    int length = this.nameEnd - this.nameStart;
+    if (length != localName.length()) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      char c = (char) this.buffer.get(this.nameStart + i);
+      if (Character.toLowerCase(c) != Character.toLowerCase(localName.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public long getStartOffset() {
+    return this.startTagStart;
+  }
+
+  @Override
+  public long getEndOffset() {
+    return this.position;
+  }
+
+  @Override
+  public void skipElement() throws XMLStreamException {
+    if (this.emptyElement) {
+      this.emptyElement = false;
+      return;
+    }
+    int depth = 1;
+    while (depth > 0) {
+      int kind = readMarkup(nextTag(this.position));
+      if (kind == START_TAG) {
+        if (this.emptyElement) {
+          this.emptyElement = false;
+        } else {
+          depth++;
+        }
+      } else if (kind == END_TAG) {
+        depth--;
+      }
+    }
+  }
+
+  /**
+   * Text of the element and of its descendants, as collected by StAX cursors
+   */
+  @Override
+  public String getElementText() throws XMLStreamException {
+    if (this.emptyElement) {
+      this.emptyElement = false;
+      return "";
+    }
+    int textStart = this.position;
+    int tagStart = nextTag(textStart);
+    if (byteAt(tagStart + 1) == '/') {
+      readMarkup(tagStart);
+      return decode(textStart, tagStart, false);
+    }
+    this.text.setLength(0);
+    int depth = 1;
+    int from = textStart;
+    while (true) {
+      tagStart = nextTag(from);
+      unescape(utf8(from, tagStart), false, this.text);
+      if (startsWith(this.buffer, tagStart, CDATA_START)) {
+        int cdataEnd = indexOf(CDATA_END, tagStart + CDATA_START.length);
+        normalizeLineBreaks(utf8(tagStart + CDATA_START.length, cdataEnd), this.text);
+        from = cdataEnd + CDATA_END.length;
+        continue;
+      }
+      int kind = readMarkup(tagStart);
+      from = this.position;
+      if (kind == START_TAG) {
+        if (this.emptyElement) {
+          this.emptyElement = false;
+        } else {
+          depth++;
+        }
+      } else if (kind == END_TAG && --depth == 0) {
+        return this.text.toString();
+      }
+    }
+  }
+
+  /**
+   * Plain decimal numbers are parsed from bytes, other numbers from the text of the element.
+   */
+  @Override
+  public double getElementAsDouble() throws XMLStreamException {
+    if (!this.emptyElement) {
+      int textStart = this.position;
+      int tagStart = nextTag(textStart);
+      if (byteAt(tagStart + 1) == '/') {
+        double value = parseDecimal(textStart, tagStart);
+        if (!Double.isNaN(value)) {
+          readMarkup(tagStart);
+          return value;
+        }
+      }
+    }
+    String value = StringUtils.trim(getElementText());
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      throw new XMLStreamException("Invalid double value \"" + value + "\"", e);
+    }
+  }
+
+  @CheckForNull
+  @Override
+  public String getAttribute(String localName) throws XMLStreamException {
+    return findAttribute(localName) ? decode(this.valueStart, this.valueEnd, true) : null;
+  }
+
+  @Override
+  public int getAttributeAsInt(String localName, int defaultValue) throws XMLStreamException {
+    if (!findAttribute(localName)) {
+      return defaultValue;
+    }
+    int start = skipWhitespace(this.valueStart, this.valueEnd);
+    int end = this.valueEnd;
+    while (end > start && isWhitespace(this.buffer.get(end - 1))) {
+      end--;
+    }
+    boolean negative = start < end && this.buffer.get(start) == '-';
+    if (start < end && (negative || this.buffer.get(start) == '+')) {
+      start++;
+    }
+    if (start == end || end - start > 10) {
+      return defaultValue;
+    }
+    long value = 0;
+    for (int i = start; i < end; i++) {
+      int digit = this.buffer.get(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return defaultValue;
+      }
+      value = value * 10 + digit;
+    }
+    value = negative ? -value : value;
+    return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? defaultValue : (int) value;
+  }
+
+  @Override
+  public boolean getAttributeAsBoolean(String localName) throws XMLStreamException {
+    if (!findAttribute(localName)) {
+      return false;
+    }
+    int start = skipWhitespace(this.valueStart, this.valueEnd);
+    int end = this.valueEnd;
+    while (end > start && isWhitespace(this.buffer.get(end - 1))) {
+      end--;
+    }
+    return nameEquals(start, end, "true") || nameEquals(start, end, "1");
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.file.close();
+  }
+
+  /**
+   * Looks for an attribute of the last start tag, and keeps the range of its value.
+   */
+  private boolean findAttribute(String localName) throws XMLStreamException {
+    int i = this.attributesStart;
+    while (true) {
+      i = skipWhitespace(i, this.attributesEnd);
+      if (i >= this.attributesEnd) {
+        return false;
+      }
+      int attributeNameStart = i;
+      while (i < this.attributesEnd && this.buffer.get(i) != '=' && !isWhitespace(this.buffer.get(i))) {
+        i++;
+      }
+      int attributeNameEnd = i;
+      i = skipWhitespace(i, this.attributesEnd);
+      if (i >= this.attributesEnd || this.buffer.get(i) != '=') {
+        throw new XMLStreamException("Attribute without value at position " + attributeNameStart);
+      }
+      i = skipWhitespace(i + 1, this.attributesEnd);
+      byte quote = byteAt(i);
+      if (quote != '"' && quote != '\'') {
+        throw new XMLStreamException("Unquoted attribute value at position " + i);
+      }
+      int start = i + 1;
+      int end = indexOf(quote, start);
+      i = end + 1;
+      if (nameEquals(attributeNameStart, attributeNameEnd, localName)) {
+        this.valueStart = start;
+        this.valueEnd = end;
+        return true;
+      }
+    }
+  }
+
+  private boolean nameEquals(int start, int end, String name) {
+    if (end - start != name.length()) {
+      return false;
+    }
+    for (int i = start; i < end; i++) {
+      if (this.buffer.get(i) != name.charAt(i - start)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads the markup which starts at the given position, and moves after it.
+   * @return {@link #START_TAG}, {@link #END_TAG}, or {@link #OTHER_MARKUP} for comments, CDATA sections, processing instructions
+   * and document type declarations
+   */
+  private int readMarkup(int tagStart) throws XMLStreamException {
+    byte next = byteAt(tagStart + 1);
+    if (next == '/') {
+      this.position = indexOf((byte) '>', tagStart + 2) + 1;
+      return END_TAG;
+    } else if (next == '?') {
+      this.position = indexOf(PI_END, tagStart + 2) + PI_END.length;
+      return OTHER_MARKUP;
+    } else if (next == '!') {
+      if (startsWith(this.buffer, tagStart, COMMENT_START)) {
+        this.position = indexOf(COMMENT_END, tagStart + COMMENT_START.length) + COMMENT_END.length;
+      } else if (startsWith(this.buffer, tagStart, CDATA_START)) {
+        this.position = indexOf(CDATA_END, tagStart + CDATA_START.length) + CDATA_END.length;
+      } else {
+        this.position = skipDeclaration(tagStart + 2);
+      }
+      return OTHER_MARKUP;
+    }
+    readStartTag(tagStart);
+    return START_TAG;
+  }
+
+  private void readStartTag(int tagStart) throws XMLStreamException {
+    this.startTagStart = tagStart;
+    int i = tagStart + 1;
+    int localNameStart = i;
+    byte b = byteAt(i);
+    while (b != '>' && b != '/' && !isWhitespace(b)) {
+      if (b == ':') {
+        localNameStart = i + 1;
+      }
+      b = byteAt(++i);
+    }
+    this.nameStart = localNameStart;
+    this.nameEnd = i;
+    this.attributesStart = i;
+    byte quote = 0;
+    while (quote != 0 || b != '>') {
+      if (quote == 0 && (b == '"' || b == '\'')) {
+        quote = b;
+      } else if (b == quote) {
+        quote = 0;
+      }
+      b = byteAt(++i);
+    }
+    this.emptyElement = this.buffer.get(i - 1) == '/';
+    this.attributesEnd = this.emptyElement ? i - 1 : i;
+    this.position = i + 1;
+  }
+
+  /**
+   * Skips a document type declaration, whose internal subset may hold markup
+   */
+  private int skipDeclaration(int from) throws XMLStreamException {
+    int depth = 0;
+    byte quote = 0;
+    int i = from;
+    while (true) {
+      byte b = byteAt(i++);
+      if (quote != 0) {
+        quote = b == quote ? 0 : quote;
+      } else if (b == '"' || b == '\'') {
+        quote = b;
+      } else if (b == '[') {
+        depth++;
+      } else if (b == ']') {
+        depth--;
+      } else if (b == '>' && depth == 0) {
+        return i;
+      }
+    }
+  }
+
+  /**
+   * Position of the next markup
+   */
+  private int nextTag(int from) throws XMLStreamException {
+    return indexOf((byte) '<', from);
+  }
+
+  private int indexOf(byte b, int from) throws XMLStreamException {
+    for (int i = from; i < this.limit; i++) {
+      if (this.buffer.get(i) == b) {
+        return i;
+      }
+    }
+    throw unexpectedEnd();
+  }
+
+  private int indexOf(byte[] sequence, int from) throws XMLStreamException {
+    int i = from;
+    while (true) {
+      i = indexOf(sequence[0], i);
+      if (startsWith(this.buffer, i, sequence)) {
+        return i;
+      }
+      i++;
+    }
+  }
+
+  private byte byteAt(int index) throws XMLStreamException {
+    if (index >= this.limit) {
+      throw unexpectedEnd();
+    }
+    return this.buffer.get(index);
+  }
+
+  private static XMLStreamException unexpectedEnd() {
+    return new XMLStreamException("Unexpected end of document");
+  }
+
+  private int skipWhitespace(int from, int end) {
+    int i = from;
+    while (i < end && isWhitespace(this.buffer.get(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+  }
+
+  /**
+   * Value of a plain decimal number such as <code>-12.345</code>, surrounded by whitespaces or not. Such a number is
+   * parsed exactly like {@link Double#parseDouble(String)} does, as long as it has at most 15 digits: both the digits
+   * and the power of ten are exact doubles, and their quotient is correctly rounded.
+   * @return NaN for other numbers
+   */
+  private double parseDecimal(int start, int end) {
+    int i = skipWhitespace(start, end);
+    boolean negative = i < end && this.buffer.get(i) == '-';
+    if (i < end && (negative || this.buffer.get(i) == '+')) {
+      i++;
+    }
+    long digits = 0;
+    int digitCount = 0;
+    int scale = -1;
+    for (; i < end && !isWhitespace(this.buffer.get(i)); i++) {
+      byte b = this.buffer.get(i);
+      if (b == '.' && scale < 0) {
+        scale = 0;
+      } else if (b >= '0' && b <= '9' && digitCount < MAX_EXACT_DIGITS) {
+        digits = digits * 10 + b - '0';
+        digitCount++;
+        scale = scale < 0 ? scale : scale + 1;
+      } else {
+        return Double.NaN;
+      }
+    }
+    if (digitCount == 0 || skipWhitespace(i, end) != end) {
+      return Double.NaN;
+    }
+    double value = scale > 0 ? digits / POWERS_OF_TEN[scale] : digits;
+    return negative ? -value : value;
+  }
+
+  /**
+   * Text or attribute value, whose entities are replaced and whose line breaks are normalized
+   */
+  private String decode(int start, int end, boolean attribute) throws XMLStreamException {
+    String raw = utf8(start, end);
+    for (int i = 0; i < raw.length(); i++) {
+      char c = raw.charAt(i);
+      if (c == '&' || c == '\r' || (attribute && (c == '\n' || c == '\t'))) {
+        this.text.setLength(0);
+        unescape(raw, attribute, this.text);
+        return this.text.toString();
+      }
+    }
+    return raw;
+  }
+
+  private String utf8(int start, int end) {
+    int length = end - start;
+    if (length > this.bytes.length) {
+      this.bytes = new byte[Math.max(length, 2 * this.bytes.length)];
+    }
+    this.buffer.position(start);
+    this.buffer.get(this.bytes, 0, length);
+    return new String(this.bytes, 0, length, Charsets.UTF_8);
+  }
+
+  /**
+   * Replaces the predefined entities and the character references, and normalizes line breaks. Whitespaces of
+   * attribute values are normalized to spaces.
+   */
+  private static void unescape(String raw, boolean attribute, StringBuilder out) throws XMLStreamException {
+    int length = raw.length();
+    for (int i = 0; i < length; i++) {
+      char c = raw.charAt(i);
+      if (c == '&') {
+        int end = raw.indexOf(';', i);
+        if (end < 0) {
+          throw new XMLStreamException("Unterminated entity reference");
+        }
+        appendEntity(raw.substring(i + 1, end), out);
+        i = end;
+      } else if (c == '\r') {
+        out.append(attribute ? ' ' : '\n');
+        if (i + 1 < length && raw.charAt(i + 1) == '\n') {
+          i++;
+        }
+      } else if (attribute && (c == '\n' || c == '\t')) {
+        out.append(' ');
+      } else {
+        out.append(c);
+      }
+    }
+  }
+
+  private static void appendEntity(String entity, StringBuilder out) throws XMLStreamException {
+    if ("lt".equals(entity)) {
+      out.append('<');
+    } else if ("gt".equals(entity)) {
+      out.append('>');
+    } else if ("amp".equals(entity)) {
+      out.append('&');
+    } else if ("quot".equals(entity)) {
+      out.append('"');
+    } else if ("apos".equals(entity)) {
+      out.append('\'');
+    } else if (entity.startsWith("#")) {
+      try {
+        boolean hexadecimal = entity.startsWith("#x");
+        out.appendCodePoint(Integer.parseInt(entity.substring(hexadecimal ? 2 : 1), hexadecimal ? 16 : 10));
+      } catch (IllegalArgumentException e) {
+        throw new XMLStreamException("Invalid character reference \"&" + entity + ";\"", e);
+      }
+    } else {
+      throw new XMLStreamException("Undeclared entity \"&" + entity + ";\"");
+    }
+  }
+
+  private static void normalizeLineBreaks(String raw, StringBuilder out) {
+    int length = raw.length();
+    for (int i = 0; i < length; i++) {
+      char c = raw.charAt(i);
+      if (c == '\r') {
+        out.append('\n');
+        if (i + 1 < length && raw.charAt(i + 1) == '\n') {
+          i++;
+        }
+      } else {
+        out.append(c);
+      }
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import org.sonar.fortify.fvdl.element.Vulnerability;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Nodes of the &lt;UnifiedNodePool&gt; section, to which traces refer through &lt;NodeRef id="..."/&gt;.
+ * Only the primary location of each node is kept, in columns; nodes are found by id through an open-addressing
+ * table of primitive ints.
+ */
+final class NodePool {
+  static final int NO_LINE = Vulnerability.NO_LINE;
+  private static final int NONE = -1;
+  private static final int INITIAL_CAPACITY = 64;
+
+  /**
+   * Node ids, and index + 1 of the node in the columns, 0 for a free slot
+   */
+  private int[] slotIds = new int[INITIAL_CAPACITY * 2];
+  private int[] slotIndexes = new int[INITIAL_CAPACITY * 2];
+
+  private int size = 0;
+  private int[] ids = new int[INITIAL_CAPACITY];
+  private String[] paths = new String[INITIAL_CAPACITY];
+  private int[] lines = new int[INITIAL_CAPACITY];
+  private String[] snippetIDs = new String[INITIAL_CAPACITY];
+
+  /**
+   * Adds a node, replacing the location of a node with the same id.
+   * @param line line of the node or {@link #NO_LINE}
+   */
+  void add(int id, @Nullable String path, int line, @Nullable String snippetID) {
+    int slot = slotOf(id);
+    int index;
+    if (this.slotIndexes[slot] != 0) {
+      index = this.slotIndexes[slot] - 1;
+    } else {
+      index = this.size;
+      if (index == this.paths.length) {
+        int capacity = index * 2;
+        this.ids = Arrays.copyOf(this.ids, capacity);
+        this.paths = Arrays.copyOf(this.paths, capacity);
+        this.lines = Arrays.copyOf(this.lines, capacity);
+        this.snippetIDs = Arrays.copyOf(this.snippetIDs, capacity);
+      }
+      this.size++;
+      this.ids[index] = id;
+      this.slotIds[slot] = id;
+      this.slotIndexes[slot] = index + 1;
+      if (this.size * 2 > this.slotIds.length) {
+        rehash(this.slotIds.length * 2);
+      }
+    }
+    this.paths[index] = path;
+    this.lines[index] = line;
+    this.snippetIDs[index] = snippetID;
+  }
+
+  /**
+   * Index of the node in the pool, -1 if there is no node with this id
+   */
+  int indexOf(int id) {
+    return this.slotIndexes[slotOf(id)] - 1;
+  }
+
+  int size() {
+    return this.size;
+  }
+
+  int getId(int index) {
+    return this.ids[index];
+  }
+
+  @CheckForNull
+  String getPath(int index) {
+    return this.paths[index];
+  }
+
+  int getLine(int index) {
+    return this.lines[index];
+  }
+
+  @CheckForNull
+  String getSnippetID(int index) {
+    return this.snippetIDs[index];
+  }
+
+  /**
+   * Copies the location of the node referenced by the vulnerability.
+   * @return false if the vulnerability does not reference a node of the pool
+   */
+  boolean bind(Vulnerability vulnerability) {
+    int nodeRef = vulnerability.getNodeRef();
+    int index = nodeRef == NONE ? NONE : indexOf(nodeRef);
+    if (index == NONE) {
+      return false;
+    }
+    vulnerability.setPath(this.paths[index]);
+    vulnerability.setLineNumber(this.lines[index]);
+    vulnerability.setSnippetID(this.snippetIDs[index]);
+    return true;
+  }
+
+  /**
+   * Slot holding the id, or free slot where it should be added
+   */
+  private int slotOf(int id) {
+    int mask = this.slotIds.length - 1;
+    int slot = mix(id) & mask;
+    while (this.slotIndexes[slot] != 0 && this.slotIds[slot] != id) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void rehash(int capacity) {
+    int[] oldIds = this.slotIds;
+    int[] oldIndexes = this.slotIndexes;
+    this.slotIds = new int[capacity];
+    this.slotIndexes = new int[capacity];
+    for (int i = 0; i < oldIds.length; i++) {
+      if (oldIndexes[i] != 0) {
+        int slot = slotOf(oldIds[i]);
+        this.slotIds[slot] = oldIds[i];
+        this.slotIndexes[slot] = oldIndexes[i];
+      }
+    }
+  }
+
+  /**
+   * Node ids are consecutive: they are spread over the table
+   */
+  private static int mix(int id) {
+    int h = id * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,309 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses a gzip file whose members declare their compressed size, as written by block compressors such as
+ * bgzip: the members are read in order and inflated concurrently, their content is delivered in order through a
+ * bounded ring of pending members. Other gzip files are read with {@link GZIPInputStream}, see {@link #open(File, int, int)}.
+ */
+class ParallelGzipInputStream extends InputStream {
+  private static final int MEMBERS_PER_THREAD = 4;
+  private static final int HEADER_SIZE = 10;
+  private static final int TRAILER_SIZE = 8;
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+  private static final int RESERVED_FLAGS = 0xe0;
+
+  private final DataInputStream input;
+  private final ExecutorService executor;
+  private final int maxPendingMembers;
+  private final Deque<Future<byte[]>> pendingMembers = new ArrayDeque<Future<byte[]>>();
+  private final byte[] header = new byte[HEADER_SIZE];
+  private boolean endOfInput = false;
+  private byte[] member = new byte[0];
+  private int position = 0;
+
+  private ParallelGzipInputStream(InputStream input, int threads) {
+    this.input = new DataInputStream(input);
+    this.executor = Executors.newFixedThreadPool(threads);
+    this.maxPendingMembers = threads * MEMBERS_PER_THREAD;
+  }
+
+  /**
+   * Decompressed content of the file. Members are inflated by <code>threads</code> threads when they declare their
+   * size, otherwise the file is inflated sequentially.
+   */
+  static InputStream open(File file, int bufferSize, int threads) throws IOException {
+    InputStream input = new BufferedInputStream(new FileInputStream(file), bufferSize);
+    try {
+      if (threads > 1 && hasBlockSize(input)) {
+        return new ParallelGzipInputStream(input, threads);
+      }
+      return new BufferedInputStream(new GZIPInputStream(input, bufferSize), bufferSize);
+    } catch (IOException e) {
+      input.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Whether the first member of the stream carries a BC extra field, with the size of the member.
+   */
+  private static boolean hasBlockSize(InputStream input) throws IOException {
+    input.mark(HEADER_SIZE + 2 + 0xffff);
+    try {
+      DataInputStream data = new DataInputStream(input);
+      byte[] header = new byte[HEADER_SIZE];
+      data.readFully(header);
+      if (!isMemberHeader(header) || (header[3] & FEXTRA) == 0) {
+        return false;
+      }
+      byte[] extra = new byte[readUnsignedShort(data)];
+      data.readFully(extra);
+      return blockSize(extra) >= 0;
+    } catch (EOFException e) {
+      return false;
+    } finally {
+      input.reset();
+    }
+  }
+
+  private static boolean isMemberHeader(byte[] header) {
+    return (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b && header[2] == 8 && (header[3] & RESERVED_FLAGS) == 0;
+  }
+
+  /**
+   * Total size of the member minus one, read from the BC subfield of the extra field, -1 if there is no such subfield.
+   */
+  private static int blockSize(byte[] extra) {
+    int i = 0;
+    while (i + 4 <= extra.length) {
+      int length = (extra[i + 2] & 0xff) | ((extra[i + 3] & 0xff) << 8);
+      if (extra[i] == 'B' && extra[i + 1] == 'C' && length == 2 && i + 6 <= extra.length) {
+        return (extra[i + 4] & 0xff) | ((extra[i + 5] & 0xff) << 8);
+      }
+      i += 4 + length;
+    }
+    return -1;
+  }
+
+  private static int readUnsignedShort(DataInputStream data) throws IOException {
+    int low = data.readUnsignedByte();
+    return low | (data.readUnsignedByte() << 8);
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!fill()) {
+      return -1;
+    }
+    return this.member[this.position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!fill()) {
+      return -1;
+    }
+    int count = Math.min(len, this.member.length - this.position);
+    System.arraycopy(this.member, this.position, b, off, count);
+    this.position += count;
+    return count;
+  }
+
+  @Override
+  public int available() {
+    return this.member.length - this.position;
+  }
+
+  /**
+   * Makes the next decompressed bytes available, returns false at the end of the file.
+   */
+  private boolean fill() throws IOException {
+    while (this.position == this.member.length) {
+      submitMembers();
+      Future<byte[]> next = this.pendingMembers.poll();
+      if (next == null) {
+        return false;
+      }
+      this.member = get(next);
+      this.position = 0;
+    }
+    return true;
+  }
+
+  private void submitMembers() throws IOException {
+    while (!this.endOfInput && this.pendingMembers.size() < this.maxPendingMembers) {
+      final byte[] compressed = readMember();
+      if (compressed == null) {
+        this.endOfInput = true;
+      } else {
+        this.pendingMembers.add(this.executor.submit(new Callable<byte[]>() {
+          @Override
+          public byte[] call() throws IOException {
+            return inflate(compressed);
+          }
+        }));
+      }
+    }
+  }
+
+  /**
+   * Deflated data and trailer of the next member, null at the end of the file.
+   */
+  private byte[] readMember() throws IOException {
+    int first = this.input.read();
+    if (first < 0) {
+      return null;
+    }
+    this.header[0] = (byte) first;
+    this.input.readFully(this.header, 1, HEADER_SIZE - 1);
+    if (!isMemberHeader(this.header) || (this.header[3] & FEXTRA) == 0) {
+      throw new IOException("Not a gzip member with block size");
+    }
+    byte[] extra = new byte[readUnsignedShort(this.input)];
+    this.input.readFully(extra);
+    int blockSize = blockSize(extra);
+    int remaining = blockSize + 1 - HEADER_SIZE - 2 - extra.length - skipOptionalFields(this.header[3]);
+    if (blockSize < 0 || remaining < TRAILER_SIZE) {
+      throw new IOException("Invalid gzip block size");
+    }
+    byte[] compressed = new byte[remaining];
+    this.input.readFully(compressed);
+    return compressed;
+  }
+
+  /**
+   * Skips the file name, comment and header CRC which follow the extra field, so that only deflated data is inflated.
+   * @return the number of bytes skipped
+   */
+  private int skipOptionalFields(int flags) throws IOException {
+    int skipped = 0;
+    if ((flags & FNAME) != 0) {
+      skipped += skipZeroTerminated();
+    }
+    if ((flags & FCOMMENT) != 0) {
+      skipped += skipZeroTerminated();
+    }
+    if ((flags & FHCRC) != 0) {
+      this.input.readUnsignedShort();
+      skipped += 2;
+    }
+    return skipped;
+  }
+
+  private int skipZeroTerminated() throws IOException {
+    int skipped = 1;
+    while (this.input.readUnsignedByte() != 0) {
+      skipped++;
+    }
+    return skipped;
+  }
+
+  /**
+   * Inflates the deflated data of a member and checks it against the CRC and size of its trailer.
+   */
+  private static byte[] inflate(byte[] compressed) throws IOException {
+    int trailer = compressed.length - TRAILER_SIZE;
+    int crc = readInt(compressed, trailer);
+    int size = readInt(compressed, trailer + 4);
+    if (size < 0) {
+      throw new IOException("Gzip member is too large");
+    }
+    byte[] content = new byte[size];
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(compressed, 0, trailer);
+      int count = 0;
+      while (count < size && !inflater.finished()) {
+        int inflated = inflater.inflate(content, count, size - count);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        count += inflated;
+      }
+      if (count != size) {
+        throw new IOException("Corrupt gzip member: unexpected size");
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt gzip member", e);
+    } finally {
+      inflater.end();
+    }
+    CRC32 checksum = new CRC32();
+    checksum.update(content, 0, size);
+    if ((int) checksum.getValue() != crc) {
+      throw new IOException("Corrupt gzip member: CRC mismatch");
+    }
+    return content;
+  }
+
+  private static int readInt(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xff) | ((bytes[offset + 1] & 0xff) << 8) | ((bytes[offset + 2] & 0xff) << 16) | ((bytes[offset + 3] & 0xff) << 24);
+  }
+
+  private static byte[] get(Future<byte[]> member) throws IOException {
+    try {
+      return member.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while decompressing Fortify report", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IllegalStateException("Can not decompress Fortify report", e.getCause());
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      this.input.close();
+    } finally {
+      this.executor.shutdownNow();
+    }
+  }
+}
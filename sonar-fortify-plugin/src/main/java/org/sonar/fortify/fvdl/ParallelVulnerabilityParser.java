@@ -0,0 +1,164 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import com.google.common.base.Charsets;
+import org.sonar.fortify.fvdl.element.Build;
+import org.sonar.fortify.fvdl.element.Description;
+import org.sonar.fortify.fvdl.element.Vulnerability;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Parses the &lt;Vulnerability&gt; elements of a FVDL file in parallel. Elements are split in chunks of consecutive
+ * byte ranges, which are parsed as standalone documents with the XML declaration of the file. Results are handed over
+ * in document order.
+ */
+class ParallelVulnerabilityParser {
+  private static final int VULNERABILITIES_PER_TASK = 256;
+  private static final int TASKS_PER_THREAD = 2;
+  private static final byte[] SECTION_START = "<Vulnerabilities>".getBytes(Charsets.US_ASCII);
+  private static final byte[] SECTION_END = "</Vulnerabilities>".getBytes(Charsets.US_ASCII);
+  private static final byte[] EMPTY_SECTION = "<Vulnerabilities/>".getBytes(Charsets.US_ASCII);
+
+  private final FvdlStAXParser documentParser;
+  private final FileChannel channel;
+  private final VulnerabilityRangeScanner ranges;
+  private final int threads;
+  private final int bufferSize;
+
+  /**
+   * @param documentParser parser of the whole document, whose settings are used to parse the chunks
+   */
+  ParallelVulnerabilityParser(FvdlStAXParser documentParser, FileChannel channel, VulnerabilityRangeScanner ranges, int threads, int bufferSize) {
+    this.documentParser = documentParser;
+    this.channel = channel;
+    this.ranges = ranges;
+    this.threads = threads;
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * The whole report, in which the content of the &lt;Vulnerabilities&gt; section is left out.
+   */
+  InputStream openDocumentWithoutVulnerabilities() throws IOException {
+    return new BufferedInputStream(concat(
+      new FileRangeInputStream(this.channel, 0, this.ranges.getSectionStart()),
+      new ByteArrayInputStream(EMPTY_SECTION),
+      new FileRangeInputStream(this.channel, this.ranges.getSectionEnd(), this.channel.size())), this.bufferSize);
+  }
+
+  void parseVulnerabilities(VulnerabilityHandler handler) {
+    ForkJoinPool pool = new ForkJoinPool(this.threads);
+    try {
+      int count = this.ranges.getVulnerabilityCount();
+      int maxPendingTasks = this.threads * TASKS_PER_THREAD;
+      Deque<Future<List<Vulnerability>>> tasks = new ArrayDeque<Future<List<Vulnerability>>>();
+      int next = 0;
+      while (next < count || !tasks.isEmpty()) {
+        while (next < count && tasks.size() < maxPendingTasks) {
+          int last = Math.min(next + VULNERABILITIES_PER_TASK, count) - 1;
+          tasks.add(pool.submit(new ChunkParser(next, this.ranges.getVulnerabilityStart(next), this.ranges.getVulnerabilityEnd(last))));
+          next = last + 1;
+        }
+        for (Vulnerability vulnerability : get(tasks.poll())) {
+          handler.onVulnerability(vulnerability);
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private static List<Vulnerability> get(Future<List<Vulnerability>> task) {
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while parsing Fortify report", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("XML is not valid", e.getCause());
+    }
+  }
+
+  private static InputStream concat(InputStream... streams) {
+    return new SequenceInputStream(Collections.enumeration(Arrays.asList(streams)));
+  }
+
+  private class ChunkParser implements Callable<List<Vulnerability>>, VulnerabilityHandler {
+    private final int firstOrdinal;
+    private final long start;
+    private final long end;
+    private final List<Vulnerability> vulnerabilities = new ArrayList<Vulnerability>();
+
+    ChunkParser(int firstOrdinal, long start, long end) {
+      this.firstOrdinal = firstOrdinal;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public List<Vulnerability> call() throws Exception {
+      InputStream chunk = new BufferedInputStream(concat(
+        new ByteArrayInputStream(ParallelVulnerabilityParser.this.ranges.getXmlDeclaration()),
+        new ByteArrayInputStream(SECTION_START),
+        new FileRangeInputStream(ParallelVulnerabilityParser.this.channel, this.start, this.end),
+        new ByteArrayInputStream(SECTION_END)), ParallelVulnerabilityParser.this.bufferSize);
+      try {
+        ParallelVulnerabilityParser.this.documentParser.newChunkParser().parseVulnerabilities(chunk, this);
+      } finally {
+        chunk.close();
+      }
+      return this.vulnerabilities;
+    }
+
+    @Override
+    public void onBuild(Build build) {
+      // not in the Vulnerabilities section
+    }
+
+    @Override
+    public void onVulnerability(Vulnerability vulnerability) {
+      // ordinals of excluded vulnerabilities are skipped, the ordinal in the chunk is made global
+      vulnerability.setOrdinal(this.firstOrdinal + vulnerability.getOrdinal());
+      this.vulnerabilities.add(vulnerability);
+    }
+
+    @Override
+    public void onDescription(Description description) {
+      // not in the Vulnerabilities section
+    }
+  }
+}
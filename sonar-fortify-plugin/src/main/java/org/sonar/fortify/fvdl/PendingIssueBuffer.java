@@ -0,0 +1,71 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import org.sonar.api.rule.RuleKey;
+import org.sonar.fortify.fvdl.element.Vulnerability;
+
+import javax.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Issues which can not be created yet because the description of their vulnerability has not been read.
+ * They are written to a temporary file of the working directory and replayed once the whole report is parsed,
+ * so that the heap does not grow with the number of findings.
+ */
+class PendingIssueBuffer implements Closeable {
+  private final VulnerabilityBuffer buffer;
+
+  PendingIssueBuffer(@Nullable File workDir) {
+    this.buffer = new VulnerabilityBuffer(workDir, "fortify-pending-issues");
+  }
+
+  interface Consumer {
+    void accept(String relativePath, RuleKey ruleKey, Vulnerability vulnerability);
+  }
+
+  void add(String relativePath, RuleKey ruleKey, Vulnerability vulnerability) throws IOException {
+    this.buffer.add(vulnerability, relativePath, ruleKey.repository(), ruleKey.rule());
+  }
+
+  int size() {
+    return this.buffer.size();
+  }
+
+  /**
+   * Reads back the issues in the order they were added.
+   */
+  void replay(final Consumer consumer) throws IOException {
+    this.buffer.replay(new VulnerabilityBuffer.Consumer() {
+      @Override
+      public void accept(Vulnerability vulnerability, String[] tags) {
+        consumer.accept(tags[0], RuleKey.of(tags[1], tags[2]), vulnerability);
+      }
+    });
+  }
+
+  @Override
+  public void close() {
+    this.buffer.close();
+  }
+}
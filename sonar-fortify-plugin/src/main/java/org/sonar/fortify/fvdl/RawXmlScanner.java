@@ -0,0 +1,301 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads the tags of a XML file byte after byte, through positional reads, without building any event.
+ * Comments, CDATA sections, processing instructions and DOCTYPE declarations are skipped by the subclasses
+ * with the helpers of this class. Only ASCII compatible encodings are supported.
+ */
+abstract class RawXmlScanner {
+  private static final byte[] COMMENT_END = "-->".getBytes(Charsets.US_ASCII);
+  private static final byte[] CDATA_END = "]]>".getBytes(Charsets.US_ASCII);
+  private static final byte[] PI_END = "?>".getBytes(Charsets.US_ASCII);
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_NAME_LENGTH = 64;
+  private static final byte[] XML_DECLARATION_START = "<?xml".getBytes(Charsets.US_ASCII);
+  private static final int MAX_XML_DECLARATION_LENGTH = 1024;
+  private static final byte[] NO_XML_DECLARATION = new byte[0];
+
+  private final FileChannel channel;
+  private final long offset;
+  private final long length;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int bufferIndex = 0;
+  private int bufferLimit = 0;
+  private long position = 0;
+
+  private final byte[] name = new byte[MAX_NAME_LENGTH];
+  private int nameLength;
+
+  private Charset charset = Charsets.UTF_8;
+  private byte[] capturedAttributeName;
+  private byte[] attributeValue = new byte[256];
+  private int attributeValueLength = -1;
+
+  RawXmlScanner(FileChannel channel) {
+    this(channel, 0, Long.MAX_VALUE);
+  }
+
+  /**
+   * Scanner of the document held by <code>length</code> bytes of the file from <code>offset</code>, such as an entry stored
+   * in a FPR archive. Positions are relative to the start of the document.
+   */
+  RawXmlScanner(FileChannel channel, long offset, long length) {
+    this.channel = channel;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  final boolean isUtf16() throws IOException {
+    int first = read();
+    int second = read();
+    this.position = 0;
+    this.bufferIndex = 0;
+    this.bufferLimit = 0;
+    return (first == 0xFE && second == 0xFF) || (first == 0xFF && second == 0xFE);
+  }
+
+  /**
+   * XML declaration of the document, without byte order mark, empty if there is none. It is put before the byte ranges
+   * which are parsed on their own, so that they are decoded with the encoding of the document. The captured attributes
+   * are then decoded with this encoding too.
+   */
+  final byte[] readXmlDeclaration() throws IOException {
+    ByteBuffer head = ByteBuffer.allocate((int) Math.min(MAX_XML_DECLARATION_LENGTH, this.length));
+    while (head.hasRemaining() && this.channel.read(head, this.offset + head.position()) > 0) {
+      // the declaration is at the start of the file
+    }
+    byte[] bytes = head.array();
+    int limit = head.position();
+    int start = limit >= 3 && (bytes[0] & 0xFF) == 0xEF && (bytes[1] & 0xFF) == 0xBB && (bytes[2] & 0xFF) == 0xBF ? 3 : 0;
+    if (start + XML_DECLARATION_START.length >= limit || !isWhitespace(bytes[start + XML_DECLARATION_START.length])) {
+      return NO_XML_DECLARATION;
+    }
+    for (int i = 0; i < XML_DECLARATION_START.length; i++) {
+      if (bytes[start + i] != XML_DECLARATION_START[i]) {
+        return NO_XML_DECLARATION;
+      }
+    }
+    for (int i = start + XML_DECLARATION_START.length; i + 1 < limit; i++) {
+      if (bytes[i] == '?' && bytes[i + 1] == '>') {
+        byte[] declaration = Arrays.copyOfRange(bytes, start, i + 2);
+        this.charset = encodingOf(new String(declaration, Charsets.US_ASCII));
+        return declaration;
+      }
+    }
+    return NO_XML_DECLARATION;
+  }
+
+  private static Charset encodingOf(String declaration) {
+    String encoding = StringUtils.substringAfter(declaration, "encoding");
+    encoding = StringUtils.substringBetween(encoding.replace('\'', '"'), "\"", "\"");
+    if (StringUtils.isBlank(encoding)) {
+      return Charsets.UTF_8;
+    }
+    try {
+      return Charset.forName(encoding.trim());
+    } catch (IllegalArgumentException e) {
+      return Charsets.UTF_8;
+    }
+  }
+
+  /**
+   * Offset of the next byte to read
+   */
+  final long position() {
+    return this.position;
+  }
+
+  /**
+   * Handles the markup following a '&lt;', whose offset is tagStart.
+   * @return false to stop scanning
+   */
+  abstract boolean onMarkup(long tagStart) throws IOException;
+
+  final void scanMarkup() throws IOException {
+    int c;
+    while ((c = read()) >= 0) {
+      if (c == '<' && !onMarkup(this.position - 1)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Reads an element name starting with the given character, and returns the character following it.
+   * Only the local part of prefixed names is kept.
+   */
+  final int readName(int first) throws IOException {
+    this.nameLength = 0;
+    int c = first;
+    while (c >= 0 && c != '>' && c != '/' && !isWhitespace(c)) {
+      if (c == ':') {
+        this.nameLength = 0;
+      } else if (this.nameLength < MAX_NAME_LENGTH) {
+        this.name[this.nameLength++] = (byte) c;
+      }
+      c = read();
+    }
+    return c;
+  }
+
+  final boolean nameIs(byte[] expected) {
+    if (this.nameLength != expected.length) {
+      return false;
+    }
+    for (int i = 0; i < expected.length; i++) {
+      if (this.name[i] != expected[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The value of this attribute is kept by the next calls to {@link #skipToTagEnd(int)}, null to keep none.
+   */
+  final void captureAttribute(byte[] attributeName) {
+    this.capturedAttributeName = attributeName;
+  }
+
+  /**
+   * Raw value of the captured attribute in the last tag, null if the tag has no such attribute.
+   */
+  final String getCapturedAttribute() {
+    return this.attributeValueLength < 0 ? null : new String(this.attributeValue, 0, this.attributeValueLength, this.charset);
+  }
+
+  /**
+   * Skips attributes up to the end of the tag.
+   * @return true if the tag is an empty element
+   */
+  final boolean skipToTagEnd(int first) throws IOException {
+    this.attributeValueLength = -1;
+    // number of characters of the current attribute name matching capturedAttributeName, -1 when it does not match
+    int matched = 0;
+    int previous = 0;
+    int c = first;
+    while (c >= 0) {
+      if (c == '>') {
+        return previous == '/';
+      }
+      if (c == '"' || c == '\'') {
+        boolean capture = this.capturedAttributeName != null && matched == this.capturedAttributeName.length;
+        int quote = c;
+        int length = 0;
+        c = read();
+        while (c >= 0 && c != quote) {
+          if (capture) {
+            if (length == this.attributeValue.length) {
+              this.attributeValue = Arrays.copyOf(this.attributeValue, length * 2);
+            }
+            this.attributeValue[length++] = (byte) c;
+          }
+          c = read();
+        }
+        if (capture) {
+          this.attributeValueLength = length;
+        }
+        matched = 0;
+      } else if (c != '=' && !isWhitespace(c) && matched >= 0) {
+        matched = this.capturedAttributeName != null && matched < this.capturedAttributeName.length && this.capturedAttributeName[matched] == c ? (matched + 1) : -1;
+      }
+      previous = c;
+      c = read();
+    }
+    throw new EOFException("Unexpected end of XML file");
+  }
+
+  /**
+   * Skips comments, CDATA sections and DOCTYPE declarations. "&lt;!" has already been read.
+   */
+  final void skipDeclaration() throws IOException {
+    int c = read();
+    if (c == '-') {
+      skipUntil(COMMENT_END);
+    } else if (c == '[') {
+      skipUntil(CDATA_END);
+    } else {
+      int brackets = 0;
+      while (c >= 0 && (c != '>' || brackets > 0)) {
+        if (c == '[') {
+          brackets++;
+        } else if (c == ']') {
+          brackets--;
+        }
+        c = read();
+      }
+    }
+  }
+
+  final void skipProcessingInstruction() throws IOException {
+    skipUntil(PI_END);
+  }
+
+  private void skipUntil(byte[] terminator) throws IOException {
+    int last = terminator.length - 1;
+    int matched = 0;
+    int c;
+    while ((c = read()) >= 0) {
+      if (c == terminator[matched]) {
+        matched++;
+        if (matched > last) {
+          return;
+        }
+      } else if (matched > 0 && c == terminator[matched - 1] && terminator[0] == terminator[matched - 1]) {
+        // "--->" or "]]]>": the run of repeated characters keeps matching
+      } else {
+        matched = c == terminator[0] ? 1 : 0;
+      }
+    }
+  }
+
+  private static boolean isWhitespace(int c) {
+    return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+  }
+
+  final int read() throws IOException {
+    if (this.bufferIndex == this.bufferLimit) {
+      long remaining = this.length - this.position;
+      if (remaining <= 0) {
+        return -1;
+      }
+      int n = this.channel.read(ByteBuffer.wrap(this.buffer, 0, (int) Math.min(this.buffer.length, remaining)), this.offset + this.position);
+      if (n <= 0) {
+        return -1;
+      }
+      this.bufferIndex = 0;
+      this.bufferLimit = n;
+    }
+    this.position++;
+    return this.buffer[this.bufferIndex++] & 0xFF;
+  }
+}
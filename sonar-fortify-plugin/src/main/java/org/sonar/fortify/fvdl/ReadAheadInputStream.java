@@ -0,0 +1,206 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a stream ahead of its consumer: a producer thread fills a fixed ring of buffers from the source, reading and
+ * inflating the report while the consumer parses the previous buffers. Buffers are handed back to the producer once
+ * consumed, so that no buffer is allocated after the stream is opened.
+ */
+class ReadAheadInputStream extends InputStream {
+  /**
+   * Marks the end of the source, or its failure
+   */
+  private static final Chunk END = new Chunk(0);
+
+  private final InputStream source;
+  private final BlockingQueue<Chunk> freeChunks;
+  private final BlockingQueue<Chunk> filledChunks;
+  private final Thread producer;
+  private volatile boolean closed = false;
+
+  /**
+   * {@link IOException} or {@link RuntimeException} set by the producer before it hands over {@link #END}
+   */
+  private Exception failure;
+
+  private Chunk current;
+  private int position = 0;
+
+  private ReadAheadInputStream(InputStream source, int buffers, int bufferSize) {
+    this.source = source;
+    this.freeChunks = new ArrayBlockingQueue<Chunk>(buffers);
+    // room for all the chunks, and for the end marker
+    this.filledChunks = new ArrayBlockingQueue<Chunk>(buffers + 1);
+    for (int i = 0; i < buffers; i++) {
+      this.freeChunks.add(new Chunk(bufferSize));
+    }
+    this.producer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        produce();
+      }
+    }, "fortify-read-ahead");
+    this.producer.setDaemon(true);
+  }
+
+  /**
+   * Starts reading the source ahead, in <code>buffers</code> buffers of <code>bufferSize</code> bytes. The source is closed
+   * by the producer thread, once it is read or once this stream is closed.
+   */
+  static InputStream start(InputStream source, int buffers, int bufferSize) {
+    ReadAheadInputStream stream = new ReadAheadInputStream(source, buffers, bufferSize);
+    stream.producer.start();
+    return stream;
+  }
+
+  private void produce() {
+    try {
+      while (!this.closed) {
+        Chunk chunk = this.freeChunks.take();
+        chunk.fill(this.source);
+        if (chunk.length == 0) {
+          break;
+        }
+        this.filledChunks.put(chunk);
+      }
+    } catch (IOException e) {
+      this.failure = e;
+    } catch (RuntimeException e) {
+      this.failure = e;
+    } catch (InterruptedException e) {
+      // the stream is closed
+    } finally {
+      try {
+        this.source.close();
+      } catch (IOException e) {
+        if (this.failure == null) {
+          this.failure = e;
+        }
+      }
+      this.filledChunks.add(END);
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!hasRemaining()) {
+      return -1;
+    }
+    return this.current.data[this.position++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!hasRemaining()) {
+      return -1;
+    }
+    int n = Math.min(len, this.current.length - this.position);
+    System.arraycopy(this.current.data, this.position, b, off, n);
+    this.position += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return this.current == null ? 0 : this.current.length - this.position;
+  }
+
+  /**
+   * Moves to the next filled buffer once the current one is consumed, and gives the consumed one back to the producer.
+   * @return false at the end of the source
+   */
+  private boolean hasRemaining() throws IOException {
+    if (this.current != null && this.position < this.current.length) {
+      return true;
+    }
+    if (this.current == END) {
+      return false;
+    }
+    if (this.current != null) {
+      this.freeChunks.add(this.current);
+    }
+    try {
+      this.current = this.filledChunks.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while reading Fortify report", e);
+    }
+    this.position = 0;
+    if (this.current == END) {
+      if (this.failure instanceof IOException) {
+        throw (IOException) this.failure;
+      } else if (this.failure != null) {
+        throw (RuntimeException) this.failure;
+      }
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Stops the producer, which closes the source
+   */
+  @Override
+  public void close() throws IOException {
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+    this.producer.interrupt();
+    try {
+      this.producer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static class Chunk {
+    private final byte[] data;
+    private int length = 0;
+
+    Chunk(int size) {
+      this.data = new byte[size];
+    }
+
+    /**
+     * Fills the buffer as much as possible, so that the consumer is handed over few large buffers.
+     * Length is 0 at the end of the source.
+     */
+    void fill(InputStream source) throws IOException {
+      this.length = 0;
+      while (this.length < this.data.length) {
+        int n = source.read(this.data, this.length, this.data.length - this.length);
+        if (n < 0) {
+          return;
+        }
+        this.length += n;
+      }
+    }
+  }
+}
@@ -0,0 +1,570 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import com.google.common.base.Charsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.fortify.fvdl.element.Build;
+import org.sonar.fortify.fvdl.element.Description;
+import org.sonar.fortify.fvdl.element.ReplacementDefinition;
+import org.sonar.fortify.fvdl.element.Vulnerability;
+import org.sonar.fortify.fvdl.element.VulnerabilityClass;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Directory of parsed reports, kept across analyses: a report which was already read with the same filter is replayed
+ * from a memory-mapped file instead of being parsed again. Entries are named after the hash of the report content,
+ * of the cache format and of the plugin version. Once the directory exceeds its maximum size, the least recently used
+ * entries are deleted.
+ * <p>
+ * An entry is the sequence of the events of the parser, in document order: build, descriptions, vulnerabilities, node pool
+ * and, when the parser recorded them, the ranges of the vulnerabilities in the document.
+ * Strings repeated across vulnerabilities, such as paths and classifications, are written once and then referenced.
+ */
+class ReportCache {
+  private static final Logger LOG = LoggerFactory.getLogger(ReportCache.class);
+
+  /**
+   * To be increased whenever the parser hands over different vulnerabilities for the same report, or the format changes
+   */
+  static final int FORMAT_VERSION = 3;
+  static final String EXTENSION = ".fvc";
+  private static final int MAGIC = 0x46564443;
+  private static final int END = 0;
+  private static final int BUILD = 1;
+  private static final int DESCRIPTION = 2;
+  private static final int VULNERABILITY = 3;
+  private static final int NODE_POOL = 4;
+  private static final int RANGES = 5;
+  private static final int NULL_STRING = 0;
+  private static final int LITERAL_STRING = 1;
+  private static final int NEW_STRING = 2;
+  private static final int STRING_REFERENCE = 3;
+  private static final int NEW_CLASS = 0;
+
+  private final File directory;
+  private final long maxSize;
+
+  /**
+   * @param maxSize maximum size in bytes of the entries of the directory
+   */
+  ReportCache(File directory, long maxSize) {
+    this.directory = directory;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Key of a report read with a filter, without its suppressed vulnerabilities.
+   */
+  static String key(File report, @Nullable VulnerabilityFilter filter) throws IOException {
+    return key(report, filter, true);
+  }
+
+  /**
+   * Key of a report read with a filter: the hash of its content, of the filter, of the exclusion of the vulnerabilities
+   * suppressed in its audit, of the cache format and of the plugin version.
+   */
+  static String key(File report, @Nullable VulnerabilityFilter filter, boolean suppressedExcluded) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+    InputStream input = new FileInputStream(report);
+    try {
+      byte[] buffer = new byte[FortifySensorConfiguration.DEFAULT_READ_BUFFER_SIZE];
+      int n;
+      while ((n = input.read(buffer)) >= 0) {
+        digest.update(buffer, 0, n);
+      }
+    } finally {
+      input.close();
+    }
+    String settings = "|" + FORMAT_VERSION + "|" + pluginVersion() + "|" + (filter == null ? "" : filter.getKey())
+      + (suppressedExcluded ? "" : "|unsuppressed");
+    digest.update(settings.getBytes(Charsets.UTF_8));
+    return String.format("%064x", new BigInteger(1, digest.digest()));
+  }
+
+  private static String pluginVersion() {
+    Package pluginPackage = ReportCache.class.getPackage();
+    String version = pluginPackage == null ? null : pluginPackage.getImplementationVersion();
+    return version == null ? "unknown" : version;
+  }
+
+  File getFile(String key) {
+    return new File(this.directory, key + EXTENSION);
+  }
+
+  /**
+   * Hands over the cached events of the report, if any.
+   * @param reuseRecord whether vulnerabilities are read into one reused record, see {@link VulnerabilityRecordHandler}
+   * @return false if the report is not cached
+   */
+  boolean replay(String key, VulnerabilityHandler handler, boolean reuseRecord) throws IOException {
+    File file = getFile(key);
+    if (!file.isFile()) {
+      return false;
+    }
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.limit() < 9 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION || buffer.get(buffer.limit() - 1) != END) {
+        LOG.warn("Ignoring invalid entry of Fortify report cache: {}", file);
+        return false;
+      }
+      new EntryReader(buffer, reuseRecord).replay(handler);
+    } catch (BufferUnderflowException e) {
+      throw new IllegalStateException("Corrupt entry of Fortify report cache: " + file, e);
+    } finally {
+      randomAccessFile.close();
+    }
+    // most recently used
+    if (!file.setLastModified(System.currentTimeMillis())) {
+      LOG.debug("Unable to touch {}", file);
+    }
+    return true;
+  }
+
+  /**
+   * Handler which writes the events of the parser to a new entry, and hands them over to the given handler.
+   * The entry is only added to the cache once {@link Recorder#commit()} is called.
+   */
+  Recorder record(String key, VulnerabilityHandler handler) throws IOException {
+    if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+      throw new IOException("Unable to create Fortify report cache " + this.directory);
+    }
+    return new Recorder(key, handler);
+  }
+
+  /**
+   * Deletes the least recently used entries until the directory fits into its maximum size
+   */
+  void evict() {
+    File[] files = this.directory.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.isFile() && file.getName().endsWith(EXTENSION);
+      }
+    });
+    if (files == null) {
+      return;
+    }
+    final Map<File, Long> lastModified = new HashMap<File, Long>();
+    long size = 0;
+    for (File file : files) {
+      lastModified.put(file, file.lastModified());
+      size += file.length();
+    }
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File f1, File f2) {
+        int result = lastModified.get(f1).compareTo(lastModified.get(f2));
+        return result != 0 ? result : f1.getName().compareTo(f2.getName());
+      }
+    });
+    for (int i = 0; i < files.length && size > this.maxSize; i++) {
+      long length = files[i].length();
+      if (files[i].delete()) {
+        LOG.debug("Evicted {} from Fortify report cache", files[i]);
+        size -= length;
+      }
+    }
+  }
+
+  class Recorder implements NodePoolHandler, VulnerabilityRangeHandler {
+    private final String key;
+    private final VulnerabilityHandler handler;
+    private final File temporaryFile;
+    private final DataOutputStream output;
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+    private final Map<VulnerabilityClass, Integer> classes = new HashMap<VulnerabilityClass, Integer>();
+    private IOException failure;
+
+    private Recorder(String key, VulnerabilityHandler handler) throws IOException {
+      this.key = key;
+      this.handler = handler;
+      this.temporaryFile = File.createTempFile("fortify-report", ".tmp", ReportCache.this.directory);
+      this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.temporaryFile),
+        FortifySensorConfiguration.DEFAULT_READ_BUFFER_SIZE));
+      this.output.writeInt(MAGIC);
+      this.output.writeInt(FORMAT_VERSION);
+    }
+
+    @Override
+    public void onBuild(Build build) {
+      try {
+        this.output.writeByte(BUILD);
+        writeString(build.getSourceBasePath(), false);
+      } catch (IOException e) {
+        this.failure = e;
+      }
+      this.handler.onBuild(build);
+    }
+
+    @Override
+    public void onVulnerability(Vulnerability vulnerability) {
+      try {
+        this.output.writeByte(VULNERABILITY);
+        writeVarInt(vulnerability.getOrdinal() + 1);
+        writeClass(vulnerability.getVulnerabilityClass());
+        writeString(vulnerability.getInstanceID(), false);
+        writeString(vulnerability.getInstanceSeverity(), true);
+        writeString(vulnerability.getPath(), true);
+        writeVarInt(vulnerability.getLineNumber() + 1);
+        writeString(vulnerability.getSnippetID(), false);
+        writeVarInt(vulnerability.getNodeRef() + 1);
+        writeVarInt(vulnerability.getReplacementDefinitions().size());
+        for (ReplacementDefinition replacementDefinition : vulnerability.getReplacementDefinitions()) {
+          writeString(replacementDefinition.getKey(), true);
+          writeString(replacementDefinition.getValue(), false);
+        }
+      } catch (IOException e) {
+        this.failure = e;
+      }
+      this.handler.onVulnerability(vulnerability);
+    }
+
+    @Override
+    public void onDescription(Description description) {
+      try {
+        this.output.writeByte(DESCRIPTION);
+        writeString(description.getClassID(), true);
+        writeString(description.getAbstract(), false);
+      } catch (IOException e) {
+        this.failure = e;
+      }
+      this.handler.onDescription(description);
+    }
+
+    @Override
+    public void onNodePool(NodePool nodePool) {
+      try {
+        this.output.writeByte(NODE_POOL);
+        writeVarInt(nodePool.size());
+        for (int i = 0; i < nodePool.size(); i++) {
+          writeVarInt(nodePool.getId(i));
+          writeString(nodePool.getPath(i), true);
+          writeVarInt(nodePool.getLine(i) + 1);
+          writeString(nodePool.getSnippetID(i), false);
+        }
+      } catch (IOException e) {
+        this.failure = e;
+      }
+      if (this.handler instanceof NodePoolHandler) {
+        ((NodePoolHandler) this.handler).onNodePool(nodePool);
+      }
+    }
+
+    @Override
+    public void onVulnerabilityRanges(VulnerabilityRanges ranges) {
+      try {
+        this.output.writeByte(RANGES);
+        byte[] xmlDeclaration = ranges.getXmlDeclaration();
+        writeVarInt(xmlDeclaration.length);
+        this.output.write(xmlDeclaration);
+        writeVarInt(ranges.size());
+        long previousEnd = 0;
+        for (int i = 0; i < ranges.size(); i++) {
+          writeVarLong(ranges.getStart(i) - previousEnd);
+          writeVarLong(ranges.getEnd(i) - ranges.getStart(i));
+          previousEnd = ranges.getEnd(i);
+        }
+      } catch (IOException e) {
+        this.failure = e;
+      }
+      if (this.handler instanceof VulnerabilityRangeHandler) {
+        ((VulnerabilityRangeHandler) this.handler).onVulnerabilityRanges(ranges);
+      }
+    }
+
+    /**
+     * Adds the entry to the cache, once the whole report is handed over, and evicts old entries.
+     * The entry is dropped if it could not be written.
+     */
+    void commit() {
+      try {
+        this.output.writeByte(END);
+        this.output.close();
+        if (this.failure != null) {
+          throw this.failure;
+        }
+        Files.move(this.temporaryFile.toPath(), getFile(this.key).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        LOG.warn("Unable to add Fortify report to cache " + ReportCache.this.directory, e);
+        abort();
+        return;
+      }
+      evict();
+    }
+
+    /**
+     * Drops the entry, when the report could not be read
+     */
+    void abort() {
+      try {
+        this.output.close();
+      } catch (IOException e) {
+        LOG.debug("Unable to close " + this.temporaryFile, e);
+      }
+      if (this.temporaryFile.exists() && !this.temporaryFile.delete()) {
+        LOG.warn("Unable to delete {}", this.temporaryFile);
+      }
+    }
+
+    private void writeClass(VulnerabilityClass vulnerabilityClass) throws IOException {
+      Integer id = this.classes.get(vulnerabilityClass);
+      if (id != null) {
+        writeVarInt(id + 1);
+        return;
+      }
+      this.classes.put(vulnerabilityClass, this.classes.size());
+      writeVarInt(NEW_CLASS);
+      writeString(vulnerabilityClass.getClassID(), true);
+      writeString(vulnerabilityClass.getKingdom(), true);
+      writeString(vulnerabilityClass.getType(), true);
+      writeString(vulnerabilityClass.getSubtype(), true);
+    }
+
+    /**
+     * @param shared whether the string is likely to be repeated, in which case it is written once and then referenced
+     */
+    private void writeString(@Nullable String value, boolean shared) throws IOException {
+      if (value == null) {
+        writeVarInt(NULL_STRING);
+        return;
+      }
+      if (shared) {
+        Integer id = this.strings.get(value);
+        if (id != null) {
+          writeVarInt(STRING_REFERENCE + id);
+          return;
+        }
+        this.strings.put(value, this.strings.size());
+      }
+      writeVarInt(shared ? NEW_STRING : LITERAL_STRING);
+      byte[] bytes = value.getBytes(Charsets.UTF_8);
+      writeVarInt(bytes.length);
+      this.output.write(bytes);
+    }
+
+    private void writeVarInt(int value) throws IOException {
+      int remaining = value;
+      while ((remaining & ~0x7F) != 0) {
+        this.output.writeByte((remaining & 0x7F) | 0x80);
+        remaining >>>= 7;
+      }
+      this.output.writeByte(remaining);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+      long remaining = value;
+      while ((remaining & ~0x7FL) != 0) {
+        this.output.writeByte((int) (remaining & 0x7F) | 0x80);
+        remaining >>>= 7;
+      }
+      this.output.writeByte((int) remaining);
+    }
+  }
+
+  /**
+   * Reads the events of an entry from its memory-mapped file
+   */
+  private static class EntryReader {
+    private final ByteBuffer buffer;
+    private final boolean reuseRecord;
+    private final List<String> strings = new ArrayList<String>();
+    private final List<VulnerabilityClass> classes = new ArrayList<VulnerabilityClass>();
+    private final FvdlSymbolTable symbols = new FvdlSymbolTable();
+    private final Vulnerability record = new Vulnerability();
+    private byte[] bytes = new byte[256];
+
+    EntryReader(ByteBuffer buffer, boolean reuseRecord) {
+      this.buffer = buffer;
+      this.reuseRecord = reuseRecord;
+    }
+
+    void replay(VulnerabilityHandler handler) {
+      int event = this.buffer.get();
+      while (event != END) {
+        if (event == BUILD) {
+          handler.onBuild(new Build(readString()));
+        } else if (event == DESCRIPTION) {
+          Description description = new Description();
+          description.setClassID(readString());
+          description.setAbstract(readString());
+          handler.onDescription(description);
+        } else if (event == VULNERABILITY) {
+          handler.onVulnerability(readVulnerability());
+        } else if (event == NODE_POOL) {
+          NodePool nodePool = readNodePool();
+          if (handler instanceof NodePoolHandler) {
+            ((NodePoolHandler) handler).onNodePool(nodePool);
+          }
+        } else if (event == RANGES) {
+          VulnerabilityRanges ranges = readRanges();
+          if (handler instanceof VulnerabilityRangeHandler) {
+            ((VulnerabilityRangeHandler) handler).onVulnerabilityRanges(ranges);
+          }
+        } else {
+          throw new IllegalStateException("Unknown event " + event + " in Fortify report cache");
+        }
+        event = this.buffer.get();
+      }
+    }
+
+    private Vulnerability readVulnerability() {
+      Vulnerability vulnerability;
+      if (this.reuseRecord) {
+        vulnerability = this.record;
+        vulnerability.reset();
+      } else {
+        vulnerability = new Vulnerability();
+      }
+      vulnerability.setOrdinal(readVarInt() - 1);
+      vulnerability.setVulnerabilityClass(readClass());
+      vulnerability.setInstanceID(readString());
+      vulnerability.setInstanceSeverity(readString());
+      vulnerability.setPath(readString());
+      vulnerability.setLineNumber(readVarInt() - 1);
+      vulnerability.setSnippetID(readString());
+      vulnerability.setNodeRef(readVarInt() - 1);
+      int definitions = readVarInt();
+      for (int i = 0; i < definitions; i++) {
+        String definitionKey = readString();
+        vulnerability.addReplacementDefinition(definitionKey, readString());
+      }
+      return vulnerability;
+    }
+
+    private NodePool readNodePool() {
+      NodePool nodePool = new NodePool();
+      int size = readVarInt();
+      for (int i = 0; i < size; i++) {
+        int id = readVarInt();
+        String path = readString();
+        int line = readVarInt() - 1;
+        nodePool.add(id, path, line, readString());
+      }
+      return nodePool;
+    }
+
+    private VulnerabilityRanges readRanges() {
+      byte[] xmlDeclaration = new byte[readVarInt()];
+      this.buffer.get(xmlDeclaration);
+      VulnerabilityRanges ranges = new VulnerabilityRanges(xmlDeclaration);
+      int size = readVarInt();
+      long previousEnd = 0;
+      for (int i = 0; i < size; i++) {
+        long start = previousEnd + readVarLong();
+        previousEnd = start + readVarLong();
+        ranges.add(start, previousEnd);
+      }
+      return ranges;
+    }
+
+    private VulnerabilityClass readClass() {
+      int code = readVarInt();
+      if (code != NEW_CLASS) {
+        return this.classes.get(code - 1);
+      }
+      String classID = readString();
+      String kingdom = readString();
+      String type = readString();
+      String subtype = readString();
+      VulnerabilityClass vulnerabilityClass = this.symbols.classOf(classID, kingdom, type, subtype);
+      this.classes.add(vulnerabilityClass);
+      return vulnerabilityClass;
+    }
+
+    @CheckForNull
+    private String readString() {
+      int code = readVarInt();
+      if (code == NULL_STRING) {
+        return null;
+      } else if (code >= STRING_REFERENCE) {
+        return this.strings.get(code - STRING_REFERENCE);
+      }
+      int length = readVarInt();
+      if (length > this.bytes.length) {
+        this.bytes = new byte[Math.max(length, 2 * this.bytes.length)];
+      }
+      this.buffer.get(this.bytes, 0, length);
+      String value = new String(this.bytes, 0, length, Charsets.UTF_8);
+      if (code == NEW_STRING) {
+        this.strings.add(value);
+      }
+      return value;
+    }
+
+    private int readVarInt() {
+      int value = 0;
+      int shift = 0;
+      int b;
+      do {
+        b = this.buffer.get();
+        value |= (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
+    }
+
+    private long readVarLong() {
+      long value = 0;
+      int shift = 0;
+      int b;
+      do {
+        b = this.buffer.get();
+        value |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.codehaus.staxmate.in.SMHierarchicCursor;
+import org.codehaus.staxmate.in.SMInputCursor;
+import org.sonar.fortify.base.FortifyUtils;
+import org.sonar.fortify.base.StaxBackend;
+import org.sonar.fortify.base.StaxProfile;
+
+import javax.annotation.CheckForNull;
+import javax.xml.stream.XMLStreamException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Byte ranges of the &lt;Snippet&gt; elements of a FVDL file, by snippet id. The index is built by a single skim
+ * of the file; snippets are then read one by one through positional reads, so that their text is never kept
+ * in memory. Only ASCII compatible encodings are supported: no snippet is found in UTF-16 files.
+ */
+class SnippetIndex extends RawXmlScanner {
+  private static final byte[] SNIPPET = "Snippet".getBytes(Charsets.US_ASCII);
+  private static final byte[] ID = "id".getBytes(Charsets.US_ASCII);
+
+  private final File file;
+  private byte[] xmlDeclaration;
+  private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+  private long[] starts = new long[256];
+  private long[] ends = new long[256];
+  private int count = 0;
+
+  // depth of the current element inside a snippet
+  private int depth = 0;
+  private long snippetStart = -1;
+  private String snippetID;
+
+  private SnippetIndex(File file, FileChannel channel) {
+    super(channel);
+    this.file = file;
+  }
+
+  static SnippetIndex scan(File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      SnippetIndex index = new SnippetIndex(file, randomAccessFile.getChannel());
+      index.xmlDeclaration = index.readXmlDeclaration();
+      if (!index.isUtf16()) {
+        index.captureAttribute(ID);
+        index.scanMarkup();
+      }
+      return index;
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  int size() {
+    return this.count;
+  }
+
+  boolean contains(String snippetID) {
+    return this.indexes.containsKey(snippetID);
+  }
+
+  Reader openReader(StaxBackend backend, int bufferSize) throws IOException {
+    return new Reader(backend, bufferSize);
+  }
+
+  @Override
+  boolean onMarkup(long tagStart) throws IOException {
+    int c = read();
+    if (c == '!') {
+      skipDeclaration();
+    } else if (c == '?') {
+      skipProcessingInstruction();
+    } else if (c == '/') {
+      skipToTagEnd(readName(read()));
+      if (this.snippetStart >= 0) {
+        if (this.depth == 0) {
+          add(this.snippetID, this.snippetStart, position());
+          this.snippetStart = -1;
+        } else {
+          this.depth--;
+        }
+      }
+    } else {
+      boolean empty = skipToTagEnd(readName(c));
+      if (this.snippetStart >= 0) {
+        if (!empty) {
+          this.depth++;
+        }
+      } else if (nameIs(SNIPPET)) {
+        String id = getCapturedAttribute();
+        if (id != null && !empty) {
+          this.snippetID = id.indexOf('&') >= 0 ? StringEscapeUtils.unescapeXml(id) : id;
+          this.snippetStart = tagStart;
+        }
+      }
+    }
+    return true;
+  }
+
+  private void add(String id, long start, long end) {
+    if (this.count == this.starts.length) {
+      this.starts = Arrays.copyOf(this.starts, this.count * 2);
+      this.ends = Arrays.copyOf(this.ends, this.count * 2);
+    }
+    this.starts[this.count] = start;
+    this.ends[this.count] = end;
+    if (!this.indexes.containsKey(id)) {
+      this.indexes.put(id, this.count);
+    }
+    this.count++;
+  }
+
+  /**
+   * Reads snippets from the file, which stays open until the reader is closed.
+   */
+  class Reader implements Closeable {
+    private final StaxBackend backend;
+    private final int bufferSize;
+    private final RandomAccessFile randomAccessFile;
+
+    private Reader(StaxBackend backend, int bufferSize) throws IOException {
+      this.backend = backend;
+      this.bufferSize = bufferSize;
+      this.randomAccessFile = new RandomAccessFile(SnippetIndex.this.file, "r");
+    }
+
+    /**
+     * Text of the snippet, null if the report has no such snippet. The range is decoded with the XML declaration of the file.
+     */
+    @CheckForNull
+    String read(String snippetID) throws IOException {
+      Integer index = SnippetIndex.this.indexes.get(snippetID);
+      if (index == null) {
+        return null;
+      }
+      InputStream stream = new BufferedInputStream(new SequenceInputStream(new ByteArrayInputStream(SnippetIndex.this.xmlDeclaration),
+        new FileRangeInputStream(this.randomAccessFile.getChannel(), SnippetIndex.this.starts[index], SnippetIndex.this.ends[index])), this.bufferSize);
+      try {
+        SMHierarchicCursor snippetCursor = FortifyUtils.getStaxParser(this.backend, StaxProfile.FVDL).rootElementCursor(stream);
+        snippetCursor.advance(); // <Snippet>
+        SMInputCursor textCursor = snippetCursor.childElementCursor("Text");
+        return textCursor.getNext() == null ? null : textCursor.collectDescendantText(false);
+      } catch (XMLStreamException e) {
+        throw new IllegalStateException("XML is not valid", e);
+      } finally {
+        stream.close();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.randomAccessFile.close();
+    }
+  }
+}
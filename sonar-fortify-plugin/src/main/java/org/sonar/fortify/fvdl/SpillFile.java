@@ -0,0 +1,112 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import javax.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Temporary file of the working directory into which columns are moved when the heap budget is exceeded.
+ * The file only grows: it is mapped by segments, which stay mapped until the file is closed, and regions are allocated
+ * inside the segments. Segments double in size up to {@link #MAX_SEGMENT_SIZE}, so that large stores need few mappings:
+ * the number of mappings of a process is limited, to 65530 by default on Linux.
+ */
+class SpillFile implements Closeable {
+  static final int MIN_SEGMENT_SIZE = 1 << 20;
+  static final int MAX_SEGMENT_SIZE = 64 << 20;
+
+  private final File file;
+  private final RandomAccessFile randomAccessFile;
+  private final FileChannel channel;
+  private ByteBuffer segment;
+  private long mappedSize = 0;
+  private long size = 0;
+
+  SpillFile(@Nullable File workDir) throws IOException {
+    if (workDir != null && !workDir.isDirectory() && !workDir.mkdirs()) {
+      throw new IOException("Unable to create directory " + workDir);
+    }
+    this.file = File.createTempFile("fortify-findings", ".bin", workDir);
+    this.file.deleteOnExit();
+    this.randomAccessFile = new RandomAccessFile(this.file, "rw");
+    this.channel = this.randomAccessFile.getChannel();
+  }
+
+  /**
+   * Allocates a new region at the end of the file, in the current segment or in a new one if the region does not fit.
+   */
+  ByteBuffer allocate(int bytes) {
+    if (this.segment == null || this.segment.remaining() < bytes) {
+      mapSegment(bytes);
+    }
+    ByteBuffer region = this.segment.duplicate();
+    region.limit(region.position() + bytes);
+    this.segment.position(region.limit());
+    this.size += bytes;
+    return region.slice().order(ByteOrder.nativeOrder());
+  }
+
+  private void mapSegment(int minSize) {
+    int segmentSize = (int) Math.max(minSize, Math.min(MAX_SEGMENT_SIZE, Math.max(MIN_SEGMENT_SIZE, this.mappedSize)));
+    try {
+      this.segment = this.channel.map(FileChannel.MapMode.READ_WRITE, this.mappedSize, segmentSize);
+      this.mappedSize += segmentSize;
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to extend " + this.file, e);
+    }
+  }
+
+  /**
+   * Bytes allocated to regions
+   */
+  long size() {
+    return this.size;
+  }
+
+  /**
+   * Bytes mapped by the segments, which include the space not allocated yet
+   */
+  long mappedSize() {
+    return this.mappedSize;
+  }
+
+  File getFile() {
+    return this.file;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      this.randomAccessFile.close();
+    } finally {
+      // mapped regions are released by the garbage collector: on some platforms the file can only be deleted on exit
+      if (!this.file.delete()) {
+        this.file.deleteOnExit();
+      }
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import org.codehaus.stax2.XMLStreamReader2;
+import org.codehaus.stax2.typed.TypedXMLStreamException;
+
+import javax.annotation.CheckForNull;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * {@link ElementReader} over a stax2 stream reader, whose typed access decodes numbers without building strings.
+ */
+class StaxElementReader implements ElementReader {
+  private final XMLStreamReader2 reader;
+  private final StringBuilder text = new StringBuilder();
+
+  StaxElementReader(XMLStreamReader2 reader) {
+    this.reader = reader;
+  }
+
+  @Override
+  public boolean nextChild() throws XMLStreamException {
+    while (true) {
+      int event = this.reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        return true;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        return false;
+      }
+    }
+  }
+
+  @Override
+  public boolean isElement(String localName) {
+    return localName.equals(this.reader.getLocalName());
+  }
+
+  @Override
+  public boolean isElementIgnoreCase(String localName) {
+    return localName.equalsIgnoreCase(this.reader.getLocalName());
+  }
+
+  /**
+   * Offsets of the stream are not the ones of the document, see {@link ElementSkippingInputStream}
+   */
+  @Override
+  public long getStartOffset() {
+    return NO_OFFSET;
+  }
+
+  @Override
+  public long getEndOffset() {
+    return NO_OFFSET;
+  }
+
+  @Override
+  public void skipElement() throws XMLStreamException {
+    this.reader.skipElement();
+  }
+
+  /**
+   * Text of the element and of its descendants, as collected by StAX cursors
+   */
+  @Override
+  public String getElementText() throws XMLStreamException {
+    this.text.setLength(0);
+    int depth = 1;
+    while (depth > 0) {
+      int event = this.reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE) {
+        this.text.append(this.reader.getTextCharacters(), this.reader.getTextStart(), this.reader.getTextLength());
+      }
+    }
+    return this.text.toString();
+  }
+
+  @Override
+  public double getElementAsDouble() throws XMLStreamException {
+    return this.reader.getElementAsDouble();
+  }
+
+  @CheckForNull
+  @Override
+  public String getAttribute(String localName) {
+    return this.reader.getAttributeValue(null, localName);
+  }
+
+  @Override
+  public int getAttributeAsInt(String localName, int defaultValue) throws XMLStreamException {
+    int index = this.reader.getAttributeIndex(null, localName);
+    if (index < 0) {
+      return defaultValue;
+    }
+    try {
+      return this.reader.getAttributeAsInt(index);
+    } catch (TypedXMLStreamException e) {
+      return defaultValue;
+    }
+  }
+
+  @Override
+  public boolean getAttributeAsBoolean(String localName) throws XMLStreamException {
+    int index = this.reader.getAttributeIndex(null, localName);
+    if (index < 0) {
+      return false;
+    }
+    try {
+      return this.reader.getAttributeAsBoolean(index);
+    } catch (TypedXMLStreamException e) {
+      return false;
+    }
+  }
+}
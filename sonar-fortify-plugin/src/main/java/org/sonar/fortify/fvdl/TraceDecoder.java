@@ -0,0 +1,280 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.codehaus.staxmate.SMInputFactory;
+import org.codehaus.staxmate.in.SMHierarchicCursor;
+import org.codehaus.staxmate.in.SMInputCursor;
+import org.sonar.fortify.base.FortifyUtils;
+import org.sonar.fortify.base.StaxBackend;
+import org.sonar.fortify.base.StaxProfile;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLStreamException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decodes the data-flow traces of some vulnerabilities of a report, once the vulnerabilities which become issues
+ * are known. Vulnerabilities are identified by their ordinal, and read through their byte range in the FVDL document,
+ * after the XML declaration of the document which gives its encoding.
+ * The ranges are those recorded by the parser when it knows them, see {@link VulnerabilityRangeHandler}; otherwise they
+ * are found by the first call, and kept for the next ones: the registry keeps one decoder per report for all the modules.
+ * Plain FVDL files and FVDL documents stored without compression in FPR archives are read in place, see
+ * {@link FortifyReportFile#getFvdlRegion()}. Other documents are inflated once, into a temporary file of the working
+ * directory. Nodes referenced by the traces are resolved against the &lt;UnifiedNodePool&gt; section read by the parser.
+ */
+class TraceDecoder implements Closeable {
+  static final String LOCATION_SEPARATOR = " -> ";
+
+  private final FortifyReportFile report;
+  private final StaxBackend backend;
+  private final int bufferSize;
+  private final File workDir;
+  private FileRegion document;
+  private File temporaryDocument;
+  private VulnerabilityRanges ranges;
+  private boolean scanned = false;
+
+  TraceDecoder(FortifyReportFile report, FortifySensorConfiguration configuration, @Nullable File workDir) {
+    this.report = report;
+    this.backend = configuration.getStaxBackend();
+    this.bufferSize = configuration.getReadBufferSize();
+    this.workDir = workDir;
+  }
+
+  /**
+   * Traces by ordinal, formatted as "path:line -> path:line". Vulnerabilities without trace are left out.
+   * @param nodePool nodes of the report, null if the report has no node pool: referenced nodes are then left out
+   * @param ranges ranges of the vulnerabilities recorded by the parser, null if they are not known
+   */
+  Map<Integer, String> decode(int[] ordinals, @Nullable NodePool nodePool, @Nullable VulnerabilityRanges ranges) throws IOException {
+    Map<Integer, String> traces = new HashMap<Integer, String>();
+    if (ordinals.length == 0) {
+      return traces;
+    }
+    int[] sortedOrdinals = ordinals.clone();
+    Arrays.sort(sortedOrdinals);
+    FileRegion region = getDocument();
+    if (ranges != null) {
+      this.ranges = ranges;
+    }
+    RandomAccessFile randomAccessFile = new RandomAccessFile(region.getFile(), "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      if (this.ranges == null && !this.scanned) {
+        VulnerabilityRangeScanner scanner = VulnerabilityRangeScanner.scan(channel, region.getOffset(), region.getLength());
+        this.ranges = scanner.hasSection() ? scanner.getRanges() : null;
+        this.scanned = true;
+      }
+      if (this.ranges != null) {
+        decodeRanges(channel, region.getOffset(), sortedOrdinals, nodePool, traces);
+      } else {
+        // no range in UTF-16 documents
+        InputStream stream = new BufferedInputStream(new FileRangeInputStream(channel, region.getOffset(), region.getOffset() + region.getLength()),
+          this.bufferSize);
+        try {
+          skim(stream, sortedOrdinals, nodePool, traces);
+        } finally {
+          stream.close();
+        }
+      }
+    } catch (XMLStreamException e) {
+      throw new IllegalStateException("XML is not valid", e);
+    } finally {
+      randomAccessFile.close();
+    }
+    return traces;
+  }
+
+  /**
+   * Deletes the inflated copy of the FVDL document, if any
+   */
+  @Override
+  public void close() {
+    if (this.temporaryDocument != null && !this.temporaryDocument.delete()) {
+      this.temporaryDocument.deleteOnExit();
+    }
+    this.temporaryDocument = null;
+    this.document = null;
+    this.ranges = null;
+    this.scanned = false;
+  }
+
+  /**
+   * The region of the report which holds its FVDL document, else a copy of the document, inflated by the first call
+   */
+  private FileRegion getDocument() throws IOException {
+    if (this.document != null) {
+      return this.document;
+    }
+    FileRegion region = this.report.getFvdlRegion();
+    if (region != null) {
+      this.document = region;
+      return region;
+    }
+    if (this.workDir != null && !this.workDir.isDirectory() && !this.workDir.mkdirs()) {
+      throw new IOException("Unable to create directory " + this.workDir);
+    }
+    this.temporaryDocument = File.createTempFile("fortify-report", ".fvdl", this.workDir);
+    InputStream stream = this.report.getInputStream();
+    try {
+      Files.copy(stream, this.temporaryDocument.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      stream.close();
+    }
+    this.document = FileRegion.of(this.temporaryDocument);
+    return this.document;
+  }
+
+  /**
+   * @param offset position of the document in the file, to which the ranges are relative
+   */
+  private void decodeRanges(FileChannel channel, long offset, int[] ordinals, @Nullable NodePool nodePool, Map<Integer, String> traces)
+    throws IOException, XMLStreamException {
+    SMInputFactory inputFactory = FortifyUtils.getStaxParser(this.backend, StaxProfile.FVDL);
+    for (int ordinal : ordinals) {
+      if (ordinal >= 0 && ordinal < this.ranges.size()) {
+        InputStream stream = new BufferedInputStream(new SequenceInputStream(new ByteArrayInputStream(this.ranges.getXmlDeclaration()),
+          new FileRangeInputStream(channel, offset + this.ranges.getStart(ordinal), offset + this.ranges.getEnd(ordinal))), this.bufferSize);
+        try {
+          SMHierarchicCursor vulnCursor = inputFactory.rootElementCursor(stream);
+          vulnCursor.advance(); // <Vulnerability>
+          putTrace(traces, ordinal, vulnCursor, nodePool);
+        } finally {
+          stream.close();
+        }
+      }
+    }
+  }
+
+  private void skim(InputStream stream, int[] ordinals, @Nullable NodePool nodePool, Map<Integer, String> traces) throws XMLStreamException {
+    SMInputFactory inputFactory = FortifyUtils.getStaxParser(this.backend, StaxProfile.FVDL);
+    SMHierarchicCursor rootC = inputFactory.rootElementCursor(stream);
+    rootC.advance(); // <FVDL>
+    SMInputCursor childCursor = rootC.childElementCursor("Vulnerabilities");
+    if (childCursor.getNext() == null) {
+      return;
+    }
+    SMInputCursor vulnCursor = childCursor.childElementCursor("Vulnerability");
+    int ordinal = 0;
+    int next = 0;
+    while (next < ordinals.length && vulnCursor.getNext() != null) {
+      if (ordinal == ordinals[next]) {
+        putTrace(traces, ordinal, vulnCursor, nodePool);
+        while (next < ordinals.length && ordinals[next] == ordinal) {
+          next++;
+        }
+      }
+      ordinal++;
+    }
+  }
+
+  private static void putTrace(Map<Integer, String> traces, int ordinal, SMInputCursor vulnCursor, @Nullable NodePool nodePool)
+    throws XMLStreamException {
+    String trace = decodeTrace(vulnCursor, nodePool);
+    if (trace != null) {
+      traces.put(ordinal, trace);
+    }
+  }
+
+  /**
+   * Locations of the first trace of the vulnerability, from source to sink.
+   */
+  @CheckForNull
+  private static String decodeTrace(SMInputCursor vulnCursor, @Nullable NodePool nodePool) throws XMLStreamException {
+    SMInputCursor analysisCursor = vulnCursor.childElementCursor("AnalysisInfo");
+    if (analysisCursor.getNext() == null) {
+      return null;
+    }
+    SMInputCursor unifiedCursor = analysisCursor.childElementCursor("Unified");
+    if (unifiedCursor.getNext() == null) {
+      return null;
+    }
+    SMInputCursor traceCursor = unifiedCursor.childElementCursor("Trace");
+    if (traceCursor.getNext() == null) {
+      return null;
+    }
+    SMInputCursor primaryCursor = traceCursor.childElementCursor("Primary");
+    if (primaryCursor.getNext() == null) {
+      return null;
+    }
+    StringBuilder trace = new StringBuilder();
+    String previous = null;
+    SMInputCursor entryCursor = primaryCursor.childElementCursor("Entry");
+    while (entryCursor.getNext() != null) {
+      String location = decodeLocation(entryCursor, nodePool);
+      if (location != null && !location.equals(previous)) {
+        if (trace.length() > 0) {
+          trace.append(LOCATION_SEPARATOR);
+        }
+        trace.append(location);
+        previous = location;
+      }
+    }
+    return trace.length() > 0 ? trace.toString() : null;
+  }
+
+  /**
+   * Location of an entry: the source location of its inline node, or of the node of the pool it refers to
+   */
+  @CheckForNull
+  private static String decodeLocation(SMInputCursor entryCursor, @Nullable NodePool nodePool) throws XMLStreamException {
+    SMInputCursor nodeCursor = entryCursor.childElementCursor();
+    if (nodeCursor.getNext() == null) {
+      return null;
+    }
+    if ("NodeRef".equals(nodeCursor.getLocalName())) {
+      int index = nodePool == null ? -1 : nodePool.indexOf(NumberUtils.toInt(nodeCursor.getAttrValue("id"), -1));
+      if (index < 0 || StringUtils.isBlank(nodePool.getPath(index))) {
+        return null;
+      }
+      int line = nodePool.getLine(index);
+      return line == NodePool.NO_LINE ? nodePool.getPath(index) : (nodePool.getPath(index) + ":" + line);
+    }
+    if ("Node".equals(nodeCursor.getLocalName())) {
+      SMInputCursor sourceLocationCursor = nodeCursor.childElementCursor("SourceLocation");
+      if (sourceLocationCursor.getNext() != null) {
+        String path = sourceLocationCursor.getAttrValue("path");
+        if (StringUtils.isNotBlank(path)) {
+          String line = sourceLocationCursor.getAttrValue("line");
+          return line == null ? path : (path + ":" + line);
+        }
+      }
+    }
+    return null;
+  }
+}
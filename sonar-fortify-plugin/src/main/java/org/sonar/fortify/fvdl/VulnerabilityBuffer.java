@@ -0,0 +1,216 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+import org.sonar.fortify.fvdl.element.ReplacementDefinition;
+import org.sonar.fortify.fvdl.element.Vulnerability;
+import org.sonar.fortify.fvdl.element.VulnerabilityClass;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Vulnerabilities written to a temporary file of the working directory, and read back in the order they were added,
+ * so that the heap does not grow with the number of vulnerabilities. Each vulnerability may come with a few strings,
+ * its tags. The file is only created once a vulnerability is added.
+ */
+class VulnerabilityBuffer implements Closeable {
+  private static final int NULL_STRING = -1;
+  private static final int NEW_CLASS = -1;
+
+  private final File workDir;
+  private final String prefix;
+  private File file;
+  private DataOutputStream output;
+  private int size = 0;
+  /**
+   * Ids of the classifications already written: each one is written once, then referenced by its id
+   */
+  private final Map<VulnerabilityClass, Integer> classes = new HashMap<VulnerabilityClass, Integer>();
+
+  /**
+   * @param prefix prefix of the name of the temporary file
+   */
+  VulnerabilityBuffer(@Nullable File workDir, String prefix) {
+    this.workDir = workDir;
+    this.prefix = prefix;
+  }
+
+  interface Consumer {
+    void accept(Vulnerability vulnerability, String[] tags);
+  }
+
+  void add(Vulnerability vulnerability, String... tags) throws IOException {
+    if (this.output == null) {
+      if (this.workDir != null && !this.workDir.isDirectory() && !this.workDir.mkdirs()) {
+        throw new IOException("Unable to create directory " + this.workDir);
+      }
+      this.file = File.createTempFile(this.prefix, ".bin", this.workDir);
+      this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file)));
+    }
+    this.output.writeInt(tags.length);
+    for (String tag : tags) {
+      writeString(tag);
+    }
+    writeVulnerability(vulnerability);
+    this.size++;
+  }
+
+  int size() {
+    return this.size;
+  }
+
+  /**
+   * Reads back the vulnerabilities in the order they were added, as new instances.
+   */
+  void replay(Consumer consumer) throws IOException {
+    if (this.output == null) {
+      return;
+    }
+    this.output.close();
+    DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+    List<VulnerabilityClass> replayedClasses = new ArrayList<VulnerabilityClass>(this.classes.size());
+    try {
+      for (int i = 0; i < this.size; i++) {
+        String[] tags = new String[input.readInt()];
+        for (int j = 0; j < tags.length; j++) {
+          tags[j] = readString(input);
+        }
+        consumer.accept(readVulnerability(input, replayedClasses), tags);
+      }
+    } finally {
+      Closeables.closeQuietly(input);
+    }
+  }
+
+  @Override
+  public void close() {
+    Closeables.closeQuietly(this.output);
+    if (this.file != null && !this.file.delete()) {
+      this.file.deleteOnExit();
+    }
+  }
+
+  private void writeVulnerability(Vulnerability vulnerability) throws IOException {
+    writeClass(vulnerability.getVulnerabilityClass());
+    writeString(vulnerability.getInstanceID());
+    writeString(vulnerability.getInstanceSeverity());
+    writeString(vulnerability.getPath());
+    writeString(vulnerability.getSnippetID());
+    this.output.writeInt(vulnerability.getLineNumber());
+    this.output.writeInt(vulnerability.getOrdinal());
+    this.output.writeInt(vulnerability.getNodeRef());
+    Collection<ReplacementDefinition> replacementDefinitions = vulnerability.getReplacementDefinitions();
+    this.output.writeInt(replacementDefinitions.size());
+    for (ReplacementDefinition replacementDefinition : replacementDefinitions) {
+      writeString(replacementDefinition.getKey());
+      writeString(replacementDefinition.getValue());
+    }
+  }
+
+  private Vulnerability readVulnerability(DataInputStream input, List<VulnerabilityClass> replayedClasses) throws IOException {
+    Vulnerability vulnerability = new Vulnerability();
+    vulnerability.setVulnerabilityClass(readClass(input, replayedClasses));
+    vulnerability.setInstanceID(readString(input));
+    vulnerability.setInstanceSeverity(readString(input));
+    vulnerability.setPath(readString(input));
+    vulnerability.setSnippetID(readString(input));
+    vulnerability.setLineNumber(input.readInt());
+    vulnerability.setOrdinal(input.readInt());
+    vulnerability.setNodeRef(input.readInt());
+    int replacementDefinitionCount = input.readInt();
+    for (int i = 0; i < replacementDefinitionCount; i++) {
+      vulnerability.addReplacementDefinition(new ReplacementDefinition(readString(input), readString(input)));
+    }
+    return vulnerability;
+  }
+
+  private void writeClass(VulnerabilityClass vulnerabilityClass) throws IOException {
+    Integer id = this.classes.get(vulnerabilityClass);
+    if (id != null) {
+      this.output.writeInt(id);
+      return;
+    }
+    this.classes.put(vulnerabilityClass, this.classes.size());
+    this.output.writeInt(NEW_CLASS);
+    writeString(vulnerabilityClass.getClassID());
+    writeString(vulnerabilityClass.getKingdom());
+    writeString(vulnerabilityClass.getType());
+    writeString(vulnerabilityClass.getSubtype());
+  }
+
+  /**
+   * @param replayedClasses classifications read so far, by id: vulnerabilities of the same class share one instance
+   */
+  private VulnerabilityClass readClass(DataInputStream input, List<VulnerabilityClass> replayedClasses) throws IOException {
+    int id = input.readInt();
+    if (id != NEW_CLASS) {
+      if (id < 0 || id >= replayedClasses.size()) {
+        throw new IOException("Corrupted vulnerability buffer: " + this.file);
+      }
+      return replayedClasses.get(id);
+    }
+    VulnerabilityClass vulnerabilityClass = new VulnerabilityClass(readString(input), readString(input), readString(input), readString(input));
+    replayedClasses.add(vulnerabilityClass);
+    return vulnerabilityClass;
+  }
+
+  private void writeString(@Nullable String value) throws IOException {
+    if (value == null) {
+      this.output.writeInt(NULL_STRING);
+    } else {
+      // DataOutput#writeUTF is limited to 64KB
+      byte[] bytes = value.getBytes(Charsets.UTF_8);
+      this.output.writeInt(bytes.length);
+      this.output.write(bytes);
+    }
+  }
+
+  @CheckForNull
+  private String readString(DataInputStream input) throws IOException {
+    int length = input.readInt();
+    if (length == NULL_STRING) {
+      return null;
+    }
+    if (length < 0) {
+      throw new IOException("Corrupted vulnerability buffer: " + this.file);
+    }
+    byte[] bytes = new byte[length];
+    input.readFully(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+}
@@ -0,0 +1,326 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import org.apache.commons.lang.StringUtils;
+import org.sonar.api.rule.Severity;
+import org.sonar.api.utils.MessageException;
+import org.sonar.fortify.base.FortifyConstants;
+import org.sonar.fortify.fvdl.element.VulnerabilityClass;
+
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which vulnerabilities are imported, while the report is parsed. Compiled once from the expression of
+ * {@link FortifyConstants#IMPORT_FILTER_PROPERTY} and from the keys of the active rules.
+ * <p>
+ * The expression is a list of conditions separated by ';', which must all be met. A condition is
+ * <code>field operator values</code>:
+ * <ul>
+ *   <li><code>kingdom</code> and <code>category</code> support <code>=</code> and <code>!=</code>. The category is either
+ *   the type of the vulnerability or <code>type: subtype</code>.</li>
+ *   <li><code>severity</code> (SonarQube severity of the instance) supports <code>=</code>, <code>!=</code>, <code>&lt;</code>,
+ *   <code>&lt;=</code>, <code>&gt;</code> and <code>&gt;=</code>.</li>
+ *   <li><code>confidence</code> (Fortify confidence of the instance, from 0 to 5) supports the comparison operators.</li>
+ *   <li><code>path</code> supports <code>=</code> and <code>!=</code> with glob patterns: <code>*</code> and <code>?</code>
+ *   stay in a directory, <code>**</code> crosses directories.</li>
+ * </ul>
+ * Alternatives of <code>=</code> and <code>!=</code> are separated by '|'. Text is compared ignoring case.
+ * Example: <code>kingdom=Input Validation and Representation|Security Features; severity&gt;=MAJOR; path!=**&#47;test/**</code>.
+ * A condition on a value which is missing from the report is met.
+ * <p>
+ * Instances are thread-safe.
+ */
+final class VulnerabilityFilter {
+  private static final Pattern CONDITION = Pattern.compile("\\s*(\\w+)\\s*(!=|<=|>=|=|<|>)\\s*(.*?)\\s*");
+
+  private final String key;
+  private final List<Condition> kingdomConditions = new ArrayList<Condition>();
+  private final List<Condition> categoryConditions = new ArrayList<Condition>();
+  private final List<Condition> severityConditions = new ArrayList<Condition>();
+  private final List<Condition> confidenceConditions = new ArrayList<Condition>();
+  private final List<Condition> pathConditions = new ArrayList<Condition>();
+  private final Set<String> ruleKeys;
+  private final ConcurrentMap<VulnerabilityClass, Boolean> acceptedClasses = new ConcurrentHashMap<VulnerabilityClass, Boolean>();
+
+  private VulnerabilityFilter(String key, @Nullable Set<String> ruleKeys) {
+    this.key = key;
+    this.ruleKeys = ruleKeys;
+  }
+
+  /**
+   * @param expression conditions, see the class documentation. Null or blank to accept everything.
+   * @param ruleKeys keys of the active Fortify rules, null to accept all the rules
+   * @throws MessageException if the expression is not valid
+   */
+  static VulnerabilityFilter compile(@Nullable String expression, @Nullable Collection<String> ruleKeys) {
+    StringBuilder key = new StringBuilder(StringUtils.defaultString(expression));
+    Set<String> sortedRuleKeys = null;
+    if (ruleKeys != null) {
+      sortedRuleKeys = new TreeSet<String>(ruleKeys);
+      key.append('#').append(sortedRuleKeys);
+    }
+    VulnerabilityFilter filter = new VulnerabilityFilter(key.toString(), sortedRuleKeys == null ? null : new HashSet<String>(sortedRuleKeys));
+    if (StringUtils.isNotBlank(expression)) {
+      for (String condition : StringUtils.split(expression, ';')) {
+        if (StringUtils.isNotBlank(condition)) {
+          filter.addCondition(condition);
+        }
+      }
+    }
+    return filter;
+  }
+
+  private void addCondition(String condition) {
+    Matcher matcher = CONDITION.matcher(condition);
+    if (!matcher.matches()) {
+      throw invalid(condition);
+    }
+    String field = matcher.group(1).toLowerCase(Locale.ENGLISH);
+    String operator = matcher.group(2);
+    String values = matcher.group(3);
+    boolean equality = "=".equals(operator) || "!=".equals(operator);
+    if ("kingdom".equals(field) && equality) {
+      this.kingdomConditions.add(new ValuesCondition(operator, values));
+    } else if ("category".equals(field) && equality) {
+      this.categoryConditions.add(new ValuesCondition(operator, values));
+    } else if ("severity".equals(field)) {
+      this.severityConditions.add(equality ? new ValuesCondition(operator, values) : new SeverityCondition(operator, values, condition));
+    } else if ("confidence".equals(field)) {
+      this.confidenceConditions.add(new ConfidenceCondition(operator, values, condition));
+    } else if ("path".equals(field) && equality) {
+      this.pathConditions.add(new GlobCondition(operator, values));
+    } else {
+      throw invalid(condition);
+    }
+  }
+
+  private static MessageException invalid(String condition) {
+    return MessageException.of("Invalid condition \"" + condition.trim() + "\" in property " + FortifyConstants.IMPORT_FILTER_PROPERTY);
+  }
+
+  /**
+   * Identifies the filter: two filters with the same key accept the same vulnerabilities.
+   */
+  String getKey() {
+    return this.key;
+  }
+
+  /**
+   * Conditions on the kingdom and on the category, and the active rules. The result is computed once per class.
+   */
+  boolean acceptsClass(VulnerabilityClass vulnerabilityClass) {
+    Boolean accepted = this.acceptedClasses.get(vulnerabilityClass);
+    if (accepted == null) {
+      accepted = evaluateClass(vulnerabilityClass);
+      this.acceptedClasses.put(vulnerabilityClass, accepted);
+    }
+    return accepted;
+  }
+
+  private boolean evaluateClass(VulnerabilityClass vulnerabilityClass) {
+    if (this.ruleKeys != null) {
+      String ruleKey = FortifyConstants.fortifySQRuleKey(vulnerabilityClass.getKingdom(), vulnerabilityClass.getType(), vulnerabilityClass.getSubtype());
+      if (ruleKey == null || !this.ruleKeys.contains(ruleKey)) {
+        return false;
+      }
+    }
+    String type = vulnerabilityClass.getType();
+    String category = type == null || vulnerabilityClass.getSubtype() == null ? type : (type + ": " + vulnerabilityClass.getSubtype());
+    return accepts(this.kingdomConditions, vulnerabilityClass.getKingdom(), null) && accepts(this.categoryConditions, type, category);
+  }
+
+  /**
+   * Conditions on the severity and on the confidence of the instance.
+   */
+  boolean acceptsInstance(@Nullable String severity, @Nullable String confidence) {
+    return accepts(this.severityConditions, severity, null) && accepts(this.confidenceConditions, StringUtils.trimToNull(confidence), null);
+  }
+
+  boolean hasPathConditions() {
+    return !this.pathConditions.isEmpty();
+  }
+
+  /**
+   * Conditions on the path of the primary location.
+   */
+  boolean acceptsPath(@Nullable String path) {
+    return accepts(this.pathConditions, path == null ? null : path.replace('\\', '/'), null);
+  }
+
+  private static boolean accepts(List<Condition> conditions, @Nullable String value, @Nullable String otherValue) {
+    if (value == null) {
+      return true;
+    }
+    for (Condition condition : conditions) {
+      boolean matches = condition.matches(value) || (otherValue != null && condition.matches(otherValue));
+      if (matches == condition.negated) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private abstract static class Condition {
+    private final boolean negated;
+
+    Condition(boolean negated) {
+      this.negated = negated;
+    }
+
+    abstract boolean matches(String value);
+  }
+
+  private static class ValuesCondition extends Condition {
+    private final Set<String> values = new HashSet<String>();
+
+    ValuesCondition(String operator, String values) {
+      super("!=".equals(operator));
+      for (String value : StringUtils.split(values, '|')) {
+        this.values.add(value.trim().toLowerCase(Locale.ENGLISH));
+      }
+    }
+
+    @Override
+    boolean matches(String value) {
+      return this.values.contains(value.toLowerCase(Locale.ENGLISH));
+    }
+  }
+
+  private static class GlobCondition extends Condition {
+    private final Pattern pattern;
+
+    GlobCondition(String operator, String globs) {
+      super("!=".equals(operator));
+      StringBuilder regex = new StringBuilder();
+      for (String glob : StringUtils.split(globs, '|')) {
+        if (regex.length() > 0) {
+          regex.append('|');
+        }
+        regex.append(toRegex(glob.trim().replace('\\', '/')));
+      }
+      this.pattern = Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+    }
+
+    private static String toRegex(String glob) {
+      StringBuilder regex = new StringBuilder();
+      int i = 0;
+      while (i < glob.length()) {
+        char c = glob.charAt(i);
+        if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+          // "**/" also matches no directory at all
+          boolean directories = i + 2 < glob.length() && glob.charAt(i + 2) == '/';
+          regex.append(directories ? "(?:.*/)?" : ".*");
+          i += directories ? 3 : 2;
+          continue;
+        }
+        if (c == '*') {
+          regex.append("[^/]*");
+        } else if (c == '?') {
+          regex.append("[^/]");
+        } else {
+          regex.append(Pattern.quote(String.valueOf(c)));
+        }
+        i++;
+      }
+      return regex.toString();
+    }
+
+    @Override
+    boolean matches(String value) {
+      return this.pattern.matcher(value).matches();
+    }
+  }
+
+  private abstract static class ComparisonCondition extends Condition {
+    private final String operator;
+
+    ComparisonCondition(String operator) {
+      super("!=".equals(operator));
+      this.operator = operator;
+    }
+
+    boolean compare(double value, double threshold) {
+      if ("<".equals(this.operator)) {
+        return value < threshold;
+      } else if ("<=".equals(this.operator)) {
+        return value <= threshold;
+      } else if (">".equals(this.operator)) {
+        return value > threshold;
+      } else if (">=".equals(this.operator)) {
+        return value >= threshold;
+      }
+      // "=" and "!="
+      return value == threshold;
+    }
+  }
+
+  private static class SeverityCondition extends ComparisonCondition {
+    private final int threshold;
+
+    SeverityCondition(String operator, String severity, String condition) {
+      super(operator);
+      this.threshold = Severity.ALL.indexOf(severity.trim().toUpperCase(Locale.ENGLISH));
+      if (this.threshold < 0) {
+        throw invalid(condition);
+      }
+    }
+
+    @Override
+    boolean matches(String value) {
+      int rank = Severity.ALL.indexOf(value);
+      return rank >= 0 && compare(rank, this.threshold);
+    }
+  }
+
+  private static class ConfidenceCondition extends ComparisonCondition {
+    private final double threshold;
+
+    ConfidenceCondition(String operator, String confidence, String condition) {
+      super(operator);
+      try {
+        this.threshold = Double.parseDouble(confidence.trim());
+      } catch (NumberFormatException e) {
+        throw invalid(condition);
+      }
+    }
+
+    @Override
+    boolean matches(String value) {
+      try {
+        return compare(Double.parseDouble(value), this.threshold);
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+  }
+}
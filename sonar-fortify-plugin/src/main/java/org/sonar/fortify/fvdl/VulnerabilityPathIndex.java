@@ -0,0 +1,181 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.StringUtils;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Findings of a report, indexed by the directories of their path. A module only visits the findings
+ * located under its base directory instead of resolving every path of the report.
+ */
+class VulnerabilityPathIndex {
+  private static final int[] NO_FINDING = new int[0];
+
+  private final Node root = new Node();
+  private final int size;
+
+  VulnerabilityPathIndex(FindingStore findings) {
+    List<String> paths = findings.getPaths();
+    Node[] pathNodes = new Node[paths.size()];
+    for (int pathId = 0; pathId < pathNodes.length; pathId++) {
+      Node node = this.root;
+      for (String segment : split(paths.get(pathId))) {
+        node = node.child(segment);
+      }
+      pathNodes[pathId] = node;
+    }
+    this.size = findings.size();
+    for (int index = 0; index < this.size; index++) {
+      int pathId = findings.getPathId(index);
+      Node node = pathId < 0 ? this.root : pathNodes[pathId];
+      node.add(index);
+    }
+  }
+
+  /**
+   * Indexes, in report order, of the findings which may belong to the module located in baseDir. Directories are compared
+   * by their canonical path and segments regardless of case: a finding which is wrongly kept is only resolved for nothing,
+   * while a finding which is wrongly left out is lost. Paths which do not exist under the source base path are resolved
+   * against the module base directory, so their findings are always candidates, as well as every finding when the
+   * module is not located under the source base path.
+   */
+  int[] find(@Nullable String sourceBasePath, File baseDir) {
+    if (StringUtils.isBlank(sourceBasePath)) {
+      return all();
+    }
+    File source = canonical(new File(sourceBasePath));
+    String prefix = source.isDirectory() ? relativePath(source, canonical(baseDir)) : null;
+    if (prefix == null || prefix.isEmpty()) {
+      return all();
+    }
+    BitSet result = new BitSet(this.size);
+    for (Map.Entry<String, Node> entry : this.root.children.entrySet()) {
+      if (!new File(source, entry.getKey()).exists()) {
+        entry.getValue().collect(result);
+      }
+    }
+    collect(this.root, split(prefix), 0, result);
+    int[] indexes = new int[result.cardinality()];
+    int i = 0;
+    for (int index = result.nextSetBit(0); index >= 0; index = result.nextSetBit(index + 1)) {
+      indexes[i] = index;
+      i++;
+    }
+    return indexes;
+  }
+
+  int[] all() {
+    int[] result = new int[this.size];
+    for (int i = 0; i < this.size; i++) {
+      result[i] = i;
+    }
+    return result;
+  }
+
+  private static void collect(Node node, String[] segments, int depth, BitSet result) {
+    if (depth == segments.length) {
+      node.collect(result);
+      return;
+    }
+    for (Map.Entry<String, Node> entry : node.children.entrySet()) {
+      if (entry.getKey().equalsIgnoreCase(segments[depth])) {
+        collect(entry.getValue(), segments, depth + 1, result);
+      }
+    }
+  }
+
+  @CheckForNull
+  private static String relativePath(File sourceBasePath, File baseDir) {
+    String source = normalize(sourceBasePath.getPath());
+    String module = normalize(baseDir.getPath());
+    if (source == null || module == null) {
+      return null;
+    }
+    if (module.equalsIgnoreCase(source)) {
+      return "";
+    }
+    String directory = source.endsWith("/") ? source : (source + "/");
+    if (module.regionMatches(true, 0, directory, 0, directory.length())) {
+      return module.substring(directory.length());
+    }
+    return null;
+  }
+
+  private static File canonical(File file) {
+    try {
+      return file.getCanonicalFile();
+    } catch (IOException e) {
+      return file.getAbsoluteFile();
+    }
+  }
+
+  @CheckForNull
+  private static String normalize(String path) {
+    return FilenameUtils.normalizeNoEndSeparator(path.replace('\\', '/'), true);
+  }
+
+  private static String[] split(String path) {
+    return StringUtils.split(path.replace('\\', '/'), '/');
+  }
+
+  private static class Node {
+    private final Map<String, Node> children = new LinkedHashMap<String, Node>();
+    private int[] findings = NO_FINDING;
+    private int findingCount = 0;
+
+    Node child(String segment) {
+      Node child = this.children.get(segment);
+      if (child == null) {
+        child = new Node();
+        this.children.put(segment, child);
+      }
+      return child;
+    }
+
+    void add(int index) {
+      if (this.findingCount == this.findings.length) {
+        this.findings = Arrays.copyOf(this.findings, Math.max(4, this.findingCount * 2));
+      }
+      this.findings[this.findingCount] = index;
+      this.findingCount++;
+    }
+
+    void collect(BitSet result) {
+      for (int i = 0; i < this.findingCount; i++) {
+        result.set(this.findings[i]);
+      }
+      for (Node child : this.children.values()) {
+        child.collect(result);
+      }
+    }
+  }
+}
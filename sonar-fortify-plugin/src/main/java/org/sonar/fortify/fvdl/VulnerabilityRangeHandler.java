@@ -0,0 +1,31 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+/**
+ * Handler which also keeps the byte ranges of the vulnerabilities, from which their traces are decoded later on. The
+ * ranges are handed over at the end of the document, and only when the parser knows them: by the parallel parser and by
+ * the scanner, not by StAX.
+ */
+interface VulnerabilityRangeHandler extends VulnerabilityHandler {
+
+  void onVulnerabilityRanges(VulnerabilityRanges ranges);
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import com.google.common.base.Charsets;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Finds the byte offsets of the &lt;Vulnerabilities&gt; section and of each &lt;Vulnerability&gt; element of a FVDL file,
+ * without parsing the XML. Scanning stops at the end of the section.
+ * Only ASCII compatible encodings are supported: no range is found in UTF-16 files.
+ */
+class VulnerabilityRangeScanner extends RawXmlScanner {
+  private static final byte[] VULNERABILITIES = "Vulnerabilities".getBytes(Charsets.US_ASCII);
+  private static final byte[] VULNERABILITY = "Vulnerability".getBytes(Charsets.US_ASCII);
+
+  private VulnerabilityRanges ranges;
+  private long sectionStart = -1;
+  private long sectionEnd = -1;
+
+  // depth of the current element inside the section
+  private int depth = 0;
+  private long vulnerabilityStart = -1;
+
+  private VulnerabilityRangeScanner(FileChannel channel, long offset, long length) {
+    super(channel, offset, length);
+  }
+
+  static VulnerabilityRangeScanner scan(FileChannel channel) throws IOException {
+    return scan(channel, 0, channel.size());
+  }
+
+  /**
+   * Scans the document held by a region of the file, offsets are relative to the start of the region
+   */
+  static VulnerabilityRangeScanner scan(FileChannel channel, long offset, long length) throws IOException {
+    VulnerabilityRangeScanner scanner = new VulnerabilityRangeScanner(channel, offset, length);
+    scanner.ranges = new VulnerabilityRanges(scanner.readXmlDeclaration());
+    if (!scanner.isUtf16()) {
+      scanner.scanMarkup();
+    }
+    return scanner;
+  }
+
+  VulnerabilityRanges getRanges() {
+    return this.ranges;
+  }
+
+  /**
+   * To put before the ranges, see {@link #readXmlDeclaration()}
+   */
+  byte[] getXmlDeclaration() {
+    return this.ranges.getXmlDeclaration();
+  }
+
+  boolean hasSection() {
+    return this.sectionEnd >= 0;
+  }
+
+  long getSectionStart() {
+    return this.sectionStart;
+  }
+
+  long getSectionEnd() {
+    return this.sectionEnd;
+  }
+
+  int getVulnerabilityCount() {
+    return this.ranges.size();
+  }
+
+  long getVulnerabilityStart(int index) {
+    return this.ranges.getStart(index);
+  }
+
+  long getVulnerabilityEnd(int index) {
+    return this.ranges.getEnd(index);
+  }
+
+  @Override
+  boolean onMarkup(long tagStart) throws IOException {
+    int c = read();
+    if (c == '!') {
+      skipDeclaration();
+    } else if (c == '?') {
+      skipProcessingInstruction();
+    } else if (c == '/') {
+      skipToTagEnd(readName(read()));
+      if (this.sectionStart >= 0) {
+        if (this.depth == 0) {
+          this.sectionEnd = position();
+          return false;
+        }
+        this.depth--;
+        if (this.depth == 0 && this.vulnerabilityStart >= 0) {
+          this.ranges.add(this.vulnerabilityStart, position());
+          this.vulnerabilityStart = -1;
+        }
+      }
+    } else {
+      boolean empty = skipToTagEnd(readName(c));
+      if (this.sectionStart < 0) {
+        if (nameIs(VULNERABILITIES)) {
+          this.sectionStart = tagStart;
+          if (empty) {
+            this.sectionEnd = position();
+            return false;
+          }
+        }
+      } else if (this.depth == 0 && nameIs(VULNERABILITY)) {
+        if (empty) {
+          this.ranges.add(tagStart, position());
+        } else {
+          this.vulnerabilityStart = tagStart;
+          this.depth++;
+        }
+      } else if (!empty) {
+        this.depth++;
+      }
+    }
+    return true;
+  }
+}
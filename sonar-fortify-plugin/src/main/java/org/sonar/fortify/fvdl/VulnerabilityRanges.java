@@ -0,0 +1,67 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import java.util.Arrays;
+
+/**
+ * Byte ranges of the &lt;Vulnerability&gt; elements of a FVDL document, by ordinal, with the XML declaration of the
+ * document, which is put before a range to parse it on its own. Offsets are relative to the start of the document, which
+ * may be a region of a file, see {@link FortifyReportFile#getFvdlRegion()}.
+ */
+class VulnerabilityRanges {
+  private final byte[] xmlDeclaration;
+  private long[] starts = new long[1024];
+  private long[] ends = new long[1024];
+  private int count = 0;
+
+  VulnerabilityRanges(byte[] xmlDeclaration) {
+    this.xmlDeclaration = xmlDeclaration;
+  }
+
+  /**
+   * Range of the next vulnerability
+   */
+  void add(long start, long end) {
+    if (this.count == this.starts.length) {
+      this.starts = Arrays.copyOf(this.starts, this.count * 2);
+      this.ends = Arrays.copyOf(this.ends, this.count * 2);
+    }
+    this.starts[this.count] = start;
+    this.ends[this.count] = end;
+    this.count++;
+  }
+
+  int size() {
+    return this.count;
+  }
+
+  long getStart(int ordinal) {
+    return this.starts[ordinal];
+  }
+
+  long getEnd(int ordinal) {
+    return this.ends[ordinal];
+  }
+
+  byte[] getXmlDeclaration() {
+    return this.xmlDeclaration;
+  }
+}
@@ -0,0 +1,279 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import org.apache.commons.lang.StringUtils;
+import org.sonar.fortify.base.FortifyUtils;
+import org.sonar.fortify.fvdl.element.Vulnerability;
+import org.sonar.fortify.fvdl.element.VulnerabilityClass;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLStreamException;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the &lt;Vulnerability&gt; elements of a &lt;Vulnerabilities&gt; section straight from an {@link ElementReader},
+ * for every engine and entry point of {@link FvdlStAXParser}. When records are reused, vulnerabilities are read into one
+ * {@link Vulnerability} record which is reset for each vulnerability. No cursor is created per element, numbers are
+ * decoded by the reader and classifications are looked up without building a key: apart from the
+ * strings of the report, reading a vulnerability does not allocate.
+ */
+class VulnerabilityRecordReader {
+  private static final int NO_NODE_REF = -1;
+
+  private final FvdlSymbolTable symbols;
+  private final FingerprintSet excludedInstanceIDs;
+  private final VulnerabilityFilter filter;
+  private final boolean reuseRecord;
+  private final Map<String, VulnerabilityClass> classesByID = new HashMap<String, VulnerabilityClass>();
+  private Vulnerability record = new Vulnerability();
+
+  /**
+   * @param reuseRecord false to hand over a new instance per vulnerability, to handlers which keep them
+   */
+  VulnerabilityRecordReader(FvdlSymbolTable symbols, @Nullable FingerprintSet excludedInstanceIDs, @Nullable VulnerabilityFilter filter,
+    boolean reuseRecord) {
+    this.symbols = symbols;
+    this.excludedInstanceIDs = excludedInstanceIDs;
+    this.filter = filter;
+    this.reuseRecord = reuseRecord;
+  }
+
+  /**
+   * Reads the section from its start element, on which the reader is, to its end element, on which the reader is left.
+   * @param ranges receives the byte range of every vulnerability, null if they are not recorded
+   */
+  void read(ElementReader reader, VulnerabilityHandler handler, @Nullable VulnerabilityRanges ranges) throws XMLStreamException {
+    int ordinal = 0;
+    while (reader.nextChild()) {
+      if (reader.isElement("Vulnerability")) {
+        long start = reader.getStartOffset();
+        boolean accepted = readVulnerability(reader);
+        if (ranges != null) {
+          ranges.add(start, reader.getEndOffset());
+        }
+        if (accepted) {
+          this.record.setOrdinal(ordinal);
+          handler.onVulnerability(this.record);
+        }
+        ordinal++;
+      } else {
+        reader.skipElement();
+      }
+    }
+  }
+
+  /**
+   * @return false if the vulnerability is excluded or rejected by the filter
+   */
+  private boolean readVulnerability(ElementReader reader) throws XMLStreamException {
+    Vulnerability vulnerability;
+    if (this.reuseRecord) {
+      vulnerability = this.record;
+      vulnerability.reset();
+    } else {
+      vulnerability = new Vulnerability();
+      this.record = vulnerability;
+    }
+    while (reader.nextChild()) {
+      if (reader.isElement("ClassInfo")) {
+        readClassInfo(reader);
+        if (this.filter != null && !this.filter.acceptsClass(vulnerability.getVulnerabilityClass())) {
+          skipSiblings(reader);
+          return false;
+        }
+      } else if (reader.isElement("InstanceInfo")) {
+        String confidence = readInstanceInfo(reader);
+        if ((this.excludedInstanceIDs != null && this.excludedInstanceIDs.contains(vulnerability.getInstanceID()))
+          || (this.filter != null && !this.filter.acceptsInstance(vulnerability.getInstanceSeverity(), confidence))) {
+          skipSiblings(reader);
+          return false;
+        }
+      } else if (reader.isElement("AnalysisInfo")) {
+        readAnalysisInfo(reader);
+      } else {
+        reader.skipElement();
+      }
+    }
+    boolean unbound = vulnerability.getPath() == null && vulnerability.getNodeRef() != NO_NODE_REF;
+    return unbound || this.filter == null || !this.filter.hasPathConditions() || this.filter.acceptsPath(vulnerability.getPath());
+  }
+
+  private void readClassInfo(ElementReader reader) throws XMLStreamException {
+    String classID = null;
+    String kingdom = null;
+    String type = null;
+    String subtype = null;
+    while (reader.nextChild()) {
+      if (reader.isElement("ClassID")) {
+        classID = readText(reader);
+      } else if (reader.isElement("Kingdom")) {
+        kingdom = readText(reader);
+      } else if (reader.isElement("Type")) {
+        type = readText(reader);
+      } else if (reader.isElement("Subtype")) {
+        subtype = readText(reader);
+      } else {
+        reader.skipElement();
+      }
+    }
+    this.record.setVulnerabilityClass(classOf(classID, kingdom, type, subtype));
+  }
+
+  /**
+   * The classification of the previous vulnerability with the same class id is reused when it is identical
+   */
+  private VulnerabilityClass classOf(@Nullable String classID, @Nullable String kingdom, @Nullable String type, @Nullable String subtype) {
+    VulnerabilityClass vulnerabilityClass = classID == null ? null : this.classesByID.get(classID);
+    if (vulnerabilityClass == null || !StringUtils.equals(kingdom, vulnerabilityClass.getKingdom())
+      || !StringUtils.equals(type, vulnerabilityClass.getType()) || !StringUtils.equals(subtype, vulnerabilityClass.getSubtype())) {
+      vulnerabilityClass = this.symbols.classOf(classID, kingdom, type, subtype);
+      if (classID != null) {
+        this.classesByID.put(classID, vulnerabilityClass);
+      }
+    }
+    return vulnerabilityClass;
+  }
+
+  /**
+   * @return the confidence of the instance, which is only read to filter vulnerabilities
+   */
+  @CheckForNull
+  private String readInstanceInfo(ElementReader reader) throws XMLStreamException {
+    String confidence = null;
+    while (reader.nextChild()) {
+      if (reader.isElement("InstanceID")) {
+        this.record.setInstanceID(readText(reader));
+      } else if (reader.isElement("InstanceSeverity")) {
+        this.record.setInstanceSeverity(FortifyUtils.fortifyToSonarQubeSeverity(reader.getElementAsDouble()));
+      } else if (this.filter != null && reader.isElement("Confidence")) {
+        confidence = readText(reader);
+      } else {
+        reader.skipElement();
+      }
+    }
+    return confidence;
+  }
+
+  private void readAnalysisInfo(ElementReader reader) throws XMLStreamException {
+    boolean unifiedRead = false;
+    while (reader.nextChild()) {
+      if (!unifiedRead && reader.isElement("Unified")) {
+        readUnified(reader);
+        unifiedRead = true;
+      } else {
+        reader.skipElement();
+      }
+    }
+  }
+
+  private void readUnified(ElementReader reader) throws XMLStreamException {
+    while (reader.nextChild()) {
+      if (reader.isElement("Trace")) {
+        readTrace(reader);
+      } else if (reader.isElement("ReplacementDefinitions")) {
+        readReplacementDefinitions(reader);
+      } else {
+        reader.skipElement();
+      }
+    }
+  }
+
+  private void readReplacementDefinitions(ElementReader reader) throws XMLStreamException {
+    while (reader.nextChild()) {
+      if (reader.isElement("Def")) {
+        String key = this.symbols.intern(reader.getAttribute("key"));
+        this.record.addReplacementDefinition(key, reader.getAttribute("value"));
+      }
+      reader.skipElement();
+    }
+  }
+
+  /**
+   * The primary location is the default inline node of the primary trace. When nodes are only referenced, the location is
+   * taken from the referenced default node, else from the last referenced node, once the pool is read.
+   */
+  private void readTrace(ElementReader reader) throws XMLStreamException {
+    boolean primaryRead = false;
+    while (reader.nextChild()) {
+      if (!primaryRead && reader.isElement("Primary")) {
+        readPrimary(reader);
+        primaryRead = true;
+      } else {
+        reader.skipElement();
+      }
+    }
+  }
+
+  private void readPrimary(ElementReader reader) throws XMLStreamException {
+    int defaultNodeRef = NO_NODE_REF;
+    int lastNodeRef = NO_NODE_REF;
+    while (reader.nextChild()) {
+      if (!reader.isElement("Entry")) {
+        reader.skipElement();
+      } else if (reader.nextChild()) {
+        boolean isDefault = reader.getAttributeAsBoolean("isDefault");
+        if (isDefault && reader.isElement("Node")) {
+          readDefaultNode(reader);
+        } else {
+          if (reader.isElement("NodeRef")) {
+            lastNodeRef = reader.getAttributeAsInt("id", NO_NODE_REF);
+            defaultNodeRef = isDefault ? lastNodeRef : defaultNodeRef;
+          }
+          reader.skipElement();
+        }
+        skipSiblings(reader);
+      }
+    }
+    if (this.record.getNodeRef() == NO_NODE_REF) {
+      this.record.setNodeRef(defaultNodeRef == NO_NODE_REF ? lastNodeRef : defaultNodeRef);
+    }
+  }
+
+  private void readDefaultNode(ElementReader reader) throws XMLStreamException {
+    boolean locationRead = false;
+    while (reader.nextChild()) {
+      if (!locationRead && reader.isElement("SourceLocation")) {
+        this.record.setPath(this.symbols.intern(reader.getAttribute("path")));
+        this.record.setLineNumber(reader.getAttributeAsInt("line", Vulnerability.NO_LINE));
+        this.record.setSnippetID(reader.getAttribute("snippet"));
+        locationRead = true;
+      }
+      reader.skipElement();
+    }
+  }
+
+  /**
+   * Moves to the end of the parent of the current child element
+   */
+  private static void skipSiblings(ElementReader reader) throws XMLStreamException {
+    while (reader.nextChild()) {
+      reader.skipElement();
+    }
+  }
+
+  @CheckForNull
+  private static String readText(ElementReader reader) throws XMLStreamException {
+    return StringUtils.trim(reader.getElementText());
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl.element;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Abstract of a description, split once into literal segments and &lt;Replace key="..."/&gt; slots so that
+ * messages are rendered in a single pass. Rendering gives the same result as substituting every replacement
+ * definition in order, the first definition of a key winning, and then removing all the remaining markup.
+ */
+final class DescriptionTemplate {
+  private static final String SLOT_START = "<Replace key=\"";
+  private static final String SLOT_END = "\"/>";
+
+  private final String text;
+  /**
+   * Literal segments, with one more element than slotKeys: literal, slot, literal, ..., slot, literal
+   */
+  private final String[] literals;
+  private final String[] strippedLiterals;
+  private final String[] slotKeys;
+  /**
+   * True when markup of every literal segment is closed inside the segment, so that segments can be
+   * stripped independently of the values inserted around them
+   */
+  private final boolean selfContained;
+  private final int strippedLength;
+
+  private DescriptionTemplate(String text, List<String> literals, List<String> slotKeys) {
+    this.text = text;
+    this.literals = literals.toArray(new String[literals.size()]);
+    this.slotKeys = slotKeys.toArray(new String[slotKeys.size()]);
+    this.strippedLiterals = new String[this.literals.length];
+    boolean closed = true;
+    int length = 0;
+    for (int i = 0; i < this.literals.length; i++) {
+      String literal = this.literals[i];
+      closed &= !hasUnclosedMarkup(literal);
+      this.strippedLiterals[i] = stripMarkup(literal);
+      length += this.strippedLiterals[i].length();
+    }
+    this.selfContained = closed;
+    this.strippedLength = length;
+  }
+
+  static DescriptionTemplate compile(String text) {
+    List<String> literals = new ArrayList<String>();
+    List<String> slotKeys = new ArrayList<String>();
+    int literalStart = 0;
+    int from = 0;
+    int slotStart = text.indexOf(SLOT_START, from);
+    while (slotStart >= 0) {
+      int keyStart = slotStart + SLOT_START.length();
+      int keyEnd = text.indexOf(SLOT_END, keyStart);
+      if (keyEnd < 0) {
+        break;
+      }
+      String key = text.substring(keyStart, keyEnd);
+      if (isValidKey(key)) {
+        literals.add(text.substring(literalStart, slotStart));
+        slotKeys.add(key);
+        literalStart = keyEnd + SLOT_END.length();
+        from = literalStart;
+      } else {
+        from = keyStart;
+      }
+      slotStart = text.indexOf(SLOT_START, from);
+    }
+    literals.add(text.substring(literalStart));
+    return new DescriptionTemplate(text, literals, slotKeys);
+  }
+
+  private static boolean isValidKey(String key) {
+    for (int i = 0; i < key.length(); i++) {
+      char c = key.charAt(i);
+      if (c == '<' || c == '>' || c == '"') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  String render(Collection<ReplacementDefinition> replacementDefinitions) {
+    if (!this.selfContained) {
+      return renderBySubstitution(replacementDefinitions);
+    }
+    String[] values = new String[this.slotKeys.length];
+    int length = this.strippedLength;
+    for (int i = 0; i < values.length; i++) {
+      String value = valueOf(this.slotKeys[i], replacementDefinitions);
+      if (value != null) {
+        if (value.indexOf('<') >= 0) {
+          // The value may open markup closed by the next segments
+          return renderBySubstitution(replacementDefinitions);
+        }
+        length += value.length();
+      }
+      values[i] = value;
+    }
+    StringBuilder message = new StringBuilder(length);
+    message.append(this.strippedLiterals[0]);
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] != null) {
+        message.append(values[i]);
+      }
+      message.append(this.strippedLiterals[i + 1]);
+    }
+    return message.toString();
+  }
+
+  private static String valueOf(String key, Collection<ReplacementDefinition> replacementDefinitions) {
+    for (ReplacementDefinition replacementDefinition : replacementDefinitions) {
+      if (key.equals(replacementDefinition.getKey())) {
+        return nullToEmpty(replacementDefinition.getValue());
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Substitutes the definitions one after the other on the whole text, so that values containing slots or
+   * unclosed markup give the same result as a plain textual substitution.
+   */
+  private String renderBySubstitution(Collection<ReplacementDefinition> replacementDefinitions) {
+    String message = this.text;
+    for (ReplacementDefinition replacementDefinition : replacementDefinitions) {
+      String key = replacementDefinition.getKey();
+      if (key != null) {
+        message = replace(message, SLOT_START + key + SLOT_END, nullToEmpty(replacementDefinition.getValue()));
+      }
+    }
+    return stripMarkup(message);
+  }
+
+  private static String replace(String text, String target, String replacement) {
+    int index = text.indexOf(target);
+    if (index < 0) {
+      return text;
+    }
+    StringBuilder result = new StringBuilder(text.length() + replacement.length());
+    int from = 0;
+    while (index >= 0) {
+      result.append(text, from, index).append(replacement);
+      from = index + target.length();
+      index = text.indexOf(target, from);
+    }
+    return result.append(text, from, text.length()).toString();
+  }
+
+  /**
+   * Removes every &lt;...&gt; sequence. A '&lt;' which is never closed is kept.
+   */
+  static String stripMarkup(String text) {
+    int start = text.indexOf('<');
+    if (start < 0) {
+      return text;
+    }
+    StringBuilder result = new StringBuilder(text.length());
+    int from = 0;
+    while (start >= 0) {
+      int end = text.indexOf('>', start);
+      if (end < 0) {
+        break;
+      }
+      result.append(text, from, start);
+      from = end + 1;
+      start = text.indexOf('<', from);
+    }
+    return result.append(text, from, text.length()).toString();
+  }
+
+  private static boolean hasUnclosedMarkup(String text) {
+    int start = text.lastIndexOf('<');
+    return start >= 0 && text.indexOf('>', start) < 0;
+  }
+
+  private static String nullToEmpty(String value) {
+    return value == null ? "" : value;
+  }
+}
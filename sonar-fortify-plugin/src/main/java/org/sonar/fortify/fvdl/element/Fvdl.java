@@ -19,20 +19,29 @@
  */
 package org.sonar.fortify.fvdl.element;
 
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
 
 public class Fvdl {
-  private final Build build;
-  private final Map<String, String> descriptions = new HashMap<String, String>();
+  private Build build;
+  private final Map<String, DescriptionTemplate> descriptions = new HashMap<String, DescriptionTemplate>();
   private final Collection<Vulnerability> vulnerabilities;
 
-  public Fvdl(Build build, Collection<Description> descriptions, Collection<Vulnerability> vulnerabilities) {
+  /**
+   * Empty report, filled while it is streamed. Vulnerabilities are not retained.
+   */
+  public Fvdl() {
+    this(null, new ArrayList<Description>(), new ArrayList<Vulnerability>());
+  }
+
+  public Fvdl(@Nullable Build build, Collection<Description> descriptions, Collection<Vulnerability> vulnerabilities) {
     this.build = build;
     for (Description description : descriptions) {
-      this.descriptions.put(description.getClassID(), description.getAbstract());
+      addDescription(description);
     }
     this.vulnerabilities = vulnerabilities;
   }
@@ -41,25 +50,33 @@ public class Fvdl {
     return this.build;
   }
 
+  public void setBuild(Build build) {
+    this.build = build;
+  }
+
+  public final void addDescription(Description description) {
+    String abstractDescription = description.getAbstract();
+    this.descriptions.put(description.getClassID(), abstractDescription == null ? null : DescriptionTemplate.compile(abstractDescription));
+  }
+
+  public boolean hasDescription(String classID) {
+    return this.descriptions.containsKey(classID);
+  }
+
   public Collection<Vulnerability> getVulnerabilities() {
     return this.vulnerabilities;
   }
 
   public String getDescription(Vulnerability vulnerability) {
-    String message = "No message found";
-    String abstractDescription = this.descriptions.get(vulnerability.getClassID());
-    if (abstractDescription != null) {
-      message = abstractDescription;
-      for (ReplacementDefinition replacementDefinition : vulnerability.getReplacementDefinitions()) {
-        String key = replacementDefinition.getKey();
-        String value = replacementDefinition.getValue();
-        String regex = "<Replace key=\"" + Matcher.quoteReplacement(key) + "\"/>";
-        value = Matcher.quoteReplacement(value);
-        message = message.replaceAll(regex, value);
-      }
-      message = message.replaceAll("\\<[^>]*>", "");
+    return getDescription(vulnerability.getClassID(), vulnerability.getReplacementDefinitions());
+  }
+
+  public String getDescription(String classID, Collection<ReplacementDefinition> replacementDefinitions) {
+    DescriptionTemplate template = this.descriptions.get(classID);
+    if (template == null) {
+      return "No message found";
     }
-    return message;
+    return template.render(replacementDefinitions);
   }
 
 }
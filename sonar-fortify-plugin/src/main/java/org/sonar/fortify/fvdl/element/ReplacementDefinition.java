@@ -20,14 +20,22 @@
 package org.sonar.fortify.fvdl.element;
 
 public class ReplacementDefinition {
-  private final String key;
-  private final String value;
+  private String key;
+  private String value;
 
   public ReplacementDefinition(String key, String value) {
     this.key = key;
     this.value = value;
   }
 
+  /**
+   * Reuses the definition for another replacement, see {@link Vulnerability#reset()}
+   */
+  void set(String key, String value) {
+    this.key = key;
+    this.value = value;
+  }
+
   public String getKey() {
     return this.key;
   }
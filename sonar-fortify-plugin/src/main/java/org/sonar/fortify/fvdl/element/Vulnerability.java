@@ -23,48 +23,47 @@ import org.apache.commons.lang.builder.ReflectionToStringBuilder;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 public class Vulnerability {
-  private String classID;
-  private String kingdom;
-  private String type;
-  private String subtype;
+  public static final int NO_LINE = -1;
+
+  private VulnerabilityClass vulnerabilityClass = VulnerabilityClass.EMPTY;
   private String instanceID;
   private String instanceSeverity;
   private String path;
-  private Integer line;
-  private Collection<ReplacementDefinition> replacementDefinitions = new ArrayList<ReplacementDefinition>();
+  private int line = NO_LINE;
+  private String snippetID;
+  private int ordinal = -1;
+  private int nodeRef = -1;
+  private final List<ReplacementDefinition> replacementDefinitions = new ArrayList<ReplacementDefinition>();
+  /**
+   * Definitions released by {@link #reset()}, reused by {@link #addReplacementDefinition(String, String)}
+   */
+  private final List<ReplacementDefinition> spareReplacementDefinitions = new ArrayList<ReplacementDefinition>();
 
-  public String getClassID() {
-    return this.classID;
+  public VulnerabilityClass getVulnerabilityClass() {
+    return this.vulnerabilityClass;
   }
 
-  public void setClassID(String classID) {
-    this.classID = classID;
+  public void setVulnerabilityClass(VulnerabilityClass vulnerabilityClass) {
+    this.vulnerabilityClass = vulnerabilityClass;
   }
 
-  public String getKingdom() {
-    return kingdom;
+  public String getClassID() {
+    return this.vulnerabilityClass.getClassID();
   }
 
-  public void setKingdom(String kingdom) {
-    this.kingdom = kingdom;
+  public String getKingdom() {
+    return this.vulnerabilityClass.getKingdom();
   }
 
   public String getType() {
-    return type;
-  }
-
-  public void setType(String type) {
-    this.type = type;
+    return this.vulnerabilityClass.getType();
   }
 
   public String getSubtype() {
-    return subtype;
-  }
-
-  public void setSubtype(String subtype) {
-    this.subtype = subtype;
+    return this.vulnerabilityClass.getSubtype();
   }
 
   public String getInstanceID() {
@@ -92,13 +91,58 @@ public class Vulnerability {
   }
 
   public Integer getLine() {
-    return this.line;
+    return this.line == NO_LINE ? null : this.line;
   }
 
   public void setLine(Integer line) {
+    this.line = line == null ? NO_LINE : line;
+  }
+
+  /**
+   * Line without boxing, {@link #NO_LINE} when unknown
+   */
+  public int getLineNumber() {
+    return this.line;
+  }
+
+  public void setLineNumber(int line) {
     this.line = line;
   }
 
+  /**
+   * Identifier of the code snippet of the primary location, in the Snippets section of the report
+   */
+  public String getSnippetID() {
+    return this.snippetID;
+  }
+
+  public void setSnippetID(String snippetID) {
+    this.snippetID = snippetID;
+  }
+
+  /**
+   * Position of the vulnerability in the Vulnerabilities section of the report, -1 when unknown
+   */
+  public int getOrdinal() {
+    return this.ordinal;
+  }
+
+  public void setOrdinal(int ordinal) {
+    this.ordinal = ordinal;
+  }
+
+  /**
+   * Id of the node of the UnifiedNodePool section which holds the primary location, -1 when the location is inline
+   * or unknown. Set while the report is parsed, until the location is copied from the node.
+   */
+  public int getNodeRef() {
+    return this.nodeRef;
+  }
+
+  public void setNodeRef(int nodeRef) {
+    this.nodeRef = nodeRef;
+  }
+
   public Collection<ReplacementDefinition> getReplacementDefinitions() {
     return this.replacementDefinitions;
   }
@@ -107,6 +151,58 @@ public class Vulnerability {
     this.replacementDefinitions.add(replacementDefinition);
   }
 
+  /**
+   * Adds a replacement, reusing a definition released by {@link #reset()} when there is one.
+   */
+  public void addReplacementDefinition(String key, String value) {
+    int spareCount = this.spareReplacementDefinitions.size();
+    if (spareCount == 0) {
+      this.replacementDefinitions.add(new ReplacementDefinition(key, value));
+    } else {
+      ReplacementDefinition replacementDefinition = this.spareReplacementDefinitions.remove(spareCount - 1);
+      replacementDefinition.set(key, value);
+      this.replacementDefinitions.add(replacementDefinition);
+    }
+  }
+
+  /**
+   * Clears the vulnerability so that the same instance is filled with the next vulnerability of a report.
+   * Replacement definitions are kept aside and reused, so they must not be referenced once the vulnerability is reset.
+   */
+  public void reset() {
+    this.vulnerabilityClass = VulnerabilityClass.EMPTY;
+    this.instanceID = null;
+    this.instanceSeverity = null;
+    this.path = null;
+    this.line = NO_LINE;
+    this.snippetID = null;
+    this.ordinal = -1;
+    this.nodeRef = -1;
+    for (int i = this.replacementDefinitions.size() - 1; i >= 0; i--) {
+      this.spareReplacementDefinitions.add(this.replacementDefinitions.get(i));
+    }
+    this.replacementDefinitions.clear();
+  }
+
+  /**
+   * Independent copy, which is not affected when this vulnerability is reset
+   */
+  public Vulnerability copy() {
+    Vulnerability copy = new Vulnerability();
+    copy.vulnerabilityClass = this.vulnerabilityClass;
+    copy.instanceID = this.instanceID;
+    copy.instanceSeverity = this.instanceSeverity;
+    copy.path = this.path;
+    copy.line = this.line;
+    copy.snippetID = this.snippetID;
+    copy.ordinal = this.ordinal;
+    copy.nodeRef = this.nodeRef;
+    for (ReplacementDefinition replacementDefinition : this.replacementDefinitions) {
+      copy.replacementDefinitions.add(new ReplacementDefinition(replacementDefinition.getKey(), replacementDefinition.getValue()));
+    }
+    return copy;
+  }
+
   // For debug purpose
 
   @Override
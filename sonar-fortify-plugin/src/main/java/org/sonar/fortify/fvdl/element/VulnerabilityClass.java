@@ -0,0 +1,94 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl.element;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.lang.builder.ReflectionToStringBuilder;
+
+import javax.annotation.Nullable;
+
+/**
+ * Classification of a vulnerability. A report has far fewer classifications than vulnerabilities,
+ * so instances are immutable and shared between the vulnerabilities of the same class.
+ */
+public final class VulnerabilityClass {
+  public static final VulnerabilityClass EMPTY = new VulnerabilityClass(null, null, null, null);
+
+  private final String classID;
+  private final String kingdom;
+  private final String type;
+  private final String subtype;
+  private final int hashCode;
+
+  public VulnerabilityClass(@Nullable String classID, @Nullable String kingdom, @Nullable String type, @Nullable String subtype) {
+    this.classID = classID;
+    this.kingdom = kingdom;
+    this.type = type;
+    this.subtype = subtype;
+    int hash = ObjectUtils.hashCode(classID);
+    hash = 31 * hash + ObjectUtils.hashCode(kingdom);
+    hash = 31 * hash + ObjectUtils.hashCode(type);
+    this.hashCode = 31 * hash + ObjectUtils.hashCode(subtype);
+  }
+
+  public String getClassID() {
+    return this.classID;
+  }
+
+  public String getKingdom() {
+    return this.kingdom;
+  }
+
+  public String getType() {
+    return this.type;
+  }
+
+  public String getSubtype() {
+    return this.subtype;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof VulnerabilityClass)) {
+      return false;
+    }
+    VulnerabilityClass other = (VulnerabilityClass) obj;
+    return this.hashCode == other.hashCode
+      && ObjectUtils.equals(this.classID, other.classID)
+      && ObjectUtils.equals(this.kingdom, other.kingdom)
+      && ObjectUtils.equals(this.type, other.type)
+      && ObjectUtils.equals(this.subtype, other.subtype);
+  }
+
+  @Override
+  public int hashCode() {
+    return this.hashCode;
+  }
+
+  // For debug purpose
+
+  @Override
+  public String toString() {
+    return ReflectionToStringBuilder.toString(this);
+  }
+}
@@ -25,6 +25,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonar.api.config.Settings;
 import org.sonar.fortify.base.FortifyConstants;
+import org.sonar.fortify.base.StaxBackend;
 import org.sonar.fortify.rule.element.RulePack;
 
 import java.io.File;
@@ -56,12 +57,13 @@ public class RulePackParser {
       }
     }
 
+    StaxBackend backend = StaxBackend.fromKey(this.settings.getString(FortifyConstants.STAX_BACKEND_PROPERTY));
     List<RulePack> rulePacks = new ArrayList<RulePack>();
     for (File file : files) {
       InputStream stream = null;
       try {
         stream = new FileInputStream(file);
-        rulePacks.add(new RulePackStAXParser().parse(stream));
+        rulePacks.add(new RulePackStAXParser(backend).parse(stream));
       } catch (Exception e) {
         LOG.error("Unexpected error during the parse of " + file + ".", e);
       } finally {
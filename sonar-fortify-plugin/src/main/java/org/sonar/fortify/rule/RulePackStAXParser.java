@@ -26,7 +26,10 @@ import org.codehaus.staxmate.in.SMHierarchicCursor;
 import org.codehaus.staxmate.in.SMInputCursor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sonar.fortify.base.ElementSkippingInputStream;
 import org.sonar.fortify.base.FortifyUtils;
+import org.sonar.fortify.base.StaxBackend;
+import org.sonar.fortify.base.StaxProfile;
 import org.sonar.fortify.rule.element.Description;
 import org.sonar.fortify.rule.element.FortifyRule;
 import org.sonar.fortify.rule.element.Reference;
@@ -55,12 +58,22 @@ public class RulePackStAXParser {
     "InternalRule");
 
   private final DescriptionFormatter descriptionFormatter = new DescriptionFormatter();
+  private final StaxBackend backend;
+
+  public RulePackStAXParser() {
+    this(StaxBackend.DEFAULT);
+  }
+
+  public RulePackStAXParser(StaxBackend backend) {
+    this.backend = backend;
+  }
 
   RulePack parse(InputStream inputStream) throws ParserConfigurationException, SAXException, IOException {
 
-    SMInputFactory inputFactory = FortifyUtils.newStaxParser();
+    SMInputFactory inputFactory = FortifyUtils.getStaxParser(this.backend, StaxProfile.RULE_PACK);
     try {
-      SMHierarchicCursor rootC = inputFactory.rootElementCursor(inputStream);
+      // internal rules are dropped before they are tokenized
+      SMHierarchicCursor rootC = inputFactory.rootElementCursor(new ElementSkippingInputStream(inputStream, INTERNAL_RULE_NAMES));
       rootC.advance(); // <RulePack>
 
       SMInputCursor childCursor = rootC.childCursor();
@@ -0,0 +1,101 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.base;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ElementSkippingInputStreamTest {
+
+  @Test
+  public void skip_elements_at_any_depth() throws IOException {
+    assertThat(filter("<?xml version=\"1.0\"?><FVDL><Build>b</Build><Snippets><Snippet id=\"1\"><Snippets>x</Snippets></Snippet></Snippets>"
+      + "<V><Context><Function/></Context><Trace/></V></FVDL>", "Snippets", "Context"))
+      .isEqualTo("<?xml version=\"1.0\"?><FVDL><Build>b</Build><V><Trace/></V></FVDL>");
+  }
+
+  @Test
+  public void skip_empty_and_prefixed_elements() throws IOException {
+    assertThat(filter("<a><Snippets/><ns:Snippets xmlns:ns=\"u\"><b/></ns:Snippets><Snippets2/><Snippet/></a>", "Snippets"))
+      .isEqualTo("<a><Snippets2/><Snippet/></a>");
+  }
+
+  @Test
+  public void ignore_markup_in_comments_cdata_and_attributes() throws IOException {
+    String kept = "<!DOCTYPE a [<!ENTITY e \"<Snippets>\">]><a><!-- <Snippets> --->"
+      + "<b attr=\"<Snippets>\" other='/>'><![CDATA[<Snippets>]]]></b><?pi <Snippets> ?></a>";
+    assertThat(filter(kept, "Snippets")).isEqualTo(kept);
+
+    assertThat(filter("<a><Snippets><!-- </Snippets> --><![CDATA[</Snippets>]]><c d=\"</Snippets>\"/></Snippets>text</a>", "Snippets"))
+      .isEqualTo("<a>text</a>");
+  }
+
+  @Test
+  public void keep_documents_without_skipped_elements() throws IOException {
+    StringBuilder content = new StringBuilder("<a>");
+    for (int i = 0; i < 20000; i++) {
+      content.append("<b i=\"").append(i).append("\">é").append(i).append("</b>");
+    }
+    content.append("</a>");
+    assertThat(filter(content.toString(), "Snippets")).isEqualTo(content.toString());
+    assertThat(filter(content.toString(), "b")).isEqualTo("<a></a>");
+  }
+
+  @Test
+  public void read_byte_by_byte() throws IOException {
+    InputStream stream = new ElementSkippingInputStream(new ByteArrayInputStream("<a><s>x</s>y</a>".getBytes(Charsets.UTF_8)), Arrays.asList("s"));
+    StringBuilder result = new StringBuilder();
+    int c;
+    while ((c = stream.read()) >= 0) {
+      result.append((char) c);
+    }
+    assertThat(result.toString()).isEqualTo("<a>y</a>");
+    assertThat(stream.read(new byte[4], 0, 4)).isEqualTo(-1);
+  }
+
+  @Test
+  public void pass_utf16_through() throws IOException {
+    byte[] utf16 = "<a><s>x</s></a>".getBytes(Charsets.UTF_16);
+    InputStream stream = new ElementSkippingInputStream(new ByteArrayInputStream(utf16), Arrays.asList("s"));
+    assertThat(ByteStreams.toByteArray(stream)).isEqualTo(utf16);
+  }
+
+  @Test
+  public void empty_stream() throws IOException {
+    assertThat(filter("", "s")).isEmpty();
+  }
+
+  private static String filter(String content, String... skippedElements) throws IOException {
+    InputStream stream = new ElementSkippingInputStream(new ByteArrayInputStream(content.getBytes(Charsets.UTF_8)), Arrays.asList(skippedElements));
+    try {
+      return new String(ByteStreams.toByteArray(stream), Charsets.UTF_8);
+    } finally {
+      stream.close();
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.base;
+
+import org.codehaus.staxmate.SMInputFactory;
+import org.junit.Test;
+import org.sonar.api.utils.MessageException;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class StaxBackendTest {
+
+  @Test
+  public void from_key() {
+    assertThat(StaxBackend.fromKey(null)).isEqualTo(StaxBackend.DEFAULT);
+    assertThat(StaxBackend.fromKey("")).isEqualTo(StaxBackend.DEFAULT);
+    assertThat(StaxBackend.fromKey("jdk")).isEqualTo(StaxBackend.JDK);
+    assertThat(StaxBackend.fromKey(" Woodstox ")).isEqualTo(StaxBackend.WOODSTOX);
+  }
+
+  @Test(expected = MessageException.class)
+  public void unknown_key() {
+    StaxBackend.fromKey("xerces");
+  }
+
+  @Test
+  public void factories_are_cached_per_backend_and_profile() {
+    SMInputFactory factory = FortifyUtils.getStaxParser(StaxBackend.WOODSTOX, StaxProfile.FVDL);
+    assertThat(factory.getStaxFactory().getClass().getName()).isEqualTo("com.ctc.wstx.stax.WstxInputFactory");
+    assertThat(factory.getStaxFactory().getProperty("javax.xml.stream.isCoalescing")).isEqualTo(Boolean.FALSE);
+    assertThat(FortifyUtils.getStaxParser(StaxBackend.WOODSTOX, StaxProfile.FVDL)).isSameAs(factory);
+
+    SMInputFactory rulePackFactory = FortifyUtils.getStaxParser(StaxBackend.WOODSTOX, StaxProfile.RULE_PACK);
+    assertThat(rulePackFactory).isNotSameAs(factory);
+    assertThat(rulePackFactory.getStaxFactory().getProperty("javax.xml.stream.isCoalescing")).isEqualTo(Boolean.TRUE);
+  }
+
+  @Test
+  public void jdk_backend() {
+    SMInputFactory factory = FortifyUtils.getStaxParser(StaxBackend.JDK, StaxProfile.FVDL);
+    assertThat(factory.getStaxFactory().getClass().getName()).isEqualTo("com.sun.xml.internal.stream.XMLInputFactoryImpl");
+  }
+
+  @Test(expected = MessageException.class)
+  public void backend_not_packaged() {
+    StaxBackend.fromKey("aalto");
+  }
+}
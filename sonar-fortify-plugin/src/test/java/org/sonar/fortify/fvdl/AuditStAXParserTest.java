@@ -0,0 +1,80 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import com.google.common.base.Charsets;
+import org.junit.Test;
+import org.sonar.fortify.base.StaxBackend;
+
+import java.io.ByteArrayInputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class AuditStAXParserTest {
+
+  @Test
+  public void read_suppressed_instance_ids() {
+    String audit = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+      + "<Audit xmlns=\"xmlns://www.fortify.com/schema/audit\" version=\"3.2\">"
+      + "<ProjectInfo><Name>WebGoat</Name></ProjectInfo>"
+      + "<IssueList>"
+      + "<Issue instanceId=\"1EEA24C519E307822F6D1FAD0AD7B45A\" suppressed=\"true\" revision=\"1\">"
+      + "<Tag id=\"87f2364f-dcd4-49e6-861d-f8d3f351686b\"><Value>Not an Issue</Value></Tag>"
+      + "<ThreadedComments><Comment><Content>false positive</Content></Comment></ThreadedComments>"
+      + "</Issue>"
+      + "<Issue instanceId=\"0000000000000000000000000000002A\" suppressed=\"false\" revision=\"0\"/>"
+      + "<Issue instanceId=\"00000000000000000000000000000010\" revision=\"0\"/>"
+      + "<Issue instanceId=\"custom-id\" suppressed=\"true\"/>"
+      + "</IssueList>"
+      + "</Audit>";
+    for (StaxBackend backend : new StaxBackend[] {StaxBackend.JDK, StaxBackend.WOODSTOX}) {
+      FingerprintSet suppressed = new AuditStAXParser(backend).parseSuppressedInstanceIDs(new ByteArrayInputStream(audit.getBytes(Charsets.UTF_8)));
+
+      assertThat(suppressed.size()).isEqualTo(2);
+      assertThat(suppressed.contains("1EEA24C519E307822F6D1FAD0AD7B45A")).isTrue();
+      assertThat(suppressed.contains("custom-id")).isTrue();
+      assertThat(suppressed.contains("0000000000000000000000000000002A")).isFalse();
+    }
+  }
+
+  @Test
+  public void read_prefixed_audit() {
+    String audit = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+      + "<ns2:Audit xmlns:ns2=\"xmlns://www.fortify.com/schema/audit\" version=\"4.3\">"
+      + "<ns2:ProjectInfo><ns2:Name>WebGoat</ns2:Name></ns2:ProjectInfo>"
+      + "<ns2:IssueList>"
+      + "<ns2:Issue instanceId=\"1EEA24C519E307822F6D1FAD0AD7B45A\" suppressed=\"true\" revision=\"1\"/>"
+      + "<ns2:Issue instanceId=\"0000000000000000000000000000002A\" suppressed=\"false\" revision=\"0\"/>"
+      + "</ns2:IssueList>"
+      + "</ns2:Audit>";
+    for (StaxBackend backend : new StaxBackend[] {StaxBackend.DEFAULT, StaxBackend.JDK, StaxBackend.WOODSTOX}) {
+      FingerprintSet suppressed = new AuditStAXParser(backend).parseSuppressedInstanceIDs(new ByteArrayInputStream(audit.getBytes(Charsets.UTF_8)));
+
+      assertThat(suppressed.size()).isEqualTo(1);
+      assertThat(suppressed.contains("1EEA24C519E307822F6D1FAD0AD7B45A")).isTrue();
+    }
+  }
+
+  @Test
+  public void read_empty_audit() {
+    FingerprintSet suppressed = new AuditStAXParser(StaxBackend.DEFAULT).parseSuppressedInstanceIDs(new ByteArrayInputStream("<Audit/>".getBytes(Charsets.UTF_8)));
+    assertThat(suppressed.size()).isEqualTo(0);
+  }
+}
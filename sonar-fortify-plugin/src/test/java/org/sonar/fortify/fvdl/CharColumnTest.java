@@ -0,0 +1,57 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CharColumnTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void strings_are_kept_when_spilled() throws Exception {
+    CharColumn column = new CharColumn(4);
+    column.ensureCapacity(11);
+    column.set(0, "hello");
+    column.set(5, "world!");
+    assertThat(column.getString(0, 5)).isEqualTo("hello");
+
+    SpillFile file = new SpillFile(this.temp.getRoot());
+    try {
+      column.spill(file);
+      assertThat(column.heapBytes()).isEqualTo(0L);
+      // crosses a page boundary
+      column.ensureCapacity(65540);
+      column.set(65534, "page");
+      assertThat(column.getString(0, 5)).isEqualTo("hello");
+      assertThat(column.getString(5, 6)).isEqualTo("world!");
+      assertThat(column.get(5)).isEqualTo('w');
+      assertThat(column.getString(65534, 4)).isEqualTo("page");
+      assertThat(file.size()).isEqualTo(2L * 2 * 65536);
+    } finally {
+      file.close();
+    }
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.rule.Severity;
+import org.sonar.fortify.fvdl.element.ReplacementDefinition;
+import org.sonar.fortify.fvdl.element.Vulnerability;
+import org.sonar.fortify.fvdl.element.VulnerabilityClass;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class FindingStoreTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final FindingStore store = new FindingStore();
+  private final VulnerabilityClass vulnerabilityClass = new VulnerabilityClass("class", "Code Quality", "Unreleased Resource", null);
+
+  @Test
+  public void read_findings_through_cursor() {
+    fill(this.store);
+
+    assertThat(this.store.isSpilled()).isFalse();
+    verify(this.store);
+  }
+
+  @Test
+  public void spill_findings_beyond_memory_budget() throws Exception {
+    File workDir = new File(this.temp.getRoot(), "work");
+    FindingStore spilledStore = new FindingStore(16 * 1024, workDir);
+    fill(spilledStore);
+
+    assertThat(spilledStore.isSpilled()).isTrue();
+    assertThat(workDir.list()).hasSize(1);
+    verify(spilledStore);
+    FingerprintSet instanceIDs = new FingerprintSet();
+    instanceIDs.add("ID999");
+    FindingStore.Cursor cursor = spilledStore.cursor();
+    cursor.moveTo(999);
+    assertThat(cursor.isInstanceIDIn(instanceIDs)).isTrue();
+
+    spilledStore.close();
+    assertThat(workDir.list()).isEmpty();
+  }
+
+  private void fill(FindingStore findings) {
+    for (int i = 0; i < 1000; i++) {
+      Vulnerability vulnerability = new Vulnerability();
+      vulnerability.setVulnerabilityClass(this.vulnerabilityClass);
+      vulnerability.setInstanceID("ID" + i);
+      vulnerability.setInstanceSeverity(i % 2 == 0 ? Severity.BLOCKER : Severity.MINOR);
+      vulnerability.setPath("src/File" + (i % 3) + ".java");
+      vulnerability.setLine(i);
+      for (int j = 0; j < i % 4; j++) {
+        vulnerability.addReplacementDefinition(new ReplacementDefinition("Key" + j, "value " + i + "/" + j));
+      }
+      findings.add(vulnerability);
+    }
+    findings.add(new Vulnerability());
+  }
+
+  private void verify(FindingStore findings) {
+    assertThat(findings.size()).isEqualTo(1001);
+    assertThat(findings.getPaths()).containsExactly("src/File0.java", "src/File1.java", "src/File2.java");
+    FindingStore.Cursor cursor = findings.cursor();
+    for (int i = 0; i < 1000; i++) {
+      assertThat(cursor.next()).isTrue();
+      assertThat(cursor.getIndex()).isEqualTo(i);
+      assertThat(cursor.getVulnerabilityClass()).isSameAs(this.vulnerabilityClass);
+      assertThat(cursor.getInstanceID()).isEqualTo("ID" + i);
+      assertThat(cursor.getInstanceSeverity()).isEqualTo(i % 2 == 0 ? Severity.BLOCKER : Severity.MINOR);
+      assertThat(cursor.getPath()).isEqualTo("src/File" + (i % 3) + ".java");
+      assertThat(cursor.getLine()).isEqualTo(i);
+      assertThat(cursor.getReplacementCount()).isEqualTo(i % 4);
+      for (int j = 0; j < i % 4; j++) {
+        assertThat(cursor.getReplacementKey(j)).isEqualTo("Key" + j);
+        assertThat(cursor.getReplacementValue(j)).isEqualTo("value " + i + "/" + j);
+      }
+    }
+    assertThat(cursor.next()).isTrue();
+    assertThat(cursor.getVulnerabilityClass()).isSameAs(VulnerabilityClass.EMPTY);
+    assertThat(cursor.getInstanceID()).isNull();
+    assertThat(cursor.getInstanceSeverity()).isNull();
+    assertThat(cursor.getPath()).isNull();
+    assertThat(cursor.getLine()).isEqualTo(FindingStore.NO_LINE);
+    assertThat(cursor.getReplacementCount()).isEqualTo(0);
+    assertThat(cursor.next()).isFalse();
+  }
+
+  @Test
+  public void copy_finding() {
+    Vulnerability vulnerability = new Vulnerability();
+    vulnerability.setVulnerabilityClass(new VulnerabilityClass("class", null, null, null));
+    vulnerability.setInstanceID("ID");
+    vulnerability.setPath("src/Foo.java");
+    vulnerability.setLine(12);
+    vulnerability.addReplacementDefinition(new ReplacementDefinition("Key", "value"));
+    this.store.add(vulnerability);
+
+    FindingStore.Cursor cursor = this.store.cursor();
+    cursor.moveTo(0);
+    Vulnerability copy = cursor.toVulnerability();
+
+    assertThat(copy.getVulnerabilityClass()).isEqualTo(vulnerability.getVulnerabilityClass());
+    assertThat(copy.getInstanceID()).isEqualTo("ID");
+    assertThat(copy.getPath()).isEqualTo("src/Foo.java");
+    assertThat(copy.getLine()).isEqualTo(12);
+    assertThat(copy.getReplacementDefinitions()).hasSize(1);
+    assertThat(copy.getReplacementDefinitions().iterator().next().getValue()).isEqualTo("value");
+  }
+
+  @Test
+  public void match_instance_id_against_set() {
+    Vulnerability vulnerability = new Vulnerability();
+    vulnerability.setInstanceID("1EEA24C519E307822F6D1FAD0AD7B45A");
+    this.store.add(vulnerability);
+    this.store.add(new Vulnerability());
+    FingerprintSet instanceIDs = new FingerprintSet();
+
+    FindingStore.Cursor cursor = this.store.cursor();
+    cursor.moveTo(0);
+    assertThat(cursor.isInstanceIDIn(instanceIDs)).isFalse();
+    instanceIDs.add("1EEA24C519E307822F6D1FAD0AD7B45A");
+    assertThat(cursor.isInstanceIDIn(instanceIDs)).isTrue();
+    cursor.moveTo(1);
+    assertThat(cursor.isInstanceIDIn(instanceIDs)).isFalse();
+  }
+
+  @Test
+  public void add_instance_id_to_set() {
+    Vulnerability vulnerability = new Vulnerability();
+    vulnerability.setInstanceID("1EEA24C519E307822F6D1FAD0AD7B45A");
+    this.store.add(vulnerability);
+    this.store.add(new Vulnerability());
+    FingerprintSet instanceIDs = new FingerprintSet();
+
+    FindingStore.Cursor cursor = this.store.cursor();
+    cursor.moveTo(0);
+    assertThat(cursor.addInstanceIDTo(instanceIDs)).isTrue();
+    assertThat(cursor.addInstanceIDTo(instanceIDs)).isFalse();
+    assertThat(instanceIDs.contains("1EEA24C519E307822F6D1FAD0AD7B45A")).isTrue();
+    cursor.moveTo(1);
+    assertThat(cursor.addInstanceIDTo(instanceIDs)).isTrue();
+    assertThat(instanceIDs.size()).isEqualTo(1);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void fail_to_move_outside_of_store() {
+    this.store.cursor().moveTo(0);
+  }
+
+  @Test
+  public void chars_end_at_max_int() {
+    assertThat(FindingStore.endOfChars(Integer.MAX_VALUE - 5, 5)).isEqualTo(Integer.MAX_VALUE);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void fail_when_chars_exceed_max_int() {
+    FindingStore.endOfChars(Integer.MAX_VALUE - 5, 6);
+  }
+}
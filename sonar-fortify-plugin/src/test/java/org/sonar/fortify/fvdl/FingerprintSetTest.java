@@ -0,0 +1,86 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class FingerprintSetTest {
+
+  @Test
+  public void should_store_hexadecimal_ids() {
+    FingerprintSet set = new FingerprintSet();
+    assertThat(set.add("1EEA24C519E307822F6D1FAD0AD7B45A")).isTrue();
+    assertThat(set.add("1EEA24C519E307822F6D1FAD0AD7B45A")).isFalse();
+
+    assertThat(set.contains("1EEA24C519E307822F6D1FAD0AD7B45A")).isTrue();
+    assertThat(set.contains(new StringBuilder("1EEA24C519E307822F6D1FAD0AD7B45A"))).isTrue();
+    assertThat(set.contains("1EEA24C519E307822F6D1FAD0AD7B45B")).isFalse();
+    assertThat(set.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void should_hash_other_ids() {
+    FingerprintSet set = new FingerprintSet();
+    assertThat(set.add("issue-1")).isTrue();
+    assertThat(set.add("issue-2")).isTrue();
+    assertThat(set.add("")).isTrue();
+
+    assertThat(set.contains("issue-1")).isTrue();
+    assertThat(set.contains("issue-3")).isFalse();
+    assertThat(set.contains("")).isTrue();
+    assertThat(set.contains("ZZZA24C519E307822F6D1FAD0AD7B45A")).isFalse();
+    assertThat(set.size()).isEqualTo(3);
+  }
+
+  @Test
+  public void should_store_zero_fingerprint() {
+    FingerprintSet set = new FingerprintSet();
+    assertThat(set.contains("00000000000000000000000000000000")).isFalse();
+    assertThat(set.add("00000000000000000000000000000000")).isTrue();
+    assertThat(set.add("00000000000000000000000000000000")).isFalse();
+    assertThat(set.contains("00000000000000000000000000000000")).isTrue();
+    assertThat(set.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void should_ignore_null() {
+    FingerprintSet set = new FingerprintSet();
+    assertThat(set.add(null)).isFalse();
+    assertThat(set.contains(null)).isFalse();
+    assertThat(set.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void should_grow() {
+    FingerprintSet set = new FingerprintSet();
+    for (int i = 0; i < 10000; i++) {
+      assertThat(set.add(String.format("%032X", i * 7919L))).isTrue();
+      assertThat(set.add("id" + i)).isTrue();
+    }
+    assertThat(set.size()).isEqualTo(20000);
+    for (int i = 0; i < 10000; i++) {
+      assertThat(set.contains(String.format("%032X", i * 7919L))).isTrue();
+      assertThat(set.contains("id" + i)).isTrue();
+      assertThat(set.contains("other" + i)).isFalse();
+    }
+  }
+}
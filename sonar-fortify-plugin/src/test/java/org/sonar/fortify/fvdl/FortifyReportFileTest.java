@@ -19,19 +19,37 @@
  */
 package org.sonar.fortify.fvdl;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
+import com.google.common.io.Files;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.utils.MessageException;
+import org.sonar.fortify.base.ParserEngine;
+import org.sonar.fortify.base.FortifyConstants;
+import org.sonar.fortify.base.StaxBackend;
+import org.sonar.fortify.fvdl.element.Build;
+import org.sonar.fortify.fvdl.element.Description;
+import org.sonar.fortify.fvdl.element.Vulnerability;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import static org.fest.assertions.Assertions.assertThat;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -102,6 +120,45 @@ public class FortifyReportFileTest {
     }
   }
 
+  @Test
+  public void testListReports() throws IOException {
+    File baseDir = this.fs.baseDir();
+    File first = new File(baseDir, "reports/a/audit.fpr");
+    File second = new File(baseDir, "reports/b/audit.fpr");
+    File other = new File(baseDir, "reports/b/audit.xml");
+    File single = this.temp.newFile("single.fvdl");
+    for (File file : new File[] {second, first, other}) {
+      file.getParentFile().mkdirs();
+      file.createNewFile();
+    }
+    FortifySensorConfiguration configuration = mock(FortifySensorConfiguration.class);
+    when(configuration.getReportPath()).thenReturn("reports/**/*.fpr, " + single.getAbsolutePath() + ",reports/a/audit.fpr,none/*.fvdl");
+
+    List<FortifyReportFile> reports = FortifyReportFile.list(configuration, this.fs, null);
+
+    assertThat(reports).hasSize(3);
+    assertThat(reports.get(0).getFile()).isEqualTo(first);
+    assertThat(reports.get(1).getFile()).isEqualTo(second);
+    assertThat(reports.get(2).getFile()).isEqualTo(single);
+  }
+
+  @Test
+  public void testListNoReport() {
+    FortifySensorConfiguration configuration = mock(FortifySensorConfiguration.class);
+    assertThat(FortifyReportFile.list(configuration, this.fs, null)).isEmpty();
+
+    when(configuration.getReportPath()).thenReturn("reports/*.fpr");
+    assertThat(FortifyReportFile.list(configuration, this.fs, null)).isEmpty();
+  }
+
+  @Test(expected = MessageException.class)
+  public void testListWrongPath() {
+    FortifySensorConfiguration configuration = mock(FortifySensorConfiguration.class);
+    when(configuration.getReportPath()).thenReturn("reports/*.fpr,/do/not/exist/audit.fvdl");
+
+    FortifyReportFile.list(configuration, this.fs, null);
+  }
+
   @Test
   public void testNotExistgetInputStream() throws IOException {
     FortifySensorConfiguration configuration = mock(FortifySensorConfiguration.class);
@@ -134,4 +191,367 @@ public class FortifyReportFileTest {
       Closeables.closeQuietly(input);
     }
   }
+
+  @Test
+  public void testFPRgetInputStream() throws IOException {
+    File fpr = this.temp.newFile("report.fpr");
+    ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(fpr));
+    try {
+      zip.putNextEntry(new ZipEntry("audit.xml"));
+      zip.write("<Audit/>".getBytes(Charsets.UTF_8));
+      zip.putNextEntry(new ZipEntry("audit.fvdl"));
+      zip.write("<FVDL/>".getBytes(Charsets.UTF_8));
+      zip.closeEntry();
+    } finally {
+      zip.close();
+    }
+    FortifySensorConfiguration configuration = mock(FortifySensorConfiguration.class);
+    when(configuration.getReportPath()).thenReturn(fpr.getAbsolutePath());
+    when(configuration.getReadBufferSize()).thenReturn(2);
+
+    FortifyReportFile fortifyReportFile = new FortifyReportFile(configuration, this.fs);
+
+    InputStream input = fortifyReportFile.getInputStream();
+    try {
+      assertThat(new String(ByteStreams.toByteArray(input), Charsets.UTF_8)).isEqualTo("<FVDL/>");
+    } finally {
+      input.close();
+    }
+
+    FprArchive archive = new FprArchive(fpr, 2);
+    try {
+      assertThat(archive.getEntryNames()).containsOnly("audit.xml", "audit.fvdl");
+      assertThat(archive.hasEntry("audit.xml")).isTrue();
+      assertThat(archive.hasEntry("filtertemplate.xml")).isFalse();
+      byte[] buffer = new byte[8];
+      InputStream entry = archive.openEntry("audit.xml");
+      assertThat(entry.read(buffer, 0, buffer.length)).isEqualTo(8);
+      entry.close();
+    } finally {
+      archive.close();
+    }
+  }
+
+  @Test
+  public void testFPRSuppressedInstanceIDs() throws Exception {
+    File fpr = writeAuditedFpr(this.temp.newFile("report.fpr"));
+    FortifySensorConfiguration configuration = mock(FortifySensorConfiguration.class);
+    when(configuration.getReportPath()).thenReturn(fpr.getAbsolutePath());
+    when(configuration.getReadBufferSize()).thenReturn(FortifySensorConfiguration.DEFAULT_READ_BUFFER_SIZE);
+    when(configuration.getStaxBackend()).thenReturn(StaxBackend.DEFAULT);
+    when(configuration.getParserThreads()).thenReturn(1);
+
+    FortifyReportFile fortifyReportFile = new FortifyReportFile(configuration, this.fs);
+    FingerprintSet suppressed = fortifyReportFile.getSuppressedInstanceIDs();
+    assertThat(suppressed.size()).isEqualTo(1);
+    assertThat(suppressed.contains("1EEA24C519E307822F6D1FAD0AD7B45A")).isTrue();
+
+    final List<Vulnerability> vulnerabilities = new ArrayList<Vulnerability>();
+    fortifyReportFile.parse(new VulnerabilityHandler() {
+      @Override
+      public void onBuild(Build build) {
+      }
+
+      @Override
+      public void onVulnerability(Vulnerability vulnerability) {
+        vulnerabilities.add(vulnerability);
+      }
+
+      @Override
+      public void onDescription(Description description) {
+      }
+    });
+    assertThat(vulnerabilities).hasSize(1);
+    assertThat(vulnerabilities.get(0).getInstanceID()).isEqualTo("0000000000000000000000000000002A");
+    assertThat(vulnerabilities.get(0).getOrdinal()).isEqualTo(1);
+  }
+
+  @Test
+  public void testBaselineKeepsSuppressedInstanceIDs() throws Exception {
+    File baseline = writeAuditedFpr(this.temp.newFile("baseline.fpr"));
+    File fvdl = this.temp.newFile("audit.fvdl");
+    Files.write("<FVDL><Vulnerabilities>"
+      + "<Vulnerability><InstanceInfo><InstanceID>1EEA24C519E307822F6D1FAD0AD7B45A</InstanceID></InstanceInfo></Vulnerability>"
+      + "</Vulnerabilities></FVDL>", fvdl, Charsets.UTF_8);
+    FortifySensorConfiguration configuration = mock(FortifySensorConfiguration.class);
+    when(configuration.getReportPath()).thenReturn(fvdl.getAbsolutePath());
+    when(configuration.getBaselineReportPath()).thenReturn(baseline.getAbsolutePath());
+    when(configuration.getReadBufferSize()).thenReturn(FortifySensorConfiguration.DEFAULT_READ_BUFFER_SIZE);
+    when(configuration.getStaxBackend()).thenReturn(StaxBackend.DEFAULT);
+    when(configuration.getParserThreads()).thenReturn(1);
+
+    FingerprintSet baselineInstanceIDs = new FortifyReportRegistry()
+      .getInstanceIDs(new FortifyReportFile(configuration, this.fs, FortifyConstants.BASELINE_REPORT_PATH_PROPERTY));
+    InstanceIDs current = new InstanceIDs();
+    new FortifyReportFile(configuration, this.fs).parse(current);
+
+    // the vulnerability suppressed in the audit of the baseline is not new in the current report
+    assertThat(current.values).containsExactly("1EEA24C519E307822F6D1FAD0AD7B45A");
+    assertThat(baselineInstanceIDs.size()).isEqualTo(2);
+    assertThat(baselineInstanceIDs.contains("1EEA24C519E307822F6D1FAD0AD7B45A")).isTrue();
+  }
+
+  /**
+   * Writes a FPR archive of two vulnerabilities, the first one being suppressed in its audit.
+   */
+  private static File writeAuditedFpr(File fpr) throws IOException {
+    ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(fpr));
+    try {
+      zip.putNextEntry(new ZipEntry("audit.xml"));
+      zip.write(("<Audit><IssueList><Issue instanceId=\"1EEA24C519E307822F6D1FAD0AD7B45A\" suppressed=\"true\"/>"
+        + "<Issue instanceId=\"0000000000000000000000000000002A\"/></IssueList></Audit>").getBytes(Charsets.UTF_8));
+      zip.putNextEntry(new ZipEntry("audit.fvdl"));
+      zip.write(("<FVDL><Vulnerabilities>"
+        + "<Vulnerability><InstanceInfo><InstanceID>1EEA24C519E307822F6D1FAD0AD7B45A</InstanceID></InstanceInfo></Vulnerability>"
+        + "<Vulnerability><InstanceInfo><InstanceID>0000000000000000000000000000002A</InstanceID></InstanceInfo></Vulnerability>"
+        + "</Vulnerabilities></FVDL>").getBytes(Charsets.UTF_8));
+      zip.closeEntry();
+    } finally {
+      zip.close();
+    }
+    return fpr;
+  }
+
+  @Test
+  public void testFVDLHasNoSuppressedInstanceIDs() throws IOException {
+    File fvdl = this.temp.newFile("audit.fvdl");
+    FortifySensorConfiguration configuration = mock(FortifySensorConfiguration.class);
+    when(configuration.getReportPath()).thenReturn(fvdl.getAbsolutePath());
+
+    assertThat(new FortifyReportFile(configuration, this.fs).getSuppressedInstanceIDs()).isNull();
+  }
+
+  @Test
+  public void testGzipGetInputStream() throws IOException {
+    File gzip = this.temp.newFile("audit.fvdl.gz");
+    GZIPOutputStream output = new GZIPOutputStream(new FileOutputStream(gzip));
+    try {
+      output.write("<FVDL/>".getBytes(Charsets.UTF_8));
+    } finally {
+      output.close();
+    }
+    FortifySensorConfiguration configuration = mock(FortifySensorConfiguration.class);
+    when(configuration.getReportPath()).thenReturn(gzip.getAbsolutePath());
+    when(configuration.getReadBufferSize()).thenReturn(FortifySensorConfiguration.DEFAULT_READ_BUFFER_SIZE);
+    when(configuration.getParserThreads()).thenReturn(4);
+    when(configuration.getReadAheadBuffers()).thenReturn(2);
+
+    FortifyReportFile fortifyReportFile = new FortifyReportFile(configuration, this.fs);
+
+    assertThat(fortifyReportFile.getFvdlFile()).isNull();
+    InputStream input = fortifyReportFile.getInputStream();
+    try {
+      assertThat(input).isInstanceOf(ReadAheadInputStream.class);
+      assertThat(new String(ByteStreams.toByteArray(input), Charsets.UTF_8)).isEqualTo("<FVDL/>");
+    } finally {
+      input.close();
+    }
+  }
+
+  @Test
+  public void testStoredFvdlInFPR() throws Exception {
+    String fvdl = "<FVDL><Vulnerabilities>"
+      + "<Vulnerability><InstanceInfo><InstanceID>1</InstanceID></InstanceInfo></Vulnerability>"
+      + "<Vulnerability><InstanceInfo><InstanceID>2</InstanceID></InstanceInfo></Vulnerability>"
+      + "</Vulnerabilities></FVDL>";
+    File fpr = this.temp.newFile("stored.fpr");
+    ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(fpr));
+    try {
+      zip.putNextEntry(new ZipEntry("audit.xml"));
+      zip.write("<Audit/>".getBytes(Charsets.UTF_8));
+      zip.putNextEntry(storedEntry("audit.fvdl", fvdl.getBytes(Charsets.UTF_8)));
+      zip.write(fvdl.getBytes(Charsets.UTF_8));
+      zip.closeEntry();
+      zip.setComment("archive comment");
+    } finally {
+      zip.close();
+    }
+    FortifySensorConfiguration configuration = mock(FortifySensorConfiguration.class);
+    when(configuration.getReportPath()).thenReturn(fpr.getAbsolutePath());
+    when(configuration.getReadBufferSize()).thenReturn(FortifySensorConfiguration.DEFAULT_READ_BUFFER_SIZE);
+    when(configuration.getStaxBackend()).thenReturn(StaxBackend.DEFAULT);
+    FortifyReportFile fortifyReportFile = new FortifyReportFile(configuration, this.fs);
+
+    FileRegion region = fortifyReportFile.getFvdlRegion();
+    assertThat(region.getLength()).isEqualTo(fvdl.length());
+    assertThat(FprArchive.findStoredEntry(fpr, "audit.xml")).isNull();
+    assertThat(FprArchive.findStoredEntry(fpr, "filtertemplate.xml")).isNull();
+
+    InputStream input = fortifyReportFile.getInputStream();
+    try {
+      assertThat(input).isInstanceOf(MappedRegionInputStream.class);
+      assertThat(new String(ByteStreams.toByteArray(input), Charsets.UTF_8)).isEqualTo(fvdl);
+    } finally {
+      input.close();
+    }
+
+    for (ParserEngine engine : ParserEngine.values()) {
+      when(configuration.getParserEngine()).thenReturn(engine);
+      final List<String> instanceIDs = new ArrayList<String>();
+      fortifyReportFile.parse(new VulnerabilityHandler() {
+        @Override
+        public void onBuild(Build build) {
+        }
+
+        @Override
+        public void onVulnerability(Vulnerability vulnerability) {
+          instanceIDs.add(vulnerability.getInstanceID());
+        }
+
+        @Override
+        public void onDescription(Description description) {
+        }
+      });
+      assertThat(instanceIDs).containsExactly("1", "2");
+    }
+  }
+
+  private static ZipEntry storedEntry(String name, byte[] content) {
+    ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(content.length);
+    CRC32 crc = new CRC32();
+    crc.update(content);
+    entry.setCrc(crc.getValue());
+    entry.setExtra(new byte[] {(byte) 0xCA, (byte) 0xFE, 2, 0, 1, 2});
+    return entry;
+  }
+
+  @Test
+  public void testParseWithScanner() throws Exception {
+    File fvdl = this.temp.newFile("audit.fvdl");
+    Files.write("<FVDL><Vulnerabilities>"
+      + "<Vulnerability><InstanceInfo><InstanceID>1</InstanceID></InstanceInfo></Vulnerability>"
+      + "<Vulnerability><InstanceInfo><InstanceID>2</InstanceID></InstanceInfo></Vulnerability>"
+      + "</Vulnerabilities></FVDL>", fvdl, Charsets.UTF_8);
+    FortifySensorConfiguration configuration = mock(FortifySensorConfiguration.class);
+    when(configuration.getReportPath()).thenReturn(fvdl.getAbsolutePath());
+    when(configuration.getParserEngine()).thenReturn(ParserEngine.SCANNER);
+    when(configuration.getParserThreads()).thenReturn(4);
+
+    final List<String> instanceIDs = new ArrayList<String>();
+    new FortifyReportFile(configuration, this.fs).parse(new VulnerabilityHandler() {
+      @Override
+      public void onBuild(Build build) {
+      }
+
+      @Override
+      public void onVulnerability(Vulnerability vulnerability) {
+        instanceIDs.add(vulnerability.getInstanceID());
+      }
+
+      @Override
+      public void onDescription(Description description) {
+      }
+    });
+    assertThat(instanceIDs).containsExactly("1", "2");
+  }
+
+  @Test
+  public void testParseWithRuleFilter() throws Exception {
+    File fvdl = this.temp.newFile("audit.fvdl");
+    Files.write("<FVDL><Vulnerabilities>"
+      + "<Vulnerability><ClassInfo><Kingdom>Code Quality</Kingdom><Type>Unreleased Resource</Type><Subtype>Database</Subtype></ClassInfo>"
+      + "<InstanceInfo><InstanceID>1</InstanceID></InstanceInfo></Vulnerability>"
+      + "<Vulnerability><ClassInfo><Kingdom>Code Quality</Kingdom><Type>Dead Code</Type></ClassInfo>"
+      + "<InstanceInfo><InstanceID>2</InstanceID></InstanceInfo></Vulnerability>"
+      + "</Vulnerabilities></FVDL>", fvdl, Charsets.UTF_8);
+    FortifySensorConfiguration configuration = mock(FortifySensorConfiguration.class);
+    when(configuration.getReportPath()).thenReturn(fvdl.getAbsolutePath());
+    when(configuration.getReadBufferSize()).thenReturn(FortifySensorConfiguration.DEFAULT_READ_BUFFER_SIZE);
+    when(configuration.getStaxBackend()).thenReturn(StaxBackend.DEFAULT);
+    FortifyReportFile report = new FortifyReportFile(configuration, this.fs);
+
+    InstanceIDs instanceIDs = new InstanceIDs();
+    report.withFilter(VulnerabilityFilter.compile(null, Arrays.asList("code_quality_unreleased_resource_database"))).parse(instanceIDs);
+    assertThat(instanceIDs.values).containsExactly("1");
+
+    instanceIDs = new InstanceIDs();
+    report.parse(instanceIDs);
+    assertThat(instanceIDs.values).containsExactly("1", "2");
+  }
+
+  @Test
+  public void testParseFromCache() throws Exception {
+    File fvdl = this.temp.newFile("cached.fvdl");
+    Files.write("<FVDL><Build><SourceBasePath>/base</SourceBasePath></Build><Vulnerabilities>"
+      + "<Vulnerability><InstanceInfo><InstanceID>1</InstanceID></InstanceInfo></Vulnerability>"
+      + "<Vulnerability><InstanceInfo><InstanceID>2</InstanceID></InstanceInfo></Vulnerability>"
+      + "</Vulnerabilities></FVDL>", fvdl, Charsets.UTF_8);
+    File cacheDirectory = this.temp.newFolder("cache");
+    FortifySensorConfiguration configuration = mock(FortifySensorConfiguration.class);
+    when(configuration.getReportPath()).thenReturn(fvdl.getAbsolutePath());
+    when(configuration.getReadBufferSize()).thenReturn(FortifySensorConfiguration.DEFAULT_READ_BUFFER_SIZE);
+    when(configuration.getStaxBackend()).thenReturn(StaxBackend.DEFAULT);
+    when(configuration.getCacheDirectory()).thenReturn(cacheDirectory.getAbsolutePath());
+    when(configuration.getCacheSize()).thenReturn(Long.MAX_VALUE);
+    FortifyReportFile fortifyReportFile = new FortifyReportFile(configuration, this.fs);
+
+    for (int run = 0; run < 2; run++) {
+      final List<String> events = new ArrayList<String>();
+      fortifyReportFile.parse(new VulnerabilityHandler() {
+        @Override
+        public void onBuild(Build build) {
+          events.add(build.getSourceBasePath());
+        }
+
+        @Override
+        public void onVulnerability(Vulnerability vulnerability) {
+          events.add(vulnerability.getInstanceID() + "|" + vulnerability.getOrdinal());
+        }
+
+        @Override
+        public void onDescription(Description description) {
+        }
+      });
+      assertThat(events).containsExactly("/base", "1|0", "2|1");
+      assertThat(cacheDirectory.list()).hasSize(1);
+    }
+
+    // the cached entry is replayed instead of the report
+    File entry = cacheDirectory.listFiles()[0];
+    ReportCache.Recorder recorder = new ReportCache(cacheDirectory, Long.MAX_VALUE)
+      .record(entry.getName().substring(0, entry.getName().length() - ReportCache.EXTENSION.length()), new InstanceIDs());
+    Vulnerability vulnerability = new Vulnerability();
+    vulnerability.setInstanceID("cached");
+    recorder.onVulnerability(vulnerability);
+    recorder.commit();
+    InstanceIDs instanceIDs = new InstanceIDs();
+    fortifyReportFile.parse(instanceIDs);
+    assertThat(instanceIDs.values).containsExactly("cached");
+  }
+
+  private static class InstanceIDs implements VulnerabilityRecordHandler {
+    private final List<String> values = new ArrayList<String>();
+
+    @Override
+    public void onBuild(Build build) {
+    }
+
+    @Override
+    public void onVulnerability(Vulnerability vulnerability) {
+      this.values.add(vulnerability.getInstanceID());
+    }
+
+    @Override
+    public void onDescription(Description description) {
+    }
+  }
+
+  @Test(expected = FileNotFoundException.class)
+  public void testFPRWithoutAuditFvdl() throws IOException {
+    File fpr = this.temp.newFile("empty.fpr");
+    ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(fpr));
+    try {
+      zip.putNextEntry(new ZipEntry("audit.xml"));
+      zip.closeEntry();
+    } finally {
+      zip.close();
+    }
+    FortifySensorConfiguration configuration = mock(FortifySensorConfiguration.class);
+    when(configuration.getReportPath()).thenReturn(fpr.getAbsolutePath());
+    when(configuration.getReadBufferSize()).thenReturn(FortifySensorConfiguration.DEFAULT_READ_BUFFER_SIZE);
+
+    new FortifyReportFile(configuration, this.fs).getInputStream();
+  }
 }
@@ -0,0 +1,104 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import org.junit.Test;
+import org.sonar.api.batch.fs.FileSystem;
+import org.sonar.fortify.base.StaxBackend;
+import org.sonar.fortify.fvdl.element.Fvdl;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FortifyReportRegistryTest {
+
+  private final FortifyReportRegistry registry = new FortifyReportRegistry();
+
+  @Test
+  public void report_is_parsed_once() throws Exception {
+    Fvdl fvdl = this.registry.getReport(newReport("src/test/resources/project/audit-simple.fvdl"));
+    FindingStore findings = this.registry.getFindings(newReport("src/test/resources/project/audit-simple.fvdl"));
+
+    assertThat(fvdl.getBuild().getSourceBasePath()).isEqualTo("/path/to/project/Samples/advanced/webgoat/WebGoat5.0");
+    assertThat(findings.size()).isEqualTo(3);
+    assertThat(this.registry.getReport(newReport("src/test/resources/project/../project/audit-simple.fvdl"))).isSameAs(fvdl);
+    assertThat(this.registry.getFindings(newReport("src/test/resources/project/../project/audit-simple.fvdl"))).isSameAs(findings);
+    assertThat(this.registry.getReport(newReport("src/test/resources/report/dummy-report.xml"))).isNotSameAs(fvdl);
+  }
+
+  @Test
+  public void reports_are_loaded_concurrently() throws Exception {
+    this.registry.load(Arrays.asList(
+      newReport("src/test/resources/project/audit-simple.fvdl"),
+      newReport("src/test/resources/report/dummy-report.xml"),
+      newReport("src/test/resources/project/../project/audit-simple.fvdl")), 4);
+    FindingStore findings = this.registry.getFindings(newReport("src/test/resources/project/audit-simple.fvdl"));
+
+    assertThat(findings.size()).isEqualTo(3);
+    this.registry.load(Arrays.asList(newReport("src/test/resources/project/audit-simple.fvdl")), 4);
+    assertThat(this.registry.getFindings(newReport("src/test/resources/project/audit-simple.fvdl"))).isSameAs(findings);
+    assertThat(this.registry.getReport(newReport("src/test/resources/report/dummy-report.xml"))).isNotNull();
+  }
+
+  @Test
+  public void reports_are_released_on_stop() throws Exception {
+    FindingStore findings = this.registry.getFindings(newReport("src/test/resources/project/audit-simple.fvdl"));
+    FingerprintSet instanceIDs = this.registry.getInstanceIDs(newReport("src/test/resources/project/audit-simple.fvdl"));
+    SnippetIndex snippetIndex = this.registry.getSnippetIndex(newReport("src/test/resources/project/audit-simple.fvdl"));
+    assertThat(this.registry.getInstanceIDs(newReport("src/test/resources/project/audit-simple.fvdl"))).isSameAs(instanceIDs);
+    assertThat(this.registry.getSnippetIndex(newReport("src/test/resources/project/audit-simple.fvdl"))).isSameAs(snippetIndex);
+
+    this.registry.stop();
+    assertThat(this.registry.getFindings(newReport("src/test/resources/project/audit-simple.fvdl"))).isNotSameAs(findings);
+    assertThat(this.registry.getInstanceIDs(newReport("src/test/resources/project/audit-simple.fvdl"))).isNotSameAs(instanceIDs);
+    assertThat(this.registry.getSnippetIndex(newReport("src/test/resources/project/audit-simple.fvdl"))).isNotSameAs(snippetIndex);
+  }
+
+  @Test
+  public void trace_decoder_is_shared() throws Exception {
+    TraceDecoder decoder = this.registry.getTraceDecoder(newReport("src/test/resources/project/audit-simple.fvdl"));
+
+    assertThat(this.registry.getTraceDecoder(newReport("src/test/resources/project/../project/audit-simple.fvdl"))).isSameAs(decoder);
+    assertThat(this.registry.getTraceDecoder(newReport("src/test/resources/report/dummy-report.xml"))).isNotSameAs(decoder);
+    this.registry.stop();
+    assertThat(this.registry.getTraceDecoder(newReport("src/test/resources/project/audit-simple.fvdl"))).isNotSameAs(decoder);
+  }
+
+  @Test(expected = FileNotFoundException.class)
+  public void report_path_is_required() throws Exception {
+    this.registry.getReport(newReport(null));
+  }
+
+  private static FortifyReportFile newReport(String path) {
+    FortifySensorConfiguration configuration = mock(FortifySensorConfiguration.class);
+    when(configuration.getReportPath()).thenReturn(path);
+    when(configuration.getReadBufferSize()).thenReturn(FortifySensorConfiguration.DEFAULT_READ_BUFFER_SIZE);
+    when(configuration.getStaxBackend()).thenReturn(StaxBackend.DEFAULT);
+    when(configuration.getParserThreads()).thenReturn(1);
+    FileSystem fileSystem = mock(FileSystem.class);
+    when(fileSystem.baseDir()).thenReturn(new File(System.getProperty("user.dir")));
+    return new FortifyReportFile(configuration, fileSystem);
+  }
+}
@@ -25,6 +25,8 @@ import org.sonar.api.config.Settings;
 import org.sonar.api.profiles.RulesProfile;
 import org.sonar.api.rules.ActiveRule;
 import org.sonar.fortify.base.FortifyConstants;
+import org.sonar.fortify.base.ParserEngine;
+import org.sonar.fortify.base.StaxBackend;
 
 import java.util.Collections;
 
@@ -59,4 +61,97 @@ public class FortifySensorConfigurationTest {
     when(this.settings.getString(FortifyConstants.REPORT_PATH_PROPERTY)).thenReturn("location");
     assertThat(this.fortifySensorConfiguration.getReportPath()).isEqualTo("location");
   }
+
+  @Test
+  public void testGetBaselineReportPath() {
+    assertThat(this.fortifySensorConfiguration.getBaselineReportPath()).isNull();
+    when(this.settings.getString(FortifyConstants.BASELINE_REPORT_PATH_PROPERTY)).thenReturn("baseline.fpr");
+    assertThat(this.fortifySensorConfiguration.getBaselineReportPath()).isEqualTo("baseline.fpr");
+  }
+
+  @Test
+  public void testGetReadBufferSize() {
+    assertThat(this.fortifySensorConfiguration.getReadBufferSize()).isEqualTo(FortifySensorConfiguration.DEFAULT_READ_BUFFER_SIZE);
+    when(this.settings.getInt(FortifyConstants.READ_BUFFER_SIZE_PROPERTY)).thenReturn(1024);
+    assertThat(this.fortifySensorConfiguration.getReadBufferSize()).isEqualTo(1024);
+  }
+
+  @Test
+  public void testGetReadAheadBuffers() {
+    assertThat(this.fortifySensorConfiguration.getReadAheadBuffers()).isEqualTo(FortifySensorConfiguration.DEFAULT_READ_AHEAD_BUFFERS);
+    when(this.settings.hasKey(FortifyConstants.READ_AHEAD_BUFFERS_PROPERTY)).thenReturn(true);
+    when(this.settings.getInt(FortifyConstants.READ_AHEAD_BUFFERS_PROPERTY)).thenReturn(0);
+    assertThat(this.fortifySensorConfiguration.getReadAheadBuffers()).isEqualTo(0);
+    when(this.settings.getInt(FortifyConstants.READ_AHEAD_BUFFERS_PROPERTY)).thenReturn(8);
+    assertThat(this.fortifySensorConfiguration.getReadAheadBuffers()).isEqualTo(8);
+  }
+
+  @Test
+  public void testGetParserThreads() {
+    assertThat(this.fortifySensorConfiguration.getParserThreads()).isEqualTo(1);
+    when(this.settings.getInt(FortifyConstants.PARSER_THREADS_PROPERTY)).thenReturn(4);
+    assertThat(this.fortifySensorConfiguration.getParserThreads()).isEqualTo(4);
+  }
+
+  @Test
+  public void testGetReportThreads() {
+    assertThat(this.fortifySensorConfiguration.getReportThreads()).isEqualTo(Runtime.getRuntime().availableProcessors());
+    when(this.settings.getInt(FortifyConstants.REPORT_THREADS_PROPERTY)).thenReturn(2);
+    assertThat(this.fortifySensorConfiguration.getReportThreads()).isEqualTo(2);
+  }
+
+  @Test
+  public void testGetImportFilter() {
+    when(this.settings.getString(FortifyConstants.IMPORT_FILTER_PROPERTY)).thenReturn("severity>=MAJOR");
+    assertThat(this.fortifySensorConfiguration.getImportFilter()).isEqualTo("severity>=MAJOR");
+  }
+
+  @Test
+  public void testGetMemoryBudget() {
+    assertThat(this.fortifySensorConfiguration.getMemoryBudget()).isEqualTo(0L);
+    when(this.settings.getLong(FortifyConstants.MEMORY_BUDGET_PROPERTY)).thenReturn(512L);
+    assertThat(this.fortifySensorConfiguration.getMemoryBudget()).isEqualTo(512L * 1024 * 1024);
+  }
+
+  @Test
+  public void testGetCacheDirectory() {
+    assertThat(this.fortifySensorConfiguration.getCacheDirectory()).isNull();
+    when(this.settings.getString(FortifyConstants.CACHE_DIRECTORY_PROPERTY)).thenReturn("/var/cache/fortify");
+    assertThat(this.fortifySensorConfiguration.getCacheDirectory()).isEqualTo("/var/cache/fortify");
+  }
+
+  @Test
+  public void testGetCacheSize() {
+    assertThat(this.fortifySensorConfiguration.getCacheSize()).isEqualTo(FortifySensorConfiguration.DEFAULT_CACHE_SIZE * 1024 * 1024);
+    when(this.settings.getLong(FortifyConstants.CACHE_SIZE_PROPERTY)).thenReturn(10L);
+    assertThat(this.fortifySensorConfiguration.getCacheSize()).isEqualTo(10L * 1024 * 1024);
+  }
+
+  @Test
+  public void testGetStaxBackend() {
+    assertThat(this.fortifySensorConfiguration.getStaxBackend()).isEqualTo(StaxBackend.DEFAULT);
+    when(this.settings.getString(FortifyConstants.STAX_BACKEND_PROPERTY)).thenReturn("woodstox");
+    assertThat(this.fortifySensorConfiguration.getStaxBackend()).isEqualTo(StaxBackend.WOODSTOX);
+  }
+
+  @Test
+  public void testGetParserEngine() {
+    assertThat(this.fortifySensorConfiguration.getParserEngine()).isEqualTo(ParserEngine.STAX);
+    when(this.settings.getString(FortifyConstants.PARSER_ENGINE_PROPERTY)).thenReturn("scanner");
+    assertThat(this.fortifySensorConfiguration.getParserEngine()).isEqualTo(ParserEngine.SCANNER);
+  }
+
+  @Test
+  public void testIsSnippetsEnabled() {
+    assertThat(this.fortifySensorConfiguration.isSnippetsEnabled()).isFalse();
+    when(this.settings.getBoolean(FortifyConstants.SNIPPETS_PROPERTY)).thenReturn(true);
+    assertThat(this.fortifySensorConfiguration.isSnippetsEnabled()).isTrue();
+  }
+
+  @Test
+  public void testIsTracesEnabled() {
+    assertThat(this.fortifySensorConfiguration.isTracesEnabled()).isFalse();
+    when(this.settings.getBoolean(FortifyConstants.TRACES_PROPERTY)).thenReturn(true);
+    assertThat(this.fortifySensorConfiguration.isTracesEnabled()).isTrue();
+  }
 }
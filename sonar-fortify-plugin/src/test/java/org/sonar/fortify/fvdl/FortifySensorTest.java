@@ -19,8 +19,12 @@
  */
 package org.sonar.fortify.fvdl;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.sonar.api.batch.SensorContext;
 import org.sonar.api.batch.fs.internal.DefaultFileSystem;
 import org.sonar.api.batch.fs.internal.DefaultInputFile;
@@ -32,10 +36,14 @@ import org.sonar.api.issue.Issuable.IssueBuilder;
 import org.sonar.api.issue.Issue;
 import org.sonar.api.resources.Project;
 import org.sonar.api.rule.RuleKey;
+import org.sonar.fortify.base.StaxBackend;
 import org.sonar.fortify.base.metrics.FortifyMetrics;
 
 import java.io.File;
 import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import static org.fest.assertions.Assertions.assertThat;
 import static org.mockito.Matchers.any;
@@ -45,19 +53,28 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class FortifySensorTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
   private FortifySensorConfiguration configuration;
   private ResourcePerspectives resourcePerspectives;
   private DefaultFileSystem fileSystem;
   private ActiveRules activeRules;
+  private FortifyReportRegistry reportRegistry;
   private FortifySensor sensor;
 
   @Before
-  public void init() {
+  public void init() throws Exception {
     this.configuration = mock(FortifySensorConfiguration.class);
+    when(this.configuration.getReadBufferSize()).thenReturn(FortifySensorConfiguration.DEFAULT_READ_BUFFER_SIZE);
+    when(this.configuration.getStaxBackend()).thenReturn(StaxBackend.DEFAULT);
     this.resourcePerspectives = mock(ResourcePerspectives.class);
     this.fileSystem = new DefaultFileSystem();
+    this.fileSystem.setWorkDir(this.temp.newFolder());
     this.activeRules = mock(ActiveRules.class);
-    this.sensor = new FortifySensor(this.configuration, this.resourcePerspectives, this.fileSystem, this.activeRules);
+    this.reportRegistry = new FortifyReportRegistry();
+    this.sensor = new FortifySensor(this.configuration, this.resourcePerspectives, this.fileSystem, this.activeRules, this.reportRegistry);
   }
 
   @Test
@@ -76,8 +93,175 @@ public class FortifySensorTest {
 
   @Test
   public void shouldAnalyse() throws URISyntaxException {
-    when(this.configuration.getReportPath()).thenReturn("audit-simple.fvdl");
     Project project = new Project("foo");
+    SensorContext context = mock(SensorContext.class);
+    MockIssueBuilder mockIssueBuilder = prepareAnalysis();
+
+    this.sensor.analyse(project, context);
+
+    verifyAnalysis(context, mockIssueBuilder);
+  }
+
+  @Test
+  public void shouldAnalyseModulesWithSharedReport() throws Exception {
+    Project root = new Project("foo");
+    Project module = new Project("foo:bar");
+    module.setParent(root);
+    SensorContext context = mock(SensorContext.class);
+    MockIssueBuilder mockIssueBuilder = prepareAnalysis();
+
+    this.sensor.analyse(module, context);
+
+    verifyAnalysis(context, mockIssueBuilder);
+    assertThat(this.reportRegistry.getFindings(new FortifyReportFile(this.configuration, this.fileSystem)).size()).isEqualTo(3);
+  }
+
+  @Test
+  public void shouldAttachTraces() throws URISyntaxException {
+    when(this.configuration.isTracesEnabled()).thenReturn(true);
+    Project project = new Project("foo");
+    SensorContext context = mock(SensorContext.class);
+    MockIssueBuilder mockIssueBuilder = prepareAnalysis();
+
+    this.sensor.analyse(project, context);
+
+    verifyAnalysis(context, mockIssueBuilder);
+    assertThat(mockIssueBuilder.attributes.get(FortifySensor.TRACE_ATTRIBUTE)).isEqualTo("WebContent/main.jsp:163");
+  }
+
+  @Test
+  public void shouldAttachTracesToModuleIssues() throws URISyntaxException {
+    when(this.configuration.isTracesEnabled()).thenReturn(true);
+    Project module = new Project("foo:bar");
+    module.setParent(new Project("foo"));
+    SensorContext context = mock(SensorContext.class);
+    MockIssueBuilder mockIssueBuilder = prepareAnalysis();
+
+    this.sensor.analyse(module, context);
+
+    verifyAnalysis(context, mockIssueBuilder);
+    assertThat(mockIssueBuilder.attributes.get(FortifySensor.TRACE_ATTRIBUTE)).isEqualTo("WebContent/main.jsp:163");
+  }
+
+  @Test
+  public void shouldAttachSnippets() throws Exception {
+    Project project = new Project("foo");
+    SensorContext context = mock(SensorContext.class);
+    MockIssueBuilder mockIssueBuilder = prepareAnalysis();
+    File report = this.temp.newFile("audit.fvdl");
+    String content = Files.toString(new File(this.getClass().getResource("/project/audit-simple.fvdl").toURI()), Charsets.UTF_8);
+    Files.write(content.replace("</FVDL>", "<Snippets><Snippet id=\"1DCC56558C0A13E42B2C59961371AE85#WebContent/main.jsp:163:163\">"
+      + "<File>WebContent/main.jsp</File><StartLine>163</StartLine><EndLine>163</EndLine><Text><![CDATA[out.print(name);]]></Text>"
+      + "</Snippet></Snippets></FVDL>"), report, Charsets.UTF_8);
+    when(this.configuration.getReportPath()).thenReturn(report.getAbsolutePath());
+    when(this.configuration.isSnippetsEnabled()).thenReturn(true);
+
+    this.sensor.analyse(project, context);
+
+    assertThat(mockIssueBuilder.attributes.get(FortifySensor.SNIPPET_ATTRIBUTE)).isEqualTo("out.print(name);");
+    assertThat(mockIssueBuilder.attributes.get(FortifySensor.TRACE_ATTRIBUTE)).isNull();
+  }
+
+  @Test
+  public void shouldMergeReports() throws Exception {
+    Project project = new Project("foo");
+    SensorContext context = mock(SensorContext.class);
+    MockIssueBuilder mockIssueBuilder = prepareAnalysis();
+    String content = Files.toString(new File(this.getClass().getResource("/project/audit-simple.fvdl").toURI()), Charsets.UTF_8);
+    File copy = this.temp.newFile("copy.fvdl");
+    Files.write(content, copy, Charsets.UTF_8);
+    File other = this.temp.newFile("other.fvdl");
+    Files.write(content.replace("1EEA24C519E307822F6D1FAD0AD7B45A", "0000000000000000000000000000002A"), other, Charsets.UTF_8);
+    when(this.configuration.getReportPath()).thenReturn("audit-simple.fvdl," + copy.getAbsolutePath() + "," + other.getAbsolutePath());
+    when(this.configuration.getReportThreads()).thenReturn(2);
+
+    this.sensor.analyse(project, context);
+
+    assertThat(mockIssueBuilder.ruleKey).isEqualTo(RuleKey.of("fortify-web", "code_quality_unreleased_resource_database"));
+    verify(context).saveMeasure(FortifyMetrics.CFPO, 2.0);
+  }
+
+  @Test
+  public void shouldFilterVulnerabilities() throws Exception {
+    Project project = new Project("foo");
+    SensorContext context = mock(SensorContext.class);
+    MockIssueBuilder mockIssueBuilder = prepareAnalysis();
+    when(this.configuration.getImportFilter()).thenReturn("path!=WebContent/*.jsp");
+
+    this.sensor.analyse(project, context);
+
+    assertThat(mockIssueBuilder.ruleKey).isNull();
+    verify(context).saveMeasure(FortifyMetrics.CFPO, 0.0);
+  }
+
+  @Test
+  public void shouldIgnoreVulnerabilitiesOfBaseline() throws Exception {
+    Project project = new Project("foo");
+    SensorContext context = mock(SensorContext.class);
+    MockIssueBuilder mockIssueBuilder = prepareAnalysis();
+    when(this.configuration.getBaselineReportPath()).thenReturn("audit-simple.fvdl");
+
+    this.sensor.analyse(project, context);
+
+    assertThat(mockIssueBuilder.ruleKey).isNull();
+    verify(context).saveMeasure(FortifyMetrics.CFPO, 0.0);
+  }
+
+  @Test
+  public void shouldIgnoreModuleVulnerabilitiesOfBaseline() throws Exception {
+    Project root = new Project("foo");
+    Project module = new Project("foo:bar");
+    module.setParent(root);
+    SensorContext context = mock(SensorContext.class);
+    MockIssueBuilder mockIssueBuilder = prepareAnalysis();
+    File baseline = this.temp.newFile("baseline.fvdl");
+    String content = Files.toString(new File(this.getClass().getResource("/project/audit-simple.fvdl").toURI()), Charsets.UTF_8);
+    Files.write(content.replace("1EEA24C519E307822F6D1FAD0AD7B45A", "0000000000000000000000000000002A"), baseline, Charsets.UTF_8);
+    when(this.configuration.getBaselineReportPath()).thenReturn(baseline.getAbsolutePath());
+
+    this.sensor.analyse(module, context);
+
+    verifyAnalysis(context, mockIssueBuilder);
+
+    when(this.configuration.getBaselineReportPath()).thenReturn("audit-simple.fvdl");
+    mockIssueBuilder = prepareAnalysis();
+    context = mock(SensorContext.class);
+
+    this.sensor.analyse(module, context);
+
+    assertThat(mockIssueBuilder.ruleKey).isNull();
+  }
+
+  @Test
+  public void shouldNotExecuteOnModuleWithoutVulnerabilities() throws Exception {
+    File sourceBasePath = this.temp.newFolder();
+    File report = new File(sourceBasePath, "audit.fvdl");
+    String content = Files.toString(new File(this.getClass().getResource("/project/audit-simple.fvdl").toURI()), Charsets.UTF_8);
+    Files.write(content.replace("/path/to/project/Samples/advanced/webgoat/WebGoat5.0", sourceBasePath.getAbsolutePath()), report, Charsets.UTF_8);
+    new File(sourceBasePath, "JavaSource").mkdir();
+    new File(sourceBasePath, "WebContent").mkdir();
+    when(this.configuration.isActive(anyListOf(String.class))).thenReturn(true);
+    when(this.configuration.getReportPath()).thenReturn(report.getAbsolutePath());
+    Project root = new Project("foo");
+    Project module = new Project("foo:bar");
+    module.setParent(root);
+    this.fileSystem.addLanguages("web");
+    this.fileSystem.setBaseDir(new File(sourceBasePath, "WebContent"));
+
+    // the module has no vulnerability of an active rule
+    assertThat(this.sensor.shouldExecuteOnProject(module)).isFalse();
+
+    ActiveRule activeRule = mock(ActiveRule.class);
+    when(activeRule.ruleKey()).thenReturn(RuleKey.of("fortify-web", "code_quality_unreleased_resource_database"));
+    when(this.activeRules.findByRepository("fortify-web")).thenReturn(Collections.singletonList(activeRule));
+    assertThat(this.sensor.shouldExecuteOnProject(module)).isTrue();
+
+    this.fileSystem.setBaseDir(new File(sourceBasePath, "other"));
+    assertThat(this.sensor.shouldExecuteOnProject(module)).isFalse();
+  }
+
+  private MockIssueBuilder prepareAnalysis() throws URISyntaxException {
+    when(this.configuration.getReportPath()).thenReturn("audit-simple.fvdl");
     File baseDir = new File(this.getClass().getResource("/project/placeholder.txt").toURI()).getParentFile();
     fileSystem.setBaseDir(baseDir);
     fileSystem.addLanguages("web");
@@ -85,7 +269,7 @@ public class FortifySensorTest {
     RuleKey ruleKey = RuleKey.of("fortify-web", "code_quality_unreleased_resource_database");
     when(activeRule.ruleKey()).thenReturn(ruleKey);
     when(this.activeRules.find(ruleKey)).thenReturn(activeRule);
-    SensorContext context = mock(SensorContext.class);
+    when(this.activeRules.findByRepository("fortify-web")).thenReturn(Collections.singletonList(activeRule));
     DefaultInputFile inputFile = new DefaultInputFile("WebContent/main.jsp").setFile(new File(baseDir, "WebContent/main.jsp"));
     fileSystem.add(inputFile);
     Issuable issuable = mock(Issuable.class);
@@ -93,9 +277,10 @@ public class FortifySensorTest {
     MockIssueBuilder mockIssueBuilder = new MockIssueBuilder();
     when(issuable.newIssueBuilder()).thenReturn(mockIssueBuilder);
     when(issuable.addIssue(any(Issue.class))).thenReturn(true);
+    return mockIssueBuilder;
+  }
 
-    this.sensor.analyse(project, context);
-
+  private void verifyAnalysis(SensorContext context, MockIssueBuilder mockIssueBuilder) {
     assertThat(mockIssueBuilder.ruleKey).isEqualTo(RuleKey.of("fortify-web", "code_quality_unreleased_resource_database"));
     assertThat(mockIssueBuilder.line).isEqualTo(163);
     assertThat(mockIssueBuilder.message)
@@ -108,6 +293,7 @@ public class FortifySensorTest {
     verify(context).saveMeasure(FortifyMetrics.MFPO, 0.0);
     verify(context).saveMeasure(FortifyMetrics.LFPO, 0.0);
     verify(context).saveMeasure(FortifyMetrics.SECURITY_RATING, 1.0);
+    assertThat(this.fileSystem.workDir().listFiles()).isEmpty();
   }
 
   private class MockIssueBuilder implements IssueBuilder {
@@ -116,6 +302,7 @@ public class FortifySensorTest {
     private Integer line;
     private String message;
     private String severity;
+    private final Map<String, String> attributes = new HashMap<String, String>();
 
     @Override
     public IssueBuilder ruleKey(RuleKey ruleKey) {
@@ -153,6 +340,7 @@ public class FortifySensorTest {
 
     @Override
     public IssueBuilder attribute(String key, String value) {
+      this.attributes.put(key, value);
       return this;
     }
 
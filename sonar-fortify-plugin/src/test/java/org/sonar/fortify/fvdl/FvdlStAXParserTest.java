@@ -19,17 +19,38 @@
  */
 package org.sonar.fortify.fvdl;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.fortify.base.StaxBackend;
+import org.sonar.fortify.fvdl.element.Build;
+import org.sonar.fortify.fvdl.element.Description;
 import org.sonar.fortify.fvdl.element.Fvdl;
+import org.sonar.fortify.fvdl.element.ReplacementDefinition;
 import org.sonar.fortify.fvdl.element.Vulnerability;
+import org.sonar.fortify.fvdl.element.VulnerabilityClass;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.fest.assertions.Assertions.assertThat;
 import static org.junit.Assert.fail;
 
 public class FvdlStAXParserTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
   @Test
   public void parse_dummy_report() throws Exception {
     FvdlStAXParser parser = new FvdlStAXParser();
@@ -81,4 +102,564 @@ public class FvdlStAXParserTest {
     }
   }
 
+  @Test
+  public void classifications_and_paths_are_shared() throws Exception {
+    StringBuilder content = new StringBuilder("<FVDL><Vulnerabilities>");
+    for (int i = 0; i < 1000; i++) {
+      content.append("<Vulnerability><ClassInfo><ClassID>").append(i % 7).append("</ClassID><Kingdom>Code Quality</Kingdom></ClassInfo>")
+        .append("<InstanceInfo><InstanceID>").append(i).append("</InstanceID></InstanceInfo>")
+        .append("<AnalysisInfo><Unified><Trace><Primary><Entry><Node isDefault=\"true\">")
+        .append("<SourceLocation path=\"File").append(i % 10).append(".java\" line=\"").append(i + 1).append("\"/>")
+        .append("</Node></Entry></Primary></Trace></Unified></AnalysisInfo></Vulnerability>\n");
+    }
+    content.append("</Vulnerabilities></FVDL>");
+    File file = this.temp.newFile();
+    Files.write(content.toString(), file, Charsets.UTF_8);
+
+    FvdlSymbolTable symbols = new FvdlSymbolTable();
+    final List<Vulnerability> vulnerabilities = new ArrayList<Vulnerability>();
+    new FvdlStAXParser(StaxBackend.DEFAULT, symbols).parse(file, new VulnerabilityHandler() {
+      @Override
+      public void onBuild(Build build) {
+      }
+
+      @Override
+      public void onVulnerability(Vulnerability vulnerability) {
+        vulnerabilities.add(vulnerability);
+      }
+
+      @Override
+      public void onDescription(Description description) {
+      }
+    }, 4, 4096);
+
+    Map<VulnerabilityClass, VulnerabilityClass> classes = new IdentityHashMap<VulnerabilityClass, VulnerabilityClass>();
+    Map<String, String> paths = new IdentityHashMap<String, String>();
+    for (Vulnerability vulnerability : vulnerabilities) {
+      classes.put(vulnerability.getVulnerabilityClass(), vulnerability.getVulnerabilityClass());
+      paths.put(vulnerability.getPath(), vulnerability.getPath());
+    }
+    assertThat(vulnerabilities).hasSize(1000);
+    assertThat(classes.size()).isEqualTo(7);
+    assertThat(symbols.classCount()).isEqualTo(7);
+    assertThat(paths.size()).isEqualTo(10);
+  }
+
+  @Test
+  public void stream_dummy_report() throws Exception {
+    final List<String> events = new ArrayList<String>();
+    FvdlStAXParser parser = new FvdlStAXParser();
+    InputStream inputStream = getClass().getClassLoader().getResourceAsStream("report/dummy-report.xml");
+    parser.parse(inputStream, new VulnerabilityHandler() {
+      @Override
+      public void onBuild(Build build) {
+        events.add("build:" + build.getSourceBasePath());
+      }
+
+      @Override
+      public void onVulnerability(Vulnerability vulnerability) {
+        events.add("vulnerability:" + vulnerability.getInstanceID());
+      }
+
+      @Override
+      public void onDescription(Description description) {
+        events.add("description:" + description.getClassID());
+      }
+    });
+    assertThat(events).containsExactly("build:/a/dummy/path", "vulnerability:1", "vulnerability:2", "vulnerability:3", "description:1", "description:2");
+  }
+
+  @Test
+  public void parallel_parse_gives_same_result_as_serial_parse() throws Exception {
+    for (String report : new String[] {"report/dummy-report.xml", "project/audit-simple.fvdl"}) {
+      File file = new File(getClass().getClassLoader().getResource(report).toURI());
+      List<String> expected = describe(new FvdlStAXParser().parse(getClass().getClassLoader().getResourceAsStream(report)).getVulnerabilities());
+      for (int threads = 1; threads <= 4; threads++) {
+        final List<Vulnerability> vulnerabilities = new ArrayList<Vulnerability>();
+        final List<String> descriptions = new ArrayList<String>();
+        new FvdlStAXParser().parse(file, new VulnerabilityHandler() {
+          @Override
+          public void onBuild(Build build) {
+          }
+
+          @Override
+          public void onVulnerability(Vulnerability vulnerability) {
+            vulnerabilities.add(vulnerability);
+          }
+
+          @Override
+          public void onDescription(Description description) {
+            descriptions.add(description.getClassID());
+          }
+        }, threads, 1024);
+        assertThat(describe(vulnerabilities)).isEqualTo(expected);
+        assertThat(descriptions).isNotEmpty();
+      }
+    }
+  }
+
+  @Test
+  public void same_result_with_every_backend() throws Exception {
+    List<String> expected = describe(new FvdlStAXParser().parse(getClass().getClassLoader().getResourceAsStream("project/audit-simple.fvdl")).getVulnerabilities());
+    for (StaxBackend backend : new StaxBackend[] {StaxBackend.JDK, StaxBackend.WOODSTOX}) {
+      Fvdl fvdl = new FvdlStAXParser(backend).parse(getClass().getClassLoader().getResourceAsStream("project/audit-simple.fvdl"));
+      assertThat(describe(fvdl.getVulnerabilities())).isEqualTo(expected);
+      assertThat(fvdl.getBuild().getSourceBasePath()).isEqualTo("/path/to/project/Samples/advanced/webgoat/WebGoat5.0");
+    }
+  }
+
+  @Test
+  public void parallel_parse_of_large_report() throws Exception {
+    StringBuilder content = new StringBuilder("<FVDL><Build><SourceBasePath>/base</SourceBasePath></Build><Vulnerabilities>");
+    for (int i = 0; i < 1000; i++) {
+      content.append("<Vulnerability><ClassInfo><ClassID>").append(i % 7).append("</ClassID></ClassInfo>")
+        .append("<InstanceInfo><InstanceID>").append(i).append("</InstanceID></InstanceInfo>")
+        .append("<AnalysisInfo><Unified><Trace><Primary><Entry><Node isDefault=\"true\">")
+        .append("<SourceLocation path=\"File").append(i).append(".java\" line=\"").append(i + 1).append("\"/>")
+        .append("</Node></Entry></Primary></Trace></Unified></AnalysisInfo></Vulnerability>\n");
+    }
+    content.append("</Vulnerabilities><Description classID=\"1\"><Abstract>Foo</Abstract></Description></FVDL>");
+    File file = this.temp.newFile();
+    Files.write(content.toString(), file, Charsets.UTF_8);
+
+    List<String> expected = describe(new FvdlStAXParser().parse(new FileInputStream(file)).getVulnerabilities());
+    assertThat(expected).hasSize(1000);
+    for (int threads : new int[] {2, 3, 8}) {
+      final List<Vulnerability> vulnerabilities = new ArrayList<Vulnerability>();
+      new FvdlStAXParser().parse(file, new VulnerabilityHandler() {
+        @Override
+        public void onBuild(Build build) {
+        }
+
+        @Override
+        public void onVulnerability(Vulnerability vulnerability) {
+          vulnerabilities.add(vulnerability);
+        }
+
+        @Override
+        public void onDescription(Description description) {
+        }
+      }, threads, 4096);
+      assertThat(describe(vulnerabilities)).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void parallel_parse_of_latin1_report() throws Exception {
+    StringBuilder content = new StringBuilder("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n<FVDL><Vulnerabilities>");
+    for (int i = 0; i < 600; i++) {
+      content.append("<Vulnerability><ClassInfo><ClassID>").append(i % 7).append("</ClassID></ClassInfo>")
+        .append("<InstanceInfo><InstanceID>").append(i).append("</InstanceID></InstanceInfo>")
+        .append("<AnalysisInfo><Unified><ReplacementDefinitions><Def key=\"k\" value=\"caf\u00e9 ").append(i).append("\"/></ReplacementDefinitions>")
+        .append("<Trace><Primary><Entry><Node isDefault=\"true\">")
+        .append("<SourceLocation path=\"R\u00e9pertoire/File").append(i).append(".java\" line=\"").append(i + 1).append("\"/>")
+        .append("</Node></Entry></Primary></Trace></Unified></AnalysisInfo></Vulnerability>\n");
+    }
+    content.append("</Vulnerabilities></FVDL>");
+    File file = this.temp.newFile();
+    Files.write(content.toString(), file, Charsets.ISO_8859_1);
+
+    List<String> expected = describe(new FvdlStAXParser().parse(new FileInputStream(file)).getVulnerabilities());
+    assertThat(expected).hasSize(600);
+    assertThat(expected.get(0)).contains("R\u00e9pertoire/File0.java").contains("caf\u00e9 0");
+    for (int threads : new int[] {2, 4}) {
+      final List<Vulnerability> vulnerabilities = new ArrayList<Vulnerability>();
+      new FvdlStAXParser().parse(file, new VulnerabilityHandler() {
+        @Override
+        public void onBuild(Build build) {
+        }
+
+        @Override
+        public void onVulnerability(Vulnerability vulnerability) {
+          vulnerabilities.add(vulnerability);
+        }
+
+        @Override
+        public void onDescription(Description description) {
+        }
+      }, threads, 4096);
+      assertThat(describe(vulnerabilities)).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void excluded_vulnerabilities_are_dropped() throws Exception {
+    StringBuilder content = new StringBuilder("<FVDL><Vulnerabilities>");
+    FingerprintSet excluded = new FingerprintSet();
+    for (int i = 0; i < 1000; i++) {
+      content.append("<Vulnerability><ClassInfo><ClassID>").append(i % 7).append("</ClassID></ClassInfo>")
+        .append("<InstanceInfo><InstanceID>").append(i).append("</InstanceID></InstanceInfo>")
+        .append("<AnalysisInfo><Unified><Trace><Primary><Entry><Node isDefault=\"true\">")
+        .append("<SourceLocation path=\"File").append(i).append(".java\" line=\"").append(i + 1).append("\"/>")
+        .append("</Node></Entry></Primary></Trace></Unified></AnalysisInfo></Vulnerability>\n");
+      if (i % 3 == 0) {
+        excluded.add(String.valueOf(i));
+      }
+    }
+    content.append("</Vulnerabilities></FVDL>");
+    File file = this.temp.newFile();
+    Files.write(content.toString(), file, Charsets.UTF_8);
+
+    for (int threads : new int[] {1, 4}) {
+      final List<Vulnerability> vulnerabilities = new ArrayList<Vulnerability>();
+      FvdlStAXParser parser = new FvdlStAXParser();
+      parser.excludeInstanceIDs(excluded);
+      parser.parse(file, new VulnerabilityHandler() {
+        @Override
+        public void onBuild(Build build) {
+        }
+
+        @Override
+        public void onVulnerability(Vulnerability vulnerability) {
+          vulnerabilities.add(vulnerability);
+        }
+
+        @Override
+        public void onDescription(Description description) {
+        }
+      }, threads, 4096);
+      assertThat(vulnerabilities).hasSize(666);
+      for (Vulnerability vulnerability : vulnerabilities) {
+        assertThat(excluded.contains(vulnerability.getInstanceID())).isFalse();
+        // ordinals still refer to the position in the report
+        assertThat(String.valueOf(vulnerability.getOrdinal())).isEqualTo(vulnerability.getInstanceID());
+        assertThat(vulnerability.getLine()).isEqualTo(vulnerability.getOrdinal() + 1);
+      }
+    }
+  }
+
+  @Test
+  public void rejected_vulnerabilities_are_dropped() throws Exception {
+    StringBuilder content = new StringBuilder("<FVDL><Vulnerabilities>");
+    for (int i = 0; i < 600; i++) {
+      content.append("<Vulnerability><ClassInfo><ClassID>").append(i % 3).append("</ClassID><Kingdom>K").append(i % 3).append("</Kingdom></ClassInfo>")
+        .append("<InstanceInfo><InstanceID>").append(i).append("</InstanceID><InstanceSeverity>").append(i % 2 == 0 ? "5.0" : "1.0")
+        .append("</InstanceSeverity><Confidence>").append(i % 5).append(".0</Confidence></InstanceInfo>")
+        .append("<AnalysisInfo><Unified><Trace><Primary><Entry><Node isDefault=\"true\">")
+        .append("<SourceLocation path=\"").append(i % 4 == 0 ? "test" : "src").append("/File").append(i).append(".java\" line=\"1\"/>")
+        .append("</Node></Entry></Primary></Trace></Unified></AnalysisInfo></Vulnerability>\n");
+    }
+    content.append("</Vulnerabilities></FVDL>");
+    File file = this.temp.newFile();
+    Files.write(content.toString(), file, Charsets.UTF_8);
+    VulnerabilityFilter filter = VulnerabilityFilter.compile("kingdom!=K1; severity=BLOCKER; confidence>=1; path!=test/**", null);
+
+    for (int threads : new int[] {1, 3}) {
+      final List<Vulnerability> vulnerabilities = new ArrayList<Vulnerability>();
+      FvdlStAXParser parser = new FvdlStAXParser();
+      parser.setFilter(filter);
+      parser.parse(file, new VulnerabilityHandler() {
+        @Override
+        public void onBuild(Build build) {
+        }
+
+        @Override
+        public void onVulnerability(Vulnerability vulnerability) {
+          vulnerabilities.add(vulnerability);
+        }
+
+        @Override
+        public void onDescription(Description description) {
+        }
+      }, threads, 4096);
+      int expected = 0;
+      for (int i = 0; i < 600; i++) {
+        if (i % 3 != 1 && i % 2 == 0 && i % 5 >= 1 && i % 4 != 0) {
+          assertThat(vulnerabilities.get(expected).getOrdinal()).isEqualTo(i);
+          expected++;
+        }
+      }
+      assertThat(vulnerabilities).hasSize(expected);
+    }
+  }
+
+  @Test
+  public void node_references_are_resolved_from_pool() throws Exception {
+    StringBuilder content = new StringBuilder("<FVDL><Vulnerabilities>");
+    for (int i = 0; i < 500; i++) {
+      content.append("<Vulnerability><InstanceInfo><InstanceID>").append(i).append("</InstanceID></InstanceInfo>")
+        .append("<AnalysisInfo><Unified><Trace><Primary>");
+      if (i % 5 == 0) {
+        content.append("<Entry><Node isDefault=\"true\"><SourceLocation path=\"src/Inline").append(i).append(".java\" line=\"7\"/></Node></Entry>");
+      } else {
+        content.append("<Entry><NodeRef id=\"").append(i * 2).append("\"/></Entry>")
+          .append("<Entry><NodeRef id=\"").append(i * 2 + 1).append("\"").append(i % 2 == 0 ? " isDefault=\"true\"" : "").append("/></Entry>")
+          .append("<Entry><NodeRef id=\"").append(i * 2).append("\"/></Entry>");
+      }
+      content.append("</Primary></Trace></Unified></AnalysisInfo></Vulnerability>\n");
+    }
+    content.append("</Vulnerabilities><UnifiedNodePool>");
+    for (int id = 0; id < 1000; id++) {
+      content.append("<Node id=\"").append(id).append("\"><SourceLocation path=\"").append(id % 3 == 0 ? "test" : "src")
+        .append("/Node").append(id).append(".java\" line=\"").append(id).append("\" snippet=\"S").append(id).append("\"/>")
+        .append("<Action type=\"InCall\">foo</Action></Node>");
+    }
+    content.append("</UnifiedNodePool><Description classID=\"1\"><Abstract>Foo</Abstract></Description></FVDL>");
+    File file = this.temp.newFile();
+    Files.write(content.toString(), file, Charsets.UTF_8);
+
+    for (int threads : new int[] {1, 4}) {
+      final List<Vulnerability> vulnerabilities = new ArrayList<Vulnerability>();
+      FvdlStAXParser parser = new FvdlStAXParser();
+      parser.setFilter(VulnerabilityFilter.compile("path!=test/**", null));
+      parser.parse(file, new VulnerabilityHandler() {
+        @Override
+        public void onBuild(Build build) {
+        }
+
+        @Override
+        public void onVulnerability(Vulnerability vulnerability) {
+          vulnerabilities.add(vulnerability);
+        }
+
+        @Override
+        public void onDescription(Description description) {
+        }
+      }, threads, 4096);
+      int expected = 0;
+      for (int i = 0; i < 500; i++) {
+        int node = i % 2 == 0 ? i * 2 + 1 : i * 2;
+        if (i % 5 == 0) {
+          Vulnerability vulnerability = vulnerabilities.get(expected++);
+          assertThat(vulnerability.getPath()).isEqualTo("src/Inline" + i + ".java");
+          assertThat(vulnerability.getLine()).isEqualTo(7);
+        } else if (node % 3 != 0) {
+          Vulnerability vulnerability = vulnerabilities.get(expected++);
+          assertThat(vulnerability.getOrdinal()).isEqualTo(i);
+          assertThat(vulnerability.getPath()).isEqualTo("src/Node" + node + ".java");
+          assertThat(vulnerability.getLine()).isEqualTo(node);
+          assertThat(vulnerability.getSnippetID()).isEqualTo("S" + node);
+        }
+      }
+      assertThat(vulnerabilities).hasSize(expected);
+    }
+  }
+
+  @Test
+  public void held_vulnerabilities_are_written_to_work_dir() throws Exception {
+    final File workDir = this.temp.newFolder();
+    final List<String> vulnerabilities = new ArrayList<String>();
+    FvdlStAXParser parser = new FvdlStAXParser();
+    parser.setWorkDir(workDir);
+    parser.reuseVulnerabilities(true);
+    parser.parse(new ByteArrayInputStream(("<FVDL><Vulnerabilities>"
+      + "<Vulnerability><ClassInfo><ClassID>1</ClassID></ClassInfo><InstanceInfo><InstanceID>1</InstanceID></InstanceInfo>"
+      + "<AnalysisInfo><Unified><Trace><Primary><Entry><NodeRef id=\"3\"/></Entry></Primary></Trace></Unified></AnalysisInfo></Vulnerability>"
+      + "<Vulnerability><ClassInfo><ClassID>1</ClassID></ClassInfo><InstanceInfo><InstanceID>2</InstanceID></InstanceInfo></Vulnerability>"
+      + "</Vulnerabilities><UnifiedNodePool><Node id=\"3\"><SourceLocation path=\"src/Foo.java\" line=\"4\"/></Node></UnifiedNodePool></FVDL>")
+      .getBytes(Charsets.UTF_8)), new VulnerabilityRecordHandler() {
+        @Override
+        public void onBuild(Build build) {
+        }
+
+        @Override
+        public void onVulnerability(Vulnerability vulnerability) {
+          assertThat(workDir.listFiles()).hasSize(1);
+          vulnerabilities.add(vulnerability.getInstanceID() + "|" + vulnerability.getPath() + "|" + vulnerability.getLine());
+        }
+
+        @Override
+        public void onDescription(Description description) {
+        }
+      });
+
+    assertThat(vulnerabilities).containsExactly("1|src/Foo.java|4", "2|null|null");
+    assertThat(workDir.listFiles()).isEmpty();
+  }
+
+  @Test
+  public void unresolved_node_references_are_handed_over_at_the_end() throws Exception {
+    Fvdl fvdl = new FvdlStAXParser().parse(new ByteArrayInputStream(("<FVDL><Vulnerabilities>"
+      + "<Vulnerability><AnalysisInfo><Unified><Trace><Primary><Entry><NodeRef id=\"3\"/></Entry></Primary></Trace></Unified></AnalysisInfo></Vulnerability>"
+      + "<Vulnerability><InstanceInfo><InstanceID>2</InstanceID></InstanceInfo></Vulnerability>"
+      + "</Vulnerabilities></FVDL>").getBytes(Charsets.UTF_8)));
+
+    assertThat(fvdl.getVulnerabilities()).hasSize(2);
+    Vulnerability vulnerability = fvdl.getVulnerabilities().iterator().next();
+    assertThat(vulnerability.getNodeRef()).isEqualTo(3);
+    assertThat(vulnerability.getPath()).isNull();
+  }
+
+  @Test
+  public void location_without_line() throws Exception {
+    String content = "<FVDL><Vulnerabilities><Vulnerability><InstanceInfo><InstanceID>1</InstanceID></InstanceInfo>"
+      + "<AnalysisInfo><Unified><Trace><Primary><Entry><Node isDefault=\"true\"><SourceLocation path=\"src/Foo.java\"/></Node></Entry>"
+      + "</Primary></Trace></Unified></AnalysisInfo></Vulnerability></Vulnerabilities></FVDL>";
+    for (StaxBackend backend : new StaxBackend[] {StaxBackend.JDK, StaxBackend.WOODSTOX}) {
+      Fvdl fvdl = new FvdlStAXParser(backend).parse(new ByteArrayInputStream(content.getBytes(Charsets.UTF_8)));
+
+      Vulnerability vulnerability = fvdl.getVulnerabilities().iterator().next();
+      assertThat(vulnerability.getPath()).isEqualTo("src/Foo.java");
+      assertThat(vulnerability.getLine()).isNull();
+    }
+  }
+
+  @Test
+  public void empty_and_nested_sections() throws Exception {
+    String content = "<FVDL><Vulnerabilities/><Other><Vulnerabilities><Vulnerability/></Vulnerabilities></Other>"
+      + "<Vulnerabilities>\n<!-- none --></Vulnerabilities>"
+      + "<Vulnerabilities><Vulnerability><InstanceInfo><InstanceID>1</InstanceID></InstanceInfo><Other><Vulnerability/></Other>"
+      + "</Vulnerability><Vulnerability/></Vulnerabilities><UnifiedNodePool/>"
+      + "<Build><Other><SourceBasePath>/other</SourceBasePath></Other><sourcebasepath> /base </sourcebasepath></Build>"
+      + "<Description classID=\"1\"><Abstract/></Description></FVDL>";
+    for (StaxBackend backend : new StaxBackend[] {StaxBackend.JDK, StaxBackend.WOODSTOX}) {
+      for (boolean reuse : new boolean[] {false, true}) {
+        RecordingHandler handler = new RecordingHandler();
+        FvdlStAXParser parser = new FvdlStAXParser(backend);
+        parser.reuseVulnerabilities(reuse);
+        parser.parse(new ByteArrayInputStream(content.getBytes(Charsets.UTF_8)), handler);
+
+        assertThat(handler.vulnerabilities).containsExactly("null|null|null|null|1|null|null|null|0|null", "null|null|null|null|null|null|null|null|1|null");
+        assertThat(handler.build.getSourceBasePath()).isEqualTo("/base");
+        assertThat(handler.descriptions).containsExactly("1|");
+      }
+    }
+  }
+
+  @Test
+  public void reused_records_give_same_result_as_distinct_instances() throws Exception {
+    String content = recordReport();
+    for (StaxBackend backend : new StaxBackend[] {StaxBackend.JDK, StaxBackend.WOODSTOX}) {
+      for (String filter : new String[] {null, "kingdom!=K1; severity>=MAJOR; confidence>=1; path!=test/**"}) {
+        RecordingHandler expected = new RecordingHandler();
+        FvdlStAXParser parser = new FvdlStAXParser(backend);
+        parser.setFilter(VulnerabilityFilter.compile(filter, null));
+        parser.parse(new ByteArrayInputStream(content.getBytes(Charsets.UTF_8)), expected);
+
+        RecordingHandler actual = new RecordingHandler();
+        parser = new FvdlStAXParser(backend);
+        parser.setFilter(VulnerabilityFilter.compile(filter, null));
+        parser.reuseVulnerabilities(true);
+        parser.parse(new ByteArrayInputStream(content.getBytes(Charsets.UTF_8)), actual);
+
+        assertThat(expected.records).isGreaterThan(1);
+        assertThat(actual.records).isEqualTo(1);
+        assertThat(actual.vulnerabilities).isEqualTo(expected.vulnerabilities);
+        assertThat(actual.descriptions).isEqualTo(expected.descriptions).hasSize(2);
+        assertThat(actual.build.getSourceBasePath()).isEqualTo("/base");
+      }
+    }
+  }
+
+  @Test
+  public void scanner_gives_same_result_as_stax() throws Exception {
+    File synthetic = this.temp.newFile();
+    Files.write(recordReport(), synthetic, Charsets.UTF_8);
+    List<File> files = Arrays.asList(synthetic, new File(getClass().getClassLoader().getResource("report/dummy-report.xml").toURI()),
+      new File(getClass().getClassLoader().getResource("project/audit-simple.fvdl").toURI()));
+    for (File file : files) {
+      for (String filter : new String[] {null, "kingdom!=K1; severity>=MAJOR; confidence>=1; path!=test/**"}) {
+        for (boolean reuse : new boolean[] {false, true}) {
+          RecordingHandler expected = new RecordingHandler();
+          FvdlStAXParser parser = new FvdlStAXParser();
+          parser.setFilter(VulnerabilityFilter.compile(filter, null));
+          parser.reuseVulnerabilities(reuse);
+          InputStream input = new FileInputStream(file);
+          try {
+            parser.parse(input, expected);
+          } finally {
+            input.close();
+          }
+
+          RecordingHandler actual = new RecordingHandler();
+          parser = new FvdlStAXParser();
+          parser.setFilter(VulnerabilityFilter.compile(filter, null));
+          parser.reuseVulnerabilities(reuse);
+          assertThat(parser.scan(file, actual)).isTrue();
+
+          assertThat(actual.vulnerabilities).isEqualTo(expected.vulnerabilities);
+          assertThat(actual.records).isEqualTo(expected.records);
+          assertThat(actual.descriptions).isEqualTo(expected.descriptions);
+          assertThat(actual.build.getSourceBasePath()).isEqualTo(expected.build.getSourceBasePath());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void scanner_skips_utf16_reports() throws Exception {
+    File file = this.temp.newFile();
+    Files.write("<FVDL/>", file, Charsets.UTF_16);
+    assertThat(new FvdlStAXParser().scan(file, new RecordingHandler())).isFalse();
+  }
+
+  /**
+   * Report with classifications shared by several vulnerabilities, filtered and referenced locations, and escaped texts
+   */
+  private static String recordReport() {
+    StringBuilder content = new StringBuilder("<FVDL><Build><SourceBasePath>/base</SourceBasePath></Build><Vulnerabilities>");
+    for (int i = 0; i < 300; i++) {
+      content.append("<Vulnerability><ClassInfo><ClassID>").append(i % 7).append("</ClassID><Kingdom> K").append(i % 2).append(" </Kingdom>")
+        .append(i == 5 ? "<Type>Other</Type>" : "").append("</ClassInfo>")
+        .append("<InstanceInfo><InstanceID>").append(i).append("</InstanceID><InstanceSeverity>").append(i % 6).append(".0</InstanceSeverity>")
+        .append("<Confidence>").append(i % 5).append("</Confidence></InstanceInfo>")
+        .append("<AnalysisInfo><Unified><Context/><Trace><Primary><Entry><Node><SourceLocation path=\"Other.java\" line=\"3\"/></Node></Entry>");
+      if (i >= 290 && i % 2 == 0) {
+        content.append("<Entry><NodeRef id=\"").append(i).append("\"/></Entry>");
+      } else {
+        content.append("<Entry/><Entry><Node isDefault=\"true\"><SourceLocation path=\"").append(i % 3 == 0 ? "test" : "src").append("/File&amp;")
+          .append(i % 10).append(".java\" line=\"").append(i * 1000).append("\" snippet=\"S").append(i).append("\"/><Action>call</Action></Node></Entry><!-- <Entry/> -->");
+      }
+      content.append("</Primary></Trace><ReplacementDefinitions>");
+      for (int j = 0; j < i % 3; j++) {
+        content.append("<Def key=\"Key").append(j).append("\" value=\"").append(i).append('/').append(j).append("\"/>");
+      }
+      content.append("</ReplacementDefinitions></Unified></AnalysisInfo></Vulnerability>\n");
+    }
+    content.append("</Vulnerabilities><UnifiedNodePool>");
+    for (int id = 290; id < 300; id += 2) {
+      content.append("<Node id=\"").append(id).append("\"><SourceLocation path=\"src/Node").append(id).append(".java\" line=\"").append(id).append("\"/></Node>");
+    }
+    content.append("</UnifiedNodePool><Description classID=\"1\"><Abstract>Foo &amp; <![CDATA[<b>]]><Paragraph>Bar</Paragraph><!-- c --></Abstract></Description>")
+      .append("<Description classID=\"2\"><Abstract>Bar</Abstract></Description></FVDL>");
+    return content.toString();
+  }
+
+  private static class RecordingHandler implements VulnerabilityRecordHandler {
+    private final List<String> vulnerabilities = new ArrayList<String>();
+    private final Map<Vulnerability, Boolean> instances = new IdentityHashMap<Vulnerability, Boolean>();
+    private int records = 0;
+    private final List<String> descriptions = new ArrayList<String>();
+    private Build build;
+
+    @Override
+    public void onBuild(Build build) {
+      this.build = build;
+    }
+
+    @Override
+    public void onVulnerability(Vulnerability vulnerability) {
+      // vulnerabilities which refer to the node pool are held in a file until the pool is read, then read back as new instances
+      if (vulnerability.getOrdinal() < 290 && this.instances.put(vulnerability, Boolean.TRUE) == null) {
+        this.records++;
+      }
+      this.vulnerabilities.add(describe(Arrays.asList(vulnerability)).get(0) + "|" + vulnerability.getOrdinal() + "|" + vulnerability.getSnippetID());
+    }
+
+    @Override
+    public void onDescription(Description description) {
+      this.descriptions.add(description.getClassID() + "|" + description.getAbstract());
+    }
+  }
+
+  private static List<String> describe(Collection<Vulnerability> vulnerabilities) {
+    List<String> result = new ArrayList<String>();
+    for (Vulnerability vulnerability : vulnerabilities) {
+      StringBuilder sb = new StringBuilder()
+        .append(vulnerability.getClassID()).append('|')
+        .append(vulnerability.getKingdom()).append('|')
+        .append(vulnerability.getType()).append('|')
+        .append(vulnerability.getSubtype()).append('|')
+        .append(vulnerability.getInstanceID()).append('|')
+        .append(vulnerability.getInstanceSeverity()).append('|')
+        .append(vulnerability.getPath()).append('|')
+        .append(vulnerability.getLine());
+      for (ReplacementDefinition replacementDefinition : vulnerability.getReplacementDefinitions()) {
+        sb.append('|').append(replacementDefinition.getKey()).append('=').append(replacementDefinition.getValue());
+      }
+      result.add(sb.toString());
+    }
+    return result;
+  }
+
 }
@@ -0,0 +1,58 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class IntColumnTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void values_are_kept_when_spilled() throws Exception {
+    IntColumn column = new IntColumn(4);
+    column.ensureCapacity(1000);
+    for (int i = 0; i < 1000; i++) {
+      column.set(i, i * 3);
+    }
+    assertThat(column.heapBytes()).isGreaterThanOrEqualTo(4000L);
+
+    SpillFile file = new SpillFile(this.temp.getRoot());
+    try {
+      column.spill(file);
+      assertThat(column.heapBytes()).isEqualTo(0L);
+      column.ensureCapacity(200000);
+      assertThat(column.capacity()).isGreaterThanOrEqualTo(200000);
+      column.set(199999, -1);
+      for (int i = 0; i < 1000; i++) {
+        assertThat(column.get(i)).isEqualTo(i * 3);
+      }
+      assertThat(column.get(199999)).isEqualTo(-1);
+    } finally {
+      file.close();
+    }
+    assertThat(file.getFile()).doesNotExist();
+  }
+}
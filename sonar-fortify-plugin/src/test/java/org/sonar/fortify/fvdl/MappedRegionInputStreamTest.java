@@ -0,0 +1,67 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.InputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class MappedRegionInputStreamTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void region_is_read_through_windows() throws Exception {
+    File file = this.temp.newFile();
+    Files.write("headerABCDEFGHIJKLMNOPtrailer", file, Charsets.UTF_8);
+    FileRegion region = new FileRegion(file, 6, 16);
+
+    InputStream input = new MappedRegionInputStream(region, 5);
+    try {
+      assertThat(new String(ByteStreams.toByteArray(input), Charsets.UTF_8)).isEqualTo("ABCDEFGHIJKLMNOP");
+      assertThat(input.read()).isEqualTo(-1);
+    } finally {
+      input.close();
+    }
+
+    input = new MappedRegionInputStream(region, 5);
+    try {
+      assertThat(input.read()).isEqualTo('A');
+      assertThat(input.skip(7)).isEqualTo(7);
+      byte[] buffer = new byte[10];
+      // reads do not cross windows
+      assertThat(input.read(buffer, 0, 10)).isEqualTo(2);
+      assertThat(new String(buffer, 0, 2, Charsets.UTF_8)).isEqualTo("IJ");
+      assertThat(input.skip(100)).isEqualTo(6);
+      assertThat(input.read(buffer, 0, 10)).isEqualTo(-1);
+    } finally {
+      input.close();
+    }
+  }
+}
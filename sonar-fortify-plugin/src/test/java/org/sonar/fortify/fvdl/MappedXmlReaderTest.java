@@ -0,0 +1,157 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.xml.stream.XMLStreamException;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class MappedXmlReaderTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private MappedXmlReader open(String content) throws IOException {
+    File file = this.temp.newFile();
+    Files.write(content, file, Charsets.UTF_8);
+    return MappedXmlReader.open(file);
+  }
+
+  @Test
+  public void elements_are_read_in_document_order() throws Exception {
+    MappedXmlReader reader = open("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!DOCTYPE a [<!ELEMENT a ANY>]><!-- <b/> -->"
+      + "<f:a xmlns:f=\"urn:f\"><?pi <c/>?><b/><c><d>text</d></c><e/></f:a>");
+    try {
+      assertThat(reader.nextChild()).isTrue();
+      assertThat(reader.isElement("a")).isTrue();
+      assertThat(reader.nextChild()).isTrue();
+      assertThat(reader.isElement("b")).isTrue();
+      assertThat(reader.nextChild()).isFalse();
+      assertThat(reader.nextChild()).isTrue();
+      assertThat(reader.isElement("c")).isTrue();
+      reader.skipElement();
+      assertThat(reader.nextChild()).isTrue();
+      assertThat(reader.isElement("e")).isTrue();
+      assertThat(reader.isElementIgnoreCase("E")).isTrue();
+      reader.skipElement();
+      assertThat(reader.nextChild()).isFalse();
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void texts_are_decoded() throws Exception {
+    MappedXmlReader reader = open("<a><b> café &amp; &lt;&#65;&#x42;&gt; </b><c>x<![CDATA[<y>&amp;]]><d>z</d>\r\n</c><e/></a>");
+    try {
+      reader.nextChild();
+      reader.nextChild();
+      assertThat(reader.getElementText()).isEqualTo(" café & <AB> ");
+      reader.nextChild();
+      assertThat(reader.getElementText()).isEqualTo("x<y>&amp;z\n");
+      reader.nextChild();
+      assertThat(reader.getElementText()).isEqualTo("");
+      assertThat(reader.nextChild()).isFalse();
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void attributes_are_decoded() throws Exception {
+    MappedXmlReader reader = open("<a id = ' 42 ' line=\"x\" big=\"99999999999\" path=\"a&quot;b&#x9;c\td\" isDefault=\"true\" other='1'>"
+      + "<b isDefault=\"false\"/></a>");
+    try {
+      reader.nextChild();
+      assertThat(reader.getAttributeAsInt("id", -1)).isEqualTo(42);
+      assertThat(reader.getAttributeAsInt("line", -1)).isEqualTo(-1);
+      assertThat(reader.getAttributeAsInt("big", -1)).isEqualTo(-1);
+      assertThat(reader.getAttributeAsInt("missing", -1)).isEqualTo(-1);
+      assertThat(reader.getAttribute("path")).isEqualTo("a\"b\tc d");
+      assertThat(reader.getAttribute("missing")).isNull();
+      assertThat(reader.getAttributeAsBoolean("isDefault")).isTrue();
+      assertThat(reader.getAttributeAsBoolean("other")).isTrue();
+      assertThat(reader.getAttributeAsBoolean("missing")).isFalse();
+      reader.nextChild();
+      assertThat(reader.getAttributeAsBoolean("isDefault")).isFalse();
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void doubles_are_parsed_like_strings() throws Exception {
+    String[] values = {"3.0", " 2.5 ", "-0.1", "4", "0.123456789012345678", "1e3", "12345678901234567890"};
+    StringBuilder content = new StringBuilder("<a>");
+    for (String value : values) {
+      content.append("<v>").append(value).append("</v>");
+    }
+    MappedXmlReader reader = open(content.append("</a>").toString());
+    try {
+      reader.nextChild();
+      for (String value : values) {
+        reader.nextChild();
+        assertThat(reader.getElementAsDouble()).isEqualTo(Double.parseDouble(value.trim()));
+      }
+      assertThat(reader.nextChild()).isFalse();
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test(expected = XMLStreamException.class)
+  public void truncated_document() throws Exception {
+    MappedXmlReader reader = open("<a><b>");
+    try {
+      reader.nextChild();
+      reader.skipElement();
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void only_utf8_documents_are_scanned() throws Exception {
+    File utf16 = this.temp.newFile();
+    Files.write("<a/>", utf16, Charsets.UTF_16);
+    assertThat(MappedXmlReader.open(utf16)).isNull();
+
+    File latin1 = this.temp.newFile();
+    Files.write("<?xml version='1.0' encoding='ISO-8859-1'?><a/>", latin1, Charsets.ISO_8859_1);
+    assertThat(MappedXmlReader.open(latin1)).isNull();
+
+    MappedXmlReader reader = open("\uFEFF<?xml version='1.0' encoding='utf-8'?><a/>");
+    try {
+      assertThat(reader.nextChild()).isTrue();
+      assertThat(reader.isElement("a")).isTrue();
+    } finally {
+      reader.close();
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import org.junit.Test;
+import org.sonar.fortify.fvdl.element.Vulnerability;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class NodePoolTest {
+
+  private final NodePool pool = new NodePool();
+
+  @Test
+  public void find_nodes_by_id() {
+    for (int id = 0; id < 10000; id++) {
+      this.pool.add(id * 7 - 3, "File" + id + ".java", id, "S" + id);
+    }
+    this.pool.add(Integer.MIN_VALUE, null, NodePool.NO_LINE, null);
+
+    assertThat(this.pool.size()).isEqualTo(10001);
+    for (int id = 0; id < 10000; id++) {
+      int index = this.pool.indexOf(id * 7 - 3);
+      assertThat(this.pool.getPath(index)).isEqualTo("File" + id + ".java");
+      assertThat(this.pool.getLine(index)).isEqualTo(id);
+      assertThat(this.pool.getSnippetID(index)).isEqualTo("S" + id);
+    }
+    assertThat(this.pool.indexOf(1)).isEqualTo(-1);
+    assertThat(this.pool.getPath(this.pool.indexOf(Integer.MIN_VALUE))).isNull();
+  }
+
+  @Test
+  public void replace_node_with_same_id() {
+    this.pool.add(5, "Old.java", 1, null);
+    this.pool.add(5, "New.java", 2, null);
+
+    assertThat(this.pool.size()).isEqualTo(1);
+    assertThat(this.pool.getPath(this.pool.indexOf(5))).isEqualTo("New.java");
+  }
+
+  @Test
+  public void bind_vulnerability_to_node() {
+    this.pool.add(5, "File.java", 12, "S5");
+    this.pool.add(6, "Other.java", NodePool.NO_LINE, null);
+    Vulnerability vulnerability = new Vulnerability();
+
+    assertThat(this.pool.bind(vulnerability)).isFalse();
+    vulnerability.setNodeRef(4);
+    assertThat(this.pool.bind(vulnerability)).isFalse();
+    vulnerability.setNodeRef(5);
+    assertThat(this.pool.bind(vulnerability)).isTrue();
+    assertThat(vulnerability.getPath()).isEqualTo("File.java");
+    assertThat(vulnerability.getLine()).isEqualTo(12);
+    assertThat(vulnerability.getSnippetID()).isEqualTo("S5");
+    vulnerability.setNodeRef(6);
+    assertThat(this.pool.bind(vulnerability)).isTrue();
+    assertThat(vulnerability.getLine()).isNull();
+  }
+}
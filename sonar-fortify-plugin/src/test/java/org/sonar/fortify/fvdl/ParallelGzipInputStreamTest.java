@@ -0,0 +1,166 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ParallelGzipInputStreamTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void read_sized_blocks_concurrently() throws IOException {
+    byte[] content = content(200000);
+    File file = this.temp.newFile("audit.fvdl.gz");
+    writeBlocks(file, content, 1000, false);
+
+    assertThat(read(file, 4)).isEqualTo(content);
+    assertThat(read(file, 1)).isEqualTo(content);
+  }
+
+  @Test
+  public void skip_name_comment_and_header_crc_of_blocks() throws IOException {
+    byte[] content = content(20000);
+    File file = this.temp.newFile("audit.fvdl.gz");
+    OutputStream output = new FileOutputStream(file);
+    try {
+      writeBlock(output, Arrays.copyOfRange(content, 0, 10000), false, true);
+      writeBlock(output, Arrays.copyOfRange(content, 10000, 20000), false, false);
+      writeBlock(output, new byte[0], false, true);
+    } finally {
+      output.close();
+    }
+
+    assertThat(read(file, 4)).isEqualTo(content);
+  }
+
+  @Test
+  public void read_plain_gzip_file() throws IOException {
+    byte[] content = content(50000);
+    File file = this.temp.newFile("audit.fvdl.gz");
+    OutputStream output = new GZIPOutputStream(new FileOutputStream(file));
+    try {
+      output.write(content);
+    } finally {
+      output.close();
+    }
+
+    InputStream input = ParallelGzipInputStream.open(file, 1024, 4);
+    try {
+      assertThat(input instanceof ParallelGzipInputStream).isFalse();
+      assertThat(ByteStreams.toByteArray(input)).isEqualTo(content);
+    } finally {
+      input.close();
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void fail_on_corrupt_block() throws IOException {
+    File file = this.temp.newFile("audit.fvdl.gz");
+    writeBlocks(file, content(10000), 1000, true);
+
+    read(file, 4);
+  }
+
+  private static byte[] read(File file, int threads) throws IOException {
+    InputStream input = ParallelGzipInputStream.open(file, 1024, threads);
+    try {
+      assertThat(input instanceof ParallelGzipInputStream).isEqualTo(threads > 1);
+      return ByteStreams.toByteArray(input);
+    } finally {
+      input.close();
+    }
+  }
+
+  private static byte[] content(int size) {
+    byte[] content = new byte[size];
+    for (int i = 0; i < size; i++) {
+      content[i] = (byte) ("<Vulnerability/>".charAt(i % 16) + (i / 4096) % 3);
+    }
+    return content;
+  }
+
+  /**
+   * Writes the content as gzip members of <code>blockSize</code> bytes with a BC extra field, followed by an empty member.
+   */
+  private static void writeBlocks(File file, byte[] content, int blockSize, boolean corruptCrc) throws IOException {
+    OutputStream output = new FileOutputStream(file);
+    try {
+      for (int start = 0; start < content.length; start += blockSize) {
+        writeBlock(output, Arrays.copyOfRange(content, start, Math.min(content.length, start + blockSize)), corruptCrc, false);
+      }
+      writeBlock(output, new byte[0], false, false);
+    } finally {
+      output.close();
+    }
+  }
+
+  /**
+   * @param optionalFields whether the header has a file name, a comment and a header CRC after the extra field
+   */
+  private static void writeBlock(OutputStream output, byte[] data, boolean corruptCrc, boolean optionalFields) throws IOException {
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    deflater.setInput(data);
+    deflater.finish();
+    ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    while (!deflater.finished()) {
+      deflated.write(buffer, 0, deflater.deflate(buffer));
+    }
+    deflater.end();
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    byte[] fields = optionalFields ? new byte[] {'a', '.', 'f', 'v', 'd', 'l', 0, 'c', 0, 0x12, 0x34} : new byte[0];
+    int totalSize = 18 + fields.length + deflated.size() + 8;
+    output.write(new byte[] {0x1f, (byte) 0x8b, 8, (byte) (optionalFields ? 4 | 8 | 16 | 2 : 4), 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0});
+    writeShort(output, totalSize - 1);
+    output.write(fields);
+    deflated.writeTo(output);
+    writeInt(output, (int) crc.getValue() + (corruptCrc ? 1 : 0));
+    writeInt(output, data.length);
+  }
+
+  private static void writeShort(OutputStream output, int value) throws IOException {
+    output.write(value & 0xff);
+    output.write((value >> 8) & 0xff);
+  }
+
+  private static void writeInt(OutputStream output, int value) throws IOException {
+    writeShort(output, value & 0xffff);
+    writeShort(output, (value >>> 16) & 0xffff);
+  }
+}
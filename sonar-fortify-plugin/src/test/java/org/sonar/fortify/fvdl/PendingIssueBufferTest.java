@@ -0,0 +1,129 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.fortify.fvdl.element.ReplacementDefinition;
+import org.sonar.fortify.fvdl.element.Vulnerability;
+import org.sonar.fortify.fvdl.element.VulnerabilityClass;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PendingIssueBufferTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void replay_issues_in_order() throws Exception {
+    File workDir = this.temp.newFolder();
+    PendingIssueBuffer buffer = new PendingIssueBuffer(workDir);
+
+    Vulnerability first = new Vulnerability();
+    first.setVulnerabilityClass(new VulnerabilityClass("class", "Code Quality", null, null));
+    first.setInstanceID("1");
+    first.setPath("src/Foo.java");
+    first.setLine(12);
+    first.setOrdinal(3);
+    first.setSnippetID("snippet");
+    first.addReplacementDefinition(new ReplacementDefinition("key", "value"));
+    Vulnerability second = new Vulnerability();
+    second.setInstanceID("2");
+
+    buffer.add("src/Foo.java", RuleKey.of("fortify-java", "rule"), first);
+    buffer.add("src/Bar.java", RuleKey.of("fortify-java", "other"), second);
+    assertThat(buffer.size()).isEqualTo(2);
+    assertThat(workDir.listFiles()).hasSize(1);
+
+    final List<String> relativePaths = new ArrayList<String>();
+    final List<RuleKey> ruleKeys = new ArrayList<RuleKey>();
+    final List<Vulnerability> vulnerabilities = new ArrayList<Vulnerability>();
+    buffer.replay(new PendingIssueBuffer.Consumer() {
+      @Override
+      public void accept(String relativePath, RuleKey ruleKey, Vulnerability vulnerability) {
+        relativePaths.add(relativePath);
+        ruleKeys.add(ruleKey);
+        vulnerabilities.add(vulnerability);
+      }
+    });
+    buffer.close();
+
+    assertThat(relativePaths).containsExactly("src/Foo.java", "src/Bar.java");
+    assertThat(ruleKeys).containsExactly(RuleKey.of("fortify-java", "rule"), RuleKey.of("fortify-java", "other"));
+    Vulnerability replayed = vulnerabilities.get(0);
+    assertThat(replayed.getClassID()).isEqualTo("class");
+    assertThat(replayed.getKingdom()).isEqualTo("Code Quality");
+    assertThat(replayed.getType()).isNull();
+    assertThat(replayed.getInstanceID()).isEqualTo("1");
+    assertThat(replayed.getPath()).isEqualTo("src/Foo.java");
+    assertThat(replayed.getLine()).isEqualTo(12);
+    assertThat(replayed.getOrdinal()).isEqualTo(3);
+    assertThat(replayed.getSnippetID()).isEqualTo("snippet");
+    assertThat(replayed.getReplacementDefinitions()).hasSize(1);
+    assertThat(replayed.getReplacementDefinitions().iterator().next().getValue()).isEqualTo("value");
+    assertThat(vulnerabilities.get(1).getLine()).isNull();
+    assertThat(vulnerabilities.get(1).getSnippetID()).isNull();
+    assertThat(workDir.listFiles()).isEmpty();
+  }
+
+  @Test
+  public void classifications_are_shared() throws Exception {
+    PendingIssueBuffer buffer = new PendingIssueBuffer(this.temp.newFolder());
+    for (int i = 0; i < 4; i++) {
+      Vulnerability vulnerability = new Vulnerability();
+      vulnerability.setVulnerabilityClass(new VulnerabilityClass("class" + (i % 2), "Code Quality", "Type", null));
+      vulnerability.setInstanceID(Integer.toString(i));
+      buffer.add("src/Foo.java", RuleKey.of("fortify-java", "rule"), vulnerability);
+    }
+
+    final List<Vulnerability> vulnerabilities = new ArrayList<Vulnerability>();
+    buffer.replay(new PendingIssueBuffer.Consumer() {
+      @Override
+      public void accept(String relativePath, RuleKey ruleKey, Vulnerability vulnerability) {
+        vulnerabilities.add(vulnerability);
+      }
+    });
+    buffer.close();
+
+    assertThat(vulnerabilities).hasSize(4);
+    assertThat(vulnerabilities.get(0).getClassID()).isEqualTo("class0");
+    assertThat(vulnerabilities.get(1).getClassID()).isEqualTo("class1");
+    assertThat(vulnerabilities.get(2).getVulnerabilityClass()).isSameAs(vulnerabilities.get(0).getVulnerabilityClass());
+    assertThat(vulnerabilities.get(3).getVulnerabilityClass()).isSameAs(vulnerabilities.get(1).getVulnerabilityClass());
+    assertThat(vulnerabilities.get(3).getInstanceID()).isEqualTo("3");
+  }
+
+  @Test
+  public void no_file_when_empty() throws Exception {
+    File workDir = this.temp.newFolder();
+    PendingIssueBuffer buffer = new PendingIssueBuffer(workDir);
+    buffer.replay(null);
+    buffer.close();
+    assertThat(buffer.size()).isEqualTo(0);
+    assertThat(workDir.listFiles()).isEmpty();
+  }
+}
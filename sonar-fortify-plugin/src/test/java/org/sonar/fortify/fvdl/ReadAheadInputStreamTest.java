@@ -0,0 +1,101 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class ReadAheadInputStreamTest {
+
+  @Test
+  public void content_is_read_in_order() throws Exception {
+    byte[] content = new byte[100000];
+    new Random(42).nextBytes(content);
+    for (int buffers : new int[] {1, 3}) {
+      for (int bufferSize : new int[] {1, 7, 4096, 200000}) {
+        InputStream input = ReadAheadInputStream.start(new ByteArrayInputStream(content), buffers, bufferSize);
+        try {
+          assertThat(input.read()).isEqualTo(content[0] & 0xFF);
+          byte[] rest = ByteStreams.toByteArray(input);
+          assertThat(rest.length).isEqualTo(content.length - 1);
+          assertThat(rest[0]).isEqualTo(content[1]);
+          assertThat(rest[rest.length - 1]).isEqualTo(content[content.length - 1]);
+          assertThat(input.read()).isEqualTo(-1);
+        } finally {
+          input.close();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void failures_of_the_source_are_thrown_to_the_consumer() throws Exception {
+    InputStream source = new FilterInputStream(new ByteArrayInputStream(new byte[10])) {
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, Math.min(len, 4));
+        if (n < 0) {
+          throw new IOException("broken");
+        }
+        return n;
+      }
+    };
+    InputStream input = ReadAheadInputStream.start(source, 2, 4);
+    try {
+      ByteStreams.toByteArray(input);
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage()).isEqualTo("broken");
+    } finally {
+      input.close();
+    }
+  }
+
+  @Test
+  public void source_is_closed_when_stream_is_closed_early() throws Exception {
+    final CountDownLatch closed = new CountDownLatch(1);
+    InputStream source = new InputStream() {
+      @Override
+      public int read() {
+        return 'a';
+      }
+
+      @Override
+      public void close() {
+        closed.countDown();
+      }
+    };
+    InputStream input = ReadAheadInputStream.start(source, 2, 16);
+    assertThat(input.read()).isEqualTo('a');
+    input.close();
+    assertThat(closed.await(0, TimeUnit.SECONDS)).isTrue();
+  }
+}
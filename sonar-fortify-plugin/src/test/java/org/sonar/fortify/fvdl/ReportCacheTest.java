@@ -0,0 +1,218 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.fortify.fvdl.element.Build;
+import org.sonar.fortify.fvdl.element.Description;
+import org.sonar.fortify.fvdl.element.ReplacementDefinition;
+import org.sonar.fortify.fvdl.element.Vulnerability;
+import org.sonar.fortify.fvdl.element.VulnerabilityClass;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ReportCacheTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private File directory;
+  private File report;
+
+  @Before
+  public void init() throws Exception {
+    this.directory = this.temp.newFolder();
+    this.report = this.temp.newFile("audit.fvdl");
+    Files.write("<FVDL/>", this.report, Charsets.UTF_8);
+  }
+
+  @Test
+  public void recorded_events_are_replayed() throws Exception {
+    ReportCache cache = new ReportCache(this.directory, Long.MAX_VALUE);
+    String key = ReportCache.key(this.report, null);
+    assertThat(cache.replay(key, new EventRecorder(), false)).isFalse();
+
+    EventRecorder expected = new EventRecorder();
+    ReportCache.Recorder recorder = cache.record(key, expected);
+    sendEvents(recorder);
+    recorder.commit();
+    assertThat(cache.getFile(key)).exists();
+    assertThat(this.directory.list()).containsOnly(key + ReportCache.EXTENSION);
+
+    for (boolean reuse : new boolean[] {false, true}) {
+      EventRecorder actual = new EventRecorder();
+      assertThat(cache.replay(key, actual, reuse)).isTrue();
+      assertThat(actual.events).isEqualTo(expected.events);
+      assertThat(actual.instances.size()).isEqualTo(reuse ? 1 : 3);
+    }
+  }
+
+  @Test
+  public void aborted_entries_are_dropped() throws Exception {
+    ReportCache cache = new ReportCache(this.directory, Long.MAX_VALUE);
+    String key = ReportCache.key(this.report, null);
+    ReportCache.Recorder recorder = cache.record(key, new EventRecorder());
+    sendEvents(recorder);
+    recorder.abort();
+    assertThat(this.directory.list()).isEmpty();
+    assertThat(cache.replay(key, new EventRecorder(), false)).isFalse();
+  }
+
+  @Test
+  public void invalid_entries_are_ignored() throws Exception {
+    ReportCache cache = new ReportCache(this.directory, Long.MAX_VALUE);
+    String key = ReportCache.key(this.report, null);
+    Files.write("garbage", cache.getFile(key), Charsets.UTF_8);
+    assertThat(cache.replay(key, new EventRecorder(), false)).isFalse();
+  }
+
+  @Test
+  public void key_depends_on_content_and_filter() throws Exception {
+    String key = ReportCache.key(this.report, null);
+    assertThat(key).hasSize(64);
+    assertThat(ReportCache.key(this.report, null)).isEqualTo(key);
+    assertThat(ReportCache.key(this.report, VulnerabilityFilter.compile("severity>=MAJOR", null))).isNotEqualTo(key);
+    assertThat(ReportCache.key(this.report, null, false)).isNotEqualTo(key);
+    Files.write("<FVDL></FVDL>", this.report, Charsets.UTF_8);
+    assertThat(ReportCache.key(this.report, null)).isNotEqualTo(key);
+  }
+
+  @Test
+  public void least_recently_used_entries_are_evicted() throws Exception {
+    ReportCache cache = new ReportCache(this.directory, 25);
+    File oldest = write("a", 10, 1000L);
+    File used = write("b", 10, 2000L);
+    File recent = write("c", 10, 3000L);
+    cache.evict();
+    assertThat(oldest).doesNotExist();
+    assertThat(used).exists();
+    assertThat(recent).exists();
+
+    // adding an entry evicts the least recently used ones
+    ReportCache.Recorder recorder = cache.record("d", new EventRecorder());
+    recorder.commit();
+    assertThat(used).doesNotExist();
+    assertThat(recent).exists();
+    assertThat(cache.getFile("d")).exists();
+  }
+
+  private File write(String key, int size, long lastModified) throws Exception {
+    File file = new File(this.directory, key + ReportCache.EXTENSION);
+    Files.write(new byte[size], file);
+    assertThat(file.setLastModified(lastModified)).isTrue();
+    return file;
+  }
+
+  private static void sendEvents(ReportCache.Recorder handler) {
+    handler.onBuild(new Build("/base"));
+    VulnerabilityClass vulnerabilityClass = new VulnerabilityClass("ID", "Kingdom", "Type", null);
+    for (int i = 0; i < 3; i++) {
+      Vulnerability vulnerability = new Vulnerability();
+      vulnerability.setOrdinal(i * 2);
+      vulnerability.setVulnerabilityClass(i == 1 ? new VulnerabilityClass("Other", null, null, null) : vulnerabilityClass);
+      vulnerability.setInstanceID("instance" + i);
+      vulnerability.setInstanceSeverity("MAJOR");
+      if (i == 2) {
+        vulnerability.setNodeRef(42);
+      } else {
+        vulnerability.setPath("src/F\u00EFle.java");
+        vulnerability.setLineNumber(i * 100000);
+        vulnerability.setSnippetID("S" + i);
+      }
+      for (int j = 0; j < i; j++) {
+        vulnerability.addReplacementDefinition("Key" + j, "value " + i);
+      }
+      handler.onVulnerability(vulnerability);
+    }
+    Description description = new Description();
+    description.setClassID("ID");
+    description.setAbstract("Abstract");
+    handler.onDescription(description);
+    handler.onDescription(new Description());
+    NodePool nodePool = new NodePool();
+    nodePool.add(42, "src/Node.java", 7, "S42");
+    nodePool.add(3, null, NodePool.NO_LINE, null);
+    handler.onNodePool(nodePool);
+    VulnerabilityRanges ranges = new VulnerabilityRanges("<?xml version=\"1.0\"?>".getBytes(Charsets.US_ASCII));
+    ranges.add(100, 200);
+    ranges.add(200, 5000000000L);
+    handler.onVulnerabilityRanges(ranges);
+  }
+
+  private static class EventRecorder implements NodePoolHandler, VulnerabilityRangeHandler {
+    private final List<String> events = new ArrayList<String>();
+    private final Map<Vulnerability, Boolean> instances = new IdentityHashMap<Vulnerability, Boolean>();
+
+    @Override
+    public void onBuild(Build build) {
+      this.events.add("build|" + build.getSourceBasePath());
+    }
+
+    @Override
+    public void onVulnerability(Vulnerability vulnerability) {
+      this.instances.put(vulnerability, Boolean.TRUE);
+      StringBuilder event = new StringBuilder("vulnerability|").append(vulnerability.getOrdinal()).append('|')
+        .append(vulnerability.getClassID()).append('|')
+        .append(vulnerability.getKingdom()).append('|')
+        .append(vulnerability.getType()).append('|')
+        .append(vulnerability.getSubtype()).append('|')
+        .append(vulnerability.getInstanceID()).append('|')
+        .append(vulnerability.getInstanceSeverity()).append('|')
+        .append(vulnerability.getPath()).append('|')
+        .append(vulnerability.getLine()).append('|')
+        .append(vulnerability.getSnippetID()).append('|')
+        .append(vulnerability.getNodeRef());
+      for (ReplacementDefinition replacementDefinition : vulnerability.getReplacementDefinitions()) {
+        event.append('|').append(replacementDefinition.getKey()).append('=').append(replacementDefinition.getValue());
+      }
+      this.events.add(event.toString());
+    }
+
+    @Override
+    public void onDescription(Description description) {
+      this.events.add("description|" + description.getClassID() + "|" + description.getAbstract());
+    }
+
+    @Override
+    public void onNodePool(NodePool nodePool) {
+      for (int i = 0; i < nodePool.size(); i++) {
+        this.events.add("node|" + nodePool.getId(i) + "|" + nodePool.getPath(i) + "|" + nodePool.getLine(i) + "|" + nodePool.getSnippetID(i));
+      }
+    }
+
+    @Override
+    public void onVulnerabilityRanges(VulnerabilityRanges ranges) {
+      for (int i = 0; i < ranges.size(); i++) {
+        this.events.add("range|" + new String(ranges.getXmlDeclaration(), Charsets.US_ASCII) + "|" + ranges.getStart(i) + "|" + ranges.getEnd(i));
+      }
+    }
+  }
+}
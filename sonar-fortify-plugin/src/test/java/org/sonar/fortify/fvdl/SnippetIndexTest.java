@@ -0,0 +1,90 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.fortify.base.StaxBackend;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SnippetIndexTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void index_and_read_snippets() throws Exception {
+    File file = this.temp.newFile("audit.fvdl");
+    Files.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<FVDL><Vulnerabilities><Vulnerability><!-- <Snippet id=\"comment\"> --></Vulnerability></Vulnerabilities>\n"
+      + "<Snippets>\n"
+      + "<Snippet id=\"A#src/Foo.java:1:3\"><File>src/Foo.java</File><StartLine>1</StartLine><EndLine>3</EndLine>"
+      + "<Text><![CDATA[int a = 1;\n</Snippet><Snippet id=\"cdata\">\nint b = a > 0 ? 1 : 2;]]></Text></Snippet>\n"
+      + "<Snippet id='B&amp;C' kind=\"x\"><Text>bar &lt; baz</Text></Snippet>\n"
+      + "<Snippet id=\"empty\"/>\n"
+      + "<Snippet foo=\"1\" id = \"D\"><Text/></Snippet>\n"
+      + "</Snippets></FVDL>", file, Charsets.UTF_8);
+
+    SnippetIndex index = SnippetIndex.scan(file);
+
+    assertThat(index.size()).isEqualTo(3);
+    assertThat(index.contains("comment")).isFalse();
+    assertThat(index.contains("cdata")).isFalse();
+    assertThat(index.contains("empty")).isFalse();
+    SnippetIndex.Reader reader = index.openReader(StaxBackend.DEFAULT, 16);
+    try {
+      assertThat(reader.read("A#src/Foo.java:1:3")).isEqualTo("int a = 1;\n</Snippet><Snippet id=\"cdata\">\nint b = a > 0 ? 1 : 2;");
+      assertThat(reader.read("B&C")).isEqualTo("bar < baz");
+      assertThat(reader.read("D")).isEmpty();
+      assertThat(reader.read("unknown")).isNull();
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void read_snippets_of_latin1_file() throws Exception {
+    File file = this.temp.newFile("audit.fvdl");
+    Files.write("<?xml version='1.0' encoding='ISO-8859-1'?>\n"
+      + "<FVDL><Snippets><Snippet id=\"A#src/Caf\u00e9.java:1:1\"><Text>String s = \"\u00e9t\u00e9\";</Text></Snippet></Snippets></FVDL>",
+      file, Charsets.ISO_8859_1);
+
+    SnippetIndex.Reader reader = SnippetIndex.scan(file).openReader(StaxBackend.DEFAULT, 16);
+    try {
+      assertThat(reader.read("A#src/Caf\u00e9.java:1:1")).isEqualTo("String s = \"\u00e9t\u00e9\";");
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void no_snippet_in_utf16_file() throws Exception {
+    File file = this.temp.newFile("audit.fvdl");
+    Files.write("\uFEFF<FVDL><Snippets><Snippet id=\"A\"><Text>a</Text></Snippet></Snippets></FVDL>", file, Charsets.UTF_16);
+
+    assertThat(SnippetIndex.scan(file).size()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SpillFileTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void regions_are_allocated_in_doubling_segments() throws Exception {
+    SpillFile file = new SpillFile(this.temp.getRoot());
+    try {
+      ByteBuffer first = file.allocate(1000);
+      ByteBuffer second = file.allocate(1000);
+      assertThat(file.size()).isEqualTo(2000L);
+      assertThat(file.mappedSize()).isEqualTo(SpillFile.MIN_SEGMENT_SIZE);
+      first.put(999, (byte) 1);
+      second.put(0, (byte) 2);
+      assertThat(first.capacity()).isEqualTo(1000);
+      assertThat(first.get(999)).isEqualTo((byte) 1);
+      assertThat(second.get(0)).isEqualTo((byte) 2);
+
+      // 3 more pages fit in the first segment, the next 28 go to segments of 1, 2 and 4 MB
+      for (int i = 0; i < 31; i++) {
+        file.allocate(256 * 1024);
+      }
+      assertThat(file.mappedSize()).isEqualTo(8L * SpillFile.MIN_SEGMENT_SIZE);
+      assertThat(first.get(999)).isEqualTo((byte) 1);
+      assertThat(second.get(0)).isEqualTo((byte) 2);
+    } finally {
+      file.close();
+    }
+  }
+
+  @Test
+  public void segments_are_not_larger_than_maximum() throws Exception {
+    SpillFile file = new SpillFile(this.temp.getRoot());
+    try {
+      file.allocate(SpillFile.MAX_SEGMENT_SIZE);
+      file.allocate(SpillFile.MAX_SEGMENT_SIZE);
+      file.allocate(1);
+      assertThat(file.mappedSize()).isEqualTo(3L * SpillFile.MAX_SEGMENT_SIZE);
+    } finally {
+      file.close();
+    }
+  }
+}
@@ -0,0 +1,265 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.FileSystem;
+import org.sonar.fortify.base.StaxBackend;
+import org.sonar.fortify.fvdl.element.Build;
+import org.sonar.fortify.fvdl.element.Description;
+import org.sonar.fortify.fvdl.element.Vulnerability;
+
+import javax.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TraceDecoderTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private String content;
+
+  @Before
+  public void before() {
+    StringBuilder builder = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<FVDL><Build><SourceBasePath>/base</SourceBasePath></Build><Vulnerabilities>\n");
+    for (int i = 0; i < 10; i++) {
+      builder.append("<Vulnerability><ClassInfo><ClassID>").append(i).append("</ClassID></ClassInfo><AnalysisInfo><Unified><Trace><Primary>");
+      for (int j = 0; j < i % 3 + 1; j++) {
+        builder.append("<Entry><Node><SourceLocation path=\"File").append(j).append(".java\" line=\"").append(i + j).append("\"/></Node></Entry>");
+      }
+      builder.append("<Entry><NodeRef id=\"").append(i).append("\"/></Entry>")
+        .append("</Primary></Trace><Trace><Primary><Entry><Node><SourceLocation path=\"Other.java\" line=\"1\"/></Node></Entry></Primary></Trace>")
+        .append("</Unified></AnalysisInfo></Vulnerability>\n");
+    }
+    builder.append("<Vulnerability><ClassInfo><ClassID>no trace</ClassID></ClassInfo></Vulnerability>\n");
+    builder.append("</Vulnerabilities></FVDL>");
+    this.content = builder.toString();
+  }
+
+  @Test
+  public void decode_traces_of_fvdl_file() throws Exception {
+    File file = this.temp.newFile("audit.fvdl");
+    Files.write(this.content, file, Charsets.UTF_8);
+
+    verifyTraces(newDecoder(file, this.temp.newFolder()));
+  }
+
+  @Test
+  public void decode_traces_of_latin1_fvdl_file() throws Exception {
+    File file = this.temp.newFile("audit.fvdl");
+    Files.write(this.content.replace("encoding=\"UTF-8\"", "encoding=\"ISO-8859-1\"").replace("File1.java", "Fich\u00e9.java"), file, Charsets.ISO_8859_1);
+
+    assertThat(newDecoder(file, this.temp.newFolder()).decode(new int[] {1}, null, null).get(1)).isEqualTo("File0.java:1 -> Fich\u00e9.java:2");
+  }
+
+  @Test
+  public void decode_traces_of_fpr_archive() throws Exception {
+    File fpr = this.temp.newFile("report.fpr");
+    ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(fpr));
+    try {
+      zip.putNextEntry(new ZipEntry("audit.fvdl"));
+      zip.write(this.content.getBytes(Charsets.UTF_8));
+      zip.closeEntry();
+    } finally {
+      zip.close();
+    }
+
+    verifyTraces(newDecoder(fpr, this.temp.newFolder()));
+  }
+
+  @Test
+  public void fpr_archive_is_inflated_once() throws Exception {
+    File fpr = this.temp.newFile("report.fpr");
+    ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(fpr));
+    try {
+      zip.putNextEntry(new ZipEntry("audit.fvdl"));
+      zip.write(this.content.getBytes(Charsets.UTF_8));
+      zip.closeEntry();
+    } finally {
+      zip.close();
+    }
+    File workDir = this.temp.newFolder();
+    TraceDecoder decoder = newDecoder(fpr, workDir);
+
+    verifyTraces(decoder);
+    File[] copies = workDir.listFiles();
+    assertThat(copies).hasSize(1);
+    assertThat(decoder.decode(new int[] {1}, null, null).get(1)).isEqualTo("File0.java:1 -> File1.java:2");
+    assertThat(workDir.listFiles()).containsOnly(copies[0]);
+
+    decoder.close();
+    assertThat(workDir.listFiles()).isEmpty();
+  }
+
+  @Test
+  public void stored_fpr_archive_is_read_in_place() throws Exception {
+    File fpr = this.temp.newFile("report.fpr");
+    byte[] bytes = this.content.getBytes(Charsets.UTF_8);
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(fpr));
+    try {
+      ZipEntry entry = new ZipEntry("audit.fvdl");
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(bytes.length);
+      entry.setCrc(crc.getValue());
+      zip.putNextEntry(entry);
+      zip.write(bytes);
+      zip.closeEntry();
+    } finally {
+      zip.close();
+    }
+    File workDir = this.temp.newFolder();
+
+    verifyTraces(newDecoder(fpr, workDir));
+    assertThat(workDir.listFiles()).isEmpty();
+  }
+
+  @Test
+  public void decode_with_ranges_recorded_by_scanner() throws Exception {
+    File file = this.temp.newFile("audit.fvdl");
+    Files.write(this.content, file, Charsets.UTF_8);
+    final VulnerabilityRanges[] recordedRanges = new VulnerabilityRanges[1];
+    assertThat(new FvdlStAXParser().scan(file, new VulnerabilityRangeHandler() {
+      @Override
+      public void onVulnerabilityRanges(VulnerabilityRanges ranges) {
+        recordedRanges[0] = ranges;
+      }
+
+      @Override
+      public void onBuild(Build build) {
+      }
+
+      @Override
+      public void onVulnerability(Vulnerability vulnerability) {
+      }
+
+      @Override
+      public void onDescription(Description description) {
+      }
+    })).isTrue();
+
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      VulnerabilityRangeScanner scanner = VulnerabilityRangeScanner.scan(randomAccessFile.getChannel());
+      assertThat(recordedRanges[0].size()).isEqualTo(scanner.getVulnerabilityCount()).isEqualTo(11);
+      for (int i = 0; i < scanner.getVulnerabilityCount(); i++) {
+        assertThat(recordedRanges[0].getStart(i)).isEqualTo(scanner.getVulnerabilityStart(i));
+        assertThat(recordedRanges[0].getEnd(i)).isEqualTo(scanner.getVulnerabilityEnd(i));
+      }
+    } finally {
+      randomAccessFile.close();
+    }
+    verifyTraces(newDecoder(file, this.temp.newFolder()), recordedRanges[0]);
+  }
+
+  @Test
+  public void decode_nothing() throws Exception {
+    File file = this.temp.newFile("audit.fvdl");
+    Files.write(this.content, file, Charsets.UTF_8);
+
+    assertThat(newDecoder(file, this.temp.newFolder()).decode(new int[0], null, null)).isEmpty();
+  }
+
+  @Test
+  public void decode_referenced_nodes_from_pool_of_parser() throws Exception {
+    StringBuilder pool = new StringBuilder("<UnifiedNodePool>");
+    for (int id = 0; id < 10; id += 2) {
+      pool.append("<Node id=\"").append(id).append("\"><SourceLocation path=\"Pool").append(id).append(".java\"")
+        .append(id == 4 ? "" : " line=\"" + id * 10 + "\"").append("/></Node>");
+    }
+    File file = this.temp.newFile("audit.fvdl");
+    Files.write(this.content.replace("</FVDL>", pool.append("</UnifiedNodePool></FVDL>").toString()), file, Charsets.UTF_8);
+    final NodePool[] parsedPool = new NodePool[1];
+    InputStream input = new FileInputStream(file);
+    try {
+      new FvdlStAXParser().parse(input, new NodePoolHandler() {
+        @Override
+        public void onNodePool(NodePool nodePool) {
+          parsedPool[0] = nodePool;
+        }
+
+        @Override
+        public void onBuild(Build build) {
+        }
+
+        @Override
+        public void onVulnerability(Vulnerability vulnerability) {
+        }
+
+        @Override
+        public void onDescription(Description description) {
+        }
+      });
+    } finally {
+      input.close();
+    }
+
+    Map<Integer, String> traces = newDecoder(file, this.temp.newFolder()).decode(new int[] {0, 3, 4, 5}, parsedPool[0], null);
+
+    assertThat(traces).hasSize(4);
+    assertThat(traces.get(0)).isEqualTo("File0.java:0 -> Pool0.java:0");
+    // no node 3 in the pool
+    assertThat(traces.get(3)).isEqualTo("File0.java:3");
+    assertThat(traces.get(4)).isEqualTo("File0.java:4 -> File1.java:5 -> Pool4.java");
+    assertThat(traces.get(5)).isEqualTo("File0.java:5 -> File1.java:6 -> File2.java:7");
+  }
+
+  private static void verifyTraces(TraceDecoder decoder) throws Exception {
+    verifyTraces(decoder, null);
+  }
+
+  private static void verifyTraces(TraceDecoder decoder, @Nullable VulnerabilityRanges ranges) throws Exception {
+    Map<Integer, String> traces = decoder.decode(new int[] {5, 0, 10, 4, 5, 42}, null, ranges);
+
+    assertThat(traces).hasSize(3);
+    assertThat(traces.get(0)).isEqualTo("File0.java:0");
+    assertThat(traces.get(4)).isEqualTo("File0.java:4 -> File1.java:5");
+    assertThat(traces.get(5)).isEqualTo("File0.java:5 -> File1.java:6 -> File2.java:7");
+  }
+
+  private static TraceDecoder newDecoder(File report, File workDir) {
+    FortifySensorConfiguration configuration = mock(FortifySensorConfiguration.class);
+    when(configuration.getReportPath()).thenReturn(report.getAbsolutePath());
+    when(configuration.getReadBufferSize()).thenReturn(FortifySensorConfiguration.DEFAULT_READ_BUFFER_SIZE);
+    when(configuration.getStaxBackend()).thenReturn(StaxBackend.DEFAULT);
+    FileSystem fileSystem = mock(FileSystem.class);
+    when(fileSystem.baseDir()).thenReturn(report.getParentFile());
+    return new TraceDecoder(new FortifyReportFile(configuration, fileSystem), configuration, workDir);
+  }
+}
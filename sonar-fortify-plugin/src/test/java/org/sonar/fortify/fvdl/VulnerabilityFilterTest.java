@@ -0,0 +1,120 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import org.junit.Test;
+import org.sonar.api.utils.MessageException;
+import org.sonar.fortify.fvdl.element.VulnerabilityClass;
+
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class VulnerabilityFilterTest {
+  private static final VulnerabilityClass XSS = new VulnerabilityClass("1", "Input Validation and Representation", "Cross-Site Scripting", "Reflected");
+  private static final VulnerabilityClass LEAK = new VulnerabilityClass("2", "Code Quality", "Unreleased Resource", "Database");
+
+  @Test
+  public void accept_everything_by_default() {
+    VulnerabilityFilter filter = VulnerabilityFilter.compile(null, null);
+    assertThat(filter.acceptsClass(XSS)).isTrue();
+    assertThat(filter.acceptsInstance("INFO", "0.5")).isTrue();
+    assertThat(filter.hasPathConditions()).isFalse();
+    assertThat(filter.acceptsPath("src/Foo.java")).isTrue();
+  }
+
+  @Test
+  public void filter_on_active_rules() {
+    VulnerabilityFilter filter = VulnerabilityFilter.compile("", Arrays.asList("code_quality_unreleased_resource_database"));
+    assertThat(filter.acceptsClass(LEAK)).isTrue();
+    assertThat(filter.acceptsClass(XSS)).isFalse();
+    assertThat(filter.acceptsClass(VulnerabilityClass.EMPTY)).isFalse();
+  }
+
+  @Test
+  public void filter_on_kingdom_and_category() {
+    VulnerabilityFilter filter = VulnerabilityFilter.compile("kingdom = input validation and representation|Security Features", null);
+    assertThat(filter.acceptsClass(XSS)).isTrue();
+    assertThat(filter.acceptsClass(LEAK)).isFalse();
+
+    filter = VulnerabilityFilter.compile("category!=Cross-Site Scripting: Reflected", null);
+    assertThat(filter.acceptsClass(XSS)).isFalse();
+    assertThat(filter.acceptsClass(LEAK)).isTrue();
+
+    filter = VulnerabilityFilter.compile("category=Unreleased Resource;kingdom!=Security Features", null);
+    assertThat(filter.acceptsClass(XSS)).isFalse();
+    assertThat(filter.acceptsClass(LEAK)).isTrue();
+  }
+
+  @Test
+  public void filter_on_severity_and_confidence() {
+    VulnerabilityFilter filter = VulnerabilityFilter.compile("severity>=major; confidence>2.5", null);
+    assertThat(filter.acceptsInstance("BLOCKER", "5.0")).isTrue();
+    assertThat(filter.acceptsInstance("MAJOR", "3")).isTrue();
+    assertThat(filter.acceptsInstance("MINOR", "5.0")).isFalse();
+    assertThat(filter.acceptsInstance("CRITICAL", "2.5")).isFalse();
+    // missing values do not reject
+    assertThat(filter.acceptsInstance(null, null)).isTrue();
+
+    filter = VulnerabilityFilter.compile("severity=INFO|MINOR", null);
+    assertThat(filter.acceptsInstance("MINOR", null)).isTrue();
+    assertThat(filter.acceptsInstance("MAJOR", null)).isFalse();
+  }
+
+  @Test
+  public void filter_on_path() {
+    VulnerabilityFilter filter = VulnerabilityFilter.compile("path=src/**/*.java|WebContent/*.jsp;path!=**/test/**", null);
+    assertThat(filter.hasPathConditions()).isTrue();
+    assertThat(filter.acceptsPath("src/Foo.java")).isTrue();
+    assertThat(filter.acceptsPath("src\\org\\Foo.java")).isTrue();
+    assertThat(filter.acceptsPath("WebContent/main.jsp")).isTrue();
+    assertThat(filter.acceptsPath("WebContent/admin/main.jsp")).isFalse();
+    assertThat(filter.acceptsPath("src/test/FooTest.java")).isFalse();
+    assertThat(filter.acceptsPath("src/Foo.js")).isFalse();
+  }
+
+  @Test
+  public void key_identifies_filter() {
+    assertThat(VulnerabilityFilter.compile("severity>=MAJOR", Arrays.asList("b", "a")).getKey())
+      .isEqualTo(VulnerabilityFilter.compile("severity>=MAJOR", Arrays.asList("a", "b")).getKey());
+    assertThat(VulnerabilityFilter.compile("severity>=MAJOR", null).getKey())
+      .isNotEqualTo(VulnerabilityFilter.compile("severity>=MAJOR", Arrays.asList("a")).getKey());
+  }
+
+  @Test(expected = MessageException.class)
+  public void fail_on_unknown_field() {
+    VulnerabilityFilter.compile("rule=foo", null);
+  }
+
+  @Test(expected = MessageException.class)
+  public void fail_on_unsupported_operator() {
+    VulnerabilityFilter.compile("kingdom>=foo", null);
+  }
+
+  @Test(expected = MessageException.class)
+  public void fail_on_unknown_severity() {
+    VulnerabilityFilter.compile("severity>=HIGH", null);
+  }
+
+  @Test(expected = MessageException.class)
+  public void fail_on_invalid_confidence() {
+    VulnerabilityFilter.compile("confidence>=high", null);
+  }
+}
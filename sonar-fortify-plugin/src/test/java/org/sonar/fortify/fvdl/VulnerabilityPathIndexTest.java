@@ -0,0 +1,111 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.fortify.fvdl.element.Vulnerability;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class VulnerabilityPathIndexTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private File base;
+  private final FindingStore findings = new FindingStore();
+  private VulnerabilityPathIndex index;
+
+  @Before
+  public void before() throws Exception {
+    this.base = this.temp.newFolder("project").getCanonicalFile();
+    for (String directory : Arrays.asList("module1/src", "module2/src", "module10")) {
+      new File(this.base, directory).mkdirs();
+    }
+    for (Vulnerability vulnerability : Arrays.asList(
+      vulnerability("1", "module1/src/A.java"),
+      vulnerability("2", "module2/src/B.java"),
+      vulnerability("3", "module1\\src\\C.java"),
+      vulnerability("4", "module10/D.java"),
+      vulnerability("5", "module1/src/A.java"))) {
+      this.findings.add(vulnerability);
+    }
+    this.index = new VulnerabilityPathIndex(this.findings);
+  }
+
+  @Test
+  public void find_vulnerabilities_under_module() {
+    assertThat(ids(this.index.find(this.base.getPath(), new File(this.base, "module1")))).isEqualTo(Arrays.asList("1", "3", "5"));
+    assertThat(ids(this.index.find(this.base.getPath() + "/", new File(this.base, "module2")))).containsOnly("2");
+    assertThat(ids(this.index.find(this.base.getPath(), new File(this.base, "module1/src")))).isEqualTo(Arrays.asList("1", "3", "5"));
+  }
+
+  @Test
+  public void module_without_vulnerabilities() {
+    assertThat(this.index.find(this.base.getPath(), new File(this.base, "module3"))).isEmpty();
+    assertThat(this.index.find(this.base.getPath(), new File(this.base, "module1/src/A.java/foo"))).isEmpty();
+  }
+
+  @Test
+  public void every_vulnerability_when_module_is_not_under_source_base_path() {
+    assertThat(ids(this.index.find(this.base.getPath(), this.base))).isEqualTo(Arrays.asList("1", "2", "3", "4", "5"));
+    assertThat(ids(this.index.find("/elsewhere", new File(this.base, "module1")))).isEqualTo(Arrays.asList("1", "2", "3", "4", "5"));
+    assertThat(ids(this.index.find(null, new File(this.base, "module1")))).isEqualTo(Arrays.asList("1", "2", "3", "4", "5"));
+  }
+
+  @Test
+  public void compare_directories_by_canonical_path_and_regardless_of_case() {
+    assertThat(ids(this.index.find(this.base.getPath() + "/module2/..", new File(this.base, "module1")))).isEqualTo(Arrays.asList("1", "3", "5"));
+    assertThat(ids(this.index.find(this.base.getPath(), new File(this.base, "MODULE1/Src")))).isEqualTo(Arrays.asList("1", "3", "5"));
+  }
+
+  @Test
+  public void paths_missing_under_source_base_path_are_resolved_against_module() {
+    this.findings.add(vulnerability("6", "src/E.java"));
+    this.index = new VulnerabilityPathIndex(this.findings);
+
+    assertThat(ids(this.index.find(this.base.getPath(), new File(this.base, "module2")))).isEqualTo(Arrays.asList("2", "6"));
+  }
+
+  private static Vulnerability vulnerability(String instanceID, String path) {
+    Vulnerability vulnerability = new Vulnerability();
+    vulnerability.setInstanceID(instanceID);
+    vulnerability.setPath(path);
+    return vulnerability;
+  }
+
+  private List<String> ids(int[] indexes) {
+    List<String> ids = new ArrayList<String>();
+    FindingStore.Cursor cursor = this.findings.cursor();
+    for (int index : indexes) {
+      cursor.moveTo(index);
+      ids.add(cursor.getInstanceID());
+    }
+    return ids;
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class VulnerabilityRangeScannerTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void find_vulnerability_ranges() throws Exception {
+    String head = "<?xml version=\"1.0\"?>\n<FVDL xmlns=\"fvdl\"><Build a='<Vulnerabilities>'/>";
+    String first = "<Vulnerability><![CDATA[</Vulnerability>]]><Node/></Vulnerability>";
+    String comment = "<!-- <Vulnerability> --->";
+    String second = "<Vulnerability attr=\"x\"><Vulnerability/></Vulnerability>";
+    String section = "<Vulnerabilities>" + first + comment + second + "</Vulnerabilities>";
+    String content = head + section + "<Description/></FVDL>";
+
+    RandomAccessFile file = new RandomAccessFile(write(content), "r");
+    try {
+      VulnerabilityRangeScanner scanner = VulnerabilityRangeScanner.scan(file.getChannel());
+      assertThat(scanner.hasSection()).isTrue();
+      assertThat(substring(content, scanner.getSectionStart(), scanner.getSectionEnd())).isEqualTo(section);
+      assertThat(scanner.getVulnerabilityCount()).isEqualTo(2);
+      assertThat(substring(content, scanner.getVulnerabilityStart(0), scanner.getVulnerabilityEnd(0))).isEqualTo(first);
+      assertThat(substring(content, scanner.getVulnerabilityStart(1), scanner.getVulnerabilityEnd(1))).isEqualTo(second);
+      assertThat(new String(scanner.getXmlDeclaration(), Charsets.UTF_8)).isEqualTo("<?xml version=\"1.0\"?>");
+    } finally {
+      file.close();
+    }
+  }
+
+  @Test
+  public void no_section() throws Exception {
+    RandomAccessFile file = new RandomAccessFile(write("<FVDL><Build/></FVDL>"), "r");
+    try {
+      VulnerabilityRangeScanner scanner = VulnerabilityRangeScanner.scan(file.getChannel());
+      assertThat(scanner.hasSection()).isFalse();
+      assertThat(scanner.getVulnerabilityCount()).isEqualTo(0);
+      assertThat(scanner.getXmlDeclaration()).isEmpty();
+    } finally {
+      file.close();
+    }
+  }
+
+  @Test
+  public void empty_section() throws Exception {
+    RandomAccessFile file = new RandomAccessFile(write("<FVDL><Vulnerabilities /></FVDL>"), "r");
+    try {
+      VulnerabilityRangeScanner scanner = VulnerabilityRangeScanner.scan(file.getChannel());
+      assertThat(scanner.hasSection()).isTrue();
+      assertThat(scanner.getSectionStart()).isEqualTo(6);
+      assertThat(scanner.getSectionEnd()).isEqualTo(25);
+      assertThat(scanner.getVulnerabilityCount()).isEqualTo(0);
+    } finally {
+      file.close();
+    }
+  }
+
+  private File write(String content) throws Exception {
+    File file = this.temp.newFile();
+    Files.write(content, file, Charsets.UTF_8);
+    return file;
+  }
+
+  private static String substring(String content, long start, long end) {
+    return content.substring((int) start, (int) end);
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl.element;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class DescriptionTemplateTest {
+
+  @Test
+  public void render_replacements() {
+    DescriptionTemplate template = DescriptionTemplate.compile(
+      "The method <Replace key=\"PrimaryLocation.function\"/> in <Replace key=\"PrimaryLocation.file\"/> sends <b>unvalidated</b> data.");
+
+    assertThat(template.render(Arrays.asList(
+      new ReplacementDefinition("PrimaryLocation.function", "_jspService()"),
+      new ReplacementDefinition("PrimaryLocation.file", "main.jsp"))))
+      .isEqualTo("The method _jspService() in main.jsp sends unvalidated data.");
+  }
+
+  @Test
+  public void first_definition_wins_and_unresolved_slots_are_removed() {
+    DescriptionTemplate template = DescriptionTemplate.compile("<Replace key=\"A\"/>-<Replace key=\"B\"/>-<Replace key=\"A\"/>");
+
+    assertThat(template.render(Arrays.asList(new ReplacementDefinition("A", "1"), new ReplacementDefinition("A", "2")))).isEqualTo("1--1");
+  }
+
+  @Test
+  public void values_with_markup() {
+    DescriptionTemplate template = DescriptionTemplate.compile("a <Replace key=\"A\"/> b> c <Replace key=\"B\"/>");
+
+    assertThat(template.render(Arrays.asList(new ReplacementDefinition("A", "x < y"), new ReplacementDefinition("B", "z"))))
+      .isEqualTo("a x  c z");
+    assertThat(template.render(Arrays.asList(new ReplacementDefinition("A", "<Replace key=\"B\"/>"), new ReplacementDefinition("B", "$1\\"))))
+      .isEqualTo("a $1\\ b> c $1\\");
+  }
+
+  @Test
+  public void unclosed_markup_is_kept() {
+    assertThat(DescriptionTemplate.stripMarkup("a < b")).isEqualTo("a < b");
+    assertThat(DescriptionTemplate.stripMarkup("<a<b>c<d")).isEqualTo("c<d");
+    assertThat(DescriptionTemplate.compile("1 <<Replace key=\"A\"/>").render(Arrays.asList(new ReplacementDefinition("A", "2")))).isEqualTo("1 <2");
+  }
+
+  @Test
+  public void same_result_as_regex_substitution() {
+    String[] pieces = {"a", " ", "<", ">", "<b>", "</b>", "<Replace key=\"A\"/>", "<Replace key=\"B\"/>", "<Replace key=\"", "\"/>", "$", "\\"};
+    String[] values = {"", "v", "<", ">", "x<y", "<Replace key=\"B\"/>", "$1", "\\"};
+    Random random = new Random(42);
+    for (int run = 0; run < 5000; run++) {
+      StringBuilder text = new StringBuilder();
+      for (int i = random.nextInt(8); i >= 0; i--) {
+        text.append(pieces[random.nextInt(pieces.length)]);
+      }
+      List<ReplacementDefinition> replacementDefinitions = new ArrayList<ReplacementDefinition>();
+      for (int i = random.nextInt(4); i > 0; i--) {
+        replacementDefinitions.add(new ReplacementDefinition(random.nextBoolean() ? "A" : "B", values[random.nextInt(values.length)]));
+      }
+      assertThat(DescriptionTemplate.compile(text.toString()).render(replacementDefinitions))
+        .as(text + " " + replacementDefinitions)
+        .isEqualTo(substitute(text.toString(), replacementDefinitions));
+    }
+  }
+
+  private static String substitute(String text, Collection<ReplacementDefinition> replacementDefinitions) {
+    String message = text;
+    for (ReplacementDefinition replacementDefinition : replacementDefinitions) {
+      String regex = "<Replace key=\"" + Matcher.quoteReplacement(replacementDefinition.getKey()) + "\"/>";
+      message = message.replaceAll(regex, Matcher.quoteReplacement(replacementDefinition.getValue()));
+    }
+    return message.replaceAll("\\<[^>]*>", "");
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Fortify Plugin for SonarQube
+ * Copyright (C) 2014 Vivien HENRIET and SonarSource
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.fortify.fvdl.element;
+
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class VulnerabilityTest {
+
+  @Test
+  public void reset_reuses_replacement_definitions() {
+    Vulnerability vulnerability = new Vulnerability();
+    vulnerability.setInstanceID("ID");
+    vulnerability.setLine(1234);
+    vulnerability.addReplacementDefinition("Key", "value");
+    ReplacementDefinition replacementDefinition = vulnerability.getReplacementDefinitions().iterator().next();
+    Vulnerability copy = vulnerability.copy();
+
+    vulnerability.reset();
+    assertThat(vulnerability.getInstanceID()).isNull();
+    assertThat(vulnerability.getLine()).isNull();
+    assertThat(vulnerability.getLineNumber()).isEqualTo(Vulnerability.NO_LINE);
+    assertThat(vulnerability.getReplacementDefinitions()).isEmpty();
+
+    vulnerability.addReplacementDefinition("Other", "other value");
+    assertThat(vulnerability.getReplacementDefinitions()).containsOnly(replacementDefinition);
+    assertThat(replacementDefinition.getKey()).isEqualTo("Other");
+    assertThat(replacementDefinition.getValue()).isEqualTo("other value");
+
+    assertThat(copy.getInstanceID()).isEqualTo("ID");
+    assertThat(copy.getLine()).isEqualTo(1234);
+    assertThat(copy.getReplacementDefinitions()).hasSize(1);
+    assertThat(copy.getReplacementDefinitions().iterator().next().getKey()).isEqualTo("Key");
+  }
+}